@@ -0,0 +1,99 @@
+package com.simplelib.image;
+
+import android.graphics.Bitmap;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * An evicted image which is still drawn only enters the pool once its request releases it.
+ * Pooling needs real mutable bitmaps, so this runs on a device.
+ */
+@RunWith(AndroidJUnit4.class)
+public class BitmapPoolReleaseTest {
+    private static final int SIZE = 64;
+
+    @Test
+    public void evictReleaseReuse() throws Exception {
+        BitmapPool pool = new BitmapPool();
+        ImageLoader loader = new ImageLoader();
+        loader.setBitmapPool(pool);
+        loader.setAutoRecycle(true);
+        loader.setImageCapacity(1);
+
+        DecodeRequest first = new DecodeRequest("first");
+        first.setBindImage(true);
+        Bitmap firstImage = load(loader, first);
+        assertNotNull(firstImage);
+        assertTrue(pool.isBound(firstImage));
+
+        // The second image takes the only cache slot, the first one is evicted while still bound
+        DecodeRequest second = new DecodeRequest("second");
+        second.setBindImage(true);
+        assertNotNull(load(loader, second));
+
+        assertFalse(loader.getCache().contains(first.getKey()));
+        assertFalse(firstImage.isRecycled());
+        assertEquals(0, pool.count());
+
+        first.releaseImage();
+        assertFalse(pool.isBound(firstImage));
+        assertEquals(1, pool.count());
+
+        assertSame(firstImage, pool.getDirty(SIZE, SIZE, Bitmap.Config.ARGB_8888));
+        assertEquals(0, pool.count());
+    }
+
+    @Test
+    public void unboundImageIsPooledOnEviction() throws Exception {
+        BitmapPool pool = new BitmapPool();
+        ImageLoader loader = new ImageLoader();
+        loader.setBitmapPool(pool);
+        loader.setAutoRecycle(true);
+        loader.setImageCapacity(1);
+
+        Bitmap firstImage = load(loader, new DecodeRequest("first"));
+        assertFalse(pool.isBound(firstImage));
+
+        load(loader, new DecodeRequest("second"));
+        assertEquals(1, pool.count());
+        assertSame(firstImage, pool.getDirty(SIZE, SIZE, Bitmap.Config.ARGB_8888));
+    }
+
+    private static Bitmap load(ImageLoader loader, DecodeRequest request) throws Exception {
+        loader.request(request);
+        assertTrue(request.finished.await(10, TimeUnit.SECONDS));
+
+        // The cache insert follows onFinish in the same main thread message
+        InstrumentationRegistry.getInstrumentation().waitForIdleSync();
+        return request.delivered;
+    }
+
+    private static final class DecodeRequest extends ImageLoader.ImageRequest {
+        private final CountDownLatch finished = new CountDownLatch(1);
+        private volatile Bitmap delivered;
+
+        private DecodeRequest(String id) {
+            super(id);
+        }
+
+        @Override
+        public Bitmap onLoad() {
+            return Bitmap.createBitmap(SIZE, SIZE, Bitmap.Config.ARGB_8888);
+        }
+
+        @Override
+        public void onFinish(Bitmap image) {
+            delivered = image;
+            finished.countDown();
+        }
+    }
+}
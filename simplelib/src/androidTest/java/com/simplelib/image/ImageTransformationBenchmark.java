@@ -0,0 +1,112 @@
+package com.simplelib.image;
+
+import android.graphics.Bitmap;
+import android.graphics.Color;
+import android.os.Build;
+import android.os.Debug;
+import android.util.Log;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import com.simplelib.tools.ImageTools;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+import static org.junit.Assert.*;
+
+/**
+ * Allocation benchmark of one fused ImageTransformation pass against chaining the static ImageTools steps.
+ * Bitmaps need the framework, so this runs on a device.
+ */
+@RunWith(AndroidJUnit4.class)
+public class ImageTransformationBenchmark {
+    private static final String TAG = "Benchmark";
+
+    private static final int SOURCE_SIZE = 1024;
+    private static final int RUNS = 9;
+
+    @Test
+    public void lowMemoryKeepsTranslucentSources() {
+        Bitmap opaque = Bitmap.createBitmap(64, 64, Bitmap.Config.ARGB_8888);
+        opaque.eraseColor(Color.RED);
+        opaque.setHasAlpha(false);
+
+        Bitmap translucent = Bitmap.createBitmap(64, 64, Bitmap.Config.ARGB_8888);
+        translucent.eraseColor(Color.TRANSPARENT);
+
+        ImageTransformation transformation = new ImageTransformation().crop(32, 32);
+        assertEquals(Bitmap.Config.RGB_565, transformation.apply(opaque, null, Bitmap.Config.RGB_565).getConfig());
+        assertEquals(Bitmap.Config.ARGB_8888, transformation.apply(translucent, null, Bitmap.Config.RGB_565).getConfig());
+    }
+
+    @Test
+    public void fusedAgainstChained() {
+        final Bitmap source = Bitmap.createBitmap(SOURCE_SIZE, SOURCE_SIZE, Bitmap.Config.ARGB_8888);
+        source.eraseColor(Color.BLUE);
+
+        final BitmapPool pool = new BitmapPool();
+        final ImageTransformation transformation = ImageTransformation.cropRound()
+                .border(Color.WHITE, 4)
+                .background(Color.GRAY);
+
+        long chained = measureAllocation("chained ImageTools", new Runnable() {
+            @Override
+            public void run() {
+                // Intermediates are left to the GC, recycling them would hide their pixels from the count
+                Bitmap cropped = ImageTools.cropBitmap(source, true);
+                Bitmap background = ImageTools.addRoundBackground(cropped, Color.GRAY, 0);
+                ImageTools.addRoundBorder(background, Color.GRAY, Color.WHITE, 4);
+            }
+        });
+
+        long fused = measureAllocation("fused ImageTransformation", new Runnable() {
+            @Override
+            public void run() {
+                pool.put(transformation.apply(source, pool));
+            }
+        });
+
+        report("pool reuse rate", String.format(Locale.US, "%.2f", pool.getReuseRate()));
+        assertTrue(fused <= chained);
+    }
+
+    private static long measureAllocation(String name, Runnable body) {
+        // Warms up the pool and the code paths
+        body.run();
+
+        long[] bytes = new long[RUNS];
+        long[] times = new long[RUNS];
+        for (int i = 0; i < RUNS; i++) {
+            Runtime.getRuntime().gc();
+
+            long before = allocatedBytes();
+            long start = System.nanoTime();
+            body.run();
+            times[i] = System.nanoTime() - start;
+            bytes[i] = Math.max(allocatedBytes() - before, 0);
+        }
+        Arrays.sort(bytes);
+        Arrays.sort(times);
+
+        long medianBytes = bytes[RUNS / 2];
+        report(name, String.format(Locale.US, "%d KiB, %.3f ms", medianBytes / 1024, times[RUNS / 2] / 1e6));
+        return medianBytes;
+    }
+
+    private static long allocatedBytes() {
+        // Pixels live on the native heap since Oreo and on the Java heap before
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O)
+            return Debug.getNativeHeapAllocatedSize();
+
+        Runtime runtime = Runtime.getRuntime();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private static void report(String name, String result) {
+        Log.i(TAG, "[benchmark] " + name + ": " + result);
+    }
+}
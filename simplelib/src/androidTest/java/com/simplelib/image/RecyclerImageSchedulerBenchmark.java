@@ -0,0 +1,172 @@
+package com.simplelib.image;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.util.Log;
+import android.view.View;
+import android.view.ViewGroup;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.recyclerview.widget.LinearLayoutManager;
+import androidx.recyclerview.widget.RecyclerView;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import com.simplelib.adapter.SimpleRecyclerAdapter;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+import static org.junit.Assert.*;
+
+/**
+ * Counts bind-time cache misses while a list scrolls at a steady speed, with and without prefetching.
+ * Decodes are simulated with a fixed delay, so the result only depends on the scheduling.
+ */
+@RunWith(AndroidJUnit4.class)
+public class RecyclerImageSchedulerBenchmark {
+    private static final String TAG = "Benchmark";
+
+    private static final int ITEM_COUNT = 1000;
+    private static final int ITEM_HEIGHT = 200;
+    private static final int VIEW_WIDTH = 1080;
+    private static final int VIEW_HEIGHT = 1920;
+
+    private static final int FRAMES = 300;
+    private static final int FRAME_DELTA = 60;
+    private static final long FRAME_MILLIS = 16L;
+    private static final long DECODE_MILLIS = 40L;
+
+    @Test
+    public void bindMissesWithAndWithoutPrefetch() throws Exception {
+        RecyclerImageScheduler withoutPrefetch = scroll(0);
+        RecyclerImageScheduler withPrefetch = scroll(RecyclerImageScheduler.DEFAULT_PREFETCH_DISTANCE);
+
+        report("without prefetch", withoutPrefetch);
+        report("with prefetch", withPrefetch);
+
+        assertTrue(withoutPrefetch.getBindMissCount() > 0);
+        assertTrue(withPrefetch.getBindMissCount() <= withoutPrefetch.getBindMissCount());
+    }
+
+    private static RecyclerImageScheduler scroll(int prefetchDistance) throws Exception {
+        final Context context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+
+        final ImageLoader loader = new ImageLoader();
+        final RecyclerImageScheduler scheduler = new RecyclerImageScheduler(loader);
+        scheduler.setPrefetchDistance(prefetchDistance);
+
+        final RecyclerView[] recyclerView = new RecyclerView[1];
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                List<Integer> list = new ArrayList<>();
+                for (int i = 0; i < ITEM_COUNT; i++)
+                    list.add(i);
+
+                BenchmarkAdapter adapter = new BenchmarkAdapter(list, scheduler);
+                adapter.setImageScheduler(scheduler);
+
+                recyclerView[0] = new RecyclerView(context);
+                recyclerView[0].setLayoutManager(new LinearLayoutManager(context));
+                recyclerView[0].setAdapter(adapter);
+                recyclerView[0].measure(View.MeasureSpec.makeMeasureSpec(VIEW_WIDTH, View.MeasureSpec.EXACTLY),
+                        View.MeasureSpec.makeMeasureSpec(VIEW_HEIGHT, View.MeasureSpec.EXACTLY));
+                recyclerView[0].layout(0, 0, VIEW_WIDTH, VIEW_HEIGHT);
+
+                // Only the rows scrolled into view are measured
+                scheduler.resetStatistics();
+            }
+        });
+
+        // Frames are posted one by one, so finished decodes are delivered in between
+        for (int frame = 0; frame < FRAMES; frame++) {
+            InstrumentationRegistry.getInstrumentation().runOnMainSync(new Runnable() {
+                @Override
+                public void run() {
+                    recyclerView[0].scrollBy(0, FRAME_DELTA);
+                }
+            });
+            Thread.sleep(FRAME_MILLIS);
+        }
+
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                recyclerView[0].setAdapter(null);
+                loader.stopAll();
+            }
+        });
+        return scheduler;
+    }
+
+    private static void report(String name, RecyclerImageScheduler scheduler) {
+        Log.i(TAG, String.format(Locale.US, "[benchmark] %s: %d bind misses, %d hits, hit ratio %.2f, %d prefetches, %d cancelled",
+                name,
+                scheduler.getBindMissCount(),
+                scheduler.getBindHitCount(),
+                scheduler.getBindHitRatio(),
+                scheduler.getPrefetchCount(),
+                scheduler.getPrefetchCancelCount()));
+    }
+
+    private static final class BenchmarkAdapter extends SimpleRecyclerAdapter<Integer, Void> {
+        private final RecyclerImageScheduler scheduler;
+
+        private BenchmarkAdapter(List<Integer> list, RecyclerImageScheduler scheduler) {
+            super(list);
+            this.scheduler = scheduler;
+
+            setProvider(new Provider<Integer, Void>() {
+                @Nullable
+                @Override
+                public Void provide(Integer value, int pos) {
+                    return null;
+                }
+
+                @Nullable
+                @Override
+                public ImageLoader.ImageRequest prefetch(Integer value) {
+                    return new DelayedRequest(value);
+                }
+            });
+        }
+
+        @NonNull
+        @Override
+        protected View createView(@NonNull ViewGroup parent, int viewType) {
+            View view = new View(parent.getContext());
+            view.setLayoutParams(new RecyclerView.LayoutParams(ViewGroup.LayoutParams.MATCH_PARENT, ITEM_HEIGHT));
+            return view;
+        }
+
+        @Override
+        protected void bindView(@NonNull ViewHolder holder, Integer value, @Nullable Void element, int pos) {
+            scheduler.request(holder, new DelayedRequest(value));
+        }
+    }
+
+    private static final class DelayedRequest extends ImageLoader.ImageRequest {
+        private DelayedRequest(int value) {
+            super("item" + value);
+        }
+
+        @Override
+        public Bitmap onLoad() {
+            try {
+                Thread.sleep(DECODE_MILLIS);
+            } catch (InterruptedException e) {
+            }
+            return Bitmap.createBitmap(8, 8, Bitmap.Config.ARGB_8888);
+        }
+
+        @Override
+        public void onFinish(Bitmap image) {
+        }
+    }
+}
@@ -0,0 +1,309 @@
+/*
+ * Copyright (c) 2020 ProDev+ (Pascal Gerner).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.simplelib.adapter;
+
+import androidx.recyclerview.widget.ListUpdateCallback;
+import androidx.recyclerview.widget.RecyclerView;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+public final class ListDiff {
+    private static final int OP_REMOVE = 0;
+    private static final int OP_MOVE = 1;
+    private static final int OP_INSERT = 2;
+
+    private int[] ops;
+    private int opCount;
+
+    private int removeCount;
+    private int moveCount;
+    private int insertCount;
+
+    private ListDiff() {
+        this.ops = new int[3 * 8];
+    }
+
+    public static <V> ListDiff calculate(List<? extends V> oldList, List<? extends V> newList) {
+        ListDiff diff = new ListDiff();
+        diff.compute(oldList != null ? oldList : new ArrayList<V>(), newList != null ? newList : new ArrayList<V>());
+        return diff;
+    }
+
+    public boolean isEmpty() {
+        return opCount == 0;
+    }
+
+    public int getRemoveCount() {
+        return removeCount;
+    }
+
+    public int getMoveCount() {
+        return moveCount;
+    }
+
+    public int getInsertCount() {
+        return insertCount;
+    }
+
+    public void dispatchUpdatesTo(final RecyclerView.Adapter<?> adapter) {
+        if (adapter == null)
+            return;
+
+        dispatchUpdatesTo(new ListUpdateCallback() {
+            @Override
+            public void onInserted(int position, int count) {
+                adapter.notifyItemRangeInserted(position, count);
+            }
+
+            @Override
+            public void onRemoved(int position, int count) {
+                adapter.notifyItemRangeRemoved(position, count);
+            }
+
+            @Override
+            public void onMoved(int fromPosition, int toPosition) {
+                adapter.notifyItemMoved(fromPosition, toPosition);
+            }
+
+            @Override
+            public void onChanged(int position, int count, Object payload) {
+                adapter.notifyItemRangeChanged(position, count, payload);
+            }
+        });
+    }
+
+    public void dispatchUpdatesTo(ListUpdateCallback callback) {
+        if (callback == null)
+            return;
+
+        for (int i = 0; i < opCount; i++) {
+            int type = ops[i * 3];
+            int first = ops[i * 3 + 1];
+            int second = ops[i * 3 + 2];
+
+            switch (type) {
+                case OP_REMOVE:
+                    callback.onRemoved(first, second);
+                    break;
+                case OP_MOVE:
+                    callback.onMoved(first, second);
+                    break;
+                case OP_INSERT:
+                    callback.onInserted(first, second);
+                    break;
+            }
+        }
+    }
+
+    private <V> void compute(List<? extends V> oldList, List<? extends V> newList) {
+        int oldSize = oldList.size();
+        int newSize = newList.size();
+
+        //Index the new positions of every item, equal items are matched in order
+        HashMap<V, ArrayDeque<Integer>> newPositions = new HashMap<>(Math.max(newSize * 4 / 3 + 1, 16));
+        for (int pos = 0; pos < newSize; pos++) {
+            V item = newList.get(pos);
+            ArrayDeque<Integer> positions = newPositions.get(item);
+            if (positions == null) {
+                positions = new ArrayDeque<>(1);
+                newPositions.put(item, positions);
+            }
+            positions.addLast(pos);
+        }
+
+        int[] targets = new int[oldSize];
+        boolean[] matched = new boolean[newSize];
+        int keptCount = 0;
+        for (int pos = 0; pos < oldSize; pos++) {
+            ArrayDeque<Integer> positions = newPositions.get(oldList.get(pos));
+            Integer target = positions != null ? positions.pollFirst() : null;
+            targets[pos] = target != null ? target : -1;
+            if (target != null) {
+                matched[target] = true;
+                keptCount++;
+            }
+        }
+
+        //Removals, back to front so earlier positions stay valid
+        int pos = oldSize - 1;
+        while (pos >= 0) {
+            if (targets[pos] >= 0) {
+                pos--;
+                continue;
+            }
+
+            int end = pos;
+            while (pos >= 0 && targets[pos] < 0)
+                pos--;
+            addOp(OP_REMOVE, pos + 1, end - pos);
+            removeCount += end - pos;
+        }
+
+        int[] kept = new int[keptCount];
+        int index = 0;
+        for (int target : targets)
+            if (target >= 0)
+                kept[index++] = target;
+
+        //Items on the longest increasing run stay, every other kept item moves once
+        boolean[] stable = findLongestIncreasing(kept);
+        if (!allTrue(stable))
+            computeMoves(kept, stable, newSize);
+
+        //Insertions, front to back over the final order
+        pos = 0;
+        while (pos < newSize) {
+            if (matched[pos]) {
+                pos++;
+                continue;
+            }
+
+            int start = pos;
+            while (pos < newSize && !matched[pos])
+                pos++;
+            addOp(OP_INSERT, start, pos - start);
+            insertCount += pos - start;
+        }
+    }
+
+    private void computeMoves(int[] kept, boolean[] stable, int newSize) {
+        int size = kept.length;
+
+        //Kept item at every new position, inserted positions stay -1
+        int[] byTarget = new int[newSize];
+        Arrays.fill(byTarget, -1);
+        for (int i = 0; i < size; i++)
+            byTarget[kept[i]] = i;
+
+        //Items are placed from the back, each moved item lands right before the last stable or moved one.
+        //Grouping them by that anchor first gives every item its final slot before any position is counted.
+        int[] anchors = new int[size];
+        int[] ranks = new int[size];
+        int[] groupSizes = new int[size + 1];
+        int anchor = size;
+        for (int target = newSize - 1; target >= 0; target--) {
+            int item = byTarget[target];
+            if (item < 0)
+                continue;
+
+            if (stable[item]) {
+                anchor = item;
+                continue;
+            }
+
+            anchors[item] = anchor;
+            ranks[item] = ++groupSizes[anchor];
+        }
+
+        //Each group holds its moved items, the latest first, followed by the item that started it
+        int[] groupStarts = new int[size + 1];
+        int slotCount = 0;
+        for (int group = 0; group <= size; group++) {
+            groupStarts[group] = slotCount;
+            slotCount += groupSizes[group] + (group < size ? 1 : 0);
+        }
+
+        //Positions are counts of occupied slots, kept in a Fenwick tree
+        int[] tree = new int[slotCount + 1];
+        for (int item = 0; item < size; item++)
+            addSlot(tree, groupStarts[item] + groupSizes[item], 1);
+
+        for (int target = newSize - 1; target >= 0; target--) {
+            int item = byTarget[target];
+            if (item < 0 || stable[item])
+                continue;
+
+            int fromSlot = groupStarts[item] + groupSizes[item];
+            int from = countSlots(tree, fromSlot);
+            addSlot(tree, fromSlot, -1);
+
+            int toSlot = groupStarts[anchors[item]] + groupSizes[anchors[item]] - ranks[item];
+            int to = countSlots(tree, toSlot);
+            addSlot(tree, toSlot, 1);
+
+            if (from != to) {
+                addOp(OP_MOVE, from, to);
+                moveCount++;
+            }
+        }
+    }
+
+    private static void addSlot(int[] tree, int slot, int delta) {
+        for (int i = slot + 1; i < tree.length; i += i & -i)
+            tree[i] += delta;
+    }
+
+    private static int countSlots(int[] tree, int slot) {
+        int count = 0;
+        for (int i = slot; i > 0; i -= i & -i)
+            count += tree[i];
+        return count;
+    }
+
+    private static boolean[] findLongestIncreasing(int[] values) {
+        int size = values.length;
+        boolean[] result = new boolean[size];
+        if (size == 0)
+            return result;
+
+        int[] tails = new int[size];
+        int[] previous = new int[size];
+        int length = 0;
+
+        for (int i = 0; i < size; i++) {
+            int low = 0;
+            int high = length;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (values[tails[mid]] < values[i])
+                    low = mid + 1;
+                else
+                    high = mid;
+            }
+
+            previous[i] = low > 0 ? tails[low - 1] : -1;
+            tails[low] = i;
+            if (low == length)
+                length++;
+        }
+
+        for (int i = tails[length - 1]; i >= 0; i = previous[i])
+            result[i] = true;
+        return result;
+    }
+
+    private static boolean allTrue(boolean[] values) {
+        for (boolean value : values)
+            if (!value)
+                return false;
+        return true;
+    }
+
+    private void addOp(int type, int first, int second) {
+        if (opCount * 3 + 3 > ops.length)
+            ops = Arrays.copyOf(ops, ops.length * 2);
+
+        ops[opCount * 3] = type;
+        ops[opCount * 3 + 1] = first;
+        ops[opCount * 3 + 2] = second;
+        opCount++;
+    }
+}
@@ -27,6 +27,10 @@ import android.view.View;
 import android.view.ViewGroup;
 import android.view.ViewTreeObserver;
 
+import com.simplelib.image.ImageLoader;
+import com.simplelib.image.RecyclerImageScheduler;
+import com.simplelib.loader.PagedList;
+
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
@@ -41,22 +45,54 @@ public abstract class SimpleRecyclerAdapter<V, E> extends RecyclerView.Adapter<S
     private List<V> list;
     private Provider<V, E> provider;
 
+    private RecyclerImageScheduler imageScheduler;
+
+    private final PagedList.Callback pagedCallback = new PagedList.Callback() {
+        @Override
+        public void onItemRangeChanged(int start, int count) {
+            notifyItemRangeChanged(start, count);
+        }
+
+        @Override
+        public void onItemRangeInserted(int start, int count) {
+            notifyItemRangeInserted(start, count);
+        }
+
+        @Override
+        public void onItemRangeRemoved(int start, int count) {
+            notifyItemRangeRemoved(start, count);
+        }
+    };
+
     public SimpleRecyclerAdapter() {
         this.list = new ArrayList<>();
     }
 
     public SimpleRecyclerAdapter(List<V> list) {
         if (list != null)
-            this.list = list;
+            attachList(list);
         else
             this.list = new ArrayList<>();
     }
 
+    private void attachList(List<V> list) {
+        if (this.list == list)
+            return;
+
+        if (this.list instanceof PagedList)
+            ((PagedList<V>) this.list).removeCallback(pagedCallback);
+
+        this.list = list;
+
+        if (list instanceof PagedList)
+            ((PagedList<V>) list).addCallback(pagedCallback);
+    }
+
     public void applyTo(SimpleRecyclerAdapter<V, E> src) {
         try {
             if (src != null) {
-                if (src.list == null)
-                    src.list = new ArrayList<>();
+                if (src.list == null || !src.isListMutable())
+                    src.attachList(new ArrayList<V>());
                 src.list.clear();
                 if (list != null)
                     src.list.addAll(list);
@@ -76,8 +112,8 @@ public abstract class SimpleRecyclerAdapter<V, E> extends RecyclerView.Adapter<S
     public void applyTo(SimpleRecyclerAdapter<V, E> src, boolean update) {
         try {
             if (src != null) {
-                if (src.list == null)
-                    src.list = new ArrayList<>();
+                if (src.list == null || !src.isListMutable())
+                    src.attachList(new ArrayList<V>());
                 src.list.clear();
                 if (list != null)
                     src.list.addAll(list);
@@ -102,7 +138,7 @@ public abstract class SimpleRecyclerAdapter<V, E> extends RecyclerView.Adapter<S
     public void setList(List<V> list) {
         if (list == null)
             list = new ArrayList<>();
-        this.list = list;
+        attachList(list);
 
         notifyDataSetChanged();
     }
@@ -110,7 +146,7 @@ public abstract class SimpleRecyclerAdapter<V, E> extends RecyclerView.Adapter<S
     public void setList(List<V> list, boolean update) {
         if (list == null)
             list = new ArrayList<>();
-        this.list = list;
+        attachList(list);
 
         if (update)
             notifyDataSetChanged();
@@ -133,7 +169,15 @@ public abstract class SimpleRecyclerAdapter<V, E> extends RecyclerView.Adapter<S
             notifyDataSetChanged();
     }
 
+    public boolean isListMutable() {
+        // Paged lists are filled by their source only
+        return !(list instanceof PagedList);
+    }
+
     public void add(V value) {
+        if (!isListMutable())
+            return;
+
         try {
             if (list != null) {
                 list.add(value);
@@ -144,6 +188,9 @@ public abstract class SimpleRecyclerAdapter<V, E> extends RecyclerView.Adapter<S
     }
 
     public void add(int index, V value) {
+        if (!isListMutable())
+            return;
+
         try {
             if (list != null) {
                 list.add(index, value);
@@ -180,6 +227,9 @@ public abstract class SimpleRecyclerAdapter<V, E> extends RecyclerView.Adapter<S
     }
 
     public void move(int posFrom, int posTo) {
+        if (!isListMutable())
+            return;
+
         try {
             if (posFrom >= 0 && posTo >= 0 && posFrom < list.size() && posTo < list.size() && posFrom != posTo) {
                 swapList(list, posFrom, posTo);
@@ -194,6 +244,9 @@ public abstract class SimpleRecyclerAdapter<V, E> extends RecyclerView.Adapter<S
     }
 
     public void remove(V value) {
+        if (!isListMutable())
+            return;
+
         try {
             int pos = list.indexOf(value);
 
@@ -206,6 +259,9 @@ public abstract class SimpleRecyclerAdapter<V, E> extends RecyclerView.Adapter<S
     }
 
     public void remove(int pos) {
+        if (!isListMutable())
+            return;
+
         try {
             if (pos >= 0 && pos < list.size()) {
                 list.remove(pos);
@@ -216,6 +272,9 @@ public abstract class SimpleRecyclerAdapter<V, E> extends RecyclerView.Adapter<S
     }
 
     public void clear() {
+        if (!isListMutable())
+            return;
+
         try {
             list.clear();
             notifyDataSetChanged();
@@ -224,6 +283,9 @@ public abstract class SimpleRecyclerAdapter<V, E> extends RecyclerView.Adapter<S
     }
 
     public void sort(Comparator<? super V> comparator, boolean update) {
+        if (!isListMutable())
+            return;
+
         try {
             if (comparator != null) {
                 Collections.sort(list, comparator);
@@ -243,6 +305,32 @@ public abstract class SimpleRecyclerAdapter<V, E> extends RecyclerView.Adapter<S
         notifyDataSetChanged();
     }
 
+    public RecyclerImageScheduler getImageScheduler() {
+        return imageScheduler;
+    }
+
+    public void setImageScheduler(RecyclerImageScheduler imageScheduler) {
+        if (this.imageScheduler != null)
+            this.imageScheduler.detach();
+
+        this.imageScheduler = imageScheduler;
+
+        if (imageScheduler != null && recyclerView != null)
+            imageScheduler.attach(recyclerView);
+    }
+
+    @Nullable
+    public ImageLoader.ImageRequest prefetch(int pos) {
+        try {
+            V value = getAtAdapterPos(pos);
+            if (provider != null && value != null)
+                return provider.prefetch(value);
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+        return null;
+    }
+
     public Context getContext() {
         return context;
     }
@@ -342,9 +430,28 @@ public abstract class SimpleRecyclerAdapter<V, E> extends RecyclerView.Adapter<S
         if (recyclerView != null) {
             this.recyclerView = recyclerView;
             this.context = recyclerView.getContext();
+
+            if (imageScheduler != null)
+                imageScheduler.attach(recyclerView);
         }
     }
 
+    @Override
+    public void onDetachedFromRecyclerView(@NonNull RecyclerView recyclerView) {
+        super.onDetachedFromRecyclerView(recyclerView);
+
+        if (imageScheduler != null && imageScheduler.getRecyclerView() == recyclerView)
+            imageScheduler.detach();
+    }
+
+    @Override
+    public void onViewRecycled(@NonNull ViewHolder holder) {
+        super.onViewRecycled(holder);
+
+        if (imageScheduler != null)
+            imageScheduler.recycle(holder);
+    }
+
     @NonNull
     @Override
     public ViewHolder onCreateViewHolder(@NonNull ViewGroup parent, int viewType) {
@@ -552,6 +659,11 @@ public abstract class SimpleRecyclerAdapter<V, E> extends RecyclerView.Adapter<S
     public interface Provider<V, R> {
         @Nullable R provide(V value, int pos);
 
+        @Nullable
+        default ImageLoader.ImageRequest prefetch(V value) {
+            return null;
+        }
+
         default Provider<V, R> get() {
             return this;
         }
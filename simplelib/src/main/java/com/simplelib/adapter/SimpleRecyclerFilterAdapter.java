@@ -18,19 +18,46 @@ package com.simplelib.adapter;
 
 import androidx.recyclerview.widget.RecyclerView;
 
+import com.simplelib.concurrent.task.Executable;
+import com.simplelib.concurrent.task.Task;
+import com.simplelib.concurrent.task.async.AsyncTaskStack;
+import com.simplelib.concurrent.util.ExecutorHelper;
 import com.simplelib.container.SimpleFilter;
 
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public abstract class SimpleRecyclerFilterAdapter<V, E> extends SimpleRecyclerAdapter<V, E> {
+    //Items per chunk below which parallel filtering is not worth the hand-off
+    private static final int MIN_FILTER_CHUNK = 512;
+    //Items between two cancellation checks
+    private static final int CANCEL_CHECK_INTERVAL = 64;
+
+    //Filtering has its own threads, a long refilter must not hold up list loads, image loads or tile decodes
+    public static final int DEFAULT_FILTER_POOL_SIZE = Math.max(1, Math.min(Runtime.getRuntime().availableProcessors() - 1, 2));
+    public static final long DEFAULT_FILTER_KEEP_ALIVE_TIME = 10L * 1000L;
+
+    private static Executor defaultFilterExecutor;
+
     private SimpleFilter<V, E> filter;
 
     private List<V> unfilteredList;
     private List<V> filteredList;
 
+    //Async filtering
+    private boolean asyncFilter;
+    private AsyncTaskStack filterStack;
+    private int filterParallelism;
+
+    private int filterGeneration;
+    private int appliedGeneration;
+    private int filteredVersion;
+
     public SimpleRecyclerFilterAdapter() {
         this (null);
     }
@@ -58,6 +85,9 @@ public abstract class SimpleRecyclerFilterAdapter<V, E> extends SimpleRecyclerAd
     private void init() {
         unfilteredList = new ArrayList<>();
         filteredList = new ArrayList<>();
+
+        asyncFilter = false;
+        filterParallelism = 1;
     }
 
     public SimpleFilter<V, E> applyFilter() {
@@ -200,8 +230,10 @@ public abstract class SimpleRecyclerFilterAdapter<V, E> extends SimpleRecyclerAd
                 int indexFrom = filteredList.indexOf(valueFrom);
                 int indexTo = filteredList.indexOf(valueTo);
 
-                if (indexFrom >= 0 && indexTo >= 0 && indexFrom < filteredList.size() && indexTo < filteredList.size())
+                if (indexFrom >= 0 && indexTo >= 0 && indexFrom < filteredList.size() && indexTo < filteredList.size()) {
+                    filteredVersion++;
                     super.move(indexFrom, indexTo);
+                }
             }
         } catch (Exception e) {
         }
@@ -257,7 +289,16 @@ public abstract class SimpleRecyclerFilterAdapter<V, E> extends SimpleRecyclerAd
         } catch (Exception e) {
         }
 
+        if (asyncFilter) {
+            filterAsync();
+            return;
+        }
+
+        //A synchronous pass supersedes every pending background pass
+        appliedGeneration = ++filterGeneration;
+
         try {
+            filteredVersion++;
             filteredList.clear();
 
             if (filter != null) {
@@ -331,95 +372,258 @@ public abstract class SimpleRecyclerFilterAdapter<V, E> extends SimpleRecyclerAd
         } catch (Exception e) {
         }
 
+        if (asyncFilter) {
+            filterAsync();
+            return;
+        }
+
+        appliedGeneration = ++filterGeneration;
+
         try {
+            List<V> newList = new ArrayList<>(unfilteredList.size());
             for (V item : unfilteredList) {
-                boolean add = true;
-                if (filter != null) add = filter.filter(item);
-
-                if (add && !filteredList.contains(item))
-                    addItemToList(item);
-                else if (!add && filteredList.contains(item))
-                    removeItemFromList(item);
-                else if (filteredList.contains(item))
-                    moveItemInList(item);
+                try {
+                    boolean add = filter == null || filter.filter(item);
+                    if (add) newList.add(item);
+                } catch (Exception e) {
+                }
             }
+
+            applyFilteredList(newList, ListDiff.calculate(filteredList, newList));
         } catch (Exception e) {
         }
+    }
+
+    private void filterAsync() {
+        final SimpleFilter<V, E> filter = this.filter;
+
+        //Snapshots are taken on the calling thread, the worker never touches the live lists
+        final List<V> source = new ArrayList<>(unfilteredList);
+        final List<V> current = new ArrayList<>(filteredList);
+
+        final int generation = ++filterGeneration;
+        final int version = filteredVersion;
+        final int parallelism = filterParallelism;
 
         try {
-            List<V> removeList = new ArrayList<>();
-            for (V item : filteredList) {
-                if (!unfilteredList.contains(item))
-                    removeList.add(item);
-            }
-            for (V removeItem : removeList)
-                super.remove(removeItem);
-            removeList.clear();
+            AsyncTaskStack stack = getFilterTaskStack();
+            final Executor executor = stack.mExecutor;
+
+            stack.execute(new Executable<Task>() {
+                @Override
+                public Runnable execute(final Task task) throws Exception {
+                    final List<V> newList = filterList(source, filter, task, executor, parallelism);
+                    if (newList == null || task.isCanceled())
+                        return null;
+
+                    final ListDiff diff = ListDiff.calculate(current, newList);
+                    if (task.isCanceled())
+                        return null;
+
+                    return new Runnable() {
+                        @Override
+                        public void run() {
+                            onFilterResult(generation, version, newList, diff);
+                        }
+                    };
+                }
+            });
+            stack.cancelPrevious();
         } catch (Exception e) {
+            //No worker available, filter in place
+            appliedGeneration = generation;
+
+            List<V> newList = filterList(source, filter, null, null, 1);
+            if (newList != null)
+                applyFilteredList(newList, ListDiff.calculate(filteredList, newList));
         }
     }
 
-    private void addItemToList(V item) {
-        V insertAfter = null;
+    private synchronized void onFilterResult(int generation, int version, List<V> newList, ListDiff diff) {
+        //A newer pass was started in the meantime
+        if (generation != filterGeneration)
+            return;
+        appliedGeneration = generation;
+
+        try {
+            //The visible list changed since the snapshot, so the precomputed diff is stale
+            if (version != filteredVersion)
+                diff = ListDiff.calculate(filteredList, newList);
 
-        for (V checkItem : unfilteredList) {
-            boolean equalItem = item.equals(checkItem);
-            if (!equalItem && filteredList.contains(checkItem))
-                insertAfter = checkItem;
-            else if (equalItem)
-                break;
+            applyFilteredList(newList, diff);
+        } catch (Exception e) {
         }
+    }
 
-        try {
-            if (insertAfter == null && filteredList.size() <= 0)
-                super.add(item);
-            else if (insertAfter == null && filteredList.size() > 0)
-                super.add(0, item);
-            else if (insertAfter != null) {
-                int insertAfterPos = filteredList.indexOf(insertAfter);
-
-                if (insertAfterPos >= 0) {
-                    int index = insertAfterPos + 1;
-                    if (index < filteredList.size())
-                        super.add(index, item);
-                    else
-                        super.add(item);
+    protected synchronized boolean insertFilteredItems(int pos, List<V> items) {
+        if (items == null || pos < 0 || pos > filteredList.size())
+            return false;
+        if (items.isEmpty())
+            return true;
+
+        //Pending passes were computed against the old list
+        appliedGeneration = ++filterGeneration;
+        filteredVersion++;
+
+        filteredList.addAll(pos, items);
+        notifyItemRangeInserted(pos, items.size());
+        return true;
+    }
+
+    protected synchronized boolean removeFilteredItems(int pos, int count) {
+        if (pos < 0 || count < 0 || pos + count > filteredList.size())
+            return false;
+        if (count == 0)
+            return true;
+
+        appliedGeneration = ++filterGeneration;
+        filteredVersion++;
+
+        filteredList.subList(pos, pos + count).clear();
+        notifyItemRangeRemoved(pos, count);
+        return true;
+    }
+
+    private void applyFilteredList(List<V> newList, ListDiff diff) {
+        filteredVersion++;
+        filteredList.clear();
+        filteredList.addAll(newList);
+
+        diff.dispatchUpdatesTo(this);
+    }
+
+    private static <V, E> List<V> filterList(final List<V> source, final SimpleFilter<V, E> filter, final Task task,
+                                             Executor executor, int parallelism) {
+        if (filter == null)
+            return new ArrayList<>(source);
+
+        final int size = source.size();
+        final boolean[] keep = new boolean[size];
+
+        final int chunkCount = Math.min(Math.max(parallelism, 1), Math.max(size / MIN_FILTER_CHUNK, 1));
+        if (executor == null || chunkCount <= 1) {
+            if (!filterRange(source, filter, task, keep, 0, size))
+                return null;
+        } else {
+            final int chunkSize = (size + chunkCount - 1) / chunkCount;
+            final AtomicInteger nextChunk = new AtomicInteger();
+            final CountDownLatch latch = new CountDownLatch(chunkCount);
+
+            //Chunks are claimed rather than assigned, so queued helpers never leave the caller waiting
+            Runnable runnable = new Runnable() {
+                @Override
+                public void run() {
+                    int chunk;
+                    while ((chunk = nextChunk.getAndIncrement()) < chunkCount) {
+                        try {
+                            int start = chunk * chunkSize;
+                            filterRange(source, filter, task, keep, start, Math.min(start + chunkSize, size));
+                        } finally {
+                            latch.countDown();
+                        }
+                    }
+                }
+            };
+
+            for (int i = 1; i < chunkCount; i++) {
+                try {
+                    executor.execute(runnable);
+                } catch (Exception e) {
+                    break;
                 }
             }
-        } catch (Exception e) {
-            super.add(item);
+
+            //The calling thread works through the chunks as well
+            runnable.run();
+
+            try {
+                latch.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return null;
+            }
         }
+
+        if (task != null && task.isCanceled())
+            return null;
+
+        List<V> result = new ArrayList<>();
+        for (int i = 0; i < size; i++)
+            if (keep[i])
+                result.add(source.get(i));
+        return result;
     }
 
-    private void removeItemFromList(V item) {
-        try {
-            super.remove(item);
-        } catch (Exception e) {
+    private static <V, E> boolean filterRange(List<V> source, SimpleFilter<V, E> filter, Task task,
+                                              boolean[] keep, int start, int end) {
+        for (int i = start; i < end; i++) {
+            if (task != null && (i - start) % CANCEL_CHECK_INTERVAL == 0 && task.isCanceled())
+                return false;
+
+            try {
+                keep[i] = filter.filter(source.get(i));
+            } catch (Exception e) {
+            }
         }
+        return true;
+    }
+
+    public boolean isAsyncFilter() {
+        return asyncFilter;
     }
 
-    private void moveItemInList(V item) {
-        V insertAfter = null;
+    public void setAsyncFilter(boolean asyncFilter) {
+        if (this.asyncFilter == asyncFilter)
+            return;
+
+        this.asyncFilter = asyncFilter;
+        if (!asyncFilter)
+            cancelFilter();
+    }
 
-        for (V checkItem : unfilteredList) {
-            boolean equalItem = item.equals(checkItem);
-            if (!equalItem && filteredList.contains(checkItem))
-                insertAfter = checkItem;
-            else if (equalItem)
-                break;
+    public static synchronized Executor getDefaultFilterExecutor() {
+        if (defaultFilterExecutor == null) {
+            defaultFilterExecutor = ExecutorHelper.create(
+                    DEFAULT_FILTER_POOL_SIZE,
+                    Integer.MAX_VALUE,
+                    DEFAULT_FILTER_KEEP_ALIVE_TIME
+            );
         }
+        return defaultFilterExecutor;
+    }
+
+    public synchronized AsyncTaskStack getFilterTaskStack() {
+        if (filterStack == null || filterStack.isClosed())
+            filterStack = AsyncTaskStack.with(getDefaultFilterExecutor());
+        return filterStack;
+    }
+
+    public synchronized void setFilterTaskStack(AsyncTaskStack filterStack) {
+        if (this.filterStack == filterStack)
+            return;
+
+        cancelFilter();
+        this.filterStack = filterStack;
+    }
+
+    public int getFilterParallelism() {
+        return filterParallelism;
+    }
+
+    public void setFilterParallelism(int filterParallelism) {
+        this.filterParallelism = Math.max(filterParallelism, 1);
+    }
+
+    public synchronized boolean isFiltering() {
+        return appliedGeneration != filterGeneration;
+    }
+
+    public synchronized void cancelFilter() {
+        appliedGeneration = ++filterGeneration;
 
         try {
-            if (insertAfter == null)
-                super.move(filteredList.indexOf(item), 0);
-            else if (insertAfter != null) {
-                int insertAfterPos = filteredList.indexOf(insertAfter);
-
-                if (insertAfterPos >= 0 && insertAfterPos < filteredList.size()) {
-                    int index = insertAfterPos + 1;
-                    super.move(filteredList.indexOf(item), index);
-                }
-            }
+            if (filterStack != null && !filterStack.isClosed())
+                filterStack.cancelAll();
         } catch (Exception e) {
         }
     }
@@ -49,6 +49,11 @@ public abstract class SimpleFilter<V, E> {
         }
     }
 
+    public void cancel() {
+        if (adapter != null)
+            adapter.cancelFilter();
+    }
+
     public List<V> getList() {
         if (adapter != null)
             return adapter.getList();
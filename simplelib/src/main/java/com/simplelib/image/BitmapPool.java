@@ -0,0 +1,370 @@
+/*
+ * Copyright (c) 2020 ProDev+ (Pascal Gerner).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.simplelib.image;
+
+import android.graphics.Bitmap;
+import android.graphics.Color;
+import android.os.Build;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.WeakHashMap;
+
+public class BitmapPool {
+    //Reuse a pooled bitmap only if it is at most this many times larger than required
+    private static final int MAX_SIZE_MULTIPLE = 4;
+
+    //Pool
+    private final HashMap<Bitmap.Config, TreeMap<Long, ArrayDeque<Bitmap>>> buckets;
+    private final LinkedHashMap<Bitmap, Long> order;
+
+    //Bindings
+    //Bitmaps handed out to requests, only the GC may reclaim them until every binding is released
+    private final WeakHashMap<Bitmap, Integer> bindings;
+    //Bound bitmaps the loader dropped, they enter the pool once their last binding is released
+    private final WeakHashMap<Bitmap, Boolean> released;
+
+    private long maxSize;
+    private long size;
+
+    //Statistics
+    private long hitCount;
+    private long missCount;
+    private long putCount;
+    private long evictionCount;
+
+    public BitmapPool() {
+        this(getDefaultMaxSize());
+    }
+
+    public BitmapPool(long maxSize) {
+        this.buckets = new HashMap<>();
+        this.order = new LinkedHashMap<>();
+
+        this.bindings = new WeakHashMap<>();
+        this.released = new WeakHashMap<>();
+
+        this.maxSize = maxSize;
+    }
+
+    public static long getDefaultMaxSize() {
+        try {
+            return Runtime.getRuntime().maxMemory() / 16;
+        } catch (Exception e) {
+        }
+        return 8L * 1024L * 1024L;
+    }
+
+    public static int getBytesPerPixel(Bitmap.Config config) {
+        if (config == null)
+            return 4;
+
+        switch (config) {
+            case ALPHA_8:
+                return 1;
+            case RGB_565:
+            case ARGB_4444:
+                return 2;
+            default:
+                if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O && config == Bitmap.Config.RGBA_F16)
+                    return 8;
+                return 4;
+        }
+    }
+
+    public synchronized long getMaxSize() {
+        return maxSize;
+    }
+
+    public void setMaxSize(long maxSize) {
+        synchronized (this) {
+            this.maxSize = maxSize;
+        }
+        trim();
+    }
+
+    public synchronized long size() {
+        return size;
+    }
+
+    public synchronized int count() {
+        return order.size();
+    }
+
+    public synchronized long getHitCount() {
+        return hitCount;
+    }
+
+    public synchronized long getMissCount() {
+        return missCount;
+    }
+
+    public synchronized long getPutCount() {
+        return putCount;
+    }
+
+    public synchronized long getEvictionCount() {
+        return evictionCount;
+    }
+
+    public synchronized float getReuseRate() {
+        long requestCount = hitCount + missCount;
+        return requestCount > 0 ? (float) hitCount / (float) requestCount : 0f;
+    }
+
+    public synchronized void resetStatistics() {
+        hitCount = 0;
+        missCount = 0;
+        putCount = 0;
+        evictionCount = 0;
+    }
+
+    public void bind(Bitmap image) {
+        if (image == null)
+            return;
+
+        synchronized (this) {
+            Integer count = bindings.get(image);
+            bindings.put(image, count != null ? count + 1 : 1);
+        }
+    }
+
+    public void unbind(Bitmap image) {
+        if (image == null)
+            return;
+
+        synchronized (this) {
+            Integer count = bindings.get(image);
+            if (count == null)
+                return;
+
+            if (count > 1) {
+                bindings.put(image, count - 1);
+                return;
+            }
+
+            bindings.remove(image);
+            if (released.remove(image) == null)
+                return;
+        }
+
+        put(image);
+    }
+
+    public synchronized boolean isBound(Bitmap image) {
+        return image != null && bindings.containsKey(image);
+    }
+
+    public boolean put(Bitmap image) {
+        if (image == null)
+            return false;
+
+        synchronized (this) {
+            //A view may still draw it, the bitmap waits for its last binding
+            if (bindings.containsKey(image)) {
+                released.put(image, Boolean.TRUE);
+                return false;
+            }
+        }
+
+        boolean pooled = false;
+        try {
+            if (!image.isRecycled() && image.isMutable()) {
+                long imageSize = getBucketSize(image);
+                synchronized (this) {
+                    if (imageSize > 0 && imageSize <= maxSize && !order.containsKey(image)) {
+                        getBucket(image.getConfig(), imageSize, true).addLast(image);
+                        order.put(image, imageSize);
+                        size += imageSize;
+                        putCount++;
+
+                        pooled = true;
+                    }
+                }
+            }
+        } catch (Exception e) {
+        }
+
+        if (!pooled) {
+            recycle(image);
+            return false;
+        }
+
+        trim();
+        return true;
+    }
+
+    public Bitmap get(int width, int height, Bitmap.Config config) {
+        Bitmap image = getDirty(width, height, config);
+        if (image != null)
+            image.eraseColor(Color.TRANSPARENT);
+        return image;
+    }
+
+    public Bitmap getDirty(int width, int height, Bitmap.Config config) {
+        if (width <= 0 || height <= 0)
+            return null;
+        if (config == null)
+            config = Bitmap.Config.ARGB_8888;
+
+        Bitmap image = null;
+        synchronized (this) {
+            TreeMap<Long, ArrayDeque<Bitmap>> sizes = buckets.get(config);
+            if (sizes != null) {
+                if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+                    long requiredSize = (long) width * (long) height * getBytesPerPixel(config);
+                    Long bucketSize = sizes.ceilingKey(requiredSize);
+                    if (bucketSize != null && bucketSize <= requiredSize * MAX_SIZE_MULTIPLE)
+                        image = removeFromBucket(sizes, bucketSize);
+                } else {
+                    //Before KitKat a reused bitmap must match the decoded size exactly
+                    ArrayDeque<Bitmap> bucket = sizes.get((long) width * (long) height * getBytesPerPixel(config));
+                    if (bucket != null) {
+                        for (Bitmap candidate : bucket) {
+                            if (candidate.getWidth() == width && candidate.getHeight() == height) {
+                                image = candidate;
+                                break;
+                            }
+                        }
+                        if (image != null)
+                            removeFromBucket(sizes, (long) width * (long) height * getBytesPerPixel(config), image);
+                    }
+                }
+            }
+
+            if (image != null) {
+                Long imageSize = order.remove(image);
+                if (imageSize != null)
+                    size -= imageSize;
+                hitCount++;
+            } else {
+                missCount++;
+            }
+        }
+
+        if (image != null && Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT
+                && (image.getWidth() != width || image.getHeight() != height || image.getConfig() != config)) {
+            try {
+                image.reconfigure(width, height, config);
+            } catch (Exception e) {
+                recycle(image);
+                image = null;
+            }
+        }
+        return image;
+    }
+
+    public void clear() {
+        List<Bitmap> clearList;
+        synchronized (this) {
+            clearList = new ArrayList<>(order.keySet());
+            order.clear();
+            buckets.clear();
+            size = 0;
+        }
+
+        for (Bitmap image : clearList)
+            recycle(image);
+    }
+
+    public void trim() {
+        List<Bitmap> evictList = null;
+        synchronized (this) {
+            Iterator<Map.Entry<Bitmap, Long>> iterator = order.entrySet().iterator();
+            while (size > Math.max(maxSize, 0) && iterator.hasNext()) {
+                Map.Entry<Bitmap, Long> entry = iterator.next();
+                iterator.remove();
+
+                Bitmap image = entry.getKey();
+                TreeMap<Long, ArrayDeque<Bitmap>> sizes = buckets.get(image.getConfig());
+                if (sizes != null)
+                    removeFromBucket(sizes, entry.getValue(), image);
+
+                size -= entry.getValue();
+                evictionCount++;
+
+                if (evictList == null)
+                    evictList = new ArrayList<>();
+                evictList.add(image);
+            }
+        }
+
+        if (evictList == null)
+            return;
+
+        for (Bitmap image : evictList)
+            recycle(image);
+    }
+
+    private static long getBucketSize(Bitmap image) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT)
+            return image.getAllocationByteCount();
+        return (long) image.getWidth() * (long) image.getHeight() * getBytesPerPixel(image.getConfig());
+    }
+
+    private ArrayDeque<Bitmap> getBucket(Bitmap.Config config, long bucketSize, boolean create) {
+        TreeMap<Long, ArrayDeque<Bitmap>> sizes = buckets.get(config);
+        if (sizes == null) {
+            if (!create)
+                return null;
+            sizes = new TreeMap<>();
+            buckets.put(config, sizes);
+        }
+
+        ArrayDeque<Bitmap> bucket = sizes.get(bucketSize);
+        if (bucket == null && create) {
+            bucket = new ArrayDeque<>();
+            sizes.put(bucketSize, bucket);
+        }
+        return bucket;
+    }
+
+    private static Bitmap removeFromBucket(TreeMap<Long, ArrayDeque<Bitmap>> sizes, long bucketSize) {
+        ArrayDeque<Bitmap> bucket = sizes.get(bucketSize);
+        if (bucket == null)
+            return null;
+
+        Bitmap image = bucket.pollLast();
+        if (bucket.isEmpty())
+            sizes.remove(bucketSize);
+        return image;
+    }
+
+    private static void removeFromBucket(TreeMap<Long, ArrayDeque<Bitmap>> sizes, long bucketSize, Bitmap image) {
+        ArrayDeque<Bitmap> bucket = sizes.get(bucketSize);
+        if (bucket == null)
+            return;
+
+        bucket.remove(image);
+        if (bucket.isEmpty())
+            sizes.remove(bucketSize);
+    }
+
+    private static void recycle(Bitmap image) {
+        try {
+            if (image != null && !image.isRecycled())
+                image.recycle();
+        } catch (Exception e) {
+        }
+    }
+}
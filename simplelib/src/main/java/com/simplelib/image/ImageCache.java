@@ -0,0 +1,392 @@
+/*
+ * Copyright (c) 2020 ProDev+ (Pascal Gerner).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.simplelib.image;
+
+import android.graphics.Bitmap;
+import android.os.Build;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+public class ImageCache {
+    public static final int UNLIMITED_COUNT = Integer.MAX_VALUE;
+
+    //Cache
+    private final LinkedHashMap<ImageKey, Entry> map;
+    private final HashMap<String, List<ImageKey>> sources;
+
+    private long maxSize;
+    private int maxCount;
+
+    private long size;
+
+    private boolean autoRecycle;
+    private BitmapPool bitmapPool;
+
+    //Statistics
+    private long hitCount;
+    private long missCount;
+    private long putCount;
+    private long evictionCount;
+    private long scaleCount;
+
+    public ImageCache() {
+        this(getDefaultMaxSize());
+    }
+
+    public ImageCache(long maxSize) {
+        this.map = new LinkedHashMap<>(16, 0.75f, true);
+        this.sources = new HashMap<>();
+
+        this.maxSize = maxSize;
+        this.maxCount = UNLIMITED_COUNT;
+
+        this.autoRecycle = true;
+    }
+
+    public static long getDefaultMaxSize() {
+        try {
+            return Runtime.getRuntime().maxMemory() / 8;
+        } catch (Exception e) {
+        }
+        return 16L * 1024L * 1024L;
+    }
+
+    public static long sizeOf(Bitmap image) {
+        try {
+            if (image == null || image.isRecycled())
+                return 0;
+
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT)
+                return image.getAllocationByteCount();
+            return image.getByteCount();
+        } catch (Exception e) {
+        }
+        return 0;
+    }
+
+    public synchronized long getMaxSize() {
+        return maxSize;
+    }
+
+    public void setMaxSize(long maxSize) {
+        synchronized (this) {
+            this.maxSize = maxSize;
+        }
+        trim();
+    }
+
+    public synchronized int getMaxCount() {
+        return maxCount;
+    }
+
+    public void setMaxCount(int maxCount) {
+        synchronized (this) {
+            this.maxCount = maxCount;
+        }
+        trim();
+    }
+
+    public synchronized void setAutoRecycle(boolean autoRecycle) {
+        this.autoRecycle = autoRecycle;
+    }
+
+    public synchronized void setBitmapPool(BitmapPool bitmapPool) {
+        this.bitmapPool = bitmapPool;
+    }
+
+    public synchronized BitmapPool getBitmapPool() {
+        return bitmapPool;
+    }
+
+    public synchronized long size() {
+        return size;
+    }
+
+    public synchronized int count() {
+        return map.size();
+    }
+
+    public synchronized long getHitCount() {
+        return hitCount;
+    }
+
+    public synchronized long getMissCount() {
+        return missCount;
+    }
+
+    public synchronized long getPutCount() {
+        return putCount;
+    }
+
+    public synchronized long getEvictionCount() {
+        return evictionCount;
+    }
+
+    public synchronized long getScaleCount() {
+        return scaleCount;
+    }
+
+    public synchronized float getHitRatio() {
+        long requestCount = hitCount + missCount;
+        return requestCount > 0 ? (float) hitCount / (float) requestCount : 0f;
+    }
+
+    public synchronized void resetStatistics() {
+        hitCount = 0;
+        missCount = 0;
+        putCount = 0;
+        evictionCount = 0;
+        scaleCount = 0;
+    }
+
+    public synchronized boolean contains(String id) {
+        return id != null && sources.containsKey(id);
+    }
+
+    public synchronized boolean contains(ImageKey key) {
+        return key != null && map.containsKey(key);
+    }
+
+    public synchronized ImageLoader.ImageRequest peek(String id) {
+        if (id == null)
+            return null;
+
+        List<ImageKey> keys = sources.get(id);
+        if (keys == null || keys.isEmpty())
+            return null;
+
+        Entry entry = map.get(keys.get(keys.size() - 1));
+        return entry != null ? entry.request : null;
+    }
+
+    public ImageLoader.ImageRequest get(ImageKey key) {
+        if (key == null)
+            return null;
+
+        ImageLoader.ImageRequest staleRequest = null;
+        boolean recycle;
+        BitmapPool pool;
+        synchronized (this) {
+            recycle = autoRecycle;
+            pool = bitmapPool;
+
+            Entry entry = map.get(key);
+            if (entry != null && entry.request.hasImage()) {
+                hitCount++;
+                return entry.request;
+            }
+
+            missCount++;
+            if (entry != null) {
+                removeEntry(key);
+                staleRequest = entry.request;
+            }
+        }
+
+        if (staleRequest != null)
+            staleRequest.recycle(recycle, pool);
+        return null;
+    }
+
+    public synchronized ImageLoader.ImageRequest getLarger(ImageKey key) {
+        if (key == null || key.isOriginalSize())
+            return null;
+
+        List<ImageKey> keys = sources.get(key.getSource());
+        if (keys == null)
+            return null;
+
+        ImageKey bestKey = null;
+        for (ImageKey cachedKey : keys) {
+            if (cachedKey.equals(key) || !cachedKey.canScaleTo(key))
+                continue;
+            if (bestKey == null || cachedKey.getArea() < bestKey.getArea())
+                bestKey = cachedKey;
+        }
+
+        if (bestKey == null)
+            return null;
+
+        Entry entry = map.get(bestKey);
+        if (entry == null || !entry.request.hasImage())
+            return null;
+
+        scaleCount++;
+        return entry.request;
+    }
+
+    public boolean put(ImageLoader.ImageRequest request) {
+        if (request == null || !request.hasId() || !request.hasImage())
+            return false;
+
+        synchronized (this) {
+            if (maxSize <= 0 || maxCount <= 0)
+                return false;
+
+            ImageKey key = request.getKey();
+            if (map.containsKey(key)) {
+                map.get(key);
+                return false;
+            }
+
+            //An entry larger than the whole cache would be evicted by the trim below right away
+            Entry entry = new Entry(request, sizeOf(request.getImage()));
+            if (entry.size > maxSize)
+                return false;
+
+            map.put(key, entry);
+            size += entry.size;
+            putCount++;
+
+            List<ImageKey> keys = sources.get(key.getSource());
+            if (keys == null) {
+                keys = new ArrayList<>(2);
+                sources.put(key.getSource(), keys);
+            }
+            keys.add(key);
+        }
+
+        trim();
+        return true;
+    }
+
+    public ImageLoader.ImageRequest remove(ImageKey key) {
+        if (key == null)
+            return null;
+
+        synchronized (this) {
+            Entry entry = removeEntry(key);
+            return entry != null ? entry.request : null;
+        }
+    }
+
+    public List<ImageLoader.ImageRequest> removeAll(String id) {
+        List<ImageLoader.ImageRequest> removeList = new ArrayList<>();
+        if (id == null)
+            return removeList;
+
+        synchronized (this) {
+            List<ImageKey> keys = sources.remove(id);
+            if (keys == null)
+                return removeList;
+
+            for (ImageKey key : keys) {
+                Entry entry = map.remove(key);
+                if (entry == null)
+                    continue;
+
+                size -= entry.size;
+                removeList.add(entry.request);
+            }
+        }
+        return removeList;
+    }
+
+    public void clear() {
+        List<ImageLoader.ImageRequest> clearList = new ArrayList<>();
+        boolean recycle;
+        BitmapPool pool;
+        synchronized (this) {
+            recycle = autoRecycle;
+            pool = bitmapPool;
+
+            for (Entry entry : map.values())
+                clearList.add(entry.request);
+            map.clear();
+            sources.clear();
+            size = 0;
+        }
+
+        for (ImageLoader.ImageRequest request : clearList) {
+            try {
+                request.recycle(recycle, pool);
+            } catch (Exception e) {
+            }
+        }
+    }
+
+    public void trim() {
+        List<ImageLoader.ImageRequest> evictList = null;
+        boolean recycle;
+        BitmapPool pool;
+        synchronized (this) {
+            recycle = autoRecycle;
+            pool = bitmapPool;
+
+            Iterator<Map.Entry<ImageKey, Entry>> iterator = map.entrySet().iterator();
+            while ((size > Math.max(maxSize, 0) || map.size() > Math.max(maxCount, 0)) && iterator.hasNext()) {
+                Map.Entry<ImageKey, Entry> mapEntry = iterator.next();
+                Entry entry = mapEntry.getValue();
+                iterator.remove();
+
+                removeSource(mapEntry.getKey());
+                size -= entry.size;
+                evictionCount++;
+
+                if (evictList == null)
+                    evictList = new ArrayList<>();
+                evictList.add(entry.request);
+            }
+        }
+
+        if (evictList == null)
+            return;
+
+        for (ImageLoader.ImageRequest request : evictList) {
+            try {
+                request.recycle(recycle, pool);
+            } catch (Exception e) {
+            }
+        }
+    }
+
+    private Entry removeEntry(ImageKey key) {
+        Entry entry = map.remove(key);
+        if (entry == null)
+            return null;
+
+        removeSource(key);
+        size -= entry.size;
+        return entry;
+    }
+
+    private void removeSource(ImageKey key) {
+        List<ImageKey> keys = sources.get(key.getSource());
+        if (keys == null)
+            return;
+
+        keys.remove(key);
+        if (keys.isEmpty())
+            sources.remove(key.getSource());
+    }
+
+    //Entry
+    private static final class Entry {
+        private final ImageLoader.ImageRequest request;
+        private final long size;
+
+        private Entry(ImageLoader.ImageRequest request, long size) {
+            this.request = request;
+            this.size = size;
+        }
+    }
+}
@@ -0,0 +1,555 @@
+/*
+ * Copyright (c) 2020 ProDev+ (Pascal Gerner).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.simplelib.image;
+
+import android.graphics.Bitmap;
+
+import com.simplelib.Logger;
+import com.simplelib.tools.SessionTools;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Writer;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class ImageDiskCache {
+    // Logging
+    private static final String TAG = Logger.tagOf(ImageDiskCache.class);
+
+    //Files
+    public static final String FILE_SUFFIX = ".img";
+
+    private static final String JOURNAL_FILE = "journal";
+    private static final String JOURNAL_TEMP_FILE = "journal.tmp";
+
+    private static final String MAGIC = "simplelib.ImageDiskCache";
+    private static final String VERSION = "1";
+
+    private static final String CLEAN = "CLEAN";
+    private static final String REMOVE = "REMOVE";
+    private static final String READ = "READ";
+
+    private static final int COMPACT_THRESHOLD = 2000;
+
+    public static final long DEFAULT_MAX_SIZE = 32L * 1024L * 1024L;
+
+    //Cache
+    private final File directory;
+    private final LinkedHashMap<String, Long> map;
+
+    private final AtomicInteger tempCounter = new AtomicInteger();
+
+    private long maxSize;
+    private long size;
+
+    private Writer journal;
+    private int journalCount;
+
+    private Bitmap.CompressFormat opaqueFormat;
+    private int quality;
+
+    //Statistics
+    private long hitCount;
+    private long missCount;
+    private long putCount;
+    private long evictionCount;
+
+    public ImageDiskCache(File directory) {
+        this(directory, DEFAULT_MAX_SIZE);
+    }
+
+    public ImageDiskCache(File directory, long maxSize) {
+        if (directory == null)
+            throw new NullPointerException("No directory attached");
+
+        this.directory = directory;
+        this.map = new LinkedHashMap<>(16, 0.75f, true);
+
+        this.maxSize = maxSize;
+
+        this.opaqueFormat = Bitmap.CompressFormat.JPEG;
+        this.quality = 90;
+
+        synchronized (this) {
+            readJournal();
+        }
+        trim();
+    }
+
+    public static String createKey(File file, ImageKey key) {
+        if (file == null || key == null)
+            return null;
+        return file.getAbsolutePath() + '|' + file.lastModified() + '|' + file.length() + '|' + key;
+    }
+
+    public final File getDirectory() {
+        return directory;
+    }
+
+    public synchronized long getMaxSize() {
+        return maxSize;
+    }
+
+    public void setMaxSize(long maxSize) {
+        synchronized (this) {
+            this.maxSize = maxSize;
+        }
+        trim();
+    }
+
+    public synchronized void setCompressFormat(Bitmap.CompressFormat opaqueFormat, int quality) {
+        if (opaqueFormat != null)
+            this.opaqueFormat = opaqueFormat;
+        this.quality = Math.max(Math.min(quality, 100), 0);
+    }
+
+    public synchronized long size() {
+        return size;
+    }
+
+    public synchronized int count() {
+        return map.size();
+    }
+
+    public synchronized long getHitCount() {
+        return hitCount;
+    }
+
+    public synchronized long getMissCount() {
+        return missCount;
+    }
+
+    public synchronized long getPutCount() {
+        return putCount;
+    }
+
+    public synchronized long getEvictionCount() {
+        return evictionCount;
+    }
+
+    public synchronized float getHitRatio() {
+        long requestCount = hitCount + missCount;
+        return requestCount > 0 ? (float) hitCount / (float) requestCount : 0f;
+    }
+
+    public synchronized void resetStatistics() {
+        hitCount = 0;
+        missCount = 0;
+        putCount = 0;
+        evictionCount = 0;
+    }
+
+    public synchronized boolean contains(String key) {
+        return key != null && map.containsKey(getName(key));
+    }
+
+    public byte[] get(String key) {
+        if (key == null)
+            return null;
+
+        String name = getName(key);
+        synchronized (this) {
+            if (!map.containsKey(name)) {
+                missCount++;
+                return null;
+            }
+        }
+
+        byte[] data = readFile(getFile(name));
+
+        synchronized (this) {
+            if (data == null) {
+                missCount++;
+                removeEntry(name);
+                return null;
+            }
+
+            hitCount++;
+            map.get(name);
+            writeJournal(READ, name, -1, false);
+        }
+        return data;
+    }
+
+    public boolean put(String key, Bitmap image) {
+        if (key == null || image == null || image.isRecycled())
+            return false;
+
+        Bitmap.CompressFormat format;
+        int quality;
+        synchronized (this) {
+            format = image.hasAlpha() ? Bitmap.CompressFormat.PNG : opaqueFormat;
+            quality = this.quality;
+        }
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try {
+            if (!image.compress(format, quality, out))
+                return false;
+        } catch (Exception e) {
+            Logger.w(TAG, "Failed to encode image", e);
+            return false;
+        }
+        return put(key, out.toByteArray());
+    }
+
+    public boolean put(String key, byte[] data) {
+        if (key == null || data == null)
+            return false;
+
+        synchronized (this) {
+            if (maxSize <= 0 || data.length > maxSize)
+                return false;
+        }
+
+        String name = getName(key);
+        File tempFile = new File(directory, name + "." + tempCounter.incrementAndGet() + ".tmp");
+
+        FileOutputStream out = null;
+        try {
+            if (!directory.isDirectory() && !directory.mkdirs())
+                throw new IOException("Unable to create cache directory");
+
+            out = new FileOutputStream(tempFile);
+            out.write(data);
+            out.close();
+            out = null;
+
+            synchronized (this) {
+                File file = getFile(name);
+                if (file.exists() && !file.delete())
+                    throw new IOException("Unable to replace cached image");
+                if (!tempFile.renameTo(file))
+                    throw new IOException("Unable to store cached image");
+
+                Long oldSize = map.put(name, (long) data.length);
+                if (oldSize != null)
+                    size -= oldSize;
+                size += data.length;
+                putCount++;
+
+                writeJournal(CLEAN, name, data.length, true);
+            }
+        } catch (Exception e) {
+            Logger.w(TAG, "Failed to store cached image", e);
+
+            SessionTools.closeWithoutFail(out);
+            if (tempFile.exists() && !tempFile.delete())
+                Logger.w(TAG, "Failed to delete temporary cached image");
+            return false;
+        }
+
+        trim();
+        return true;
+    }
+
+    public synchronized boolean remove(String key) {
+        return key != null && removeEntry(getName(key));
+    }
+
+    public synchronized void clear() {
+        for (String name : new ArrayList<>(map.keySet()))
+            deleteFile(name);
+        map.clear();
+        size = 0;
+
+        rebuildJournal();
+    }
+
+    public void trim() {
+        synchronized (this) {
+            Iterator<Map.Entry<String, Long>> iterator = map.entrySet().iterator();
+            while (size > Math.max(maxSize, 0) && iterator.hasNext()) {
+                Map.Entry<String, Long> entry = iterator.next();
+                iterator.remove();
+
+                size -= entry.getValue();
+                evictionCount++;
+
+                deleteFile(entry.getKey());
+                writeJournal(REMOVE, entry.getKey(), -1, true);
+            }
+        }
+    }
+
+    public synchronized void close() {
+        SessionTools.closeWithoutFail(journal);
+        journal = null;
+    }
+
+    private boolean removeEntry(String name) {
+        Long entrySize = map.remove(name);
+        if (entrySize == null)
+            return false;
+
+        size -= entrySize;
+        deleteFile(name);
+        writeJournal(REMOVE, name, -1, true);
+        return true;
+    }
+
+    private File getFile(String name) {
+        return new File(directory, name + FILE_SUFFIX);
+    }
+
+    private void deleteFile(String name) {
+        File file = getFile(name);
+        if (file.exists() && !file.delete())
+            Logger.w(TAG, "Failed to delete cached image " + file.getName());
+    }
+
+    private String getName(String key) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            byte[] hash = digest.digest(key.getBytes("UTF-8"));
+
+            StringBuilder builder = new StringBuilder(hash.length * 2);
+            for (byte b : hash)
+                builder.append(String.format("%02x", b & 0xFF));
+            return builder.toString();
+        } catch (Exception e) {
+            return Integer.toHexString(key.hashCode());
+        }
+    }
+
+    private static byte[] readFile(File file) {
+        InputStream in = null;
+        try {
+            if (!file.isFile())
+                return null;
+
+            in = new FileInputStream(file);
+            ByteArrayOutputStream out = new ByteArrayOutputStream((int) Math.max(file.length(), 32));
+
+            byte[] buffer = new byte[8192];
+            int count;
+            while ((count = in.read(buffer)) != -1)
+                out.write(buffer, 0, count);
+            return out.toByteArray();
+        } catch (Exception e) {
+            return null;
+        } finally {
+            SessionTools.closeWithoutFail(in);
+        }
+    }
+
+    private void readJournal() {
+        File journalFile = new File(directory, JOURNAL_FILE);
+
+        BufferedReader reader = null;
+        try {
+            if (journalFile.isFile()) {
+                reader = new BufferedReader(new FileReader(journalFile));
+                if (!MAGIC.equals(reader.readLine()) || !VERSION.equals(reader.readLine()))
+                    throw new IOException("Unknown journal format");
+
+                int lineCount = 0;
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    readJournalLine(line);
+                    lineCount++;
+                }
+                journalCount = lineCount;
+            }
+        } catch (Exception e) {
+            Logger.w(TAG, "Failed to read cache journal", e);
+
+            map.clear();
+            journalCount = 0;
+        } finally {
+            SessionTools.closeWithoutFail(reader);
+        }
+
+        List<String> missingList = new ArrayList<>();
+        size = 0;
+        for (Map.Entry<String, Long> entry : map.entrySet()) {
+            if (getFile(entry.getKey()).isFile())
+                size += entry.getValue();
+            else
+                missingList.add(entry.getKey());
+        }
+        for (String name : missingList)
+            map.remove(name);
+
+        deleteUntrackedFiles();
+        rebuildJournal();
+    }
+
+    private void readJournalLine(String line) {
+        String[] parts = line.split(" ");
+        if (parts.length < 2)
+            return;
+
+        String name = parts[1];
+        if (CLEAN.equals(parts[0]) && parts.length >= 3) {
+            try {
+                map.put(name, Long.parseLong(parts[2]));
+            } catch (NumberFormatException e) {
+            }
+        } else if (REMOVE.equals(parts[0])) {
+            map.remove(name);
+        } else if (READ.equals(parts[0])) {
+            map.get(name);
+        }
+    }
+
+    private void deleteUntrackedFiles() {
+        File[] files = directory.listFiles();
+        if (files == null)
+            return;
+
+        for (File file : files) {
+            if (file == null || !file.isFile())
+                continue;
+
+            // Only names this cache writes are touched, the directory may be shared
+            String fileName = file.getName();
+            String name = getCacheName(fileName);
+            if (name == null || map.containsKey(name))
+                continue;
+
+            if (!file.delete())
+                Logger.w(TAG, "Failed to delete untracked cache file " + fileName);
+        }
+    }
+
+    private static String getCacheName(String fileName) {
+        if (fileName.equals(JOURNAL_TEMP_FILE))
+            return fileName;
+
+        // Cached images are "<hash>.img", unfinished writes "<hash>.<counter>.tmp"
+        String name;
+        if (fileName.endsWith(FILE_SUFFIX)) {
+            name = fileName.substring(0, fileName.length() - FILE_SUFFIX.length());
+        } else if (fileName.endsWith(".tmp")) {
+            int separator = fileName.indexOf('.');
+            int end = fileName.length() - 4;
+            if (separator <= 0 || separator >= end)
+                return null;
+            if (!isHex(fileName.substring(0, separator)) || !isDigits(fileName.substring(separator + 1, end)))
+                return null;
+            return fileName;
+        } else {
+            return null;
+        }
+
+        return isHex(name) ? name : null;
+    }
+
+    private static boolean isHex(String value) {
+        if (value.isEmpty())
+            return false;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if ((c < '0' || c > '9') && (c < 'a' || c > 'f'))
+                return false;
+        }
+        return true;
+    }
+
+    private static boolean isDigits(String value) {
+        if (value.isEmpty())
+            return false;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c < '0' || c > '9')
+                return false;
+        }
+        return true;
+    }
+
+    private void writeJournal(String operation, String name, long entrySize, boolean flush) {
+        if (journalCount >= COMPACT_THRESHOLD && journalCount >= map.size() * 2) {
+            rebuildJournal();
+            return;
+        }
+
+        if (journal == null)
+            return;
+
+        try {
+            journal.write(operation);
+            journal.write(' ');
+            journal.write(name);
+            if (entrySize >= 0) {
+                journal.write(' ');
+                journal.write(Long.toString(entrySize));
+            }
+            journal.write('\n');
+            // Reads only reorder the LRU, they stay buffered until the next edit or close
+            if (flush)
+                journal.flush();
+
+            journalCount++;
+        } catch (Exception e) {
+            Logger.w(TAG, "Failed to write cache journal", e);
+        }
+    }
+
+    private void rebuildJournal() {
+        SessionTools.closeWithoutFail(journal);
+        journal = null;
+
+        File journalFile = new File(directory, JOURNAL_FILE);
+        File tempFile = new File(directory, JOURNAL_TEMP_FILE);
+
+        Writer writer = null;
+        try {
+            if (!directory.isDirectory() && !directory.mkdirs())
+                throw new IOException("Unable to create cache directory");
+
+            writer = new BufferedWriter(new FileWriter(tempFile));
+            writer.write(MAGIC);
+            writer.write('\n');
+            writer.write(VERSION);
+            writer.write('\n');
+
+            for (Map.Entry<String, Long> entry : map.entrySet()) {
+                writer.write(CLEAN + ' ' + entry.getKey() + ' ' + entry.getValue());
+                writer.write('\n');
+            }
+            writer.close();
+            writer = null;
+
+            if (journalFile.exists() && !journalFile.delete())
+                throw new IOException("Unable to replace cache journal");
+            if (!tempFile.renameTo(journalFile))
+                throw new IOException("Unable to store cache journal");
+
+            journal = new BufferedWriter(new FileWriter(journalFile, true));
+            journalCount = map.size();
+        } catch (Exception e) {
+            Logger.w(TAG, "Failed to rebuild cache journal", e);
+
+            SessionTools.closeWithoutFail(writer);
+        }
+    }
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright (c) 2020 ProDev+ (Pascal Gerner).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.simplelib.image;
+
+public final class ImageKey {
+    public static final int ORIGINAL_SIZE = -1;
+
+    public static final String TRANSFORM_CROP_ROUND = "crop-round";
+
+    private final String source;
+
+    private final int width;
+    private final int height;
+
+    private final String transformation;
+
+    public ImageKey(String source) {
+        this(source, ORIGINAL_SIZE, ORIGINAL_SIZE, null);
+    }
+
+    public ImageKey(String source, int width, int height, String transformation) {
+        if (source == null)
+            throw new NullPointerException("No source attached");
+
+        if (width < 0 || height < 0)
+            width = height = ORIGINAL_SIZE;
+
+        this.source = source;
+
+        this.width = width;
+        this.height = height;
+
+        this.transformation = transformation;
+    }
+
+    public static String cropRound(boolean cropRound) {
+        return cropRound ? TRANSFORM_CROP_ROUND : null;
+    }
+
+    public String getSource() {
+        return source;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public String getTransformation() {
+        return transformation;
+    }
+
+    public boolean isOriginalSize() {
+        return width == ORIGINAL_SIZE || height == ORIGINAL_SIZE;
+    }
+
+    public boolean isSameSource(ImageKey key) {
+        return key != null
+                && source.equals(key.source)
+                && (transformation != null ? transformation.equals(key.transformation) : key.transformation == null);
+    }
+
+    public boolean canScaleTo(ImageKey key) {
+        if (!isSameSource(key) || key.isOriginalSize())
+            return false;
+        return isOriginalSize() || (width >= key.width && height >= key.height);
+    }
+
+    public long getArea() {
+        return isOriginalSize() ? Long.MAX_VALUE : (long) width * (long) height;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj)
+            return true;
+        if (!(obj instanceof ImageKey))
+            return false;
+
+        ImageKey key = (ImageKey) obj;
+        return width == key.width && height == key.height && isSameSource(key);
+    }
+
+    @Override
+    public int hashCode() {
+        int hash = source.hashCode();
+        hash = 31 * hash + width;
+        hash = 31 * hash + height;
+        hash = 31 * hash + (transformation != null ? transformation.hashCode() : 0);
+        return hash;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder(source);
+        if (!isOriginalSize())
+            builder.append('@').append(width).append('x').append(height);
+        if (transformation != null)
+            builder.append('#').append(transformation);
+        return builder.toString();
+    }
+}
@@ -17,26 +17,44 @@
 package com.simplelib.image;
 
 import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Rect;
 import android.os.AsyncTask;
+import android.os.Build;
+
+import com.simplelib.tools.ImageLoaderTools;
 
 import java.util.ArrayList;
-import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
+import java.util.PriorityQueue;
 import java.util.concurrent.Executor;
 
 public class ImageLoader {
     private static final int DEFAULT_LOADER_CAPACITY = 10;
-    private static final int DEFAULT_IMAGE_CAPACITY = 100;
+    private static final int DEFAULT_IMAGE_CAPACITY = ImageCache.UNLIMITED_COUNT;
 
     //Loader
     private List<Loader> loaderList;
     private int loaderCapacity;
 
-    private List<ImageRequest> imageList;
-    private int imageCapacity;
+    private PriorityQueue<Loader> pendingLoaders;
+    private int runningCount;
+    private long loaderSequence;
+
+    private HashMap<ImageKey, Loader> keyIndex;
+    private HashMap<String, List<Loader>> idIndex;
+
+    private ImageCache imageCache;
+    private ImageDiskCache diskCache;
 
     private boolean autoRecycle;
+    private BitmapPool bitmapPool;
+    private int bitmapFormat;
 
     private Executor executor;
 
@@ -44,10 +62,23 @@ public class ImageLoader {
         this.loaderList = new ArrayList<>();
         this.loaderCapacity = DEFAULT_LOADER_CAPACITY;
 
-        this.imageList = new ArrayList<>();
-        this.imageCapacity = DEFAULT_IMAGE_CAPACITY;
+        this.keyIndex = new HashMap<>();
+        this.idIndex = new HashMap<>();
+
+        this.pendingLoaders = new PriorityQueue<>(11, new Comparator<Loader>() {
+            @Override
+            public int compare(Loader first, Loader second) {
+                if (first.priority != second.priority)
+                    return first.priority > second.priority ? -1 : 1;
+                return first.sequence < second.sequence ? -1 : (first.sequence == second.sequence ? 0 : 1);
+            }
+        });
+
+        this.imageCache = new ImageCache();
+        this.imageCache.setMaxCount(DEFAULT_IMAGE_CAPACITY);
 
         this.autoRecycle = true;
+        this.bitmapFormat = ImageRequest.FORMAT_ARGB_8888;
 
         calculateLoaderLimit();
     }
@@ -66,15 +97,67 @@ public class ImageLoader {
     }
 
     public void setLoaderCapacity(int loaderCapacity) {
-        this.loaderCapacity = loaderCapacity;
+        synchronized (loaderList) {
+            this.loaderCapacity = loaderCapacity;
+        }
+        startNext();
     }
 
     public void setImageCapacity(int imageCapacity) {
-        this.imageCapacity = imageCapacity;
+        imageCache.setMaxCount(imageCapacity);
+    }
+
+    public void setCacheSize(long cacheSize) {
+        imageCache.setMaxSize(cacheSize);
+    }
+
+    public ImageCache getCache() {
+        return imageCache;
+    }
+
+    public void setDiskCache(ImageDiskCache diskCache) {
+        this.diskCache = diskCache;
+    }
+
+    public ImageDiskCache getDiskCache() {
+        return diskCache;
     }
 
     public void setAutoRecycle(boolean autoRecycle) {
         this.autoRecycle = autoRecycle;
+        imageCache.setAutoRecycle(autoRecycle);
+    }
+
+    public void setBitmapPool(BitmapPool bitmapPool) {
+        this.bitmapPool = bitmapPool;
+        imageCache.setBitmapPool(bitmapPool);
+    }
+
+    public BitmapPool getBitmapPool() {
+        return bitmapPool;
+    }
+
+    public int getBitmapFormat() {
+        return bitmapFormat;
+    }
+
+    public void setBitmapFormat(int bitmapFormat) {
+        this.bitmapFormat = bitmapFormat != ImageRequest.FORMAT_AUTO ? bitmapFormat : ImageRequest.FORMAT_ARGB_8888;
+    }
+
+    public static Bitmap.Config getBitmapConfig(int bitmapFormat) {
+        switch (bitmapFormat) {
+            case ImageRequest.FORMAT_LOW_MEMORY:
+                return Bitmap.Config.RGB_565;
+            case ImageRequest.FORMAT_HARDWARE:
+                if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O)
+                    return Bitmap.Config.HARDWARE;
+                return Bitmap.Config.ARGB_8888;
+            case ImageRequest.FORMAT_ALPHA_MASK:
+                return Bitmap.Config.ALPHA_8;
+            default:
+                return Bitmap.Config.ARGB_8888;
+        }
     }
 
     public void setExecutor(Executor executor) {
@@ -91,13 +174,22 @@ public class ImageLoader {
         try {
             if (requests != null) {
                 List<ImageRequest> requestList = new ArrayList<>();
+                List<ImageRequest> waiterList = new ArrayList<>();
+                HashSet<ImageKey> batchKeys = new HashSet<>();
                 for (ImageRequest request : requests) {
                     if (request == null)
                         continue;
                     try {
+                        //Resolved once per submission, the config is part of the key from here on
+                        applyFormat(request);
+
                         if (fillRequest(request) && request.hasImage())
-                            request.onFinish(request.image);
-                        else if (!mergeRequest(request) || !request.hasImage())
+                            deliver(request);
+                        else if (mergeRequest(request))
+                            continue;
+                        else if (request.hasId() && !batchKeys.add(request.getKey()))
+                            waiterList.add(request);
+                        else
                             requestList.add(request);
                     } catch (Exception e) {
                     }
@@ -105,34 +197,36 @@ public class ImageLoader {
 
                 if (requestList.size() > 0) {
                     Loader loader = new Loader(requestList);
-                    if (loaderList != null) {
-                        synchronized (loaderList) {
-                            if (!loaderList.contains(loader))
-                                loaderList.add(loader);
-                        }
-                    }
-                    loader.start();
+                    for (ImageRequest waiter : waiterList)
+                        loader.addMergeRequest(waiter);
+                    schedule(loader);
                 }
             }
         } catch (Exception e) {
         }
     }
 
+    public boolean isCached(ImageRequest request) {
+        try {
+            if (request != null && request.hasId()) {
+                applyFormat(request);
+                return imageCache.contains(request.getKey());
+            }
+        } catch (Exception e) {
+        }
+        return false;
+    }
+
     public boolean fillRequest(ImageRequest request) {
         try {
-            if (request != null && imageList != null) {
-                synchronized (imageList) {
-                    for (int pos = 0; pos < imageList.size(); pos++) {
-                        ImageRequest image = imageList.get(pos);
-                        if (image.isEqualRequest(request) && image.hasImage()) {
-                            image.applyTo(request);
-
-                            if (request.hasImage()) {
-                                swap(imageList, pos, 0);
-                                return true;
-                            }
-                        }
-                    }
+            if (request != null && request.hasId()) {
+                if (request.bitmapConfig == null)
+                    applyFormat(request);
+
+                ImageRequest image = imageCache.get(request.getKey());
+                if (image != null && image.isEqualRequest(request) && image.hasImage()) {
+                    image.applyTo(request);
+                    return request.hasImage();
                 }
             }
         } catch (Exception e) {
@@ -140,13 +234,25 @@ public class ImageLoader {
         return false;
     }
 
+    private void applyFormat(ImageRequest request) {
+        request.bitmapConfig = getBitmapConfig(request.bitmapFormat != ImageRequest.FORMAT_AUTO ? request.bitmapFormat : bitmapFormat);
+    }
+
     public boolean mergeRequest(ImageRequest request) {
         try {
-            if (request != null && loaderList != null) {
+            if (request != null && request.hasId() && loaderList != null) {
                 synchronized (loaderList) {
-                    for (Loader loader : loaderList)
-                        if (loader.addMergeRequest(request))
-                            return true;
+                    Loader loader = keyIndex.get(request.getKey());
+                    if (loader == null || !loader.addMergeRequest(request))
+                        return false;
+
+                    //A visible request joining a prefetch moves the loader up the queue
+                    if (loader.queued && request.getPriority() > loader.priority) {
+                        pendingLoaders.remove(loader);
+                        loader.updatePriority();
+                        pendingLoaders.add(loader);
+                    }
+                    return true;
                 }
             }
         } catch (Exception e) {
@@ -154,10 +260,44 @@ public class ImageLoader {
         return false;
     }
 
+    public void setPriority(String id, int priority) {
+        try {
+            if (id != null && loaderList != null) {
+                synchronized (loaderList) {
+                    List<Loader> loaders = idIndex.get(id);
+                    if (loaders == null)
+                        return;
+
+                    for (Loader loader : loaders) {
+                        if (loader.setPriority(id, priority) && loader.queued) {
+                            pendingLoaders.remove(loader);
+                            loader.updatePriority();
+                            pendingLoaders.add(loader);
+                        }
+                    }
+                }
+            }
+        } catch (Exception e) {
+        }
+    }
+
     public void cancelRequest(String id) {
         try {
-            Loader loader = findRequestLoaderById(id);
-            if (loader != null) loader.removeRequest(id);
+            if (id != null && loaderList != null) {
+                synchronized (loaderList) {
+                    List<Loader> loaders = idIndex.get(id);
+                    if (loaders == null)
+                        return;
+
+                    for (Loader loader : new ArrayList<>(loaders)) {
+                        if (loader.isRunning())
+                            continue;
+
+                        unindex(loader, id);
+                        loader.removeRequest(id);
+                    }
+                }
+            }
         } catch (Exception e) {
         }
     }
@@ -166,29 +306,28 @@ public class ImageLoader {
         cancelRequest(id);
 
         try {
-            ImageRequest imageRequest = findRequestById(id);
-            if (imageList != null) {
-                synchronized (imageList) {
-                    if (imageRequest != null && imageList.contains(imageRequest)) {
-                        imageList.remove(imageRequest);
-                        imageRequest.recycle(autoRecycle);
-                    }
-                }
-            }
+            for (ImageRequest imageRequest : imageCache.removeAll(id))
+                imageRequest.recycle(autoRecycle, bitmapPool);
         } catch (Exception e) {
         }
     }
 
+    private void deliver(ImageRequest request) {
+        //The image stays bound to the request until it is released, so it is never pooled while drawn
+        BitmapPool pool = bitmapPool;
+        Bitmap image = request.image;
+        if (pool != null && image != null && request.bindImage && request.boundImage != image) {
+            pool.bind(image);
+            request.releaseImage();
+            request.bitmapPool = pool;
+            request.boundImage = image;
+        }
+        request.onFinish(image);
+    }
+
     public ImageRequest findRequestById(String id) {
         try {
-            if (imageList != null) {
-                synchronized (imageList) {
-                    for (ImageRequest request : imageList) {
-                        if (request.hasId() && request.getId().equals(id))
-                            return request;
-                    }
-                }
-            }
+            return imageCache.peek(id);
         } catch (Exception e) {
         }
         return null;
@@ -196,12 +335,11 @@ public class ImageLoader {
 
     public Loader findRequestLoaderById(String id) {
         try {
-            if (loaderList != null) {
+            if (id != null && loaderList != null) {
                 synchronized (loaderList) {
-                    for (Loader loader : loaderList) {
-                        if (loader != null && loader.hasRequest(id))
-                            return loader;
-                    }
+                    List<Loader> loaders = idIndex.get(id);
+                    if (loaders != null && loaders.size() > 0)
+                        return loaders.get(0);
                 }
             }
         } catch (Exception e) {
@@ -209,69 +347,224 @@ public class ImageLoader {
         return null;
     }
 
+    private void index(Loader loader) {
+        for (ImageRequest request : loader.requests) {
+            if (request == null || !request.hasId())
+                continue;
+
+            ImageKey key = request.getKey();
+            if (!keyIndex.containsKey(key))
+                keyIndex.put(key, loader);
+
+            List<Loader> loaders = idIndex.get(request.getId());
+            if (loaders == null) {
+                loaders = new ArrayList<>(1);
+                idIndex.put(request.getId(), loaders);
+            }
+            if (!loaders.contains(loader))
+                loaders.add(loader);
+        }
+    }
+
+    private void mergeIndexed(Loader loader) {
+        Iterator<ImageRequest> iterator = loader.requests.iterator();
+        while (iterator.hasNext()) {
+            ImageRequest request = iterator.next();
+            if (request == null || !request.hasId())
+                continue;
+
+            ImageKey key = request.getKey();
+            Loader owner = keyIndex.get(key);
+            if (owner == null || owner == loader || !owner.addMergeRequest(request))
+                continue;
+
+            iterator.remove();
+            if (owner.queued && request.getPriority() > owner.priority) {
+                pendingLoaders.remove(owner);
+                owner.updatePriority();
+                pendingLoaders.add(owner);
+            }
+
+            if (loader.requestsByKey.get(key) != request)
+                continue;
+            loader.requestsByKey.remove(key);
+
+            //Waiters of the moved request follow it to the owner
+            Iterator<ImageRequest> mergeIterator = loader.mergeRequests.iterator();
+            while (mergeIterator.hasNext()) {
+                ImageRequest mergeRequest = mergeIterator.next();
+                if (mergeRequest != null && mergeRequest.hasId() && key.equals(mergeRequest.getKey()) && owner.addMergeRequest(mergeRequest))
+                    mergeIterator.remove();
+            }
+        }
+    }
+
+    private void unindex(Loader loader, String id) {
+        for (ImageRequest request : loader.requests) {
+            if (request == null || !request.hasId() || (id != null && !request.isId(id)))
+                continue;
+
+            ImageKey key = request.getKey();
+            if (keyIndex.get(key) == loader)
+                keyIndex.remove(key);
+
+            removeIndex(loader, request.getId());
+        }
+    }
+
+    private void removeIndex(Loader loader, String id) {
+        List<Loader> loaders = idIndex.get(id);
+        if (loaders == null)
+            return;
+
+        loaders.remove(loader);
+        if (loaders.isEmpty())
+            idIndex.remove(id);
+    }
+
+    public int getLoaderCount() {
+        if (loaderList == null)
+            return 0;
+
+        synchronized (loaderList) {
+            return loaderList.size();
+        }
+    }
+
     public boolean hasId(String id) {
         try {
-            if (imageList != null) {
-                synchronized (imageList) {
-                    for (ImageRequest request : imageList) {
-                        if (request.hasId() && request.getId().equals(id))
-                            return true;
-                    }
+            return imageCache.contains(id);
+        } catch (Exception e) {
+        }
+        return false;
+    }
+
+    private Bitmap scaleFromCache(ImageRequest request) {
+        try {
+            if (request == null || !request.hasId() || !request.isScalable())
+                return null;
+
+            ImageKey key = request.getKey();
+            ImageRequest larger = imageCache.getLarger(key);
+            if (larger == null)
+                return null;
+
+            Bitmap source = larger.getImage();
+            if (source == null || source.isRecycled())
+                return null;
+
+            //Hardware bitmaps cannot be drawn into a software canvas, decode those again
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O && source.getConfig() == Bitmap.Config.HARDWARE)
+                return null;
+
+            float scale = Math.min(Math.max((float) key.getWidth() / (float) source.getWidth(),
+                    (float) key.getHeight() / (float) source.getHeight()), 1f);
+            int width = Math.max(Math.round(source.getWidth() * scale), 1);
+            int height = Math.max(Math.round(source.getHeight() * scale), 1);
+
+            Bitmap image = null;
+            BitmapPool pool = bitmapPool;
+            if (pool != null && source.getConfig() != null) {
+                image = pool.get(width, height, source.getConfig());
+                if (image != null) {
+                    Canvas canvas = new Canvas(image);
+                    canvas.drawBitmap(source, null, new Rect(0, 0, width, height), new Paint(Paint.FILTER_BITMAP_FLAG));
                 }
             }
+            if (image == null)
+                image = Bitmap.createScaledBitmap(source, width, height, true);
+            if (image == source)
+                image = source.copy(source.getConfig(), source.isMutable());
+            if (image != null) {
+                boolean storeRequest = request.storeRequest;
+                larger.applyTo(request);
+                request.storeRequest = storeRequest;
+            }
+            return image;
+        } catch (OutOfMemoryError e) {
+            System.gc();
+        } catch (Exception e) {
+        }
+        return null;
+    }
+
+    private Bitmap loadFromDisk(ImageRequest request) {
+        try {
+            ImageDiskCache diskCache = this.diskCache;
+            String diskKey = request != null ? request.getDiskKey() : null;
+            if (diskCache == null || diskKey == null)
+                return null;
+
+            byte[] data = diskCache.get(diskKey);
+            if (data == null)
+                return null;
+
+            ImageKey key = request.getKey();
+            Bitmap image = ImageLoaderTools.loadInReqSize(data, key.getWidth(), key.getHeight(), bitmapPool, request.getBitmapConfig());
+            if (image == null)
+                diskCache.remove(diskKey);
+            return image;
+        } catch (Exception e) {
+        }
+        return null;
+    }
+
+    private void storeOnDisk(ImageRequest request, Bitmap image) {
+        try {
+            ImageDiskCache diskCache = this.diskCache;
+            String diskKey = request != null ? request.getDiskKey() : null;
+            if (diskCache != null && diskKey != null)
+                diskCache.put(diskKey, image);
         } catch (Exception e) {
         }
-        return false;
     }
 
     private void pushRequest(ImageRequest request) {
         try {
-            if (imageList != null) {
-                synchronized (imageList) {
-                    if (imageCapacity <= 0) {
-                        if (imageList.size() > 0)
-                            imageList.clear();
-                        return;
-                    }
+            if (request != null && request.storeRequest)
+                imageCache.put(request);
+        } catch (Exception e) {
+        }
+    }
 
-                    if (request.storeRequest && !imageList.contains(request))
-                        imageList.add(0, request);
-
-                    if (imageCapacity >= 0 && imageList.size() > imageCapacity) {
-                        for (int pos = imageList.size() - 1; pos >= imageCapacity; pos--) {
-                            if (pos >= 0 && pos < imageList.size()) {
-                                try {
-                                    ImageRequest foundRequest = imageList.get(pos);
-                                    foundRequest.recycle(autoRecycle);
-                                } catch (Exception e) {
-                                }
-
-                                try {
-                                    imageList.remove(pos);
-                                } catch (Exception e) {
-                                }
-                            }
-                        }
-                    }
+    private void schedule(Loader loader) {
+        try {
+            synchronized (loaderList) {
+                //Another thread may have started the same key since mergeRequest missed it
+                mergeIndexed(loader);
+                if (loader.requests.isEmpty()) {
+                    loaderList.remove(loader);
+                    return;
                 }
+
+                if (!loaderList.contains(loader))
+                    loaderList.add(loader);
+
+                index(loader);
+
+                loader.queued = true;
+                loader.updatePriority();
+                pendingLoaders.add(loader);
             }
         } catch (Exception e) {
         }
+        startNext();
     }
 
     public void startNext() {
         try {
             if (loaderList != null) {
                 synchronized (loaderList) {
-                    if (loaderList.size() <= 0) return;
-
-                    boolean found = false;
-
-                    Iterator<Loader> loaderIterator = loaderList.iterator();
-                    while (!found && loaderIterator.hasNext()) {
-                        Loader loader = loaderIterator.next();
-                        if (loader != null && loader.start())
-                            found = true;
+                    while (loaderCapacity < 0 || runningCount < loaderCapacity) {
+                        Loader loader = pendingLoaders.poll();
+                        if (loader == null)
+                            break;
+
+                        loader.queued = false;
+                        if (loader.start())
+                            runningCount++;
+                        else
+                            loader.finish();
                     }
                 }
             }
@@ -283,6 +576,10 @@ public class ImageLoader {
         try {
             if (loaderList != null) {
                 synchronized (loaderList) {
+                    for (Loader loader : pendingLoaders)
+                        loader.queued = false;
+                    pendingLoaders.clear();
+
                     List<Loader> stopList = new ArrayList<>();
                     stopList.addAll(loaderList);
                     for (Loader loader : stopList) {
@@ -301,20 +598,7 @@ public class ImageLoader {
 
     public void clearAll() {
         try {
-            if (imageList != null) {
-                synchronized (imageList) {
-                    List<ImageRequest> clearList = new ArrayList<>();
-                    clearList.addAll(imageList);
-                    for (ImageRequest request : clearList) {
-                        try {
-                            request.recycle(autoRecycle);
-                        } catch (Exception e) {
-                        }
-                    }
-                    clearList.clear();
-                    imageList.clear();
-                }
-            }
+            imageCache.clear();
         } catch (Exception e) {
         }
     }
@@ -324,24 +608,24 @@ public class ImageLoader {
         clearAll();
     }
 
-    private static void swap(List<?> list, int fromPos, int toPos) {
-        try {
-            if (fromPos < toPos) {
-                for (int pos = fromPos; pos < toPos; pos++)
-                    Collections.swap(list, pos, pos + 1);
-            } else if (fromPos > toPos) {
-                for (int pos = fromPos; pos > toPos; pos--)
-                    Collections.swap(list, pos, pos - 1);
-            }
-        } catch (Exception e) {
-        }
-    }
-
     public static abstract class ImageRequest {
         public static final int NO_RESULT = 0;
         public static final int RESULT_OK = 1;
         public static final int RESULT_ERROR = 2;
 
+        public static final int PRIORITY_LOW = -10;
+        public static final int PRIORITY_NORMAL = 0;
+        public static final int PRIORITY_HIGH = 10;
+
+        public static final int FORMAT_AUTO = -1;
+        public static final int FORMAT_ARGB_8888 = 0;
+        //RGB_565 for opaque images, images with alpha keep ARGB_8888
+        public static final int FORMAT_LOW_MEMORY = 1;
+        //Hardware bitmaps on Oreo and above, ARGB_8888 below
+        public static final int FORMAT_HARDWARE = 2;
+        //ALPHA_8 masks meant to be tinted when drawn
+        public static final int FORMAT_ALPHA_MASK = 3;
+
         private String id;
 
         private int resultCode;
@@ -349,6 +633,15 @@ public class ImageLoader {
 
         private boolean storeRequest;
 
+        private volatile int priority;
+
+        private BitmapPool bitmapPool;
+        //Only requests whose owner calls releaseImage keep their image out of the pool
+        private boolean bindImage;
+        private Bitmap boundImage;
+        private int bitmapFormat;
+        private Bitmap.Config bitmapConfig;
+
         public ImageRequest() {
             this(null);
         }
@@ -360,6 +653,10 @@ public class ImageLoader {
             this.image = null;
 
             this.storeRequest = true;
+
+            this.priority = PRIORITY_NORMAL;
+
+            this.bitmapFormat = FORMAT_AUTO;
         }
 
         public void applyTo(ImageRequest request) {
@@ -375,7 +672,7 @@ public class ImageLoader {
 
         public boolean isEqualRequest(ImageRequest request) {
             if (request != null && request.hasId() && hasId())
-                return request.id.equals(id);
+                return request.getKey().equals(getKey());
             return false;
         }
 
@@ -398,6 +695,18 @@ public class ImageLoader {
             return this.id.equals(id);
         }
 
+        public ImageKey getKey() {
+            return new ImageKey(id);
+        }
+
+        public boolean isScalable() {
+            return false;
+        }
+
+        public String getDiskKey() {
+            return null;
+        }
+
         public int getResultCode() {
             return resultCode;
         }
@@ -431,29 +740,115 @@ public class ImageLoader {
             }
         }
 
+        public void recycle(boolean destroyImage, BitmapPool pool) {
+            if (pool == null || !destroyImage) {
+                recycle(destroyImage);
+                return;
+            }
+
+            //A bitmap still bound to a view is only dropped here, the pool takes it once it is released
+            Bitmap image = this.image;
+            this.image = null;
+            pool.put(image);
+        }
+
+        public void releaseImage() {
+            //Called once the delivered image is no longer drawn, the pool may reuse it afterwards
+            Bitmap image = boundImage;
+            BitmapPool pool = bitmapPool;
+            boundImage = null;
+            if (image != null && pool != null)
+                pool.unbind(image);
+        }
+
+        public boolean isBindImage() {
+            return bindImage;
+        }
+
+        public void setBindImage(boolean bindImage) {
+            this.bindImage = bindImage;
+        }
+
+        protected BitmapPool getBitmapPool() {
+            return bitmapPool;
+        }
+
+        public int getBitmapFormat() {
+            return bitmapFormat;
+        }
+
+        public void setBitmapFormat(int bitmapFormat) {
+            this.bitmapFormat = bitmapFormat;
+        }
+
+        protected Bitmap.Config getBitmapConfig() {
+            if (bitmapConfig != null)
+                return bitmapConfig;
+            return ImageLoader.getBitmapConfig(bitmapFormat != FORMAT_AUTO ? bitmapFormat : FORMAT_ARGB_8888);
+        }
+
+        protected String describeFormat(String transformation) {
+            //Bitmaps of different configs are not interchangeable, ARGB_8888 keeps the plain key
+            String format;
+            Bitmap.Config config = getBitmapConfig();
+            if (config == Bitmap.Config.ALPHA_8)
+                format = "alpha-mask";
+            else if (config == Bitmap.Config.RGB_565)
+                format = "rgb-565";
+            else if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O && config == Bitmap.Config.HARDWARE)
+                format = "hardware";
+            else
+                return transformation;
+            return transformation != null ? transformation + "|" + format : format;
+        }
+
+        protected Bitmap replaceImage(Bitmap image, Bitmap newImage) {
+            if (image != null && image != newImage) {
+                if (bitmapPool != null)
+                    bitmapPool.put(image);
+                else if (!image.isRecycled())
+                    image.recycle();
+            }
+            return newImage;
+        }
+
         public void setStoreRequest(boolean storeRequest) {
             this.storeRequest = storeRequest;
         }
 
+        public int getPriority() {
+            return priority;
+        }
+
+        public void setPriority(int priority) {
+            this.priority = priority;
+        }
+
         public abstract Bitmap onLoad();
 
         public abstract void onFinish(Bitmap image);
+
+        protected void onCancelled() {
+        }
     }
 
     private class Loader extends AsyncTask<Void, Void, Bitmap> {
-        private boolean running;
+        private final long sequence;
+
+        private int priority;
+        private boolean queued;
+        private volatile boolean running;
 
         private List<ImageRequest> requests;
         private List<ImageRequest> mergeRequests;
 
+        private HashMap<ImageKey, ImageRequest> requestsByKey;
+
         public Loader(List<ImageRequest> requests) {
-            try {
-                if (loaderList != null) {
-                    synchronized (loaderList) {
-                        loaderList.add(this);
-                    }
-                }
-            } catch (Exception e) {
+            synchronized (loaderList) {
+                this.sequence = loaderSequence++;
+
+                loaderList.add(this);
             }
 
             if (requests != null)
@@ -461,49 +856,57 @@ public class ImageLoader {
             else
                 this.requests = new ArrayList<>();
             this.mergeRequests = new ArrayList<>();
+
+            this.requestsByKey = new HashMap<>();
+            for (ImageRequest request : this.requests) {
+                if (request != null && request.hasId() && !requestsByKey.containsKey(request.getKey()))
+                    requestsByKey.put(request.getKey(), request);
+            }
         }
 
         public boolean isRunning() {
-            if (isCancelled())
-                running = false;
-
-            return running;
+            return running && !isCancelled();
         }
 
-        public boolean canStart() {
+        public void updatePriority() {
+            int priority = Integer.MIN_VALUE;
             try {
-                if (isCancelled()) return false;
-                if (isRunning()) return false;
+                for (ImageRequest request : requests)
+                    if (request != null)
+                        priority = Math.max(priority, request.getPriority());
+                for (ImageRequest mergeRequest : mergeRequests)
+                    if (mergeRequest != null)
+                        priority = Math.max(priority, mergeRequest.getPriority());
             } catch (Exception e) {
             }
+            this.priority = priority != Integer.MIN_VALUE ? priority : ImageRequest.PRIORITY_NORMAL;
+        }
 
+        public boolean setPriority(String id, int priority) {
+            boolean changed = false;
             try {
-                if (loaderList != null) {
-                    synchronized (loaderList) {
-                        if (loaderCapacity >= 0 && loaderList.contains(this)) {
-                            int runningCount = 0;
-
-                            Iterator<Loader> loaderIterator = loaderList.iterator();
-                            while (loaderIterator.hasNext()) {
-                                Loader loader = loaderIterator.next();
-                                if (loader != null && loader.isRunning())
-                                    runningCount++;
-                                if (runningCount >= loaderCapacity)
-                                    return false;
-                            }
-                        }
+                for (ImageRequest request : requests) {
+                    if (request != null && request.isId(id)) {
+                        request.setPriority(priority);
+                        changed = true;
+                    }
+                }
+                for (ImageRequest mergeRequest : mergeRequests) {
+                    if (mergeRequest != null && mergeRequest.isId(id)) {
+                        mergeRequest.setPriority(priority);
+                        changed = true;
                     }
                 }
             } catch (Exception e) {
             }
-            return true;
+            return changed;
         }
 
         public boolean start() {
-            if (!canStart()) return false;
+            if (running || isCancelled()) return false;
 
             try {
-                if (!isCancelled()) {
+                if (requests != null && requests.size() > 0) {
                     try {
                         if (executor != null)
                             executeOnExecutor(executor);
@@ -523,8 +926,6 @@ public class ImageLoader {
 
         public void stop() {
             try {
-                running = false;
-
                 if (loaderList != null) {
                     synchronized (loaderList) {
                         if (loaderList.contains(this))
@@ -588,8 +989,11 @@ public class ImageLoader {
                         imageRequestIterator.remove();
                         removed = true;
 
+                        if (requestsByKey.get(imageRequest.getKey()) == imageRequest)
+                            requestsByKey.remove(imageRequest.getKey());
+
                         try {
-                            imageRequest.recycle(autoRecycle);
+                            imageRequest.recycle(autoRecycle, bitmapPool);
                         } catch (Exception e) {
                         }
                     }
@@ -618,7 +1022,7 @@ public class ImageLoader {
                         removed = true;
 
                         try {
-                            mergeRequest.recycle(autoRecycle);
+                            mergeRequest.recycle(autoRecycle, bitmapPool);
                         } catch (Exception e) {
                         }
                     }
@@ -653,6 +1057,10 @@ public class ImageLoader {
             return null;
         }
 
+        public ImageRequest getRequest(ImageKey key) {
+            return key != null ? requestsByKey.get(key) : null;
+        }
+
         public boolean hasMergeRequest(String id) {
             try {
                 for (ImageRequest mergeRequest : mergeRequests)
@@ -673,9 +1081,16 @@ public class ImageLoader {
             return null;
         }
 
+        private boolean containsInstance(List<ImageRequest> list, ImageRequest request) {
+            for (ImageRequest item : list)
+                if (item == request)
+                    return true;
+            return false;
+        }
+
         public boolean addMergeRequest(ImageRequest mergeRequest) {
             try {
-                if (mergeRequest != null && hasRequest(mergeRequest.id) && !mergeRequests.contains(mergeRequest)) {
+                if (mergeRequest != null && mergeRequest.hasId() && getRequest(mergeRequest.getKey()) != null && !containsInstance(mergeRequests, mergeRequest)) {
                     mergeRequests.add(mergeRequest);
                     return true;
                 }
@@ -689,8 +1104,6 @@ public class ImageLoader {
             if (requests == null)
                 return null;
 
-            running = true;
-
             try {
                 for (ImageRequest request : requests)
                     handleRequest(request);
@@ -704,13 +1117,26 @@ public class ImageLoader {
 
         private void handleRequest(ImageRequest request) {
             try {
-                Bitmap image = request.onLoad();
+                request.bitmapPool = bitmapPool;
+                if (request.bitmapConfig == null)
+                    applyFormat(request);
+
+                boolean decoded = false;
+
+                Bitmap image = scaleFromCache(request);
+                if (image == null)
+                    image = loadFromDisk(request);
+                if (image == null) {
+                    image = request.onLoad();
+                    decoded = true;
+                }
+
                 if (image != null && !image.isRecycled()) {
                     request.image = image;
                     request.resultCode = ImageRequest.RESULT_OK;
 
-                    if (request.storeRequest)
-                        pushRequest(request);
+                    if (decoded)
+                        storeOnDisk(request, image);
                 } else {
                     request.image = null;
                     request.resultCode = ImageRequest.NO_RESULT;
@@ -724,28 +1150,26 @@ public class ImageLoader {
         @Override
         protected void onPostExecute(Bitmap result) {
             try {
-                running = false;
-
-                if (loaderList != null) {
-                    synchronized (loaderList) {
-                        if (loaderList.contains(this))
-                            loaderList.remove(this);
-                    }
-                }
-
                 for (ImageRequest request : requests) {
                     try {
-                        request.onFinish(request.image);
+                        deliver(request);
+
+                        //Cached only once delivered, an eviction before that would recycle the image on its way to onFinish
+                        if (request.hasResultCode(ImageRequest.RESULT_OK))
+                            pushRequest(request);
                     } catch (Exception e) {
                     }
                 }
 
+                //Unlisted after the cache insert, so a request in between merges here instead of decoding again
+                finish();
+
                 for (ImageRequest mergeRequest : mergeRequests) {
                     try {
-                        ImageRequest request = getRequest(mergeRequest.id);
+                        ImageRequest request = getRequest(mergeRequest.getKey());
                         if (request != null)
                             request.applyTo(mergeRequest);
-                        mergeRequest.onFinish(mergeRequest.image);
+                        deliver(mergeRequest);
                     } catch (Exception e) {
                     }
                 }
@@ -757,6 +1181,20 @@ public class ImageLoader {
         @Override
         protected void onCancelled() {
             super.onCancelled();
+
+            //Requests may hold resources opened in onLoad which never reach onFinish now
+            for (ImageRequest request : requests) {
+                try {
+                    request.onCancelled();
+                } catch (Exception e) {
+                }
+            }
+            for (ImageRequest mergeRequest : mergeRequests) {
+                try {
+                    mergeRequest.onCancelled();
+                } catch (Exception e) {
+                }
+            }
             dispatch();
         }
 
@@ -766,12 +1204,30 @@ public class ImageLoader {
             dispatch();
         }
 
+        private void finish() {
+            synchronized (loaderList) {
+                if (running) {
+                    running = false;
+                    runningCount--;
+                }
+
+                if (queued) {
+                    queued = false;
+                    pendingLoaders.remove(this);
+                }
+
+                loaderList.remove(this);
+                unindex(this, null);
+            }
+        }
+
         public void dispatch() {
             try {
-                running = false;
+                finish();
 
                 requests.clear();
                 mergeRequests.clear();
+                requestsByKey.clear();
             } catch (Exception e) {
             }
 
@@ -0,0 +1,360 @@
+/*
+ * Copyright (c) 2020 ProDev+ (Pascal Gerner).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.simplelib.image;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapShader;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.LightingColorFilter;
+import android.graphics.Matrix;
+import android.graphics.Paint;
+import android.graphics.RectF;
+import android.graphics.Shader;
+import android.os.Build;
+
+import com.simplelib.tools.ImageTools;
+
+import java.util.Locale;
+
+public class ImageTransformation {
+    private static final int SCALE_CROP = 0;
+    private static final int SCALE_FIT = 1;
+
+    private static final int SHAPE_RECT = 0;
+    private static final int SHAPE_CIRCLE = 1;
+    private static final int SHAPE_ROUND_RECT = 2;
+
+    //Scaling
+    private int scaleMode;
+    private int width;
+    private int height;
+    private int imageOffset;
+
+    //Shape
+    private int shape;
+    private float cornerRadius;
+
+    //Decoration
+    private int borderColor;
+    private int borderWidth;
+    private int backgroundColor;
+
+    //Color
+    private int tintColor;
+    private float darkenValue;
+
+    public ImageTransformation() {
+        this.scaleMode = SCALE_CROP;
+        this.width = -1;
+        this.height = -1;
+        this.imageOffset = 0;
+
+        this.shape = SHAPE_RECT;
+        this.cornerRadius = 0f;
+
+        this.borderColor = Color.TRANSPARENT;
+        this.borderWidth = 0;
+        this.backgroundColor = Color.TRANSPARENT;
+
+        this.tintColor = Color.WHITE;
+        this.darkenValue = 0f;
+    }
+
+    public static ImageTransformation cropRound() {
+        return new ImageTransformation().crop().circle();
+    }
+
+    public ImageTransformation crop() {
+        return crop(-1, -1);
+    }
+
+    public ImageTransformation crop(int width, int height) {
+        this.scaleMode = SCALE_CROP;
+        setSize(width, height);
+        return this;
+    }
+
+    public ImageTransformation fit() {
+        return fit(-1, -1);
+    }
+
+    public ImageTransformation fit(int width, int height) {
+        this.scaleMode = SCALE_FIT;
+        setSize(width, height);
+        return this;
+    }
+
+    public ImageTransformation offset(int imageOffset) {
+        this.imageOffset = Math.max(imageOffset, 0);
+        return this;
+    }
+
+    public ImageTransformation circle() {
+        this.shape = SHAPE_CIRCLE;
+        this.cornerRadius = 0f;
+        return this;
+    }
+
+    public ImageTransformation round(float cornerRadius) {
+        this.shape = cornerRadius > 0f ? SHAPE_ROUND_RECT : SHAPE_RECT;
+        this.cornerRadius = Math.max(cornerRadius, 0f);
+        return this;
+    }
+
+    public ImageTransformation border(int borderColor, int borderWidth) {
+        this.borderColor = borderColor;
+        this.borderWidth = Math.max(borderWidth, 0);
+        return this;
+    }
+
+    public ImageTransformation background(int backgroundColor) {
+        this.backgroundColor = backgroundColor;
+        return this;
+    }
+
+    public ImageTransformation tint(int tintColor) {
+        this.tintColor = tintColor | 0xff000000;
+        return this;
+    }
+
+    public ImageTransformation darken(float darkenValue) {
+        this.darkenValue = Math.max(Math.min(darkenValue, 1f), 0f);
+        return this;
+    }
+
+    private void setSize(int width, int height) {
+        if (width <= 0 || height <= 0)
+            width = height = -1;
+
+        this.width = width;
+        this.height = height;
+    }
+
+    public String getDescription() {
+        StringBuilder builder = new StringBuilder();
+        builder.append(scaleMode == SCALE_FIT ? "fit" : "crop");
+        if (width > 0 && height > 0)
+            builder.append('(').append(width).append('x').append(height).append(')');
+        if (imageOffset > 0)
+            builder.append("|offset(").append(imageOffset).append(')');
+
+        if (shape == SHAPE_CIRCLE)
+            builder.append("|circle");
+        else if (shape == SHAPE_ROUND_RECT)
+            builder.append("|round(").append(formatFloat(cornerRadius)).append(')');
+
+        if (borderWidth > 0 && Color.alpha(borderColor) != 0)
+            builder.append("|border(").append(formatColor(borderColor)).append(',').append(borderWidth).append(')');
+        if (Color.alpha(backgroundColor) != 0)
+            builder.append("|background(").append(formatColor(backgroundColor)).append(')');
+
+        if (tintColor != Color.WHITE)
+            builder.append("|tint(").append(formatColor(tintColor)).append(')');
+        if (darkenValue > 0f)
+            builder.append("|darken(").append(formatFloat(darkenValue)).append(')');
+        return builder.toString();
+    }
+
+    public Bitmap apply(Bitmap image) {
+        return apply(image, null);
+    }
+
+    public Bitmap apply(Bitmap image, BitmapPool pool) {
+        return apply(image, pool, null);
+    }
+
+    public Bitmap apply(Bitmap image, BitmapPool pool, Bitmap.Config config) {
+        //RGB_565 drops the alpha channel, so translucent sources keep ARGB_8888
+        boolean lowMemory = config == Bitmap.Config.RGB_565 && !requiresAlpha() && image != null && !image.hasAlpha();
+        Bitmap output = render(image, pool, lowMemory ? Bitmap.Config.RGB_565 : Bitmap.Config.ARGB_8888);
+
+        try {
+            Bitmap converted = null;
+            if (config == Bitmap.Config.ALPHA_8)
+                converted = output.extractAlpha();
+            else if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O && config == Bitmap.Config.HARDWARE)
+                converted = output.copy(Bitmap.Config.HARDWARE, false);
+
+            if (converted != null && converted != output) {
+                if (pool != null)
+                    pool.put(output);
+                else
+                    output.recycle();
+                output = converted;
+            }
+        } catch (Exception e) {
+        }
+        return output;
+    }
+
+    public boolean requiresAlpha() {
+        return shape != SHAPE_RECT
+                || scaleMode == SCALE_FIT
+                || imageOffset > 0
+                || (borderWidth > 0 && Color.alpha(borderColor) != 0 && Color.alpha(borderColor) != 255);
+    }
+
+    public static Bitmap.Config getSourceConfig(Bitmap.Config config) {
+        //Sources are drawn through a software canvas, so only RGB_565 is kept for decoding
+        return config == Bitmap.Config.RGB_565 ? config : null;
+    }
+
+    private Bitmap render(Bitmap image, BitmapPool pool, Bitmap.Config config) {
+        if (image == null)
+            throw new NullPointerException("Image cannot be null");
+
+        int srcWidth = image.getWidth();
+        int srcHeight = image.getHeight();
+
+        int outWidth = width > 0 ? width : srcWidth;
+        int outHeight = height > 0 ? height : srcHeight;
+
+        Bitmap output = null;
+        if (pool != null)
+            output = pool.get(outWidth, outHeight, config);
+        if (output == null)
+            output = Bitmap.createBitmap(outWidth, outHeight, config);
+
+        Canvas canvas = new Canvas(output);
+        Paint paint = new Paint(Paint.ANTI_ALIAS_FLAG | Paint.FILTER_BITMAP_FLAG);
+
+        //Outer shape
+        RectF bounds = new RectF(0, 0, outWidth, outHeight);
+        if (shape == SHAPE_CIRCLE)
+            toSquare(bounds);
+
+        boolean hasBorder = borderWidth > 0 && Color.alpha(borderColor) != 0;
+        if (Color.alpha(backgroundColor) != 0) {
+            paint.setStyle(Paint.Style.FILL);
+            paint.setColor(backgroundColor);
+            drawShape(canvas, bounds, hasBorder ? borderWidth / 2f : 0f, paint);
+        }
+        if (hasBorder) {
+            paint.setStyle(Paint.Style.STROKE);
+            paint.setStrokeWidth(borderWidth);
+            paint.setColor(borderColor);
+            drawShape(canvas, bounds, borderWidth / 2f, paint);
+        }
+
+        //Image area
+        float inset = borderWidth + imageOffset;
+        RectF inner = new RectF(bounds);
+        inner.inset(inset, inset);
+        if (inner.width() <= 0f || inner.height() <= 0f)
+            return output;
+
+        double ratio = scaleMode == SCALE_FIT
+                ? ImageTools.getInsideRatio(srcWidth, srcHeight, Math.round(inner.width()), Math.round(inner.height()))
+                : ImageTools.getOutsideRatio(srcWidth, srcHeight, Math.round(inner.width()), Math.round(inner.height()));
+
+        float nextWidth = (float) (srcWidth * ratio);
+        float nextHeight = (float) (srcHeight * ratio);
+
+        RectF dst = new RectF(
+                inner.centerX() - nextWidth / 2f,
+                inner.centerY() - nextHeight / 2f,
+                inner.centerX() + nextWidth / 2f,
+                inner.centerY() + nextHeight / 2f);
+
+        paint.reset();
+        paint.setFlags(Paint.ANTI_ALIAS_FLAG | Paint.FILTER_BITMAP_FLAG);
+        if (tintColor != Color.WHITE || darkenValue > 0f)
+            paint.setColorFilter(new LightingColorFilter(getMultiplyColor(), 0));
+
+        canvas.save();
+        canvas.clipRect(dst.left > inner.left ? dst.left : inner.left,
+                dst.top > inner.top ? dst.top : inner.top,
+                dst.right < inner.right ? dst.right : inner.right,
+                dst.bottom < inner.bottom ? dst.bottom : inner.bottom);
+
+        if (shape == SHAPE_RECT) {
+            canvas.drawBitmap(image, null, dst, paint);
+        } else {
+            //Draw the image through a shader so the shape is masked in the same pass
+            Matrix matrix = new Matrix();
+            matrix.setRectToRect(new RectF(0, 0, srcWidth, srcHeight), dst, Matrix.ScaleToFit.FILL);
+
+            BitmapShader shader = new BitmapShader(image, Shader.TileMode.CLAMP, Shader.TileMode.CLAMP);
+            shader.setLocalMatrix(matrix);
+            paint.setShader(shader);
+
+            drawShape(canvas, bounds, inset, paint);
+        }
+
+        canvas.restore();
+        return output;
+    }
+
+    private void drawShape(Canvas canvas, RectF bounds, float inset, Paint paint) {
+        RectF rect = new RectF(bounds);
+        rect.inset(inset, inset);
+        if (rect.width() <= 0f || rect.height() <= 0f)
+            return;
+
+        if (shape == SHAPE_CIRCLE) {
+            canvas.drawCircle(rect.centerX(), rect.centerY(), Math.min(rect.width(), rect.height()) / 2f, paint);
+        } else if (shape == SHAPE_ROUND_RECT) {
+            float radius = Math.max(cornerRadius - inset, 0f);
+            canvas.drawRoundRect(rect, radius, radius, paint);
+        } else {
+            canvas.drawRect(rect, paint);
+        }
+    }
+
+    private int getMultiplyColor() {
+        float factor = 1f - darkenValue;
+        return Color.rgb(
+                Math.round(Color.red(tintColor) * factor),
+                Math.round(Color.green(tintColor) * factor),
+                Math.round(Color.blue(tintColor) * factor));
+    }
+
+    private static void toSquare(RectF rect) {
+        float size = Math.min(rect.width(), rect.height());
+        float left = rect.centerX() - size / 2f;
+        float top = rect.centerY() - size / 2f;
+        rect.set(left, top, left + size, top + size);
+    }
+
+    private static String formatColor(int color) {
+        return String.format(Locale.US, "%08x", color);
+    }
+
+    private static String formatFloat(float value) {
+        return String.format(Locale.US, "%.3f", value);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj)
+            return true;
+        if (!(obj instanceof ImageTransformation))
+            return false;
+        return getDescription().equals(((ImageTransformation) obj).getDescription());
+    }
+
+    @Override
+    public int hashCode() {
+        return getDescription().hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return getDescription();
+    }
+}
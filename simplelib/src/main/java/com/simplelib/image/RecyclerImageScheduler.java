@@ -0,0 +1,329 @@
+/*
+ * Copyright (c) 2020 ProDev+ (Pascal Gerner).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.simplelib.image;
+
+import android.view.View;
+
+import androidx.annotation.NonNull;
+import androidx.core.view.ViewCompat;
+import androidx.recyclerview.widget.RecyclerView;
+
+import com.simplelib.adapter.SimpleRecyclerAdapter;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+public class RecyclerImageScheduler implements RecyclerView.OnChildAttachStateChangeListener {
+    private static final String ARG_REQUEST_ID = "simplelib:imageRequestId";
+    private static final String ARG_REQUEST = "simplelib:imageRequest";
+
+    public static final int DEFAULT_PREFETCH_DISTANCE = 6;
+
+    //Items prefetched ahead even when scrolling slowly
+    private static final int MIN_PREFETCH_DISTANCE = 2;
+    //Frames of the current scroll speed to look ahead
+    private static final int PREFETCH_LOOKAHEAD_FRAMES = 8;
+
+    private final ImageLoader loader;
+    private RecyclerView recyclerView;
+
+    private int visiblePriority;
+    private int hiddenPriority;
+    private boolean cancelHidden;
+
+    //Prefetch
+    private final RecyclerView.OnScrollListener scrollListener;
+    private final LinkedHashMap<Integer, String> prefetched;
+
+    private int prefetchDistance;
+    private int prefetchPriority;
+    private int scrollDirection;
+
+    //Statistics
+    private long bindHitCount;
+    private long bindMissCount;
+    private long prefetchCount;
+    private long prefetchCancelCount;
+
+    public RecyclerImageScheduler(@NonNull ImageLoader loader) {
+        if (loader == null)
+            throw new NullPointerException("No loader attached");
+
+        this.loader = loader;
+
+        this.visiblePriority = ImageLoader.ImageRequest.PRIORITY_HIGH;
+        this.hiddenPriority = ImageLoader.ImageRequest.PRIORITY_LOW;
+        this.cancelHidden = false;
+
+        this.scrollListener = new RecyclerView.OnScrollListener() {
+            @Override
+            public void onScrolled(@NonNull RecyclerView recyclerView, int dx, int dy) {
+                onScroll(recyclerView, dx, dy);
+            }
+        };
+        this.prefetched = new LinkedHashMap<>();
+
+        this.prefetchDistance = DEFAULT_PREFETCH_DISTANCE;
+        this.prefetchPriority = ImageLoader.ImageRequest.PRIORITY_LOW;
+    }
+
+    public ImageLoader getLoader() {
+        return loader;
+    }
+
+    public RecyclerView getRecyclerView() {
+        return recyclerView;
+    }
+
+    public void setPriorities(int visiblePriority, int hiddenPriority) {
+        this.visiblePriority = visiblePriority;
+        this.hiddenPriority = hiddenPriority;
+    }
+
+    public void setCancelHidden(boolean cancelHidden) {
+        this.cancelHidden = cancelHidden;
+    }
+
+    public int getPrefetchDistance() {
+        return prefetchDistance;
+    }
+
+    public void setPrefetchDistance(int prefetchDistance) {
+        this.prefetchDistance = Math.max(prefetchDistance, 0);
+        if (this.prefetchDistance == 0)
+            cancelPrefetches();
+    }
+
+    public void setPrefetchPriority(int prefetchPriority) {
+        this.prefetchPriority = prefetchPriority;
+    }
+
+    public long getBindHitCount() {
+        return bindHitCount;
+    }
+
+    public long getBindMissCount() {
+        return bindMissCount;
+    }
+
+    public long getPrefetchCount() {
+        return prefetchCount;
+    }
+
+    public long getPrefetchCancelCount() {
+        return prefetchCancelCount;
+    }
+
+    public float getBindHitRatio() {
+        long bindCount = bindHitCount + bindMissCount;
+        return bindCount > 0 ? (float) bindHitCount / (float) bindCount : 0f;
+    }
+
+    public void resetStatistics() {
+        bindHitCount = 0;
+        bindMissCount = 0;
+        prefetchCount = 0;
+        prefetchCancelCount = 0;
+    }
+
+    public void attach(RecyclerView recyclerView) {
+        if (this.recyclerView == recyclerView)
+            return;
+
+        detach();
+
+        this.recyclerView = recyclerView;
+        if (recyclerView != null) {
+            recyclerView.addOnChildAttachStateChangeListener(this);
+            recyclerView.addOnScrollListener(scrollListener);
+        }
+    }
+
+    public void detach() {
+        if (recyclerView != null) {
+            recyclerView.removeOnChildAttachStateChangeListener(this);
+            recyclerView.removeOnScrollListener(scrollListener);
+        }
+        recyclerView = null;
+
+        cancelPrefetches();
+        scrollDirection = 0;
+    }
+
+    public void request(@NonNull SimpleRecyclerAdapter.ViewHolder holder, ImageLoader.ImageRequest request) {
+        String oldId = holder.removeArg(ARG_REQUEST_ID);
+        ImageLoader.ImageRequest oldRequest = holder.removeArg(ARG_REQUEST);
+        if (request == null || !request.hasId()) {
+            hide(oldId);
+            release(oldRequest);
+            return;
+        }
+
+        if (oldId != null && !request.isId(oldId))
+            hide(oldId);
+
+        holder.putArg(ARG_REQUEST_ID, request.getId());
+        holder.putArg(ARG_REQUEST, request);
+        request.setPriority(ViewCompat.isAttachedToWindow(holder.getItemView()) ? visiblePriority : ImageLoader.ImageRequest.PRIORITY_NORMAL);
+
+        //The holder draws the image until it is rebound or recycled, it releases the image then
+        request.setBindImage(true);
+
+        if (loader.isCached(request))
+            bindHitCount++;
+        else
+            bindMissCount++;
+
+        loader.request(request);
+
+        //Released after the new request, a cached image is bound again before the old binding goes
+        if (oldRequest != request)
+            release(oldRequest);
+    }
+
+    public void recycle(@NonNull SimpleRecyclerAdapter.ViewHolder holder) {
+        hide(holder.<String>removeArg(ARG_REQUEST_ID));
+        release(holder.<ImageLoader.ImageRequest>removeArg(ARG_REQUEST));
+    }
+
+    @Override
+    public void onChildViewAttachedToWindow(@NonNull View view) {
+        //Visible rows are no longer prefetches and must survive a direction change
+        RecyclerView recyclerView = this.recyclerView;
+        if (recyclerView != null)
+            prefetched.remove(recyclerView.getChildAdapterPosition(view));
+
+        String id = getRequestId(view);
+        if (id != null)
+            loader.setPriority(id, visiblePriority);
+    }
+
+    @Override
+    public void onChildViewDetachedFromWindow(@NonNull View view) {
+        hide(getRequestId(view));
+    }
+
+    private void onScroll(RecyclerView recyclerView, int dx, int dy) {
+        RecyclerView.LayoutManager layoutManager = recyclerView.getLayoutManager();
+        if (layoutManager == null || prefetchDistance <= 0)
+            return;
+
+        boolean vertical = layoutManager.canScrollVertically();
+        int delta = vertical ? dy : dx;
+        if (delta == 0)
+            return;
+
+        int direction = delta > 0 ? 1 : -1;
+        if (scrollDirection != 0 && direction != scrollDirection)
+            cancelPrefetches();
+        scrollDirection = direction;
+
+        prefetch(recyclerView, vertical, direction, Math.abs(delta));
+    }
+
+    private void prefetch(RecyclerView recyclerView, boolean vertical, int direction, int delta) {
+        RecyclerView.Adapter<?> adapter = recyclerView.getAdapter();
+        if (!(adapter instanceof SimpleRecyclerAdapter))
+            return;
+
+        int first = Integer.MAX_VALUE;
+        int last = -1;
+        long extent = 0;
+        int count = 0;
+        for (int i = 0; i < recyclerView.getChildCount(); i++) {
+            View child = recyclerView.getChildAt(i);
+            int pos = recyclerView.getChildAdapterPosition(child);
+            if (pos == RecyclerView.NO_POSITION)
+                continue;
+
+            first = Math.min(first, pos);
+            last = Math.max(last, pos);
+            extent += vertical ? child.getHeight() : child.getWidth();
+            count++;
+        }
+        if (count == 0)
+            return;
+
+        //Drop prefetches which are visible or already passed
+        Iterator<Map.Entry<Integer, String>> iterator = prefetched.entrySet().iterator();
+        while (iterator.hasNext()) {
+            int pos = iterator.next().getKey();
+            if (direction > 0 ? pos <= last : pos >= first)
+                iterator.remove();
+        }
+
+        //Look further ahead the faster the list moves
+        long itemExtent = Math.max(extent / count, 1);
+        int distance = (int) Math.min(prefetchDistance, MIN_PREFETCH_DISTANCE + (delta * PREFETCH_LOOKAHEAD_FRAMES) / itemExtent);
+
+        SimpleRecyclerAdapter<?, ?> simpleAdapter = (SimpleRecyclerAdapter<?, ?>) adapter;
+        int itemCount = simpleAdapter.getItemCount();
+        int start = direction > 0 ? last + 1 : first - 1;
+        for (int i = 0; i < distance; i++) {
+            int pos = start + i * direction;
+            if (pos < 0 || pos >= itemCount)
+                break;
+            if (prefetched.containsKey(pos))
+                continue;
+
+            ImageLoader.ImageRequest request = simpleAdapter.prefetch(pos);
+            if (request == null || !request.hasId() || loader.isCached(request))
+                continue;
+
+            request.setPriority(prefetchPriority);
+            loader.request(request);
+
+            prefetched.put(pos, request.getId());
+            prefetchCount++;
+        }
+    }
+
+    private void cancelPrefetches() {
+        for (String id : prefetched.values()) {
+            loader.cancelRequest(id);
+            prefetchCancelCount++;
+        }
+        prefetched.clear();
+    }
+
+    private void release(ImageLoader.ImageRequest request) {
+        if (request != null)
+            request.releaseImage();
+    }
+
+    private void hide(String id) {
+        if (id == null)
+            return;
+
+        if (cancelHidden)
+            loader.cancelRequest(id);
+        else
+            loader.setPriority(id, hiddenPriority);
+    }
+
+    private String getRequestId(View view) {
+        RecyclerView recyclerView = this.recyclerView;
+        if (recyclerView == null || view == null)
+            return null;
+
+        RecyclerView.ViewHolder holder = recyclerView.getChildViewHolder(view);
+        if (holder instanceof SimpleRecyclerAdapter.ViewHolder)
+            return ((SimpleRecyclerAdapter.ViewHolder) holder).getArg(ARG_REQUEST_ID);
+        return null;
+    }
+}
@@ -0,0 +1,507 @@
+/*
+ * Copyright (c) 2020 ProDev+ (Pascal Gerner).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.simplelib.image;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.BitmapRegionDecoder;
+import android.graphics.Rect;
+import android.os.Handler;
+import android.os.Looper;
+
+import com.simplelib.Logger;
+import com.simplelib.concurrent.util.ExecutorHelper;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+
+public class TiledImageDecoder {
+    // Logging
+    private static final String TAG = Logger.tagOf(TiledImageDecoder.class);
+
+    //Defaults
+    public static final int DEFAULT_TILE_SIZE = 256;
+    //Tile workers keep draining their queue while panning, they get their own threads
+    public static final int DEFAULT_TILE_POOL_SIZE = Math.max(1, Math.min(Runtime.getRuntime().availableProcessors() - 1, 2));
+    public static final long DEFAULT_TILE_KEEP_ALIVE_TIME = 10L * 1000L;
+
+    private static Executor defaultTileExecutor;
+
+    //Decoder
+    private final Object lock = new Object();
+
+    private final BitmapRegionDecoder decoder;
+    private final int width;
+    private final int height;
+
+    private final int tileSize;
+
+    private final Executor executor;
+    private final Handler handler;
+
+    private final LinkedHashMap<TileKey, Tile> tiles;
+    private final HashSet<TileKey> wantedTiles;
+    private final ArrayDeque<TileKey> pendingTiles;
+
+    private long maxCacheSize;
+    private long cacheSize;
+
+    private BitmapPool bitmapPool;
+    private Callback callback;
+
+    private boolean working;
+    private boolean recycled;
+
+    private final Runnable worker = new Runnable() {
+        @Override
+        public void run() {
+            while (true) {
+                TileKey key;
+                synchronized (lock) {
+                    key = pendingTiles.pollFirst();
+                    if (recycled || key == null) {
+                        working = false;
+                        return;
+                    }
+
+                    if (!wantedTiles.contains(key) || tiles.containsKey(key))
+                        continue;
+                }
+
+                final Tile tile = decodeTile(key);
+                if (tile != null) {
+                    handler.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            onTileDecoded(tile);
+                        }
+                    });
+                }
+            }
+        }
+    };
+
+    public TiledImageDecoder(BitmapRegionDecoder decoder) {
+        this(decoder, DEFAULT_TILE_SIZE, null);
+    }
+
+    public TiledImageDecoder(BitmapRegionDecoder decoder, int tileSize, Executor executor) {
+        if (decoder == null)
+            throw new NullPointerException("No decoder attached");
+
+        if (executor == null)
+            executor = getDefaultTileExecutor();
+
+        this.decoder = decoder;
+        this.width = decoder.getWidth();
+        this.height = decoder.getHeight();
+
+        this.tileSize = Math.max(tileSize, 16);
+
+        this.executor = executor;
+        this.handler = new Handler(Looper.getMainLooper());
+
+        this.tiles = new LinkedHashMap<>(16, 0.75f, true);
+        this.wantedTiles = new HashSet<>();
+        this.pendingTiles = new ArrayDeque<>();
+
+        this.maxCacheSize = getDefaultCacheSize();
+    }
+
+    public static TiledImageDecoder open(File file) throws IOException {
+        if (file == null)
+            throw new NullPointerException("No file attached");
+        return new TiledImageDecoder(BitmapRegionDecoder.newInstance(file.getAbsolutePath(), false));
+    }
+
+    public static TiledImageDecoder open(InputStream stream) throws IOException {
+        if (stream == null)
+            throw new NullPointerException("No stream attached");
+        return new TiledImageDecoder(BitmapRegionDecoder.newInstance(stream, false));
+    }
+
+    public static synchronized Executor getDefaultTileExecutor() {
+        if (defaultTileExecutor == null) {
+            defaultTileExecutor = ExecutorHelper.create(
+                    DEFAULT_TILE_POOL_SIZE,
+                    Integer.MAX_VALUE,
+                    DEFAULT_TILE_KEEP_ALIVE_TIME
+            );
+        }
+        return defaultTileExecutor;
+    }
+
+    public static long getDefaultCacheSize() {
+        try {
+            return Runtime.getRuntime().maxMemory() / 16;
+        } catch (Exception e) {
+        }
+        return 8L * 1024L * 1024L;
+    }
+
+    public static int calculateSampleSize(float scale) {
+        int sampleSize = 1;
+        if (scale <= 0f)
+            return sampleSize;
+
+        while (scale * sampleSize * 2 <= 1f)
+            sampleSize *= 2;
+        return sampleSize;
+    }
+
+    public final int getWidth() {
+        return width;
+    }
+
+    public final int getHeight() {
+        return height;
+    }
+
+    public final int getTileSize() {
+        return tileSize;
+    }
+
+    public void setBitmapPool(BitmapPool bitmapPool) {
+        synchronized (lock) {
+            this.bitmapPool = bitmapPool;
+        }
+    }
+
+    public void setCacheSize(long maxCacheSize) {
+        List<Bitmap> evictList;
+        BitmapPool pool;
+        synchronized (lock) {
+            this.maxCacheSize = maxCacheSize;
+
+            pool = bitmapPool;
+            evictList = trimLocked();
+        }
+
+        releaseAll(evictList, pool);
+    }
+
+    public void setCallback(Callback callback) {
+        synchronized (lock) {
+            this.callback = callback;
+        }
+    }
+
+    public boolean isRecycled() {
+        synchronized (lock) {
+            return recycled;
+        }
+    }
+
+    public Bitmap decodePreview(int reqWidth, int reqHeight) {
+        int sampleSize = 1;
+        if (reqWidth > 0 && reqHeight > 0) {
+            while (width / (sampleSize * 2) >= reqWidth || height / (sampleSize * 2) >= reqHeight)
+                sampleSize *= 2;
+        }
+
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inSampleSize = sampleSize;
+        try {
+            synchronized (lock) {
+                if (recycled)
+                    return null;
+            }
+            return decoder.decodeRegion(new Rect(0, 0, width, height), options);
+        } catch (OutOfMemoryError e) {
+            System.gc();
+        } catch (Exception e) {
+            Logger.w(TAG, "Failed to decode preview", e);
+        }
+        return null;
+    }
+
+    public List<Tile> getTiles(Rect viewport, int sampleSize) {
+        List<Tile> visibleTiles = new ArrayList<>();
+        if (viewport == null)
+            return visibleTiles;
+
+        sampleSize = Math.max(sampleSize, 1);
+        int regionSize = tileSize * sampleSize;
+
+        int left = Math.max(viewport.left, 0);
+        int top = Math.max(viewport.top, 0);
+        int right = Math.min(viewport.right, width);
+        int bottom = Math.min(viewport.bottom, height);
+        if (left >= right || top >= bottom)
+            return visibleTiles;
+
+        boolean startWorker = false;
+        synchronized (lock) {
+            if (recycled)
+                return visibleTiles;
+
+            wantedTiles.clear();
+            pendingTiles.clear();
+
+            for (int row = top / regionSize; row * regionSize < bottom; row++) {
+                for (int column = left / regionSize; column * regionSize < right; column++) {
+                    TileKey key = new TileKey(sampleSize, column, row);
+                    wantedTiles.add(key);
+
+                    Tile tile = tiles.get(key);
+                    if (tile != null && tile.hasBitmap())
+                        visibleTiles.add(tile);
+                    else
+                        pendingTiles.addLast(key);
+                }
+            }
+
+            if (!working && !pendingTiles.isEmpty()) {
+                working = true;
+                startWorker = true;
+            }
+        }
+
+        if (startWorker) {
+            try {
+                executor.execute(worker);
+            } catch (Exception e) {
+                Logger.w(TAG, "Failed to start tile decoding", e);
+
+                synchronized (lock) {
+                    working = false;
+                }
+            }
+        }
+        return visibleTiles;
+    }
+
+    public void evictAll() {
+        List<Bitmap> evictList = new ArrayList<>();
+        BitmapPool pool;
+        synchronized (lock) {
+            pool = bitmapPool;
+
+            for (Tile tile : tiles.values())
+                evictList.add(tile.bitmap);
+            tiles.clear();
+            cacheSize = 0;
+        }
+
+        releaseAll(evictList, pool);
+    }
+
+    public void recycle() {
+        synchronized (lock) {
+            if (recycled)
+                return;
+            recycled = true;
+
+            wantedTiles.clear();
+            pendingTiles.clear();
+            callback = null;
+        }
+
+        evictAll();
+
+        //Decoding holds the decoder lock, so this waits for a running tile
+        decoder.recycle();
+    }
+
+    private Tile decodeTile(TileKey key) {
+        int regionSize = tileSize * key.sampleSize;
+
+        Rect rect = new Rect(
+                key.column * regionSize,
+                key.row * regionSize,
+                Math.min((key.column + 1) * regionSize, width),
+                Math.min((key.row + 1) * regionSize, height));
+        if (rect.isEmpty())
+            return null;
+
+        int tileWidth = (rect.width() + key.sampleSize - 1) / key.sampleSize;
+        int tileHeight = (rect.height() + key.sampleSize - 1) / key.sampleSize;
+
+        BitmapPool pool;
+        synchronized (lock) {
+            pool = bitmapPool;
+        }
+
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inSampleSize = key.sampleSize;
+        options.inPreferredConfig = Bitmap.Config.ARGB_8888;
+        options.inMutable = true;
+        if (pool != null)
+            options.inBitmap = pool.getDirty(tileWidth, tileHeight, Bitmap.Config.ARGB_8888);
+
+        try {
+            Bitmap bitmap;
+            try {
+                bitmap = decoder.decodeRegion(rect, options);
+            } catch (IllegalArgumentException e) {
+                if (options.inBitmap == null)
+                    throw e;
+
+                //The pooled bitmap did not fit the tile, decode into a new one
+                pool.put(options.inBitmap);
+                options.inBitmap = null;
+                bitmap = decoder.decodeRegion(rect, options);
+            }
+
+            if (bitmap == null)
+                return null;
+            return new Tile(key, rect, bitmap);
+        } catch (OutOfMemoryError e) {
+            System.gc();
+        } catch (Exception e) {
+            if (!isRecycled())
+                Logger.w(TAG, "Failed to decode tile", e);
+        }
+        return null;
+    }
+
+    private void onTileDecoded(Tile tile) {
+        Callback callback;
+        BitmapPool pool;
+        List<Bitmap> evictList;
+        synchronized (lock) {
+            callback = this.callback;
+            pool = bitmapPool;
+
+            if (recycled || tiles.containsKey(tile.key)) {
+                evictList = new ArrayList<>(1);
+                evictList.add(tile.bitmap);
+            } else {
+                tiles.put(tile.key, tile);
+                cacheSize += ImageCache.sizeOf(tile.bitmap);
+                evictList = trimLocked();
+            }
+        }
+
+        releaseAll(evictList, pool);
+
+        if (callback != null && !evictList.contains(tile.bitmap))
+            callback.onTileLoaded(tile);
+    }
+
+    private List<Bitmap> trimLocked() {
+        List<Bitmap> evictList = new ArrayList<>();
+
+        //Evict tiles that are off-screen first, then visible ones if still over budget
+        for (int pass = 0; pass < 2 && cacheSize > Math.max(maxCacheSize, 0); pass++) {
+            Iterator<Map.Entry<TileKey, Tile>> iterator = tiles.entrySet().iterator();
+            while (cacheSize > Math.max(maxCacheSize, 0) && iterator.hasNext()) {
+                Map.Entry<TileKey, Tile> entry = iterator.next();
+                if (pass == 0 && wantedTiles.contains(entry.getKey()))
+                    continue;
+
+                iterator.remove();
+                cacheSize -= ImageCache.sizeOf(entry.getValue().bitmap);
+                evictList.add(entry.getValue().bitmap);
+            }
+        }
+        return evictList;
+    }
+
+    private static void releaseAll(List<Bitmap> bitmaps, BitmapPool pool) {
+        for (Bitmap bitmap : bitmaps) {
+            if (bitmap == null)
+                continue;
+
+            if (pool != null) {
+                pool.put(bitmap);
+            } else {
+                try {
+                    if (!bitmap.isRecycled())
+                        bitmap.recycle();
+                } catch (Exception e) {
+                }
+            }
+        }
+    }
+
+    public static final class Tile {
+        private final TileKey key;
+        private final Rect rect;
+        private final Bitmap bitmap;
+
+        private Tile(TileKey key, Rect rect, Bitmap bitmap) {
+            this.key = key;
+            this.rect = rect;
+            this.bitmap = bitmap;
+        }
+
+        public int getSampleSize() {
+            return key.sampleSize;
+        }
+
+        public Rect getRect() {
+            return new Rect(rect);
+        }
+
+        public void getRect(Rect outRect) {
+            outRect.set(rect);
+        }
+
+        public Bitmap getBitmap() {
+            return bitmap;
+        }
+
+        public boolean hasBitmap() {
+            return bitmap != null && !bitmap.isRecycled();
+        }
+    }
+
+    private static final class TileKey {
+        private final int sampleSize;
+        private final int column;
+        private final int row;
+
+        private TileKey(int sampleSize, int column, int row) {
+            this.sampleSize = sampleSize;
+            this.column = column;
+            this.row = row;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj)
+                return true;
+            if (!(obj instanceof TileKey))
+                return false;
+
+            TileKey key = (TileKey) obj;
+            return sampleSize == key.sampleSize && column == key.column && row == key.row;
+        }
+
+        @Override
+        public int hashCode() {
+            int hash = sampleSize;
+            hash = 31 * hash + column;
+            hash = 31 * hash + row;
+            return hash;
+        }
+    }
+
+    public interface Callback {
+        void onTileLoaded(Tile tile);
+    }
+}
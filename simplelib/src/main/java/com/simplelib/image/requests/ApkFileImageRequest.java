@@ -23,6 +23,8 @@ import android.graphics.Bitmap;
 import android.graphics.Canvas;
 import android.graphics.drawable.Drawable;
 
+import com.simplelib.image.ImageDiskCache;
+import com.simplelib.image.ImageKey;
 import com.simplelib.image.ImageLoader;
 import com.simplelib.tools.ImageTools;
 
@@ -79,6 +81,21 @@ public abstract class ApkFileImageRequest extends ImageLoader.ImageRequest {
         this.cropRound = cropRound;
     }
 
+    @Override
+    public ImageKey getKey() {
+        return new ImageKey(getId(), reqWidth, reqHeight, ImageKey.cropRound(cropRound));
+    }
+
+    @Override
+    public boolean isScalable() {
+        return true;
+    }
+
+    @Override
+    public String getDiskKey() {
+        return ImageDiskCache.createKey(apkFile, getKey());
+    }
+
     @Override
     public Bitmap onLoad() {
         try {
@@ -23,6 +23,7 @@ import android.content.pm.ResolveInfo;
 import android.graphics.Bitmap;
 import android.graphics.drawable.Drawable;
 
+import com.simplelib.image.ImageKey;
 import com.simplelib.image.ImageLoader;
 import com.simplelib.tools.ImageTools;
 
@@ -67,6 +68,16 @@ public abstract class AppIconImageRequest extends ImageLoader.ImageRequest {
         this.reqHeight = reqHeight;
     }
 
+    @Override
+    public ImageKey getKey() {
+        return new ImageKey(getId(), reqWidth, reqHeight, null);
+    }
+
+    @Override
+    public boolean isScalable() {
+        return true;
+    }
+
     @Override
     public Bitmap onLoad() {
         if (manager != null && info != null) {
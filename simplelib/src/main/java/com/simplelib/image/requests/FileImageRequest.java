@@ -18,9 +18,10 @@ package com.simplelib.image.requests;
 
 import android.graphics.Bitmap;
 
+import com.simplelib.image.ImageKey;
 import com.simplelib.image.ImageLoader;
+import com.simplelib.image.ImageTransformation;
 import com.simplelib.tools.ImageLoaderTools;
-import com.simplelib.tools.ImageTools;
 
 import java.io.File;
 
@@ -29,6 +30,7 @@ public abstract class FileImageRequest extends ImageLoader.ImageRequest {
     private int reqWidth, reqHeight;
 
     private boolean cropRound;
+    private ImageTransformation transformation;
 
     public FileImageRequest(File file) {
         this(file, -1);
@@ -60,11 +62,35 @@ public abstract class FileImageRequest extends ImageLoader.ImageRequest {
         this.cropRound = cropRound;
     }
 
+    public ImageTransformation getTransformation() {
+        if (transformation == null && cropRound)
+            return ImageTransformation.cropRound();
+        return transformation;
+    }
+
+    public void setTransformation(ImageTransformation transformation) {
+        this.transformation = transformation;
+    }
+
+    @Override
+    public ImageKey getKey() {
+        ImageTransformation transformation = getTransformation();
+        return new ImageKey(getId(), reqWidth, reqHeight, describeFormat(transformation != null ? transformation.getDescription() : null));
+    }
+
+    @Override
+    public boolean isScalable() {
+        return true;
+    }
+
     @Override
     public Bitmap onLoad() {
-        Bitmap image = ImageLoaderTools.loadInReqSize(file, reqWidth, reqHeight);
-        if (cropRound)
-            image = ImageTools.cropBitmap(image, true);
+        Bitmap.Config config = getBitmapConfig();
+        ImageTransformation transformation = getTransformation();
+
+        Bitmap image = ImageLoaderTools.loadInReqSize(file, reqWidth, reqHeight, getBitmapPool(), transformation != null ? ImageTransformation.getSourceConfig(config) : config);
+        if (transformation != null && image != null)
+            image = replaceImage(image, transformation.apply(image, getBitmapPool(), config));
         return image;
     }
 
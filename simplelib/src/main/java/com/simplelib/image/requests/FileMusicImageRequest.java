@@ -19,9 +19,11 @@ package com.simplelib.image.requests;
 import android.graphics.Bitmap;
 import android.media.MediaMetadataRetriever;
 
+import com.simplelib.image.ImageDiskCache;
+import com.simplelib.image.ImageKey;
 import com.simplelib.image.ImageLoader;
+import com.simplelib.image.ImageTransformation;
 import com.simplelib.tools.ImageLoaderTools;
-import com.simplelib.tools.ImageTools;
 
 import java.io.File;
 
@@ -30,6 +32,7 @@ public abstract class FileMusicImageRequest extends ImageLoader.ImageRequest {
     private int reqWidth, reqHeight;
 
     private boolean cropRound;
+    private ImageTransformation transformation;
 
     public FileMusicImageRequest(File file) {
         this(file, -1);
@@ -61,6 +64,32 @@ public abstract class FileMusicImageRequest extends ImageLoader.ImageRequest {
         this.cropRound = cropRound;
     }
 
+    public ImageTransformation getTransformation() {
+        if (transformation == null && cropRound)
+            return ImageTransformation.cropRound();
+        return transformation;
+    }
+
+    public void setTransformation(ImageTransformation transformation) {
+        this.transformation = transformation;
+    }
+
+    @Override
+    public ImageKey getKey() {
+        ImageTransformation transformation = getTransformation();
+        return new ImageKey(getId(), reqWidth, reqHeight, describeFormat(transformation != null ? transformation.getDescription() : null));
+    }
+
+    @Override
+    public boolean isScalable() {
+        return true;
+    }
+
+    @Override
+    public String getDiskKey() {
+        return ImageDiskCache.createKey(file, getKey());
+    }
+
     @Override
     public Bitmap onLoad() {
         MediaMetadataRetriever retriever = new MediaMetadataRetriever();
@@ -68,9 +97,12 @@ public abstract class FileMusicImageRequest extends ImageLoader.ImageRequest {
 
         byte[] imageBytes = retriever.getEmbeddedPicture();
 
-        Bitmap image = ImageLoaderTools.loadInReqSize(imageBytes, reqWidth, reqHeight);
-        if (cropRound)
-            image = ImageTools.cropBitmap(image, true);
+        Bitmap.Config config = getBitmapConfig();
+        ImageTransformation transformation = getTransformation();
+
+        Bitmap image = ImageLoaderTools.loadInReqSize(imageBytes, reqWidth, reqHeight, getBitmapPool(), transformation != null ? ImageTransformation.getSourceConfig(config) : config);
+        if (transformation != null && image != null)
+            image = replaceImage(image, transformation.apply(image, getBitmapPool(), config));
         return image;
     }
 
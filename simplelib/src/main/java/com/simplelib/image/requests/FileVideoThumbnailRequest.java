@@ -20,6 +20,8 @@ import android.graphics.Bitmap;
 import android.media.ThumbnailUtils;
 import android.provider.MediaStore;
 
+import com.simplelib.image.ImageDiskCache;
+import com.simplelib.image.ImageKey;
 import com.simplelib.image.ImageLoader;
 import com.simplelib.tools.ImageTools;
 
@@ -56,6 +58,19 @@ public abstract class FileVideoThumbnailRequest extends ImageLoader.ImageRequest
         this.cropRound = cropRound;
     }
 
+    @Override
+    public ImageKey getKey() {
+        String transformation = "kind:" + type;
+        if (cropRound)
+            transformation += "," + ImageKey.TRANSFORM_CROP_ROUND;
+        return new ImageKey(getId(), ImageKey.ORIGINAL_SIZE, ImageKey.ORIGINAL_SIZE, transformation);
+    }
+
+    @Override
+    public String getDiskKey() {
+        return ImageDiskCache.createKey(file, getKey());
+    }
+
     @Override
     public Bitmap onLoad() {
         Bitmap image = ThumbnailUtils.createVideoThumbnail(file.getAbsolutePath(), type);
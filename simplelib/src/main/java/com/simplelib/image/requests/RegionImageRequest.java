@@ -0,0 +1,153 @@
+/*
+ * Copyright (c) 2020 ProDev+ (Pascal Gerner).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.simplelib.image.requests;
+
+import android.graphics.Bitmap;
+
+import com.simplelib.image.BitmapPool;
+import com.simplelib.image.ImageKey;
+import com.simplelib.image.ImageLoader;
+import com.simplelib.image.TiledImageDecoder;
+
+import java.io.File;
+
+public abstract class RegionImageRequest extends ImageLoader.ImageRequest {
+    public static final String TRANSFORM_REGION = "region";
+
+    private File file;
+    private int previewWidth, previewHeight;
+
+    private DecoderHolder decoder;
+
+    public RegionImageRequest(File file, int previewSize) {
+        this(file, previewSize, previewSize);
+    }
+
+    public RegionImageRequest(File file, int previewWidth, int previewHeight) {
+        super(file.getAbsolutePath());
+
+        this.file = file;
+        this.previewWidth = previewWidth;
+        this.previewHeight = previewHeight;
+
+        //The decoder holds an open file, it is handed to the caller instead of being cached
+        setStoreRequest(false);
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    public TiledImageDecoder getDecoder() {
+        DecoderHolder decoder = this.decoder;
+        return decoder != null ? decoder.decoder : null;
+    }
+
+    @Override
+    public ImageKey getKey() {
+        return new ImageKey(getId(), previewWidth, previewHeight, TRANSFORM_REGION);
+    }
+
+    @Override
+    public Bitmap onLoad() {
+        releaseDecoder();
+
+        TiledImageDecoder decoder = null;
+        try {
+            decoder = TiledImageDecoder.open(file);
+            decoder.setBitmapPool(getBitmapPool());
+
+            Bitmap preview = decoder.decodePreview(previewWidth, previewHeight);
+            if (preview != null) {
+                this.decoder = new DecoderHolder(decoder);
+                return preview;
+            }
+        } catch (Exception e) {
+        }
+
+        if (decoder != null)
+            decoder.recycle();
+        return null;
+    }
+
+    @Override
+    public void applyTo(ImageLoader.ImageRequest request) {
+        super.applyTo(request);
+
+        if (request instanceof RegionImageRequest && request != this) {
+            RegionImageRequest regionImageRequest = (RegionImageRequest) request;
+
+            DecoderHolder decoder = this.decoder;
+            if (decoder != null)
+                decoder.acquire();
+            regionImageRequest.releaseDecoder();
+            regionImageRequest.decoder = decoder;
+        }
+    }
+
+    @Override
+    public void recycle(boolean destroyImage) {
+        super.recycle(destroyImage);
+        releaseDecoder();
+    }
+
+    @Override
+    public void recycle(boolean destroyImage, BitmapPool pool) {
+        super.recycle(destroyImage, pool);
+        releaseDecoder();
+    }
+
+    @Override
+    protected void onCancelled() {
+        releaseDecoder();
+    }
+
+    private void releaseDecoder() {
+        DecoderHolder decoder = this.decoder;
+        this.decoder = null;
+        if (decoder != null)
+            decoder.release();
+    }
+
+    public static void cancelRequest(ImageLoader loader, File file) {
+        if (loader != null && file != null)
+            loader.cancelRequest(file.getAbsolutePath());
+    }
+
+    //Merged requests share one decoder, it is closed once the last of them lets go
+    private static final class DecoderHolder {
+        private final TiledImageDecoder decoder;
+        private int references;
+
+        private DecoderHolder(TiledImageDecoder decoder) {
+            this.decoder = decoder;
+            this.references = 1;
+        }
+
+        private synchronized void acquire() {
+            references++;
+        }
+
+        private void release() {
+            synchronized (this) {
+                if (--references > 0)
+                    return;
+            }
+            decoder.recycle();
+        }
+    }
+}
@@ -27,6 +27,7 @@ import android.graphics.Typeface;
 import android.util.DisplayMetrics;
 import android.util.TypedValue;
 
+import com.simplelib.image.ImageKey;
 import com.simplelib.image.ImageLoader;
 import com.simplelib.tools.ImageTools;
 
@@ -128,6 +129,11 @@ public abstract class TextImageRequest extends ImageLoader.ImageRequest {
         this.cropRound = cropRound;
     }
 
+    @Override
+    public ImageKey getKey() {
+        return new ImageKey(getId(), reqWidth, reqHeight, ImageKey.cropRound(cropRound));
+    }
+
     @Override
     public Bitmap onLoad() {
         int sizeX = reqWidth;
@@ -20,9 +20,10 @@ import android.content.Context;
 import android.graphics.Bitmap;
 import android.net.Uri;
 
+import com.simplelib.image.ImageKey;
 import com.simplelib.image.ImageLoader;
+import com.simplelib.image.ImageTransformation;
 import com.simplelib.tools.ImageLoaderTools;
-import com.simplelib.tools.ImageTools;
 
 public abstract class UriImageRequest extends ImageLoader.ImageRequest {
     private Context context;
@@ -31,6 +32,7 @@ public abstract class UriImageRequest extends ImageLoader.ImageRequest {
     private int reqWidth, reqHeight;
 
     private boolean cropRound;
+    private ImageTransformation transformation;
 
     public UriImageRequest(Context context, Uri uri) {
         this(context, uri, -1);
@@ -64,11 +66,35 @@ public abstract class UriImageRequest extends ImageLoader.ImageRequest {
         this.cropRound = cropRound;
     }
 
+    public ImageTransformation getTransformation() {
+        if (transformation == null && cropRound)
+            return ImageTransformation.cropRound();
+        return transformation;
+    }
+
+    public void setTransformation(ImageTransformation transformation) {
+        this.transformation = transformation;
+    }
+
+    @Override
+    public ImageKey getKey() {
+        ImageTransformation transformation = getTransformation();
+        return new ImageKey(getId(), reqWidth, reqHeight, describeFormat(transformation != null ? transformation.getDescription() : null));
+    }
+
+    @Override
+    public boolean isScalable() {
+        return true;
+    }
+
     @Override
     public Bitmap onLoad() {
-        Bitmap image = ImageLoaderTools.loadInReqSize(context, uri, reqWidth, reqHeight);
-        if (cropRound)
-            image = ImageTools.cropBitmap(image, true);
+        Bitmap.Config config = getBitmapConfig();
+        ImageTransformation transformation = getTransformation();
+
+        Bitmap image = ImageLoaderTools.loadInReqSize(context, uri, reqWidth, reqHeight, getBitmapPool(), transformation != null ? ImageTransformation.getSourceConfig(config) : config);
+        if (transformation != null && image != null)
+            image = replaceImage(image, transformation.apply(image, getBitmapPool(), config));
         return image;
     }
 
@@ -20,7 +20,10 @@ import android.os.Handler;
 import android.os.Looper;
 
 import com.simplelib.Logger;
+import com.simplelib.concurrent.task.executor.ExecutorTaskSpawner;
+import com.simplelib.concurrent.util.ExecutorHelper;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
@@ -29,6 +32,8 @@ import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
 
 public abstract class ListLoader<K, V, E> {
     // Logging
@@ -52,6 +57,8 @@ public abstract class ListLoader<K, V, E> {
 
     public static final int FLAG_DO_NOT_STORE = 2048;
 
+    public static final int FLAG_PUBLISH_DELTA = 4096;
+
     // Flag usages
     public static final int USAGE_NONE = FLAG_NONE;
     public static final int USAGE_CLEAR = FLAG_NONE | FLAG_CLEAR;
@@ -76,16 +83,22 @@ public abstract class ListLoader<K, V, E> {
     // ListLoader
     private final Object lock = new Object();
 
-    private IMap<K, E> map;
+    private volatile IMap<K, E> map;
 
     private Looper looper;
     private Handler handler;
 
+    private Executor executor;
+    private Executor keyExecutor;
+
     private long lastExecution;
     private boolean lastExecutionRunning;
 
     private Task task;
 
+    private int maxConcurrentKeys;
+    private final HashMap<K, Task> tasks = new HashMap<>();
+
     private OnLoadingListener<K, V, E> onLoadingListener;
 
     private boolean accessible;
@@ -107,6 +120,10 @@ public abstract class ListLoader<K, V, E> {
     }
 
     public ListLoader(IMap<K, E> map, Looper looper) {
+        this(map, looper, null);
+    }
+
+    public ListLoader(IMap<K, E> map, Looper looper, Executor executor) {
         if (map == null)
             map = new ListMap<>();
         this.map = map;
@@ -116,40 +133,88 @@ public abstract class ListLoader<K, V, E> {
             this.handler = new Handler(this.looper);
         else
             this.handler = new Handler();
+        this.executor = executor;
         this.lastExecution = -1;
     }
 
     public final IMap<K, E> getMap() {
-        synchronized (map) {
-            return map;
-        }
+        return map;
     }
 
     public void setMap(IMap<K, E> map) {
-        if (map != null) {
-            synchronized (map) {
-                this.map = null;
-            }
-        }
-
         if (map == null)
             map = new ListMap<>();
         this.map = map;
     }
 
+    public final Executor getExecutor() {
+        if (executor == null)
+            return Loader.getDefaultExecutor();
+        return executor;
+    }
+
+    public final void setExecutor(Executor executor) {
+        synchronized (lock) {
+            this.executor = executor;
+            this.keyExecutor = null;
+        }
+    }
+
+    public final void setTaskSpawner(ExecutorTaskSpawner taskSpawner) {
+        setExecutor(taskSpawner != null ? taskSpawner.mExecutor : null);
+    }
+
+    public final boolean isMultiKeyLoading() {
+        return maxConcurrentKeys > 0;
+    }
+
+    public final int getMaxConcurrentKeys() {
+        return maxConcurrentKeys;
+    }
+
+    public final void setMultiKeyLoading(int maxConcurrentKeys) {
+        synchronized (lock) {
+            if (Math.max(maxConcurrentKeys, 0) == this.maxConcurrentKeys)
+                return;
+
+            release();
+
+            this.maxConcurrentKeys = Math.max(maxConcurrentKeys, 0);
+            this.keyExecutor = null;
+        }
+    }
+
+    private Executor getLoaderExecutor() {
+        synchronized (lock) {
+            if (maxConcurrentKeys <= 0)
+                return executor;
+
+            if (keyExecutor == null)
+                keyExecutor = new LimitedExecutor(getExecutor(), maxConcurrentKeys);
+            return keyExecutor;
+        }
+    }
+
     public final void setOnLoadingListener(OnLoadingListener<K, V, E> onLoadingListener) {
         this.onLoadingListener = onLoadingListener;
     }
 
     public final boolean isAccessible() {
+        Task task = currentTask();
         return accessible ||
                 (task != null && task.isAccessible());
     }
 
     public final void setAccessible(boolean accessible) {
-        this.accessible = accessible;
-        if (task != null)
-            task.setAccessible(accessible);
+        synchronized (lock) {
+            this.accessible = accessible;
+            if (task != null)
+                task.setAccessible(accessible);
+            for (Task task : tasks.values()) {
+                if (task != null)
+                    task.setAccessible(accessible);
+            }
+        }
     }
 
     public final boolean canExecute(final long lockDelay, final boolean lockIfRunning) {
@@ -247,34 +312,44 @@ public abstract class ListLoader<K, V, E> {
     }
 
     public final void clearLists() {
-        synchronized (map) {
-            HashMap<K, List<E>> tempMap = new HashMap<>();
-            try {
-                map.applyTo(tempMap);
-                map.clear();
-            } catch (Exception e) {
-                Logger.w(TAG, "Failed to clear map", e);
-            }
+        IMap<K, E> map = this.map;
 
-            for (Map.Entry<K, List<E>> listEntry : tempMap.entrySet()) {
-                if (listEntry == null) continue;
+        HashMap<K, List<E>> tempMap = new HashMap<>();
+        try {
+            map.applyTo(tempMap);
+        } catch (Exception e) {
+            Logger.w(TAG, "Failed to clear map", e);
+        }
+
+        for (Map.Entry<K, List<E>> listEntry : tempMap.entrySet()) {
+            if (listEntry == null) continue;
 
-                K key = listEntry.getKey();
-                List<E> list = listEntry.getValue();
+            K key = listEntry.getKey();
+            List<E> list = null;
 
+            synchronized (map.getLock(key)) {
                 try {
-                    onListRemoved(key, list);
+                    list = map.removeKey(key);
                 } catch (Exception e) {
-                    Logger.w(TAG, "Failed to handle list removal", e);
+                    Logger.w(TAG, "Failed to clear map", e);
                 }
             }
 
-            tempMap.clear();
+            if (list == null) continue;
+
+            try {
+                onListRemoved(key, list);
+            } catch (Exception e) {
+                Logger.w(TAG, "Failed to handle list removal", e);
+            }
         }
+
+        tempMap.clear();
     }
 
     public final boolean hasList(K key) {
-        synchronized (map) {
+        IMap<K, E> map = this.map;
+        synchronized (map.getLock(key)) {
             try {
                 return map.contains(key);
             } catch (Exception e) {
@@ -285,7 +360,8 @@ public abstract class ListLoader<K, V, E> {
     }
 
     public final List<E> getList(K key, boolean createIfNeeded) {
-        synchronized (map) {
+        IMap<K, E> map = this.map;
+        synchronized (map.getLock(key)) {
             List<E> list = null;
             try {
                 if (map.contains(key))
@@ -312,7 +388,8 @@ public abstract class ListLoader<K, V, E> {
     }
 
     public final boolean removeList(K key) {
-        synchronized (map) {
+        IMap<K, E> map = this.map;
+        synchronized (map.getLock(key)) {
             if (hasList(key)) {
                 List<E> list = null;
                 try {
@@ -334,12 +411,78 @@ public abstract class ListLoader<K, V, E> {
         }
     }
 
+    @SuppressWarnings("unchecked")
+    public final PagedList<E> getPagedList(final K key, final V value, int pageSize, int windowPages) {
+        IMap<K, E> map = this.map;
+        synchronized (map.getLock(key)) {
+            List<E> list = null;
+            try {
+                if (map.contains(key))
+                    list = map.getKey(key);
+            } catch (Exception e) {
+                Logger.w(TAG, "Failed to get list from map", e);
+            }
+            if (list instanceof PagedList)
+                return (PagedList<E>) list;
+
+            // Without pages every read would fail and be retried forever
+            if (!(this instanceof PageLoader))
+                throw new UnsupportedOperationException("Paged loading needs a loader implementing ListLoader.PageLoader");
+            final PageLoader<K, V, E> pageLoader = (PageLoader<K, V, E>) this;
+
+            PagedList<E> pagedList = new PagedList<>(new PagedList.PageSource<E>() {
+                @Override
+                public int loadCount() throws Exception {
+                    return pageLoader.onLoadPageCount(key, value);
+                }
+
+                @Override
+                public List<E> loadPage(int page, int pageSize) throws Exception {
+                    return pageLoader.onLoadPage(key, value, page, pageSize);
+                }
+            }, pageSize, windowPages, getExecutor());
+
+            try {
+                map.putKey(key, pagedList);
+            } catch (Exception e) {
+                Logger.w(TAG, "Failed to set new list into map", e);
+            }
+
+            try {
+                onListCreated(key, pagedList);
+            } catch (Exception e) {
+                Logger.w(TAG, "Failed to handle list creation", e);
+            }
+
+            pagedList.refresh();
+            return pagedList;
+        }
+    }
+
     public final boolean has(int v, int c) {
         return (v & c) == c;
     }
 
     public final boolean isStarted() {
         synchronized (lock) {
+            if (isMultiKeyLoading()) {
+                for (Task task : tasks.values()) {
+                    if (task != null && task.isStarted())
+                        return true;
+                }
+                return false;
+            }
+
+            if (task == null)
+                return false;
+
+            return task.isStarted();
+        }
+    }
+
+    public final boolean isStarted(K key) {
+        synchronized (lock) {
+            Task task = getKeyTask(key);
             if (task == null)
                 return false;
 
@@ -349,6 +492,24 @@ public abstract class ListLoader<K, V, E> {
 
     public final boolean isLoading() {
         synchronized (lock) {
+            if (isMultiKeyLoading()) {
+                for (Task task : tasks.values()) {
+                    if (task != null && task.isLoading())
+                        return true;
+                }
+                return false;
+            }
+
+            if (task == null)
+                return false;
+
+            return task.isLoading();
+        }
+    }
+
+    public final boolean isLoading(K key) {
+        synchronized (lock) {
+            Task task = getKeyTask(key);
             if (task == null)
                 return false;
 
@@ -388,8 +549,12 @@ public abstract class ListLoader<K, V, E> {
                 loading = false;
             }
 
+            List<E> list = null;
             if (loading) {
-                release();
+                if (isMultiKeyLoading())
+                    release(key);
+                else
+                    release();
                 task = null;
 
                 try {
@@ -399,8 +564,15 @@ public abstract class ListLoader<K, V, E> {
                 }
 
                 boolean createListIfNeeded = !has(flags, FLAG_DO_NOT_STORE);
-                List<E> list = getList(key, createListIfNeeded);
+                list = getList(key, createListIfNeeded);
 
+                if (list instanceof PagedList) {
+                    ((PagedList<E>) list).refresh();
+                    loading = false;
+                }
+            }
+
+            if (loading) {
                 try {
                     list = onPrepareList(flags, key, value, list);
                 } catch (Exception e) {
@@ -409,12 +581,17 @@ public abstract class ListLoader<K, V, E> {
 
                 task = new Task(flags, key, value, list, comparator, onLoadingListener);
                 task.setAccessible(accessible);
+                if (isMultiKeyLoading())
+                    tasks.put(key, task);
                 try {
                     task.start();
                 } catch (Exception e) {
                     Logger.w(TAG, "Failed start the background loading task", e);
 
-                    release();
+                    if (isMultiKeyLoading())
+                        release(key);
+                    else
+                        release();
                     task = null;
 
                     loading = false;
@@ -440,26 +617,54 @@ public abstract class ListLoader<K, V, E> {
 
     public final boolean cancel() {
         synchronized (lock) {
-            if (task == null)
-                return false;
+            if (isMultiKeyLoading()) {
+                boolean canceled = false;
+                for (Task task : tasks.values())
+                    canceled |= cancelTask(task);
+                return canceled;
+            }
 
-            boolean canceled = false;
-            if (task.isLoading()) {
-                try {
-                    task.cancel();
-                    canceled = true;
-                } catch (Exception e) {
-                    Logger.wtf(TAG, "Failed to cancel the current loader", e);
-                }
+            return cancelTask(task);
+        }
+    }
+
+    public final boolean cancel(K key) {
+        synchronized (lock) {
+            return cancelTask(getKeyTask(key));
+        }
+    }
+
+    private boolean cancelTask(Task task) {
+        if (task == null)
+            return false;
+
+        // Queued loaders are only started, they have to be canceled before they get a thread
+        boolean canceled = false;
+        if (task.isStarted() && !task.isEnded()) {
+            try {
+                task.cancel();
+                canceled = true;
+            } catch (Exception e) {
+                Logger.wtf(TAG, "Failed to cancel the current loader", e);
             }
+        }
 
-            return canceled;
+        // A task waiting for a key slot leaves the queue, it never runs and is finished here
+        Executor executor = task.getExecutor();
+        if (canceled && executor instanceof LimitedExecutor && ((LimitedExecutor) executor).remove(task)) {
+            try {
+                task.onFinish(false, task.getState());
+            } catch (Exception e) {
+                Logger.w(TAG, "Failed to finish the canceled loader", e);
+            }
         }
+
+        return canceled;
     }
 
     public final boolean release() {
         synchronized (lock) {
-            if (task == null)
+            if (task == null && tasks.isEmpty())
                 return false;
 
             boolean released = false;
@@ -469,32 +674,86 @@ public abstract class ListLoader<K, V, E> {
                 Logger.w(TAG, "Failed to release the current loader", e);
             }
             task = null;
+            tasks.clear();
 
             return released;
         }
     }
 
-    public final void throwIfNoLoader() {
+    public final boolean release(K key) {
+        synchronized (lock) {
+            Task task = getKeyTask(key);
+            if (task == null)
+                return false;
+
+            boolean released = false;
+            try {
+                released = cancelTask(task);
+            } catch (Exception e) {
+                Logger.w(TAG, "Failed to release the current loader", e);
+            }
+            if (this.task == task)
+                this.task = null;
+            if (tasks.get(key) == task)
+                tasks.remove(key);
+
+            return released;
+        }
+    }
+
+    private Task getKeyTask(K key) {
+        synchronized (lock) {
+            if (isMultiKeyLoading())
+                return tasks.get(key);
+
+            Task task = this.task;
+            if (task == null)
+                return null;
+
+            K taskKey = task.getKey();
+            if (taskKey == key || (taskKey != null && taskKey.equals(key)))
+                return task;
+            return null;
+        }
+    }
+
+    private Task currentTask() {
+        synchronized (lock) {
+            if (isMultiKeyLoading()) {
+                for (Task task : tasks.values()) {
+                    if (task != null && task.isLoaderThread())
+                        return task;
+                }
+            }
+            return task;
+        }
+    }
+
+    private Task currentTaskOrThrow() {
+        Task task = currentTask();
         if (task == null)
             throw new IllegalStateException("No current loader");
+        return task;
+    }
+
+    public final void throwIfNoLoader() {
+        currentTaskOrThrow();
     }
 
     public final void throwIfInvalidThread() {
-        throwIfNoLoader();
-        task.throwIfInvalidThread();
+        currentTaskOrThrow().throwIfInvalidThread();
     }
 
     public final void throwIfNotLoading() {
-        throwIfNoLoader();
-        task.throwIfNotLoading();
+        currentTaskOrThrow().throwIfNotLoading();
     }
 
     public final void throwIfNotLoaderThread() {
-        throwIfNoLoader();
-        task.throwIfNotLoaderThread();
+        currentTaskOrThrow().throwIfNotLoaderThread();
     }
 
     public final boolean isLoaderThread() {
+        Task task = currentTask();
         if (task == null)
             return false;
         return task.isLoaderThread();
@@ -531,14 +790,25 @@ public abstract class ListLoader<K, V, E> {
             onLoadingListener.onListChanged(key, value, list);
     }
 
+    protected void onListDelta(K key, V value, ListDelta<E> delta) {
+        if (onLoadingListener != null)
+            onLoadingListener.onListDelta(key, value, delta);
+    }
+
     protected void onListLoaded(boolean success, int state, int flags, K key, V value, List<E> list) {
         if (onLoadingListener != null)
             onLoadingListener.onListLoaded(success, state, flags, key, value, list);
     }
 
     protected void onDispatchLoader(K key, Task task) {
-        if (this.task == task)
-            release();
+        synchronized (lock) {
+            if (isMultiKeyLoading()) {
+                if (getKeyTask(key) == task)
+                    release(key);
+            } else if (this.task == task) {
+                release();
+            }
+        }
     }
 
     protected int onModifyFlags(int flags) {
@@ -585,6 +855,14 @@ public abstract class ListLoader<K, V, E> {
         if (!accessible)
             throwIfNotLoaderThread();
 
+        return currentTask();
+    }
+
+    protected final Task getTask(K key) {
+        Task task = getKeyTask(key);
+        if (!accessible && task != null)
+            task.throwIfNotLoaderThread();
+
         return task;
     }
 
@@ -592,7 +870,7 @@ public abstract class ListLoader<K, V, E> {
         if (!accessible)
             throwIfNotLoaderThread();
 
-        return task.getListInterface();
+        return currentTaskOrThrow().getListInterface();
     }
 
     protected final boolean publish() {
@@ -601,7 +879,7 @@ public abstract class ListLoader<K, V, E> {
         else
             throwIfNoLoader();
 
-        return task.publish();
+        return currentTaskOrThrow().publish();
     }
 
     protected final boolean publish(long lockDelay) {
@@ -610,7 +888,7 @@ public abstract class ListLoader<K, V, E> {
         else
             throwIfNoLoader();
 
-        return task.publish(lockDelay);
+        return currentTaskOrThrow().publish(lockDelay);
     }
 
     protected final boolean publish(long lockDelay, boolean lockIfRunning) {
@@ -619,7 +897,7 @@ public abstract class ListLoader<K, V, E> {
         else
             throwIfNoLoader();
 
-        return task.publish(lockDelay, lockIfRunning);
+        return currentTaskOrThrow().publish(lockDelay, lockIfRunning);
     }
 
     protected final boolean publish(long lockDelay, boolean lockIfRunning, boolean copyList) {
@@ -628,7 +906,7 @@ public abstract class ListLoader<K, V, E> {
         else
             throwIfNoLoader();
 
-        return task.publish(lockDelay, lockIfRunning, copyList);
+        return currentTaskOrThrow().publish(lockDelay, lockIfRunning, copyList);
     }
 
     // ListLoader task
@@ -660,6 +938,8 @@ public abstract class ListLoader<K, V, E> {
         }
 
         private Task(int flags, K key, V value, List<E> srcList, Comparator<E> comparator, OnLoadingListener<K, V, E> onLoadingListener) {
+            super(ListLoader.this.getLoaderExecutor());
+
             this.flags = flags;
 
             this.key = key;
@@ -741,6 +1021,14 @@ public abstract class ListLoader<K, V, E> {
             boolean error = false;
             boolean fatalError = false;
 
+            if (srcList != null) {
+                try {
+                    ListLoader.this.getMap().prepareList(key, srcList);
+                } catch (Exception e) {
+                    Logger.w(TAG, "Failed to prepare the source list", e);
+                }
+            }
+
             final boolean canLoad = hasFlag(FLAG_LOAD) ||
                     (hasFlag(FLAG_LOAD_IF_EMPTY) && (srcList == null || srcList.isEmpty())) ||
                     (hasFlag(FLAG_LOAD_IF_FILLED) && (srcList != null && !srcList.isEmpty()));
@@ -785,6 +1073,9 @@ public abstract class ListLoader<K, V, E> {
                     Logger.w(TAG, "Failed to handle list loading", e);
                 }
 
+                if (hasFlag(FLAG_PUBLISH_DELTA))
+                    listInterface.startRecording();
+
                 try {
                     success = ListLoader.this.onLoad(this, flags, key, value, listInterface);
                     error = false;
@@ -852,6 +1143,12 @@ public abstract class ListLoader<K, V, E> {
                         }
                     }
                 }
+
+                try {
+                    ListLoader.this.getMap().onListStored(key, srcList);
+                } catch (Exception e) {
+                    Logger.w(TAG, "Failed to handle the stored list", e);
+                }
             }
 
             if (error)
@@ -912,6 +1209,9 @@ public abstract class ListLoader<K, V, E> {
             if (!canExecute(lockDelay, lockIfRunning))
                 return false;
 
+            if (hasFlag(FLAG_PUBLISH_DELTA))
+                return publishDelta(lockDelay, lockIfRunning);
+
             if (copyList)
                 copyToTempList();
 
@@ -930,6 +1230,30 @@ public abstract class ListLoader<K, V, E> {
             }, lockDelay, lockIfRunning);
         }
 
+        private boolean publishDelta(final long lockDelay, final boolean lockIfRunning) {
+            final ListDelta<E> delta = listInterface.takeDelta();
+            if (delta == null || delta.isEmpty())
+                return false;
+
+            boolean executed = execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        onListDelta(key, value, delta);
+                    } catch (Exception e) {
+                        Logger.w(TAG, "Failed to publish the current progress", e);
+                    }
+                }
+            }, lockDelay, lockIfRunning);
+
+            if (!executed) {
+                synchronized (list) {
+                    listInterface.invalidateDelta();
+                }
+            }
+            return executed;
+        }
+
         private void onListLoading(K key, V value, List<E> list) {
             try {
                 if (onLoadingListener != null)
@@ -960,6 +1284,21 @@ public abstract class ListLoader<K, V, E> {
             }
         }
 
+        private void onListDelta(K key, V value, ListDelta<E> delta) {
+            try {
+                if (onLoadingListener != null)
+                    onLoadingListener.onListDelta(key, value, delta);
+            } catch (Exception e) {
+                Logger.w(TAG, "Failed to handle a list change", e);
+            }
+
+            try {
+                ListLoader.this.onListDelta(key, value, delta);
+            } catch (Exception e) {
+                Logger.w(TAG, "Failed to handle a list change", e);
+            }
+        }
+
         private void onListLoaded(boolean success, int state, int flags, K key, V value, List<E> list) {
             try {
                 if (onLoadingListener != null)
@@ -993,19 +1332,49 @@ public abstract class ListLoader<K, V, E> {
         public static final int STATE_ERROR = 32;
         public static final int STATE_SUCCESS = 64;
 
+        // Default executor
+        public static final int DEFAULT_POOL_SIZE = Math.max(2, Math.min(Runtime.getRuntime().availableProcessors() - 1, 4));
+        public static final long DEFAULT_KEEP_ALIVE_TIME = 30L * 1000L;
+
+        private static Executor defaultExecutor;
+
         // Loader
+        private final Object threadLock = new Object();
+
+        private final Executor executor;
+
         private Thread thread;
-        private int state;
+        private volatile int state;
 
         public Loader() {
-            try {
-                thread = new Thread(this);
-                state = STATE_NONE;
-            } catch (Exception e) {
-                Logger.wtf(TAG, "Failed to create loader", e);
+            this(null);
+        }
 
-                state = STATE_ENDED | STATE_ERROR;
+        public Loader(Executor executor) {
+            if (executor == null)
+                executor = getDefaultExecutor();
+            this.executor = executor;
+
+            state = STATE_NONE;
+        }
+
+        public static synchronized Executor getDefaultExecutor() {
+            if (defaultExecutor == null) {
+                defaultExecutor = ExecutorHelper.create(
+                        DEFAULT_POOL_SIZE,
+                        Integer.MAX_VALUE,
+                        DEFAULT_KEEP_ALIVE_TIME
+                );
             }
+            return defaultExecutor;
+        }
+
+        public static synchronized void setDefaultExecutor(Executor executor) {
+            defaultExecutor = executor;
+        }
+
+        public final Executor getExecutor() {
+            return executor;
         }
 
         public final void start() {
@@ -1015,8 +1384,8 @@ public abstract class ListLoader<K, V, E> {
                 throw new IllegalStateException("Loader is already started");
 
             try {
-                thread.start();
                 state = STATE_STARTED;
+                executor.execute(this);
             } catch (Exception e) {
                 Logger.wtf(TAG, "Failed to start loader", e);
 
@@ -1030,15 +1399,18 @@ public abstract class ListLoader<K, V, E> {
             if ((!isStarted() && !isLoading()) || isEnded())
                 throw new IllegalStateException("Loader is not running");
 
-            state &= ~STATE_LOADING;
+            synchronized (threadLock) {
+                state &= ~STATE_LOADING;
 
-            try {
-                thread.interrupt();
-                state |= STATE_ENDED | STATE_CANCELED;
-            } catch (Exception e) {
-                Logger.wtf(TAG, "Failed to cancel loader", e);
+                try {
+                    if (thread != null)
+                        thread.interrupt();
+                    state |= STATE_ENDED | STATE_CANCELED;
+                } catch (Exception e) {
+                    Logger.wtf(TAG, "Failed to cancel loader", e);
 
-                state |= STATE_ENDED | STATE_ERROR;
+                    state |= STATE_ENDED | STATE_ERROR;
+                }
             }
         }
 
@@ -1091,8 +1463,10 @@ public abstract class ListLoader<K, V, E> {
 
         public final boolean isLoaderThread() {
             try {
-                if (thread != Thread.currentThread())
-                    return false;
+                synchronized (threadLock) {
+                    if (thread == null || thread != Thread.currentThread())
+                        return false;
+                }
             } catch (Exception e) {
             }
 
@@ -1101,22 +1475,48 @@ public abstract class ListLoader<K, V, E> {
 
         @Override
         public final void run() {
+            synchronized (threadLock) {
+                if (thread != null)
+                    return;
+                thread = Thread.currentThread();
+            }
+
+            try {
+                runLoader();
+            } finally {
+                synchronized (threadLock) {
+                    thread = null;
+
+                    // Pooled threads are reused, so a pending cancel must not leak into the next loader
+                    Thread.interrupted();
+                }
+            }
+        }
+
+        private void runLoader() {
             if (!isStarted() ||
                     isLoading()) return;
 
-            if (!isEnded()) {
-                state |= STATE_LOADING;
+            // A cancel that arrives while the loader is still queued ends it before it loads
+            boolean load;
+            synchronized (threadLock) {
+                load = !isEnded();
+                if (load)
+                    state |= STATE_LOADING;
+            }
 
+            if (load) {
                 try {
                     boolean success = onLoad();
 
-                    if (!isEnded()) {
-                        if (success) {
-                            state |= STATE_ENDED | STATE_SUCCESS;
-                        } else {
-                            state |= STATE_ENDED;
-                        }
-                    } else {
+                    boolean ended;
+                    synchronized (threadLock) {
+                        ended = isEnded();
+                        if (!ended)
+                            state |= success ? STATE_ENDED | STATE_SUCCESS : STATE_ENDED;
+                    }
+
+                    if (ended) {
                         try {
                             System.gc();
                         } catch (Exception ge) {
@@ -1130,11 +1530,11 @@ public abstract class ListLoader<K, V, E> {
                     } catch (Exception ge) {
                     }
 
-                    state |= STATE_ENDED | STATE_ERROR;
+                    addState(STATE_ENDED | STATE_ERROR);
                 } catch (Exception e) {
                     Logger.w(TAG, "Loading resulted in an exception", e);
 
-                    state |= STATE_ENDED | STATE_ERROR;
+                    addState(STATE_ENDED | STATE_ERROR);
                 } catch (Throwable tr) {
                     Logger.e(TAG, "Loading resulted in a fatal exception", tr);
 
@@ -1143,10 +1543,12 @@ public abstract class ListLoader<K, V, E> {
                     } catch (Exception ge) {
                     }
 
-                    state |= STATE_ENDED | STATE_ERROR;
+                    addState(STATE_ENDED | STATE_ERROR);
                 }
 
-                state &= ~STATE_LOADING;
+                synchronized (threadLock) {
+                    state &= ~STATE_LOADING;
+                }
             }
 
             if (isLoading() || !isEnded())
@@ -1159,15 +1561,101 @@ public abstract class ListLoader<K, V, E> {
             }
         }
 
+        private void addState(int state) {
+            synchronized (threadLock) {
+                this.state |= state;
+            }
+        }
+
         protected abstract boolean onLoad() throws Exception;
         protected abstract void onFinish(boolean success, int state);
     }
 
+    // ListLoader limited executor
+    private static final class LimitedExecutor implements Executor {
+        private final Executor executor;
+        private final int limit;
+
+        private final ArrayDeque<Runnable> queue = new ArrayDeque<>();
+        private int running;
+
+        private LimitedExecutor(Executor executor, int limit) {
+            if (executor == null)
+                throw new NullPointerException("No executor attached");
+            this.executor = executor;
+            this.limit = Math.max(limit, 1);
+        }
+
+        @Override
+        public void execute(Runnable command) {
+            if (command == null)
+                throw new NullPointerException("No command attached");
+
+            synchronized (queue) {
+                if (running >= limit) {
+                    queue.offer(command);
+                    return;
+                }
+                running++;
+            }
+
+            try {
+                dispatch(command);
+            } catch (RuntimeException e) {
+                scheduleNext();
+                throw e;
+            }
+        }
+
+        private boolean remove(Runnable command) {
+            synchronized (queue) {
+                return queue.remove(command);
+            }
+        }
+
+        private void dispatch(final Runnable command) {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        command.run();
+                    } finally {
+                        scheduleNext();
+                    }
+                }
+            });
+        }
+
+        private void scheduleNext() {
+            while (true) {
+                Runnable command;
+                synchronized (queue) {
+                    command = queue.poll();
+                    if (command == null) {
+                        running--;
+                        return;
+                    }
+                }
+
+                try {
+                    dispatch(command);
+                    return;
+                } catch (Exception e) {
+                    Logger.w(TAG, "Failed to dispatch queued loader", e);
+                }
+            }
+        }
+    }
+
     // ListLoader list interface
     public static abstract class ListInterface<E> implements Iterable<E> {
         private final List<E> list;
         private final Comparator<E> comparator;
 
+        private boolean recording;
+        private boolean invalidated;
+        private ArrayList<ListDelta.Change<E>> changes;
+
         public ListInterface() {
             this(null);
         }
@@ -1211,6 +1699,7 @@ public abstract class ListLoader<K, V, E> {
                 public void remove() {
                     synchronized (list) {
                         listIterator.remove();
+                        invalidateDelta();
                     }
                 }
             };
@@ -1219,6 +1708,11 @@ public abstract class ListLoader<K, V, E> {
         public final List<E> getList() {
             onInvokeInterface();
 
+            if (list != null) {
+                synchronized (list) {
+                    invalidateDelta();
+                }
+            }
             return list;
         }
 
@@ -1241,6 +1735,8 @@ public abstract class ListLoader<K, V, E> {
                 } catch (Exception e) {
                     Logger.w(TAG, "List modification failed", e);
                     return false;
+                } finally {
+                    invalidateDelta();
                 }
             }
         }
@@ -1263,6 +1759,8 @@ public abstract class ListLoader<K, V, E> {
                     Logger.w(TAG, "List modification failed", e);
                     return false;
                 } finally {
+                    invalidateDelta();
+
                     try {
                         list.clear();
                         list.addAll(tempList);
@@ -1293,6 +1791,7 @@ public abstract class ListLoader<K, V, E> {
                             pos = ~pos;
 
                         list.add(pos, element);
+                        recordChange(ListDelta.TYPE_INSERT, pos, element);
                         return true;
                     } catch (Exception e) {
                         Logger.w(TAG, "List modification failed", e);
@@ -1301,7 +1800,10 @@ public abstract class ListLoader<K, V, E> {
 
                 if (canIgnoreSorting) {
                     try {
-                        return list.add(element);
+                        boolean added = list.add(element);
+                        if (added)
+                            recordChange(ListDelta.TYPE_INSERT, list.size() - 1, element);
+                        return added;
                     } catch (Exception e) {
                         Logger.w(TAG, "List modification failed", e);
                     }
@@ -1350,7 +1852,9 @@ public abstract class ListLoader<K, V, E> {
 
             synchronized (list) {
                 try {
+                    int size = list.size();
                     list.clear();
+                    recordChanges(ListDelta.TYPE_REMOVE, 0, size, null);
                 } catch (Exception e) {
                     Logger.w(TAG, "List modification failed", e);
                 }
@@ -1413,7 +1917,10 @@ public abstract class ListLoader<K, V, E> {
 
             synchronized (list) {
                 try {
-                    return list.add(element);
+                    boolean added = list.add(element);
+                    if (added)
+                        recordChange(ListDelta.TYPE_INSERT, list.size() - 1, element);
+                    return added;
                 } catch (Exception e) {
                     Logger.w(TAG, "List modification failed", e);
                     return false;
@@ -1430,6 +1937,7 @@ public abstract class ListLoader<K, V, E> {
             synchronized (list) {
                 try {
                     list.add(index, element);
+                    recordChange(ListDelta.TYPE_INSERT, index, element);
                 } catch (Exception e) {
                     Logger.w(TAG, "List modification failed", e);
                 }
@@ -1444,7 +1952,11 @@ public abstract class ListLoader<K, V, E> {
 
             synchronized (list) {
                 try {
-                    return list.addAll(elements);
+                    int size = list.size();
+                    boolean added = list.addAll(elements);
+                    if (added)
+                        recordChanges(ListDelta.TYPE_INSERT, size, list.size() - size, list);
+                    return added;
                 } catch (Exception e) {
                     Logger.w(TAG, "List modification failed", e);
                     return false;
@@ -1460,7 +1972,11 @@ public abstract class ListLoader<K, V, E> {
 
             synchronized (list) {
                 try {
-                    return list.addAll(index, elements);
+                    int size = list.size();
+                    boolean added = list.addAll(index, elements);
+                    if (added)
+                        recordChanges(ListDelta.TYPE_INSERT, index, list.size() - size, list);
+                    return added;
                 } catch (Exception e) {
                     Logger.w(TAG, "List modification failed", e);
                     return false;
@@ -1476,7 +1992,9 @@ public abstract class ListLoader<K, V, E> {
 
             synchronized (list) {
                 try {
-                    return list.set(index, element);
+                    E oldElement = list.set(index, element);
+                    recordChange(ListDelta.TYPE_CHANGE, index, element);
+                    return oldElement;
                 } catch (Exception e) {
                     Logger.w(TAG, "List modification failed", e);
                     return null;
@@ -1492,7 +2010,16 @@ public abstract class ListLoader<K, V, E> {
 
             synchronized (list) {
                 try {
-                    return list.remove(element);
+                    if (!recording)
+                        return list.remove(element);
+
+                    int index = list.indexOf(element);
+                    if (index < 0)
+                        return false;
+
+                    list.remove(index);
+                    recordChange(ListDelta.TYPE_REMOVE, index, null);
+                    return true;
                 } catch (Exception e) {
                     Logger.w(TAG, "List modification failed", e);
                     return false;
@@ -1508,7 +2035,9 @@ public abstract class ListLoader<K, V, E> {
 
             synchronized (list) {
                 try {
-                    return list.remove(index);
+                    E oldElement = list.remove(index);
+                    recordChange(ListDelta.TYPE_REMOVE, index, null);
+                    return oldElement;
                 } catch (Exception e) {
                     Logger.w(TAG, "List modification failed", e);
                     return null;
@@ -1524,7 +2053,10 @@ public abstract class ListLoader<K, V, E> {
 
             synchronized (list) {
                 try {
-                    return list.removeAll(elements);
+                    boolean removed = list.removeAll(elements);
+                    if (removed)
+                        invalidateDelta();
+                    return removed;
                 } catch (Exception e) {
                     Logger.w(TAG, "List modification failed", e);
                     return false;
@@ -1540,7 +2072,10 @@ public abstract class ListLoader<K, V, E> {
 
             synchronized (list) {
                 try {
-                    return list.retainAll(elements);
+                    boolean removed = list.retainAll(elements);
+                    if (removed)
+                        invalidateDelta();
+                    return removed;
                 } catch (Exception e) {
                     Logger.w(TAG, "List modification failed", e);
                     return false;
@@ -1552,9 +2087,187 @@ public abstract class ListLoader<K, V, E> {
             onInvokeInterface();
         }
 
+        private void startRecording() {
+            synchronized (list) {
+                recording = true;
+                invalidated = false;
+                changes = new ArrayList<>();
+            }
+        }
+
+        private void invalidateDelta() {
+            if (!recording)
+                return;
+
+            invalidated = true;
+            changes.clear();
+        }
+
+        private void recordChange(int type, int position, E element) {
+            if (!recording || invalidated)
+                return;
+
+            ListDelta.Change<E> lastChange = changes.isEmpty() ? null : changes.get(changes.size() - 1);
+            if (lastChange != null && lastChange.append(type, position, element))
+                return;
+
+            ListDelta.Change<E> change = new ListDelta.Change<>(type, position);
+            change.append(type, position, element);
+            changes.add(change);
+        }
+
+        private void recordChanges(int type, int position, int count, List<E> source) {
+            for (int i = 0; i < count; i++) {
+                if (!recording || invalidated)
+                    return;
+
+                E element = source != null ? source.get(position + i) : null;
+                recordChange(type, type == ListDelta.TYPE_REMOVE ? position : position + i, element);
+            }
+        }
+
+        private ListDelta<E> takeDelta() {
+            synchronized (list) {
+                if (!recording)
+                    return null;
+
+                ListDelta<E> delta;
+                if (invalidated)
+                    delta = new ListDelta<>(null, new ArrayList<>(list));
+                else
+                    delta = new ListDelta<>(changes, null);
+
+                invalidated = false;
+                changes = new ArrayList<>();
+                return delta;
+            }
+        }
+
         protected abstract void onInvokeInterface();
     }
 
+    // ListLoader list delta
+    public static final class ListDelta<E> {
+        // Change types
+        public static final int TYPE_INSERT = 1;
+        public static final int TYPE_REMOVE = 2;
+        public static final int TYPE_CHANGE = 3;
+
+        // ListDelta
+        private final List<Change<E>> changes;
+        private final List<E> list;
+
+        private ListDelta(List<Change<E>> changes, List<E> list) {
+            if (list != null) {
+                this.changes = Collections.emptyList();
+                this.list = Collections.unmodifiableList(list);
+            } else {
+                this.changes = Collections.unmodifiableList(changes);
+                this.list = null;
+            }
+        }
+
+        public boolean isReset() {
+            return list != null;
+        }
+
+        public boolean isEmpty() {
+            return list == null && changes.isEmpty();
+        }
+
+        public List<Change<E>> getChanges() {
+            return changes;
+        }
+
+        public List<E> getList() {
+            return list;
+        }
+
+        public void applyTo(List<E> target) {
+            if (target == null)
+                return;
+
+            synchronized (target) {
+                if (list != null) {
+                    target.clear();
+                    target.addAll(list);
+                    return;
+                }
+
+                for (Change<E> change : changes) {
+                    int position = change.getPosition();
+                    int count = change.getCount();
+
+                    switch (change.getType()) {
+                        case TYPE_INSERT:
+                            target.addAll(position, change.getElements());
+                            break;
+                        case TYPE_REMOVE:
+                            target.subList(position, position + count).clear();
+                            break;
+                        case TYPE_CHANGE:
+                            for (int i = 0; i < count; i++)
+                                target.set(position + i, change.getElements().get(i));
+                            break;
+                    }
+                }
+            }
+        }
+
+        // ListDelta change
+        public static final class Change<E> {
+            private final int type;
+            private final int position;
+            private int count;
+
+            private final ArrayList<E> elements;
+
+            private Change(int type, int position) {
+                this.type = type;
+                this.position = position;
+                this.count = 0;
+
+                this.elements = type != TYPE_REMOVE ? new ArrayList<E>() : null;
+            }
+
+            private boolean append(int type, int position, E element) {
+                if (this.type != type)
+                    return false;
+
+                boolean adjacent;
+                if (type == TYPE_REMOVE)
+                    adjacent = position == this.position;
+                else
+                    adjacent = position == this.position + count;
+                if (!adjacent)
+                    return false;
+
+                count++;
+                if (elements != null)
+                    elements.add(element);
+                return true;
+            }
+
+            public int getType() {
+                return type;
+            }
+
+            public int getPosition() {
+                return position;
+            }
+
+            public int getCount() {
+                return count;
+            }
+
+            public List<E> getElements() {
+                if (elements == null)
+                    return Collections.emptyList();
+                return Collections.unmodifiableList(elements);
+            }
+        }
+    }
+
     // ListLoader map
     public interface IMap<K, E> {
         void applyTo(Map<K, List<E>> map);
@@ -1564,6 +2277,17 @@ public abstract class ListLoader<K, V, E> {
         List<E> getKey(K key);
         List<E> putKey(K key, List<E> list);
         List<E> removeKey(K key);
+
+        default Object getLock(K key) {
+            return this;
+        }
+
+        // Called on the loader thread before a load reads its source list
+        default void prepareList(K key, List<E> list) {
+        }
+
+        default void onListStored(K key, List<E> list) {
+        }
     }
 
     // ListLoader list map
@@ -1639,6 +2363,129 @@ public abstract class ListLoader<K, V, E> {
         }
     }
 
+    // ListLoader concurrent list map
+    public static class ConcurrentListMap<K, E> implements IMap<K, E> {
+        // Defaults
+        public static final int DEFAULT_STRIPE_COUNT = 16;
+
+        private static final Object NULL_KEY = new Object();
+
+        // ConcurrentListMap
+        private final ConcurrentHashMap<Object, List<E>> map;
+        private final Object[] locks;
+
+        public ConcurrentListMap() {
+            this(DEFAULT_STRIPE_COUNT);
+        }
+
+        public ConcurrentListMap(int stripeCount) {
+            this.map = new ConcurrentHashMap<>();
+
+            int size = 1;
+            while (size < stripeCount && size < (1 << 16))
+                size <<= 1;
+
+            this.locks = new Object[size];
+            for (int i = 0; i < size; i++)
+                this.locks[i] = new Object();
+        }
+
+        public ConcurrentListMap(Map<? extends K, ? extends List<E>> map) {
+            this(DEFAULT_STRIPE_COUNT);
+
+            if (map != null) {
+                synchronized (map) {
+                    for (Map.Entry<? extends K, ? extends List<E>> entry : map.entrySet()) {
+                        if (entry != null && entry.getValue() != null)
+                            this.map.put(maskKey(entry.getKey()), entry.getValue());
+                    }
+                }
+            }
+        }
+
+        private static Object maskKey(Object key) {
+            return key != null ? key : NULL_KEY;
+        }
+
+        @SuppressWarnings("unchecked")
+        private static <K> K unmaskKey(Object key) {
+            return key != NULL_KEY ? (K) key : null;
+        }
+
+        @Override
+        public void applyTo(Map<K, List<E>> map) {
+            try {
+                if (map != null) {
+                    synchronized (map) {
+                        map.clear();
+                        for (Map.Entry<Object, List<E>> entry : this.map.entrySet())
+                            map.put(ConcurrentListMap.<K>unmaskKey(entry.getKey()), entry.getValue());
+                    }
+                }
+            } catch (Exception e) {
+                Logger.w(TAG, "Failed to fill map", e);
+            }
+        }
+
+        @Override
+        public boolean contains(K key) {
+            try {
+                return map.containsKey(maskKey(key));
+            } catch (Exception e) {
+                Logger.w(TAG, "Failed to check map for key", e);
+            }
+            return false;
+        }
+
+        @Override
+        public void clear() {
+            try {
+                map.clear();
+            } catch (Exception e) {
+                Logger.w(TAG, "Failed to clear map", e);
+            }
+        }
+
+        @Override
+        public List<E> getKey(K key) {
+            try {
+                return map.get(maskKey(key));
+            } catch (Exception e) {
+                Logger.w(TAG, "Failed to get key from map", e);
+            }
+            return null;
+        }
+
+        @Override
+        public List<E> putKey(K key, List<E> list) {
+            try {
+                if (list == null)
+                    return map.remove(maskKey(key));
+                return map.put(maskKey(key), list);
+            } catch (Exception e) {
+                Logger.w(TAG, "Failed to set key into map", e);
+            }
+            return null;
+        }
+
+        @Override
+        public List<E> removeKey(K key) {
+            try {
+                return map.remove(maskKey(key));
+            } catch (Exception e) {
+                Logger.w(TAG, "Failed to remove key from map", e);
+            }
+            return null;
+        }
+
+        @Override
+        public Object getLock(K key) {
+            int hash = key != null ? key.hashCode() : 0;
+            hash ^= (hash >>> 16);
+            return locks[hash & (locks.length - 1)];
+        }
+    }
+
     // ListLoader map wrapper
     public static class MapWrapper<K, E> implements IMap<K, E> {
         private final Map<K, List<E>> map;
@@ -1731,11 +2578,21 @@ public abstract class ListLoader<K, V, E> {
         }
     }
 
+    // ListLoader page loader, implemented by loaders that support getPagedList()
+    public interface PageLoader<K, V, E> {
+        default int onLoadPageCount(K key, V value) throws Exception {
+            return PagedList.UNKNOWN_SIZE;
+        }
+        List<E> onLoadPage(K key, V value, int page, int pageSize) throws Exception;
+    }
+
     // ListLoader loading listener
     public interface OnLoadingListener<K, V, E> {
         void onListLoadingStarted(boolean success, int flags, K key, V value);
         void onListLoading(K key, V value, List<E> list);
         void onListChanged(K key, V value, List<E> list);
+        default void onListDelta(K key, V value, ListDelta<E> delta) {
+        }
         void onListLoaded(boolean success, int state, int flags, K key, V value, List<E> list);
     }
 }
\ No newline at end of file
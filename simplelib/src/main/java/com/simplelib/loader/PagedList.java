@@ -0,0 +1,444 @@
+/*
+ * Copyright (c) 2020 ProDev+ (Pascal Gerner).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.simplelib.loader;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+
+import com.simplelib.Logger;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+/**
+ * Read-only window over a paged source. Mutators of {@link java.util.List} are not supported,
+ * the content only changes through {@link #refresh()} and the pages arriving from the source.
+ */
+public class PagedList<E> extends AbstractList<E> {
+    // Logging
+    private static final String TAG = Logger.tagOf(PagedList.class);
+
+    // Defaults
+    public static final int DEFAULT_PAGE_SIZE = 50;
+    public static final int DEFAULT_WINDOW_PAGES = 3;
+
+    public static final int UNKNOWN_SIZE = -1;
+
+    public static final long DEFAULT_RETRY_DELAY = 1000L;
+    public static final long MAX_RETRY_DELAY = 30L * 1000L;
+
+    // PagedList
+    private final Object lock = new Object();
+
+    private final PageSource<E> source;
+
+    private final int pageSize;
+    private final int windowPages;
+
+    private final Executor executor;
+    private final Handler handler;
+
+    private final HashMap<Integer, List<E>> pages = new HashMap<>();
+    private final HashSet<Integer> loadingPages = new HashSet<>();
+
+    // Failed pages are not requested again before their retry time
+    private final HashMap<Integer, Long> retryTimes = new HashMap<>();
+    private final HashMap<Integer, Integer> failureCounts = new HashMap<>();
+
+    private final ArrayList<Callback> callbacks = new ArrayList<>();
+
+    private int size;
+    private boolean complete;
+
+    private int centerPage;
+    private int generation;
+
+    public PagedList(PageSource<E> source) {
+        this(source, DEFAULT_PAGE_SIZE, DEFAULT_WINDOW_PAGES);
+    }
+
+    public PagedList(PageSource<E> source, int pageSize, int windowPages) {
+        this(source, pageSize, windowPages, null);
+    }
+
+    public PagedList(PageSource<E> source, int pageSize, int windowPages, Executor executor) {
+        if (source == null)
+            throw new NullPointerException("No page source attached");
+
+        if (executor == null)
+            executor = ListLoader.Loader.getDefaultExecutor();
+
+        this.source = source;
+
+        this.pageSize = Math.max(pageSize, 1);
+        this.windowPages = Math.max(windowPages, 0);
+
+        this.executor = executor;
+        this.handler = new Handler(Looper.getMainLooper());
+    }
+
+    public final int getPageSize() {
+        return pageSize;
+    }
+
+    public final int getWindowPages() {
+        return windowPages;
+    }
+
+    public final boolean isComplete() {
+        synchronized (lock) {
+            return complete;
+        }
+    }
+
+    public final int getResidentPageCount() {
+        synchronized (lock) {
+            return pages.size();
+        }
+    }
+
+    public final boolean isLoaded(int index) {
+        synchronized (lock) {
+            if (index < 0 || index >= size)
+                return false;
+            return pages.containsKey(index / pageSize);
+        }
+    }
+
+    public final void addCallback(Callback callback) {
+        if (callback == null)
+            return;
+
+        synchronized (callbacks) {
+            if (!callbacks.contains(callback))
+                callbacks.add(callback);
+        }
+    }
+
+    public final void removeCallback(Callback callback) {
+        synchronized (callbacks) {
+            callbacks.remove(callback);
+        }
+    }
+
+    @Override
+    public int size() {
+        synchronized (lock) {
+            return size;
+        }
+    }
+
+    @Override
+    public E get(int index) {
+        synchronized (lock) {
+            if (index < 0 || index >= size)
+                throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+
+            int page = index / pageSize;
+            moveWindow(page);
+
+            if (!complete && index >= size - pageSize / 2)
+                requestPage(size / pageSize);
+
+            List<E> elements = pages.get(page);
+            if (elements == null) {
+                requestPage(page);
+                return null;
+            }
+
+            int offset = index - page * pageSize;
+            return offset < elements.size() ? elements.get(offset) : null;
+        }
+    }
+
+    public final void setVisibleRange(int firstIndex, int lastIndex) {
+        synchronized (lock) {
+            if (size <= 0)
+                return;
+
+            firstIndex = Math.max(Math.min(firstIndex, size - 1), 0);
+            lastIndex = Math.max(Math.min(lastIndex, size - 1), firstIndex);
+
+            moveWindow((firstIndex + lastIndex) / 2 / pageSize);
+
+            for (int page = firstIndex / pageSize; page <= lastIndex / pageSize; page++) {
+                if (!pages.containsKey(page))
+                    requestPage(page);
+            }
+        }
+    }
+
+    public final void refresh() {
+        // The list is reset on the handler thread, callers may hold their own locks
+        post(new Runnable() {
+            @Override
+            public void run() {
+                onRefresh();
+            }
+        });
+    }
+
+    public final void retry() {
+        synchronized (lock) {
+            retryTimes.clear();
+            failureCounts.clear();
+
+            if (size <= 0 && !complete) {
+                requestPage(0);
+                return;
+            }
+
+            int firstPage = Math.max(centerPage - windowPages, 0);
+            int lastPage = centerPage + windowPages;
+            for (int page = firstPage; page <= lastPage; page++) {
+                if (page * pageSize < size || (!complete && page == size / pageSize))
+                    requestPage(page);
+            }
+        }
+    }
+
+    private void onRefresh() {
+        final int requestGeneration;
+        int oldSize;
+        synchronized (lock) {
+            requestGeneration = ++generation;
+
+            pages.clear();
+            loadingPages.clear();
+            retryTimes.clear();
+            failureCounts.clear();
+
+            oldSize = size;
+            size = 0;
+            complete = false;
+        }
+
+        if (oldSize > 0)
+            notifyItemRangeRemoved(0, oldSize);
+
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                int count = UNKNOWN_SIZE;
+                try {
+                    count = source.loadCount();
+                } catch (Exception e) {
+                    Logger.w(TAG, "Failed to load the page count", e);
+                }
+
+                final int loadedCount = count;
+                post(new Runnable() {
+                    @Override
+                    public void run() {
+                        onCountLoaded(requestGeneration, loadedCount);
+                    }
+                });
+            }
+        });
+    }
+
+    public final void evictAll() {
+        synchronized (lock) {
+            pages.clear();
+        }
+    }
+
+    private void onCountLoaded(int requestGeneration, int count) {
+        synchronized (lock) {
+            if (requestGeneration != generation)
+                return;
+
+            if (count < 0) {
+                requestPage(0);
+                return;
+            }
+
+            size = count;
+            complete = true;
+        }
+
+        if (count > 0)
+            notifyItemRangeInserted(0, count);
+    }
+
+    private void moveWindow(int page) {
+        if (centerPage == page)
+            return;
+        centerPage = page;
+
+        Iterator<Integer> iterator = pages.keySet().iterator();
+        while (iterator.hasNext()) {
+            if (!isInWindow(iterator.next()))
+                iterator.remove();
+        }
+    }
+
+    private boolean isInWindow(int page) {
+        return Math.abs(page - centerPage) <= windowPages;
+    }
+
+    private void requestPage(final int page) {
+        if (page < 0 || loadingPages.contains(page) || pages.containsKey(page))
+            return;
+        if (complete && page * pageSize >= size)
+            return;
+
+        Long retryTime = retryTimes.get(page);
+        if (retryTime != null && SystemClock.uptimeMillis() < retryTime)
+            return;
+
+        loadingPages.add(page);
+
+        final int requestGeneration = generation;
+        try {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    List<E> elements = null;
+                    try {
+                        elements = source.loadPage(page, pageSize);
+                    } catch (Exception e) {
+                        Logger.w(TAG, "Failed to load page " + page, e);
+                    }
+
+                    final List<E> loadedElements = elements;
+                    post(new Runnable() {
+                        @Override
+                        public void run() {
+                            onPageLoaded(requestGeneration, page, loadedElements);
+                        }
+                    });
+                }
+            });
+        } catch (Exception e) {
+            Logger.w(TAG, "Failed to request page " + page, e);
+
+            loadingPages.remove(page);
+        }
+    }
+
+    private void onPageLoaded(int requestGeneration, int page, List<E> elements) {
+        int oldSize, newSize;
+        synchronized (lock) {
+            if (requestGeneration != generation)
+                return;
+
+            loadingPages.remove(page);
+            if (elements == null) {
+                // Backs off exponentially, binding the row again does not trigger another load
+                Integer failures = failureCounts.get(page);
+                failures = failures != null ? failures + 1 : 1;
+                failureCounts.put(page, failures);
+
+                long delay = Math.min(DEFAULT_RETRY_DELAY << Math.min(failures - 1, 16), MAX_RETRY_DELAY);
+                retryTimes.put(page, SystemClock.uptimeMillis() + delay);
+                return;
+            }
+
+            retryTimes.remove(page);
+            failureCounts.remove(page);
+
+            if (elements.size() > pageSize)
+                elements = elements.subList(0, pageSize);
+
+            if (isInWindow(page))
+                pages.put(page, new ArrayList<>(elements));
+
+            oldSize = size;
+            if (!complete) {
+                size = Math.max(size, page * pageSize + elements.size());
+                if (elements.size() < pageSize)
+                    complete = true;
+            }
+            newSize = size;
+        }
+
+        int start = page * pageSize;
+        int changedCount = Math.min(elements.size(), oldSize - start);
+        if (changedCount > 0)
+            notifyItemRangeChanged(start, changedCount);
+        if (newSize > oldSize)
+            notifyItemRangeInserted(oldSize, newSize - oldSize);
+    }
+
+    private void post(Runnable runnable) {
+        boolean posted = false;
+        try {
+            posted = handler.post(runnable);
+        } catch (Exception e) {
+            Logger.w(TAG, "Failed to post to the handler", e);
+        }
+
+        if (!posted)
+            runnable.run();
+    }
+
+    private List<Callback> getCallbacks() {
+        synchronized (callbacks) {
+            return new ArrayList<>(callbacks);
+        }
+    }
+
+    private void notifyItemRangeChanged(int start, int count) {
+        for (Callback callback : getCallbacks()) {
+            try {
+                callback.onItemRangeChanged(start, count);
+            } catch (Exception e) {
+                Logger.w(TAG, "Failed to handle a page change", e);
+            }
+        }
+    }
+
+    private void notifyItemRangeInserted(int start, int count) {
+        for (Callback callback : getCallbacks()) {
+            try {
+                callback.onItemRangeInserted(start, count);
+            } catch (Exception e) {
+                Logger.w(TAG, "Failed to handle a page change", e);
+            }
+        }
+    }
+
+    private void notifyItemRangeRemoved(int start, int count) {
+        for (Callback callback : getCallbacks()) {
+            try {
+                callback.onItemRangeRemoved(start, count);
+            } catch (Exception e) {
+                Logger.w(TAG, "Failed to handle a page change", e);
+            }
+        }
+    }
+
+    // PagedList page source
+    public interface PageSource<E> {
+        int loadCount() throws Exception;
+        List<E> loadPage(int page, int pageSize) throws Exception;
+    }
+
+    // PagedList callback
+    public interface Callback {
+        void onItemRangeChanged(int start, int count);
+        void onItemRangeInserted(int start, int count);
+        void onItemRangeRemoved(int start, int count);
+    }
+}
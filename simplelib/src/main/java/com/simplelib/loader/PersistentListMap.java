@@ -0,0 +1,475 @@
+/*
+ * Copyright (c) 2020 ProDev+ (Pascal Gerner).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.simplelib.loader;
+
+import com.simplelib.Logger;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+public class PersistentListMap<K, E> implements ListLoader.IMap<K, E> {
+    // Logging
+    private static final String TAG = Logger.tagOf(PersistentListMap.class);
+
+    // File format
+    public static final String FILE_SUFFIX = ".list";
+
+    private static final int MAGIC = 0x534C4C4D;
+    private static final int VERSION = 1;
+
+    private static final int FILE_LOCK_COUNT = 16;
+
+    // PersistentListMap
+    private final File directory;
+    private final ElementCodec<E> codec;
+
+    private final ListLoader.IMap<K, E> map;
+
+    // Lists handed out before their snapshot was read, they are filled on the loader thread
+    private final Set<List<E>> pendingLists;
+
+    // Stores and deletes of one snapshot file never overlap, a delete bumps the generation
+    private final Object[] fileLocks;
+    private final int[] generations;
+    // Generation seen when a load of the list started, its store is dropped once it changed
+    private final IdentityHashMap<List<E>, Integer> loadGenerations;
+
+    // Whether a key has a snapshot file, kept up to date by stores and deletes so lookups skip the disk
+    private final HashMap<K, Boolean> snapshotStates;
+    private int snapshotStateGeneration;
+
+    public PersistentListMap(File directory, ElementCodec<E> codec) {
+        this(directory, codec, null);
+    }
+
+    public PersistentListMap(File directory, ElementCodec<E> codec, ListLoader.IMap<K, E> map) {
+        if (directory == null)
+            throw new NullPointerException("No directory attached");
+        if (codec == null)
+            throw new NullPointerException("No codec attached");
+
+        if (map == null)
+            map = new ListLoader.ListMap<>();
+
+        this.directory = directory;
+        this.codec = codec;
+        this.map = map;
+
+        this.pendingLists = Collections.newSetFromMap(new IdentityHashMap<List<E>, Boolean>());
+        this.fileLocks = new Object[FILE_LOCK_COUNT];
+        for (int i = 0; i < FILE_LOCK_COUNT; i++)
+            this.fileLocks[i] = new Object();
+        this.generations = new int[FILE_LOCK_COUNT];
+        this.loadGenerations = new IdentityHashMap<>();
+        this.snapshotStates = new HashMap<>();
+    }
+
+    public final File getDirectory() {
+        return directory;
+    }
+
+    public final ElementCodec<E> getCodec() {
+        return codec;
+    }
+
+    public final ListLoader.IMap<K, E> getMap() {
+        return map;
+    }
+
+    @Override
+    public void applyTo(Map<K, List<E>> map) {
+        this.map.applyTo(map);
+    }
+
+    @Override
+    public boolean contains(K key) {
+        synchronized (map.getLock(key)) {
+            return map.contains(key) || hasSnapshot(key);
+        }
+    }
+
+    @Override
+    public void clear() {
+        map.clear();
+        synchronized (pendingLists) {
+            pendingLists.clear();
+        }
+        synchronized (loadGenerations) {
+            loadGenerations.clear();
+        }
+        clearSnapshots();
+    }
+
+    @Override
+    public List<E> getKey(K key) {
+        synchronized (map.getLock(key)) {
+            if (map.contains(key))
+                return map.getKey(key);
+            if (!hasSnapshot(key))
+                return null;
+
+            // Decoding is left to the loader thread, the caller gets an empty list to load into
+            List<E> list = new ArrayList<>();
+            map.putKey(key, list);
+            synchronized (pendingLists) {
+                pendingLists.add(list);
+            }
+            return list;
+        }
+    }
+
+    @Override
+    public List<E> putKey(K key, List<E> list) {
+        return map.putKey(key, list);
+    }
+
+    @Override
+    public List<E> removeKey(K key) {
+        List<E> list;
+        synchronized (map.getLock(key)) {
+            list = map.removeKey(key);
+        }
+        if (list != null) {
+            synchronized (pendingLists) {
+                pendingLists.remove(list);
+            }
+            synchronized (loadGenerations) {
+                loadGenerations.remove(list);
+            }
+        }
+
+        // Waits for a store of this key that is still writing
+        deleteSnapshot(key);
+        return list;
+    }
+
+    @Override
+    public Object getLock(K key) {
+        return map.getLock(key);
+    }
+
+    @Override
+    public void prepareList(K key, List<E> list) {
+        map.prepareList(key, list);
+
+        int lockIndex = getLockIndex(key);
+        int generation;
+        synchronized (fileLocks[lockIndex]) {
+            generation = generations[lockIndex];
+        }
+
+        // Only a list that is still mapped may store a snapshot when its load ends
+        boolean mapped;
+        synchronized (map.getLock(key)) {
+            mapped = map.contains(key) && map.getKey(key) == list;
+        }
+        synchronized (loadGenerations) {
+            if (mapped)
+                loadGenerations.put(list, generation);
+            else
+                loadGenerations.remove(list);
+        }
+
+        boolean pending;
+        synchronized (pendingLists) {
+            pending = pendingLists.remove(list);
+        }
+        if (!pending)
+            return;
+
+        List<E> restored;
+        synchronized (fileLocks[lockIndex]) {
+            restored = restore(key);
+        }
+        if (restored == null)
+            return;
+
+        synchronized (list) {
+            if (list.isEmpty())
+                list.addAll(restored);
+        }
+    }
+
+    @Override
+    public void onListStored(K key, List<E> list) {
+        map.onListStored(key, list);
+
+        if (list == null)
+            return;
+
+        Integer generation;
+        synchronized (loadGenerations) {
+            generation = loadGenerations.remove(list);
+        }
+        if (generation == null)
+            return;
+
+        List<E> snapshot;
+        synchronized (list) {
+            snapshot = new ArrayList<>(list);
+        }
+
+        int lockIndex = getLockIndex(key);
+        synchronized (fileLocks[lockIndex]) {
+            // A snapshot deleted after the load started must not come back
+            if (generations[lockIndex] != generation)
+                return;
+
+            try {
+                store(key, snapshot);
+            } catch (Exception e) {
+                Logger.w(TAG, "Failed to store list snapshot", e);
+            }
+        }
+    }
+
+    public final boolean hasSnapshot(K key) {
+        int stateGeneration;
+        synchronized (snapshotStates) {
+            Boolean state = snapshotStates.get(key);
+            if (state != null)
+                return state;
+            stateGeneration = snapshotStateGeneration;
+        }
+
+        // Only the first lookup of a key goes to the disk
+        boolean exists = getFile(key).isFile();
+        synchronized (snapshotStates) {
+            // A store, delete or clear that happened meanwhile already knows better
+            if (stateGeneration == snapshotStateGeneration && !snapshotStates.containsKey(key))
+                snapshotStates.put(key, exists);
+        }
+        return exists;
+    }
+
+    public final boolean deleteSnapshot(K key) {
+        int lockIndex = getLockIndex(key);
+        synchronized (fileLocks[lockIndex]) {
+            generations[lockIndex]++;
+            setSnapshotState(key, false);
+
+            File file = getFile(key);
+            return file.isFile() && file.delete();
+        }
+    }
+
+    public final void clearSnapshots() {
+        clearSnapshots(0);
+    }
+
+    private void clearSnapshots(int lockIndex) {
+        // Takes every file lock in order, no store can be halfway through a file
+        if (lockIndex < fileLocks.length) {
+            synchronized (fileLocks[lockIndex]) {
+                generations[lockIndex]++;
+                clearSnapshots(lockIndex + 1);
+            }
+            return;
+        }
+
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                if (file != null && file.isFile() && file.getName().endsWith(FILE_SUFFIX)) {
+                    if (!file.delete())
+                        Logger.w(TAG, "Failed to delete list snapshot " + file.getName());
+                }
+            }
+        }
+
+        // Lookups that read the disk while files were deleted drop their result
+        synchronized (snapshotStates) {
+            snapshotStates.clear();
+            snapshotStateGeneration++;
+        }
+    }
+
+    protected String getName(K key) {
+        return String.valueOf(key);
+    }
+
+    protected String getFileName(K key) {
+        String name = getName(key);
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            byte[] hash = digest.digest(name.getBytes("UTF-8"));
+
+            StringBuilder builder = new StringBuilder(hash.length * 2);
+            for (byte b : hash)
+                builder.append(String.format("%02x", b & 0xFF));
+            return builder.toString();
+        } catch (Exception e) {
+            return Integer.toHexString(name.hashCode());
+        }
+    }
+
+    private File getFile(K key) {
+        return new File(directory, getFileName(key) + FILE_SUFFIX);
+    }
+
+    private int getLockIndex(K key) {
+        int hash = key != null ? key.hashCode() : 0;
+        hash ^= (hash >>> 16);
+        return hash & (fileLocks.length - 1);
+    }
+
+    private List<E> restore(K key) {
+        File file = getFile(key);
+        if (!file.isFile()) {
+            setSnapshotState(key, false);
+            return null;
+        }
+
+        try {
+            // The snapshot is mapped read-only, elements are decoded straight from the page cache
+            DataInputStream in = new DataInputStream(new MappedInputStream(map(file)));
+            if (in.readInt() != MAGIC || in.readInt() != VERSION)
+                throw new IOException("Unknown snapshot format");
+            if (!getName(key).equals(in.readUTF()))
+                throw new IOException("Snapshot belongs to another key");
+
+            int size = in.readInt();
+            if (size < 0)
+                throw new IOException("Invalid snapshot size");
+
+            ArrayList<E> list = new ArrayList<>(size);
+            for (int i = 0; i < size; i++)
+                list.add(codec.read(in));
+            return list;
+        } catch (Exception e) {
+            Logger.w(TAG, "Failed to restore list snapshot", e);
+
+            setSnapshotState(key, false);
+            if (!file.delete())
+                Logger.w(TAG, "Failed to delete invalid list snapshot");
+            return null;
+        }
+    }
+
+    private static MappedByteBuffer map(File file) throws IOException {
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+        try {
+            // The mapping stays valid once the channel is closed
+            FileChannel channel = randomAccessFile.getChannel();
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } finally {
+            try {
+                randomAccessFile.close();
+            } catch (Exception e) {
+            }
+        }
+    }
+
+    private void store(K key, List<E> list) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs())
+            throw new IOException("Unable to create snapshot directory");
+
+        File file = getFile(key);
+        File tempFile = new File(directory, file.getName() + ".tmp");
+
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeUTF(getName(key));
+
+            out.writeInt(list.size());
+            for (E element : list)
+                codec.write(out, element);
+        } finally {
+            out.close();
+        }
+
+        if (!tempFile.renameTo(file)) {
+            if (!tempFile.delete())
+                Logger.w(TAG, "Failed to delete temporary list snapshot");
+            throw new IOException("Unable to replace list snapshot");
+        }
+        setSnapshotState(key, true);
+    }
+
+    private void setSnapshotState(K key, boolean exists) {
+        synchronized (snapshotStates) {
+            snapshotStates.put(key, exists);
+        }
+    }
+
+    // Reads a mapped snapshot without copying it into a heap buffer first
+    private static final class MappedInputStream extends InputStream {
+        private final ByteBuffer buffer;
+
+        private MappedInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            if (!buffer.hasRemaining())
+                return -1;
+            return buffer.get() & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] bytes, int offset, int length) {
+            if (length == 0)
+                return 0;
+            if (!buffer.hasRemaining())
+                return -1;
+
+            length = Math.min(length, buffer.remaining());
+            buffer.get(bytes, offset, length);
+            return length;
+        }
+
+        @Override
+        public long skip(long count) {
+            int skipped = (int) Math.max(0, Math.min(count, buffer.remaining()));
+            buffer.position(buffer.position() + skipped);
+            return skipped;
+        }
+
+        @Override
+        public int available() {
+            return buffer.remaining();
+        }
+    }
+
+    // PersistentListMap element codec
+    public interface ElementCodec<E> {
+        void write(DataOutput out, E element) throws IOException;
+        E read(DataInput in) throws IOException;
+    }
+}
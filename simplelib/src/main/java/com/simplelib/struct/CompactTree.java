@@ -0,0 +1,850 @@
+/*
+ * Copyright (c) 2020 ProDev+ (Pascal Gerner).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.simplelib.struct;
+
+import androidx.annotation.IntRange;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+public final class CompactTree {
+    // Static variables
+    public static final int NO_NODE = -1;
+    public static final int ROOT_NODE = 0;
+
+    private static final int DEFAULT_CAPACITY = 16;
+
+    private static final byte FLAG_USED = 0x1;
+    private static final byte FLAG_GROUP = 0x1 << 1;
+    private static final byte FLAG_EXPANDED = 0x1 << 2;
+    private static final byte FLAG_SELECTABLE = 0x1 << 3;
+    private static final byte FLAG_SELECTED = 0x1 << 4;
+
+    private final Object lock = new Object();
+
+    // Node structure, one slot per item
+    private int[] parents;
+    private int[] previousSiblings;
+    private int[] nextSiblings;
+    private int[] groupSlots;
+    private int[] generations;
+    private byte[] flags;
+
+    private String[] ids;
+    @Nullable
+    private Object[] values;
+
+    private int capacity;
+    private int size;
+    private int nodeCount;
+    private int freeNode;
+
+    // Group structure, one slot per item group only
+    private int[] firstChildren;
+    private int[] lastChildren;
+    private int[] childCounts;
+    private int[] visibleCounts;
+
+    // Last child position handed out per group, so iterating children does not rewalk the sibling chain
+    private int[] cursorPositions;
+    private int[] cursorNodes;
+
+    private int groupCapacity;
+    private int groupSize;
+    private int freeGroup;
+
+    @NonNull
+    private final CompactItemGroup root;
+    @Nullable
+    private Tree tree;
+
+    public CompactTree() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public CompactTree(int capacity) {
+        allocate(Math.max(capacity, 1));
+
+        freeNode = NO_NODE;
+        freeGroup = NO_NODE;
+
+        int node = obtainNode(Tree.ROOT_ID, true, null);
+        root = new CompactItemGroup(node, generations[node]);
+    }
+
+    @NonNull
+    public Tree.ItemGroup getRoot() {
+        return root;
+    }
+
+    @NonNull
+    public Tree getTree() {
+        synchronized (lock) {
+            if (tree == null)
+                tree = new Tree(root);
+            return tree;
+        }
+    }
+
+    public int getNodeCount() {
+        synchronized (lock) {
+            return nodeCount;
+        }
+    }
+
+    public void clear() {
+        synchronized (lock) {
+            int child;
+            while ((child = firstChild(ROOT_NODE)) != NO_NODE) {
+                unlink(child);
+                release(child);
+            }
+
+            // Detached subtrees are dropped as well, starting from their top node
+            for (int node = 1; node < size; node++)
+                if ((flags[node] & FLAG_USED) != 0 && parents[node] == NO_NODE)
+                    release(node);
+        }
+    }
+
+    /* -------- Node access -------- */
+    public int addNode(int parentNode, @Nullable String id, boolean group, @Nullable Object value) {
+        synchronized (lock) {
+            if (parentNode != NO_NODE)
+                checkGroup(parentNode);
+
+            int node = obtainNode(id, group, value);
+            if (parentNode != NO_NODE)
+                link(parentNode, node, childCounts[groupSlots[parentNode]]);
+            return node;
+        }
+    }
+
+    public void removeNode(int node) {
+        synchronized (lock) {
+            checkNode(node);
+            if (node == ROOT_NODE)
+                throw new IllegalArgumentException("Root cannot be removed");
+
+            if (parents[node] != NO_NODE)
+                unlink(node);
+            release(node);
+        }
+    }
+
+    @NonNull
+    public Tree.Item getItem(int node) {
+        synchronized (lock) {
+            checkNode(node);
+            if (node == ROOT_NODE)
+                return root;
+
+            return createView(node);
+        }
+    }
+
+    @NonNull
+    public Tree.Item createItem(@Nullable String id, @Nullable Object value) {
+        return getItem(addNode(NO_NODE, id, false, value));
+    }
+
+    @NonNull
+    public Tree.ItemGroup createGroup(@Nullable String id, @Nullable Object value) {
+        return (Tree.ItemGroup) getItem(addNode(NO_NODE, id, true, value));
+    }
+
+    public int getParentNode(int node) {
+        synchronized (lock) {
+            checkNode(node);
+            return parents[node];
+        }
+    }
+
+    public int getFirstChildNode(int node) {
+        synchronized (lock) {
+            checkNode(node);
+            return firstChild(node);
+        }
+    }
+
+    public int getNextSiblingNode(int node) {
+        synchronized (lock) {
+            checkNode(node);
+            return nextSiblings[node];
+        }
+    }
+
+    @Nullable
+    public Object getValue(int node) {
+        synchronized (lock) {
+            checkNode(node);
+            return values != null ? values[node] : null;
+        }
+    }
+
+    public void setValue(int node, @Nullable Object value) {
+        synchronized (lock) {
+            checkNode(node);
+            setNodeValue(node, value);
+        }
+    }
+
+    public void trimToSize() {
+        synchronized (lock) {
+            resize(size);
+            resizeGroups(groupSize);
+        }
+    }
+
+    /* -------- Storage -------- */
+    private void allocate(int capacity) {
+        this.capacity = capacity;
+
+        parents = new int[capacity];
+        previousSiblings = new int[capacity];
+        nextSiblings = new int[capacity];
+        groupSlots = new int[capacity];
+        generations = new int[capacity];
+        flags = new byte[capacity];
+        ids = new String[capacity];
+
+        int groupCapacity = Math.max(capacity / 8, 1);
+        this.groupCapacity = groupCapacity;
+
+        firstChildren = new int[groupCapacity];
+        lastChildren = new int[groupCapacity];
+        childCounts = new int[groupCapacity];
+        visibleCounts = new int[groupCapacity];
+        cursorPositions = new int[groupCapacity];
+        cursorNodes = new int[groupCapacity];
+    }
+
+    private void resize(int capacity) {
+        capacity = Math.max(capacity, 1);
+        this.capacity = capacity;
+
+        parents = Arrays.copyOf(parents, capacity);
+        previousSiblings = Arrays.copyOf(previousSiblings, capacity);
+        nextSiblings = Arrays.copyOf(nextSiblings, capacity);
+        groupSlots = Arrays.copyOf(groupSlots, capacity);
+        generations = Arrays.copyOf(generations, capacity);
+        flags = Arrays.copyOf(flags, capacity);
+        ids = Arrays.copyOf(ids, capacity);
+        if (values != null)
+            values = Arrays.copyOf(values, capacity);
+    }
+
+    private void resizeGroups(int groupCapacity) {
+        groupCapacity = Math.max(groupCapacity, 1);
+        this.groupCapacity = groupCapacity;
+
+        firstChildren = Arrays.copyOf(firstChildren, groupCapacity);
+        lastChildren = Arrays.copyOf(lastChildren, groupCapacity);
+        childCounts = Arrays.copyOf(childCounts, groupCapacity);
+        visibleCounts = Arrays.copyOf(visibleCounts, groupCapacity);
+        cursorPositions = Arrays.copyOf(cursorPositions, groupCapacity);
+        cursorNodes = Arrays.copyOf(cursorNodes, groupCapacity);
+    }
+
+    private void setNodeValue(int node, @Nullable Object value) {
+        // Values are optional, the array only exists once one is set
+        if (values == null) {
+            if (value == null)
+                return;
+            values = new Object[capacity];
+        }
+        values[node] = value;
+    }
+
+    private int obtainNode(@Nullable String id, boolean group, @Nullable Object value) {
+        int node;
+        if (freeNode != NO_NODE) {
+            node = freeNode;
+            freeNode = nextSiblings[node];
+        } else {
+            if (size >= capacity)
+                resize(capacity + (capacity >> 1) + 1);
+            node = size++;
+        }
+
+        parents[node] = NO_NODE;
+        previousSiblings[node] = NO_NODE;
+        nextSiblings[node] = NO_NODE;
+        groupSlots[node] = group ? obtainGroup() : NO_NODE;
+        flags[node] = (byte) (FLAG_USED | (group ? FLAG_GROUP : 0));
+
+        ids[node] = id;
+        setNodeValue(node, value);
+
+        nodeCount++;
+        return node;
+    }
+
+    private int obtainGroup() {
+        int slot;
+        if (freeGroup != NO_NODE) {
+            slot = freeGroup;
+            freeGroup = firstChildren[slot];
+        } else {
+            if (groupSize >= groupCapacity)
+                resizeGroups(groupCapacity + (groupCapacity >> 1) + 1);
+            slot = groupSize++;
+        }
+
+        firstChildren[slot] = NO_NODE;
+        lastChildren[slot] = NO_NODE;
+        childCounts[slot] = 0;
+        visibleCounts[slot] = -1;
+        cursorPositions[slot] = -1;
+        return slot;
+    }
+
+    private void release(int node) {
+        // Frees the whole detached subtree, released nodes are chained through the sibling array
+        int current = node;
+        while (current != NO_NODE) {
+            int slot = groupSlots[current];
+            int child = slot != NO_NODE ? firstChildren[slot] : NO_NODE;
+            if (child != NO_NODE) {
+                firstChildren[slot] = nextSiblings[child];
+                current = child;
+                continue;
+            }
+
+            int next = current == node ? NO_NODE : parents[current];
+
+            if (slot != NO_NODE) {
+                firstChildren[slot] = freeGroup;
+                freeGroup = slot;
+            }
+
+            flags[current] = 0;
+            generations[current]++;
+            ids[current] = null;
+            if (values != null)
+                values[current] = null;
+            parents[current] = NO_NODE;
+            previousSiblings[current] = NO_NODE;
+            groupSlots[current] = NO_NODE;
+
+            nextSiblings[current] = freeNode;
+            freeNode = current;
+            nodeCount--;
+
+            current = next;
+        }
+    }
+
+    private boolean isAlive(int node, int generation) {
+        return node >= 0 && node < size && (flags[node] & FLAG_USED) != 0 && generations[node] == generation;
+    }
+
+    private void checkNode(int node) {
+        if (node < 0 || node >= size || (flags[node] & FLAG_USED) == 0)
+            throw new IllegalArgumentException("No node at " + node);
+    }
+
+    private void checkGroup(int node) {
+        checkNode(node);
+        if ((flags[node] & FLAG_GROUP) == 0)
+            throw new IllegalArgumentException("Node " + node + " is not a group");
+    }
+
+    @NonNull
+    private CompactItem createView(int node) {
+        if ((flags[node] & FLAG_GROUP) != 0)
+            return new CompactItemGroup(node, generations[node]);
+        return new CompactItem(node, generations[node]);
+    }
+
+    /* -------- Structure -------- */
+    private int firstChild(int node) {
+        int slot = groupSlots[node];
+        return slot != NO_NODE ? firstChildren[slot] : NO_NODE;
+    }
+
+    private int getDepth(int node) {
+        int depth = 0;
+        for (node = parents[node]; node != NO_NODE; node = parents[node])
+            depth++;
+        return depth;
+    }
+
+    private int childAt(int parent, int index) {
+        int slot = groupSlots[parent];
+        int childCount = childCounts[slot];
+        if (index < 0 || index >= childCount)
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + childCount);
+
+        // Start from whichever of first child, last child and cursor is closest
+        int pos = 0;
+        int node = firstChildren[slot];
+        if (childCount - 1 - index < index) {
+            pos = childCount - 1;
+            node = lastChildren[slot];
+        }
+
+        int cursorPos = cursorPositions[slot];
+        if (cursorPos >= 0 && Math.abs(cursorPos - index) < Math.abs(pos - index)) {
+            pos = cursorPos;
+            node = cursorNodes[slot];
+        }
+
+        for (; pos < index; pos++)
+            node = nextSiblings[node];
+        for (; pos > index; pos--)
+            node = previousSiblings[node];
+
+        cursorPositions[slot] = index;
+        cursorNodes[slot] = node;
+        return node;
+    }
+
+    private void link(int parent, int node, int index) {
+        int slot = groupSlots[parent];
+        if (index < 0 || index > childCounts[slot])
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + childCounts[slot]);
+
+        checkAttachable(parent, node);
+
+        int previous = index > 0 ? childAt(parent, index - 1) : NO_NODE;
+        int next = previous != NO_NODE ? nextSiblings[previous] : firstChildren[slot];
+
+        previousSiblings[node] = previous;
+        nextSiblings[node] = next;
+        if (previous != NO_NODE)
+            nextSiblings[previous] = node;
+        else
+            firstChildren[slot] = node;
+        if (next != NO_NODE)
+            previousSiblings[next] = node;
+        else
+            lastChildren[slot] = node;
+
+        parents[node] = parent;
+        childCounts[slot]++;
+        cursorPositions[slot] = -1;
+
+        invalidateVisibleCount(parent);
+    }
+
+    private void checkAttachable(int parent, int node) {
+        for (int ancestor = parent; ancestor != NO_NODE; ancestor = parents[ancestor])
+            if (ancestor == node)
+                throw new IllegalArgumentException("Item cannot be attached below itself");
+    }
+
+    private void unlink(int node) {
+        int parent = parents[node];
+        if (parent == NO_NODE)
+            return;
+
+        int slot = groupSlots[parent];
+        int previous = previousSiblings[node];
+        int next = nextSiblings[node];
+
+        if (previous != NO_NODE)
+            nextSiblings[previous] = next;
+        else
+            firstChildren[slot] = next;
+        if (next != NO_NODE)
+            previousSiblings[next] = previous;
+        else
+            lastChildren[slot] = previous;
+
+        parents[node] = NO_NODE;
+        previousSiblings[node] = NO_NODE;
+        nextSiblings[node] = NO_NODE;
+        childCounts[slot]--;
+        cursorPositions[slot] = -1;
+
+        invalidateVisibleCount(parent);
+    }
+
+    private void invalidateVisibleCount(int node) {
+        for (; node != NO_NODE; node = parents[node])
+            visibleCounts[groupSlots[node]] = -1;
+    }
+
+    private int getVisibleCount(int node) {
+        if ((flags[node] & FLAG_EXPANDED) == 0)
+            return 0;
+
+        int slot = groupSlots[node];
+        int count = visibleCounts[slot];
+        if (count < 0) {
+            count = 0;
+            for (int child = firstChildren[slot]; child != NO_NODE; child = nextSiblings[child])
+                count += 1 + getVisibleCount(child);
+            visibleCounts[slot] = count;
+        }
+        return count;
+    }
+
+    private boolean setExpanded(int node, boolean expanded) {
+        boolean changed = ((flags[node] & FLAG_EXPANDED) != 0) != expanded;
+        if (!changed)
+            return false;
+
+        if (expanded) {
+            flags[node] |= FLAG_EXPANDED;
+        } else {
+            flags[node] &= ~FLAG_EXPANDED;
+
+            // Collapsing cascades into child groups the same way IItemGroup does
+            for (int child = firstChild(node); child != NO_NODE; child = nextSiblings[child])
+                if ((flags[child] & FLAG_GROUP) != 0)
+                    setExpanded(child, false);
+        }
+
+        invalidateVisibleCount(node);
+        return true;
+    }
+
+    private int findNodeById(int node, @NonNull String id) {
+        // Preorder walk of the subtree without a stack, using the parent links to climb back
+        int current = node;
+        while (true) {
+            if (id.equals(ids[current]))
+                return current;
+
+            int child = firstChild(current);
+            if (child != NO_NODE) {
+                current = child;
+                continue;
+            }
+
+            while (current != node && nextSiblings[current] == NO_NODE)
+                current = parents[current];
+            if (current == node)
+                return NO_NODE;
+            current = nextSiblings[current];
+        }
+    }
+
+    private int resolveNode(@Nullable Tree.Item item) {
+        if (item == null)
+            throw new IllegalArgumentException("Compact trees cannot hold null items");
+        if (!(item instanceof CompactItem) || ((CompactItem) item).getCompactTree() != this)
+            throw new IllegalArgumentException("Item does not belong to this tree");
+
+        CompactItem compactItem = (CompactItem) item;
+        if (!isAlive(compactItem.node, compactItem.generation))
+            throw new IllegalStateException("Item was removed from the tree");
+        return compactItem.node;
+    }
+
+    /* -------- Item views -------- */
+    public class CompactItem implements Tree.Item {
+        protected final int node;
+        protected final int generation;
+
+        protected CompactItem(int node, int generation) {
+            this.node = node;
+            this.generation = generation;
+        }
+
+        @NonNull
+        public final CompactTree getCompactTree() {
+            return CompactTree.this;
+        }
+
+        public final int getNode() {
+            return node;
+        }
+
+        public final boolean isAlive() {
+            synchronized (lock) {
+                return CompactTree.this.isAlive(node, generation);
+            }
+        }
+
+        @Nullable
+        public final Object getValue() {
+            synchronized (lock) {
+                return CompactTree.this.isAlive(node, generation) && values != null ? values[node] : null;
+            }
+        }
+
+        @Override
+        public boolean isRoot() {
+            return node == ROOT_NODE;
+        }
+
+        @Nullable
+        @Override
+        public String getId() {
+            synchronized (lock) {
+                return CompactTree.this.isAlive(node, generation) ? ids[node] : null;
+            }
+        }
+
+        @Override
+        public void setId(@Nullable String id) {
+            if (isRoot())
+                throw new RuntimeException("Root id cannot be changed");
+
+            synchronized (lock) {
+                ids[resolveNode(this)] = id;
+            }
+        }
+
+        @Override
+        public int getLevel() {
+            synchronized (lock) {
+                return CompactTree.this.isAlive(node, generation) ? getDepth(node) : 0;
+            }
+        }
+
+        @Override
+        public void setLevel(@IntRange(from = 0) int level) {
+            if (isRoot())
+                throw new RuntimeException("Root level cannot be changed");
+            if (level < 0)
+                throw new IllegalArgumentException("Level cannot be smaller than 0");
+
+            // Levels are not stored, they always follow the depth of the item
+        }
+
+        @Override
+        public boolean isSelectable() {
+            synchronized (lock) {
+                return CompactTree.this.isAlive(node, generation) && (flags[node] & FLAG_SELECTABLE) != 0;
+            }
+        }
+
+        public void setSelectable(boolean selectable) {
+            synchronized (lock) {
+                int node = resolveNode(this);
+                if (selectable)
+                    flags[node] |= FLAG_SELECTABLE;
+                else
+                    flags[node] &= ~(FLAG_SELECTABLE | FLAG_SELECTED);
+            }
+        }
+
+        @Override
+        public boolean isSelected() {
+            synchronized (lock) {
+                return CompactTree.this.isAlive(node, generation) && (flags[node] & FLAG_SELECTED) != 0;
+            }
+        }
+
+        @Override
+        public void setSelected(boolean selected) {
+            synchronized (lock) {
+                int node = resolveNode(this);
+                if ((flags[node] & FLAG_SELECTABLE) == 0)
+                    throw new IllegalStateException("Selection state cannot be changed");
+
+                if (selected)
+                    flags[node] |= FLAG_SELECTED;
+                else
+                    flags[node] &= ~FLAG_SELECTED;
+            }
+        }
+
+        @Nullable
+        @Override
+        public Tree.ItemGroup getParent() {
+            synchronized (lock) {
+                if (!CompactTree.this.isAlive(node, generation))
+                    return null;
+
+                int parent = parents[node];
+                if (parent == NO_NODE)
+                    return null;
+                if (parent == ROOT_NODE)
+                    return root;
+                return (Tree.ItemGroup) createView(parent);
+            }
+        }
+
+        @Override
+        public void setParent(@Nullable Tree.ItemGroup parent) {
+            if (isRoot())
+                throw new RuntimeException("Root parent cannot be changed");
+
+            if (parent == null) {
+                synchronized (lock) {
+                    unlink(resolveNode(this));
+                }
+                return;
+            }
+
+            // Other groups call back into setParent from attachChild, which would never end
+            if (!(parent instanceof CompactItemGroup) || ((CompactItemGroup) parent).getCompactTree() != getCompactTree())
+                throw new IllegalArgumentException("Compact items can only be attached to groups of their own tree");
+
+            parent.attachChild(this);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj)
+                return true;
+            if (!(obj instanceof CompactItem))
+                return false;
+
+            CompactItem item = (CompactItem) obj;
+            return item.getCompactTree() == getCompactTree() && item.node == node && item.generation == generation;
+        }
+
+        @Override
+        public int hashCode() {
+            return node * 31 + generation;
+        }
+    }
+
+    public class CompactItemGroup extends CompactItem implements Tree.ItemGroup {
+        protected CompactItemGroup(int node, int generation) {
+            super(node, generation);
+        }
+
+        @SuppressWarnings("unchecked")
+        @Nullable
+        @Override
+        public <T> T findItemById(@Nullable String id) {
+            if (id == null)
+                return null;
+
+            synchronized (lock) {
+                if (!CompactTree.this.isAlive(node, generation))
+                    return null;
+
+                int result = findNodeById(node, id);
+                if (result == NO_NODE)
+                    return null;
+                return (T) (result == ROOT_NODE ? root : createView(result));
+            }
+        }
+
+        @Override
+        public boolean isExpanded() {
+            synchronized (lock) {
+                return CompactTree.this.isAlive(node, generation) && (flags[node] & FLAG_EXPANDED) != 0;
+            }
+        }
+
+        @Override
+        public boolean setExpanded(boolean expanded) {
+            synchronized (lock) {
+                return CompactTree.this.setExpanded(resolveNode(this), expanded);
+            }
+        }
+
+        @Override
+        public void setChildItemsExpanded(boolean expanded) {
+            synchronized (lock) {
+                int node = resolveNode(this);
+                for (int child = firstChild(node); child != NO_NODE; child = nextSiblings[child])
+                    if ((flags[child] & FLAG_GROUP) != 0)
+                        CompactTree.this.setExpanded(child, expanded);
+            }
+        }
+
+        @Override
+        public int getVisibleChildCount() {
+            synchronized (lock) {
+                return CompactTree.this.isAlive(node, generation) ? getVisibleCount(node) : 0;
+            }
+        }
+
+        @Override
+        public void invalidateVisibleChildCount() {
+            synchronized (lock) {
+                if (CompactTree.this.isAlive(node, generation))
+                    invalidateVisibleCount(node);
+            }
+        }
+
+        @Override
+        public void detachAll() {
+            synchronized (lock) {
+                int node = resolveNode(this);
+
+                int child;
+                while ((child = firstChild(node)) != NO_NODE)
+                    unlink(child);
+            }
+        }
+
+        @Override
+        public void attachChild(int index, @Nullable Tree.Item child) {
+            synchronized (lock) {
+                int node = resolveNode(this);
+                int childNode = resolveNode(child);
+                if (childNode == ROOT_NODE)
+                    throw new IllegalArgumentException("Root cannot be attached");
+
+                checkAttachable(node, childNode);
+
+                // Moving within the same group, the item is not counted twice
+                int childCount = childCounts[groupSlots[node]];
+                if (parents[childNode] == node)
+                    index = Math.min(index, --childCount);
+                if (index < 0 || index > childCount)
+                    throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + childCount);
+
+                unlink(childNode);
+                link(node, childNode, index);
+            }
+        }
+
+        @Override
+        public void detachChild(int index) {
+            synchronized (lock) {
+                int node = resolveNode(this);
+                unlink(childAt(node, index));
+            }
+        }
+
+        @Override
+        public int getChildCount() {
+            synchronized (lock) {
+                return CompactTree.this.isAlive(node, generation) ? childCounts[groupSlots[node]] : 0;
+            }
+        }
+
+        @Override
+        public Tree.Item getChildAt(int index) {
+            synchronized (lock) {
+                int child = childAt(resolveNode(this), index);
+                return createView(child);
+            }
+        }
+
+        @NonNull
+        @Override
+        public List<Tree.Item> getChildSnapshot() {
+            // One pass over the sibling links instead of a positional lookup per child
+            synchronized (lock) {
+                if (!CompactTree.this.isAlive(node, generation))
+                    return Collections.emptyList();
+
+                List<Tree.Item> childList = new ArrayList<>(childCounts[groupSlots[node]]);
+                for (int child = firstChild(node); child != NO_NODE; child = nextSiblings[child])
+                    childList.add(createView(child));
+                return Collections.unmodifiableList(childList);
+            }
+        }
+    }
+}
@@ -0,0 +1,387 @@
+/*
+ * Copyright (c) 2020 ProDev+ (Pascal Gerner).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.simplelib.struct;
+
+import android.os.SystemClock;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.simplelib.concurrent.task.Executable;
+import com.simplelib.concurrent.task.Handleable;
+import com.simplelib.concurrent.task.Task;
+import com.simplelib.concurrent.task.TaskSpawner;
+import com.simplelib.concurrent.task.async.AsyncTaskSpawner;
+import com.simplelib.concurrent.util.ExecutorHelper;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+public class LazyItemGroup extends Tree.IItemGroup {
+    // Static variables
+    public static final int STATE_UNLOADED = 0;
+    public static final int STATE_LOADING = 1;
+    public static final int STATE_LOADED = 2;
+    public static final int STATE_FAILED = 3;
+
+    public static final long DEFAULT_EVICTION_DELAY = 60L * 1000L;
+
+    // Child loads get their own threads, expanding many groups must not hold up list loaders
+    public static final int DEFAULT_LOAD_POOL_SIZE = 2;
+    public static final long DEFAULT_LOAD_KEEP_ALIVE_TIME = 10L * 1000L;
+
+    private static Executor defaultExecutor;
+    private static AsyncTaskSpawner defaultSpawner;
+
+    // Static methods
+    @NonNull
+    public static synchronized TaskSpawner getDefaultSpawner() {
+        if (defaultSpawner == null || defaultSpawner.isClosed())
+            defaultSpawner = AsyncTaskSpawner.with(getDefaultExecutor());
+        return defaultSpawner;
+    }
+
+    @NonNull
+    public static synchronized Executor getDefaultExecutor() {
+        if (defaultExecutor == null) {
+            defaultExecutor = ExecutorHelper.create(
+                    DEFAULT_LOAD_POOL_SIZE,
+                    Integer.MAX_VALUE,
+                    DEFAULT_LOAD_KEEP_ALIVE_TIME
+            );
+        }
+        return defaultExecutor;
+    }
+
+    public static int evictStale(@Nullable Tree tree) {
+        return evictStale(tree != null ? tree.getRoot() : null);
+    }
+
+    public static int evictStale(@Nullable Tree.Item item) {
+        if (item == null)
+            return 0;
+
+        final long now = SystemClock.uptimeMillis();
+
+        // Collapsed lazy groups are evicted as a whole, nothing below them has to be visited
+        int evicted = 0;
+        List<Tree.Item> itemStack = new ArrayList<>();
+        itemStack.add(item);
+        while (!itemStack.isEmpty()) {
+            Tree.Item mItem = itemStack.remove(itemStack.size() - 1);
+
+            if (mItem instanceof LazyItemGroup) {
+                LazyItemGroup group = (LazyItemGroup) mItem;
+                if (!group.isExpanded()) {
+                    if (group.evictIfStale(now))
+                        evicted++;
+                    continue;
+                }
+            }
+
+            if (mItem instanceof Tree.ItemManager) {
+                List<Tree.Item> childList = ((Tree.ItemManager) mItem).getChildSnapshot();
+                for (int pos = childList.size() - 1; pos >= 0; pos--) {
+                    Tree.Item childItem = childList.get(pos);
+                    if (childItem != null && childItem != mItem)
+                        itemStack.add(childItem);
+                }
+            }
+        }
+        return evicted;
+    }
+
+    // Lazy group
+    @NonNull
+    private final ChildLoader childLoader;
+    @Nullable
+    private TaskSpawner spawner;
+
+    private int state;
+    private Task task;
+    private Throwable cause;
+
+    private long evictionDelay;
+    private long lastAccess;
+
+    private final List<OnLoadListener> listenerList;
+
+    public LazyItemGroup(@NonNull ChildLoader childLoader) {
+        this(childLoader, null);
+    }
+
+    public LazyItemGroup(@NonNull ChildLoader childLoader, @Nullable TaskSpawner spawner) {
+        if (childLoader == null)
+            throw new NullPointerException("No child loader attached");
+        this.childLoader = childLoader;
+        this.spawner = spawner;
+
+        this.state = STATE_UNLOADED;
+        this.evictionDelay = DEFAULT_EVICTION_DELAY;
+        this.lastAccess = SystemClock.uptimeMillis();
+
+        this.listenerList = new ArrayList<>();
+    }
+
+    public synchronized int getState() {
+        return state;
+    }
+
+    public synchronized boolean isLoaded() {
+        return state == STATE_LOADED;
+    }
+
+    public synchronized boolean isLoading() {
+        return state == STATE_LOADING;
+    }
+
+    @Nullable
+    public synchronized Throwable getCause() {
+        return cause;
+    }
+
+    public synchronized long getEvictionDelay() {
+        return evictionDelay;
+    }
+
+    public synchronized void setEvictionDelay(long evictionDelay) {
+        // A negative delay keeps loaded children forever
+        this.evictionDelay = evictionDelay;
+    }
+
+    public synchronized void setSpawner(@Nullable TaskSpawner spawner) {
+        this.spawner = spawner;
+    }
+
+    public void addOnLoadListener(@Nullable OnLoadListener listener) {
+        if (listener == null)
+            return;
+
+        synchronized (listenerList) {
+            if (!listenerList.contains(listener))
+                listenerList.add(listener);
+        }
+    }
+
+    public void removeOnLoadListener(@Nullable OnLoadListener listener) {
+        synchronized (listenerList) {
+            listenerList.remove(listener);
+        }
+    }
+
+    @Override
+    public boolean hasChildren() {
+        // Unloaded groups are expandable until the loader says otherwise
+        synchronized (this) {
+            if (state != STATE_LOADED)
+                return true;
+        }
+        return super.hasChildren();
+    }
+
+    @Override
+    public boolean setExpanded(boolean expanded) {
+        boolean changed = super.setExpanded(expanded);
+
+        synchronized (this) {
+            lastAccess = SystemClock.uptimeMillis();
+        }
+
+        if (this.expanded)
+            load();
+        return changed;
+    }
+
+    public void reload() {
+        cancel();
+        synchronized (this) {
+            if (state == STATE_LOADED)
+                state = STATE_UNLOADED;
+        }
+        load();
+    }
+
+    public boolean load() {
+        synchronized (this) {
+            if (state == STATE_LOADING || state == STATE_LOADED)
+                return false;
+
+            state = STATE_LOADING;
+            cause = null;
+        }
+
+        // The placeholder row is visible until the children arrive
+        detachAll();
+        attachChild(createPlaceholder());
+
+        TaskSpawner spawner;
+        synchronized (this) {
+            spawner = this.spawner;
+        }
+        if (spawner == null)
+            spawner = getDefaultSpawner();
+
+        final Task[] taskHolder = new Task[1];
+        try {
+            Task task = spawner.spawn(new Executable<Task>() {
+                @Override
+                public Runnable execute(Task t) throws Exception {
+                    final List<? extends Tree.Item> childList = childLoader.loadChildren(LazyItemGroup.this);
+                    return new Runnable() {
+                        @Override
+                        public void run() {
+                            onLoaded(taskHolder[0], childList);
+                        }
+                    };
+                }
+            }, new Handleable() {
+                @Override
+                public void handle(int state, @Nullable Throwable throwable) {
+                    if ((state & Task.STATE_FAILED) == Task.STATE_FAILED)
+                        onFailed(taskHolder[0], throwable);
+                }
+            });
+            taskHolder[0] = task;
+
+            synchronized (this) {
+                this.task = task;
+            }
+            task.execute();
+        } catch (Exception e) {
+            onFailed(null, e);
+        }
+        return true;
+    }
+
+    public void cancel() {
+        Task task;
+        synchronized (this) {
+            task = this.task;
+            this.task = null;
+
+            if (state != STATE_LOADING)
+                return;
+            state = STATE_UNLOADED;
+        }
+
+        if (task != null)
+            task.cancel();
+        detachAll();
+    }
+
+    public boolean evictIfStale(long now) {
+        synchronized (this) {
+            if (state != STATE_LOADED || expanded || evictionDelay < 0 || now - lastAccess < evictionDelay)
+                return false;
+
+            state = STATE_UNLOADED;
+        }
+
+        detachAll();
+        return true;
+    }
+
+    @NonNull
+    protected Tree.Item createPlaceholder() {
+        Placeholder placeholder = new Placeholder(this);
+        placeholder.setLevel(getLevel() + 1);
+        return placeholder;
+    }
+
+    private void onLoaded(@Nullable Task task, @Nullable List<? extends Tree.Item> childList) {
+        synchronized (this) {
+            // A newer load or a cancel replaced this task
+            if (task == null || this.task != task)
+                return;
+
+            this.task = null;
+            this.state = STATE_LOADED;
+            this.lastAccess = SystemClock.uptimeMillis();
+        }
+
+        detachAll();
+        if (childList != null) {
+            int level = getLevel() + 1;
+            for (Tree.Item child : childList) {
+                if (child != null && child.getLevel() < level)
+                    child.setLevel(level);
+                attachChild(child);
+            }
+        }
+
+        for (OnLoadListener listener : getListeners()) {
+            try {
+                listener.onLoaded(this);
+            } catch (Exception e) {
+            }
+        }
+    }
+
+    private void onFailed(@Nullable Task task, @Nullable Throwable throwable) {
+        synchronized (this) {
+            if (task != null && this.task != task)
+                return;
+
+            this.task = null;
+            this.state = STATE_FAILED;
+            this.cause = throwable;
+        }
+
+        detachAll();
+        setExpanded(false);
+
+        for (OnLoadListener listener : getListeners()) {
+            try {
+                listener.onFailed(this, throwable);
+            } catch (Exception e) {
+            }
+        }
+    }
+
+    @NonNull
+    private List<OnLoadListener> getListeners() {
+        synchronized (listenerList) {
+            return new ArrayList<>(listenerList);
+        }
+    }
+
+    public interface ChildLoader {
+        @Nullable
+        List<? extends Tree.Item> loadChildren(@NonNull LazyItemGroup group) throws Exception;
+    }
+
+    public interface OnLoadListener {
+        void onLoaded(@NonNull LazyItemGroup group);
+
+        void onFailed(@NonNull LazyItemGroup group, @Nullable Throwable throwable);
+    }
+
+    public static class Placeholder extends Tree.IItem {
+        @NonNull
+        protected final LazyItemGroup group;
+
+        public Placeholder(@NonNull LazyItemGroup group) {
+            this.group = group;
+        }
+
+        @NonNull
+        public final LazyItemGroup getGroup() {
+            return group;
+        }
+    }
+}
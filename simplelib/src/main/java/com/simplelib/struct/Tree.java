@@ -20,8 +20,13 @@ import androidx.annotation.IntRange;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
+import java.util.AbstractList;
 import java.util.ArrayList;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.RandomAccess;
 import java.util.Stack;
 
 public final class Tree {
@@ -103,6 +108,14 @@ public final class Tree {
         this.root = new IRootItem(itemList);
     }
 
+    public Tree(@NonNull ItemGroup root) {
+        if (root == null)
+            throw new NullPointerException("No root attached");
+        if (!root.isRoot())
+            throw new IllegalArgumentException("Item is not a root");
+        this.root = root;
+    }
+
     @NonNull
     public ItemGroup getRoot() {
         return root;
@@ -116,6 +129,15 @@ public final class Tree {
         return root.findItemById(id);
     }
 
+    public boolean isIndexEnabled() {
+        return root instanceof IRootItem && ((IRootItem) root).isIndexEnabled();
+    }
+
+    public void setIndexEnabled(boolean indexEnabled) {
+        if (root instanceof IRootItem)
+            ((IRootItem) root).setIndexEnabled(indexEnabled);
+    }
+
     public static class IItemWrapper<V> extends IItem {
         @NonNull
         protected final V value;
@@ -152,7 +174,7 @@ public final class Tree {
         protected String id;
         protected int level;
 
-        protected ItemGroup parent;
+        protected volatile ItemGroup parent;
 
         protected boolean selectable;
         protected boolean selected;
@@ -165,7 +187,12 @@ public final class Tree {
 
         @Override
         public void setId(@Nullable String id) {
+            String oldId = this.id;
             this.id = id;
+
+            Item root = getRoot();
+            if (root instanceof IRootItem)
+                ((IRootItem) root).onIdChanged(this, oldId, id);
         }
 
         @Override
@@ -225,7 +252,13 @@ public final class Tree {
         @NonNull
         protected final List<Item> childList;
 
-        protected boolean expanded;
+        protected volatile boolean expanded;
+
+        // Cached row count below this group, -1 if it has to be recounted
+        protected int visibleChildCount;
+
+        // Published copy of the child list, null after a write until the next snapshot read rebuilds it
+        private volatile ChildSnapshot childSnapshot;
 
         public IItemGroup() {
             this(null);
@@ -237,10 +270,14 @@ public final class Tree {
             this.childList = childList;
 
             this.expanded = false;
+            this.visibleChildCount = -1;
         }
 
         @Override
         public void detachAll() {
+            IRootItem root = getTreeRoot();
+            List<Item> detachedList = root != null ? new ArrayList<Item>() : null;
+
             synchronized (this) {
                 synchronized (childList) {
                     for (Item child : childList) {
@@ -248,11 +285,43 @@ public final class Tree {
                             continue;
 
                         child.setParent(null);
+                        if (detachedList != null)
+                            detachedList.add(child);
                     }
 
                     childList.clear();
+                    childSnapshot = null;
                 }
             }
+
+            // The index is updated outside of the group monitor, it walks the subtree itself
+            if (root != null)
+                for (Item child : detachedList)
+                    root.unindex(child);
+
+            invalidateVisibleChildCount();
+        }
+
+        @Override
+        public void attachChild(@Nullable Item child) {
+            // Appends without reading the count first, so bulk building never rebuilds the snapshot
+            synchronized (this) {
+                synchronized (childList) {
+                    childList.add(child);
+                    childSnapshot = null;
+
+                    try {
+                        if (child != null)
+                            child.setParent(this);
+                    } catch (RuntimeException e) {
+                        // A child refusing this parent is not kept in the list
+                        childList.remove(childList.size() - 1);
+                        throw e;
+                    }
+                }
+            }
+
+            onChildAttached(child);
         }
 
         @Override
@@ -260,27 +329,93 @@ public final class Tree {
             synchronized (this) {
                 synchronized (childList) {
                     childList.add(index, child);
-
-                    if (child != null)
-                        child.setParent(this);
+                    childSnapshot = null;
+
+                    try {
+                        if (child != null)
+                            child.setParent(this);
+                    } catch (RuntimeException e) {
+                        childList.remove(index);
+                        throw e;
+                    }
                 }
             }
+
+            onChildAttached(child);
+        }
+
+        private void onChildAttached(@Nullable Item child) {
+            // The index walks the subtree and takes the child monitors, so no group monitor may be held here
+            IRootItem root = getTreeRoot();
+            if (root != null && child != null)
+                root.index(child);
+
+            invalidateVisibleChildCount();
         }
 
         @Override
         public void detachChild(int index) {
+            Item child;
             synchronized (this) {
                 synchronized (childList) {
-                    Item child = childList.remove(index);
+                    child = childList.remove(index);
+                    childSnapshot = null;
 
                     if (child != null)
                         child.setParent(null);
                 }
             }
+
+            IRootItem root = getTreeRoot();
+            if (root != null && child != null)
+                root.unindex(child);
+
+            invalidateVisibleChildCount();
+        }
+
+        @Override
+        public boolean detachChild(@Nullable Item child) {
+            // Matches are removed from the live list, the snapshot is dropped once for all of them
+            List<Item> detachedList = new ArrayList<>();
+            boolean detached = false;
+            synchronized (this) {
+                synchronized (childList) {
+                    for (int pos = childList.size() - 1; pos >= 0; pos--) {
+                        Item mChild = childList.get(pos);
+                        if (mChild == null ? child != null : !mChild.equals(child))
+                            continue;
+
+                        childList.remove(pos);
+                        childSnapshot = null;
+                        detached = true;
+
+                        if (mChild != null) {
+                            mChild.setParent(null);
+                            detachedList.add(mChild);
+                        }
+                    }
+                }
+            }
+
+            if (!detached)
+                return false;
+
+            IRootItem root = getTreeRoot();
+            if (root != null)
+                for (Item mChild : detachedList)
+                    root.unindex(mChild);
+
+            invalidateVisibleChildCount();
+            return true;
         }
 
         @Override
         public int getChildCount() {
+            ChildSnapshot snapshot = childSnapshot;
+            if (snapshot != null)
+                return snapshot.size();
+
+            // Positional reads do not rebuild the snapshot, a writer reading back stays cheap
             synchronized (this) {
                 return childList.size();
             }
@@ -288,11 +423,35 @@ public final class Tree {
 
         @Override
         public Item getChildAt(int index) {
+            ChildSnapshot snapshot = childSnapshot;
+            if (snapshot != null)
+                return snapshot.get(index);
+
             synchronized (this) {
                 return childList.get(index);
             }
         }
 
+        @NonNull
+        @Override
+        public List<Item> getChildSnapshot() {
+            ChildSnapshot snapshot = childSnapshot;
+            if (snapshot != null)
+                return snapshot;
+
+            // Only the first read after a write takes the monitor
+            synchronized (this) {
+                synchronized (childList) {
+                    snapshot = childSnapshot;
+                    if (snapshot == null) {
+                        snapshot = new ChildSnapshot(childList.toArray(new Item[0]));
+                        childSnapshot = snapshot;
+                    }
+                    return snapshot;
+                }
+            }
+        }
+
         @Override
         public boolean isExpanded() {
             return expanded;
@@ -307,20 +466,110 @@ public final class Tree {
             this.expanded = expanded;
             if (changed && !expanded)
                 setChildItemsExpanded(false);
+            if (changed)
+                invalidateVisibleChildCount();
             return changed;
         }
 
+        @Override
+        public int getVisibleChildCount() {
+            if (!expanded)
+                return 0;
+
+            int count = visibleChildCount;
+            if (count < 0) {
+                count = ItemGroup.super.getVisibleChildCount();
+                visibleChildCount = count;
+            }
+            return count;
+        }
+
+        @Override
+        public void invalidateVisibleChildCount() {
+            visibleChildCount = -1;
+
+            ItemGroup.super.invalidateVisibleChildCount();
+        }
+
         protected boolean isExpandable() {
             return true;
         }
+
+        @Nullable
+        protected final IRootItem getTreeRoot() {
+            Item root = getRoot();
+            return root instanceof IRootItem ? (IRootItem) root : null;
+        }
     }
 
     public static final class IRootItem extends IItemGroup {
+        @Nullable
+        private volatile IdIndex idIndex;
+
         public IRootItem() {
+            this(null);
         }
 
         public IRootItem(@Nullable List<Item> childList) {
             super(childList);
+
+            setIndexEnabled(true);
+        }
+
+        public synchronized boolean isIndexEnabled() {
+            return idIndex != null;
+        }
+
+        public void setIndexEnabled(boolean indexEnabled) {
+            IdIndex idIndex;
+            synchronized (this) {
+                if (indexEnabled == (this.idIndex != null))
+                    return;
+
+                idIndex = indexEnabled ? new IdIndex(this) : null;
+                this.idIndex = idIndex;
+            }
+
+            // Filled after publishing and outside of the monitor, attaches running meanwhile index into it as well
+            if (idIndex != null)
+                idIndex.addAll(this);
+        }
+
+        @SuppressWarnings("unchecked")
+        @Nullable
+        @Override
+        public <T> T findItemById(@Nullable String id) {
+            if (id == null)
+                return null;
+            if (ROOT_ID.equals(id))
+                return (T) this;
+
+            IdIndex idIndex = this.idIndex;
+            if (idIndex == null)
+                return super.findItemById(id);
+
+            return (T) idIndex.get(id);
+        }
+
+        void index(@NonNull Item item) {
+            IdIndex idIndex = this.idIndex;
+            if (idIndex != null)
+                idIndex.addAll(item);
+        }
+
+        void unindex(@NonNull Item item) {
+            IdIndex idIndex = this.idIndex;
+            if (idIndex != null)
+                idIndex.removeAll(item);
+        }
+
+        void onIdChanged(@NonNull Item item, @Nullable String oldId, @Nullable String newId) {
+            IdIndex idIndex = this.idIndex;
+            if (idIndex == null)
+                return;
+
+            idIndex.remove(oldId, item);
+            idIndex.add(newId, item);
         }
 
         @Override
@@ -386,6 +635,123 @@ public final class Tree {
         }
     }
 
+    private static final class ChildSnapshot extends AbstractList<Item> implements RandomAccess {
+        @NonNull
+        private final Item[] items;
+
+        ChildSnapshot(@NonNull Item[] items) {
+            this.items = items;
+        }
+
+        @Override
+        public Item get(int index) {
+            return items[index];
+        }
+
+        @Override
+        public int size() {
+            return items.length;
+        }
+    }
+
+    private static final class IdIndex {
+        @NonNull
+        private final IRootItem root;
+
+        // Values are either the item itself or a list of items sharing the id
+        private final HashMap<String, Object> itemMap = new HashMap<>();
+
+        IdIndex(@NonNull IRootItem root) {
+            this.root = root;
+        }
+
+        @SuppressWarnings("unchecked")
+        synchronized Item get(@NonNull String id) {
+            Object value = itemMap.get(id);
+            if (value instanceof List)
+                return ((List<Item>) value).get(0);
+            return (Item) value;
+        }
+
+        @SuppressWarnings("unchecked")
+        synchronized void add(@Nullable String id, @NonNull Item item) {
+            if (id == null || item.isRoot())
+                return;
+
+            Object value = itemMap.get(id);
+            if (value == null) {
+                itemMap.put(id, item);
+            } else if (value instanceof List) {
+                List<Item> itemList = (List<Item>) value;
+                if (!itemList.contains(item))
+                    itemList.add(item);
+            } else if (value != item) {
+                List<Item> itemList = new ArrayList<>(2);
+                itemList.add((Item) value);
+                itemList.add(item);
+                itemMap.put(id, itemList);
+            }
+        }
+
+        @SuppressWarnings("unchecked")
+        synchronized void remove(@Nullable String id, @NonNull Item item) {
+            if (id == null)
+                return;
+
+            Object value = itemMap.get(id);
+            if (value == item) {
+                itemMap.remove(id);
+            } else if (value instanceof List) {
+                List<Item> itemList = (List<Item>) value;
+                itemList.remove(item);
+                if (itemList.size() == 1)
+                    itemMap.put(id, itemList.get(0));
+                else if (itemList.isEmpty())
+                    itemMap.remove(id);
+            }
+        }
+
+        void addAll(@NonNull Item item) {
+            walk(item, true);
+        }
+
+        void removeAll(@NonNull Item item) {
+            walk(item, false);
+        }
+
+        private void walk(@NonNull Item item, boolean add) {
+            // The subtree is collected first, reading the snapshots takes the group monitors
+            List<Item> itemList = new ArrayList<>();
+            ArrayDeque<Item> itemStack = new ArrayDeque<>();
+            itemStack.push(item);
+            while (!itemStack.isEmpty()) {
+                Item mItem = itemStack.pop();
+                itemList.add(mItem);
+
+                if (mItem instanceof ItemManager) {
+                    List<Item> childList = ((ItemManager) mItem).getChildSnapshot();
+                    for (int pos = childList.size() - 1; pos >= 0; pos--) {
+                        Item childItem = childList.get(pos);
+                        if (childItem != null && childItem != mItem)
+                            itemStack.push(childItem);
+                    }
+                }
+            }
+
+            // A concurrent attach or detach may have moved the subtree since, so only items still matching it are changed.
+            // The parent is written before the index is updated, whichever side runs last sees the final state.
+            synchronized (this) {
+                for (Item mItem : itemList) {
+                    boolean attached = mItem.getRoot() == root;
+                    if (add && attached)
+                        add(mItem.getId(), mItem);
+                    else if (!add && !attached)
+                        remove(mItem.getId(), mItem);
+                }
+            }
+        }
+    }
+
     public interface Item {
         default boolean isRoot() {
             return false;
@@ -450,17 +816,13 @@ public final class Tree {
             if (id != null && mId != null && id.equals(mId))
                 return (T) this;
 
-            synchronized (this) {
-                int childCount = getChildCount();
-                for (int pos = 0; pos < childCount; pos++) {
-                    Item mChild = getChildAt(pos);
-                    if (mChild == null)
-                        continue;
-                    T result = mChild.findItemById(id);
-                    if (result == null)
-                        continue;
-                    return result;
-                }
+            for (Item mChild : getChildSnapshot()) {
+                if (mChild == null)
+                    continue;
+                T result = mChild.findItemById(id);
+                if (result == null)
+                    continue;
+                return result;
             }
 
             return null;
@@ -474,14 +836,34 @@ public final class Tree {
             return setExpanded(!isExpanded());
         }
 
+        default boolean hasChildren() {
+            return getChildCount() > 0;
+        }
+
+        @IntRange(from = 0)
+        default int getVisibleChildCount() {
+            if (!isExpanded())
+                return 0;
+
+            int count = 0;
+            for (Item childItem : getChildSnapshot()) {
+                count++;
+                if (childItem instanceof ItemGroup)
+                    count += ((ItemGroup) childItem).getVisibleChildCount();
+            }
+            return count;
+        }
+
+        default void invalidateVisibleChildCount() {
+            ItemGroup parent = getParent();
+            if (parent != null)
+                parent.invalidateVisibleChildCount();
+        }
+
         default void setChildItemsExpanded(boolean expanded) {
-            synchronized (this) {
-                int childCount = getChildCount();
-                for (int pos = 0; pos < childCount; pos++) {
-                    Item childItem = getChildAt(pos);
-                    if (childItem instanceof ItemGroup)
-                        ((ItemGroup) childItem).setExpanded(expanded);
-                }
+            for (Item childItem : getChildSnapshot()) {
+                if (childItem instanceof ItemGroup)
+                    ((ItemGroup) childItem).setExpanded(expanded);
             }
         }
     }
@@ -527,6 +909,18 @@ public final class Tree {
         int getChildCount();
 
         Item getChildAt(@IntRange(from = 0) int index);
+
+        // Stable, unmodifiable view of the children at the time of the call
+        @NonNull
+        default List<Item> getChildSnapshot() {
+            synchronized (this) {
+                int childCount = getChildCount();
+                List<Item> childList = new ArrayList<>(childCount);
+                for (int pos = 0; pos < childCount; pos++)
+                    childList.add(getChildAt(pos));
+                return Collections.unmodifiableList(childList);
+            }
+        }
     }
 
     public static final class Helper {
@@ -550,14 +944,8 @@ public final class Tree {
             }
 
             if (item instanceof ItemManager) {
-                final ItemManager itemManager = (ItemManager) item;
-                synchronized (itemManager) {
-                    int childCount = itemManager.getChildCount();
-                    for (int pos = 0; pos < childCount; pos++) {
-                        Item childItem = itemManager.getChildAt(pos);
-                        applied &= setAllLevelsExpanded(childItem, expanded);
-                    }
-                }
+                for (Item childItem : ((ItemManager) item).getChildSnapshot())
+                    applied &= setAllLevelsExpanded(childItem, expanded);
             }
 
             return applied;
@@ -212,12 +212,11 @@ public class SimpleTreeAdapter<E extends Item> extends TreeAdapter<E> {
                               final @Nullable E element) {
         view.setOnClickListener(v -> {
             boolean handled = false;
-            boolean dataChanged = false;
 
             final boolean expandable = isExpandable(item);
             if (expandable) {
                 final Tree.ItemGroup group = (Tree.ItemGroup) item;
-                final boolean changed = group.toggleExpansion();
+                final boolean changed = toggleExpansion(group);
 
                 if (changed && holder.arrowView != null) {
                     final boolean expanded = isExpanded(item, true);
@@ -236,7 +235,6 @@ public class SimpleTreeAdapter<E extends Item> extends TreeAdapter<E> {
                 }
 
                 handled |= changed;
-                dataChanged |= changed;
             }
             if (holder.arrowView != null)
                 holder.arrowView.setVisibility(expandable ? View.VISIBLE : View.GONE);
@@ -254,10 +252,6 @@ public class SimpleTreeAdapter<E extends Item> extends TreeAdapter<E> {
                 holder.setSelected(false);
             }
 
-            if (dataChanged) {
-                updateTreeData();
-            }
-
             if (onClickListener != null)
                 onClickListener.onClick(item, element);
         });
@@ -28,16 +28,23 @@ import androidx.core.view.ViewCompat;
 
 import com.simplelib.adapter.SimpleRecyclerFilterAdapter;
 import com.simplelib.container.SimpleFilter;
+import com.simplelib.struct.LazyItemGroup;
 import com.simplelib.struct.Tree;
 
 import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Set;
 import java.util.Stack;
 
 public abstract class TreeAdapter<E> extends SimpleRecyclerFilterAdapter<Tree.Item, E> {
     private Tree tree;
     private boolean showRoot;
 
+    // Lazy groups this adapter listens to, they would keep it alive and update it after the tree is gone
+    private final Set<LazyItemGroup> lazyGroups = new HashSet<>();
+
     private SimpleFilter<Tree.Item, E> filter;
 
     private final SimpleFilter<Tree.Item, E> treeFilter = new SimpleFilter<Tree.Item, E>() {
@@ -46,17 +53,25 @@ public abstract class TreeAdapter<E> extends SimpleRecyclerFilterAdapter<Tree.It
             if (item == null)
                 return filter == null || filter.filter(null);
 
-            if (!showRoot && item.isRoot())
-                return false;
-
-            Tree.ItemGroup parent = item.getParent();
-            if (parent != null && !parent.isExpanded() && (!parent.isRoot() || showRoot))
+            if (!isVisibleInTree(item))
                 return false;
 
             return filter == null || filter.filter(item);
         }
     };
 
+    private final LazyItemGroup.OnLoadListener lazyLoadListener = new LazyItemGroup.OnLoadListener() {
+        @Override
+        public void onLoaded(@NonNull LazyItemGroup group) {
+            update();
+        }
+
+        @Override
+        public void onFailed(@NonNull LazyItemGroup group, @Nullable Throwable throwable) {
+            update();
+        }
+    };
+
     public TreeAdapter() {
         setShowRoot(false, false);
         setTree(null, false);
@@ -85,6 +100,8 @@ public abstract class TreeAdapter<E> extends SimpleRecyclerFilterAdapter<Tree.It
     }
 
     public synchronized void setTree(@Nullable Tree tree, boolean update) {
+        if (this.tree != tree)
+            unregisterLazyGroups(null);
         this.tree = tree;
 
         moveTreeIntoList();
@@ -200,13 +217,177 @@ public abstract class TreeAdapter<E> extends SimpleRecyclerFilterAdapter<Tree.It
     }
 
     protected final boolean isExpandable(Tree.Item item) {
-        return item instanceof Tree.ItemGroup && ((Tree.ItemGroup) item).getChildCount() > 0;
+        return item instanceof Tree.ItemGroup && ((Tree.ItemGroup) item).hasChildren();
     }
 
     protected final boolean isExpanded(Tree.Item item, boolean expandable) {
         return expandable && ((Tree.ItemGroup) item).isExpanded();
     }
 
+    public synchronized boolean toggleExpansion(@Nullable Tree.ItemGroup group) {
+        return group != null && setExpanded(group, !group.isExpanded());
+    }
+
+    public synchronized boolean setExpanded(@Nullable Tree.ItemGroup group, boolean expanded) {
+        if (group == null)
+            return false;
+
+        if (group instanceof LazyItemGroup)
+            registerLazyGroup((LazyItemGroup) group);
+
+        // A custom filter may hide any row, so only the full pass knows the new list
+        if (filter != null || isFiltering()) {
+            boolean changed = group.setExpanded(expanded);
+            if (changed)
+                updateTreeData();
+            return changed;
+        }
+
+        // Rows below a collapsed ancestor stay hidden either way, a hidden root still shows its children
+        if (!group.isRoot() && !isVisibleInTree(group))
+            return group.setExpanded(expanded);
+
+        final int pos = findVisiblePosition(group);
+        final boolean hasRow = pos >= 0 && group.equals(getAtAdapterPos(pos));
+        final int rowCount = hasRow && group.isExpanded() ? group.getVisibleChildCount() : 0;
+
+        boolean changed = group.setExpanded(expanded);
+        if (!changed)
+            return false;
+
+        boolean applied = false;
+        if (hasRow) {
+            if (group.isExpanded()) {
+                // Expanding may attach new children, such as the placeholder of a lazy group
+                if (!syncSubtree(group)) {
+                    updateTreeData();
+                    return true;
+                }
+
+                List<Tree.Item> rows = new ArrayList<>(group.getVisibleChildCount());
+                collectVisibleRows(group, rows);
+                applied = insertFilteredItems(pos + 1, rows);
+            } else {
+                applied = removeFilteredItems(pos + 1, rowCount);
+            }
+        }
+
+        if (!applied)
+            updateTreeData();
+        return true;
+    }
+
+    @SuppressWarnings("SynchronizationOnLocalVariableOrMethodParameter")
+    private boolean syncSubtree(@NonNull Tree.ItemGroup group) {
+        List<Tree.Item> list = getList();
+        if (list == null)
+            return false;
+
+        synchronized (list) {
+            int start = list.indexOf(group);
+            if (start < 0)
+                return false;
+
+            int end = start + 1;
+            while (end < list.size() && isDescendant(list.get(end), group))
+                end++;
+
+            List<Tree.Item> subtree = new ArrayList<>();
+            collectSubtree(group, subtree);
+
+            // The unfiltered list mirrors the tree, otherwise positions of the new rows cannot be mapped back
+            List<Tree.Item> segment = list.subList(start + 1, end);
+            if (!segment.equals(subtree)) {
+                segment.clear();
+                list.addAll(start + 1, subtree);
+            }
+        }
+        return true;
+    }
+
+    private static boolean isDescendant(@NonNull Tree.Item item, @NonNull Tree.ItemGroup group) {
+        Tree.ItemGroup parent = item.getParent();
+        while (parent != null) {
+            if (group.equals(parent))
+                return true;
+            if (parent.isRoot())
+                break;
+            parent = parent.getParent();
+        }
+        return false;
+    }
+
+    private static void collectSubtree(@NonNull Tree.ItemGroup group, @NonNull List<Tree.Item> items) {
+        for (Tree.Item childItem : group.getChildSnapshot()) {
+            if (group.equals(childItem)) continue;
+            items.add(childItem);
+            if (childItem instanceof Tree.ItemGroup)
+                collectSubtree((Tree.ItemGroup) childItem, items);
+        }
+    }
+
+    private boolean isVisibleInTree(@NonNull Tree.Item item) {
+        if (item.isRoot())
+            return showRoot;
+
+        Tree.ItemGroup parent = item.getParent();
+        while (parent != null) {
+            if (!parent.isExpanded() && (!parent.isRoot() || showRoot))
+                return false;
+            if (parent.isRoot())
+                break;
+            parent = parent.getParent();
+        }
+        return true;
+    }
+
+    private int findVisiblePosition(@NonNull Tree.Item item) {
+        if (item.isRoot())
+            return showRoot ? 0 : -1;
+
+        // Rows in front of the item: every visible ancestor plus the expanded rows of earlier siblings
+        int pos = 0;
+        Tree.Item current = item;
+        Tree.ItemGroup parent;
+        while ((parent = current.getParent()) != null) {
+            List<Tree.Item> siblingList = parent.getChildSnapshot();
+            int childCount = siblingList.size();
+            int index = 0;
+            for (; index < childCount; index++) {
+                Tree.Item sibling = siblingList.get(index);
+                if (current.equals(sibling))
+                    break;
+
+                pos++;
+                if (sibling instanceof Tree.ItemGroup)
+                    pos += ((Tree.ItemGroup) sibling).getVisibleChildCount();
+            }
+            if (index >= childCount)
+                return -1;
+
+            if (parent.isRoot()) {
+                if (showRoot)
+                    pos++;
+                return pos;
+            }
+
+            pos++;
+            current = parent;
+        }
+        return -1;
+    }
+
+    private static void collectVisibleRows(@NonNull Tree.ItemGroup group, @NonNull List<Tree.Item> rows) {
+        if (!group.isExpanded())
+            return;
+
+        for (Tree.Item childItem : group.getChildSnapshot()) {
+            rows.add(childItem);
+            if (childItem instanceof Tree.ItemGroup)
+                collectVisibleRows((Tree.ItemGroup) childItem, rows);
+        }
+    }
+
     @IntRange(from = 0)
     protected abstract int getLevelOffset(@IntRange(from = 0) int level);
 
@@ -229,6 +410,7 @@ public abstract class TreeAdapter<E> extends SimpleRecyclerFilterAdapter<Tree.It
 
     @Override
     public synchronized void reload() {
+        evictLazyGroups();
         moveTreeIntoList();
 
         super.reload();
@@ -240,11 +422,35 @@ public abstract class TreeAdapter<E> extends SimpleRecyclerFilterAdapter<Tree.It
 
     @Override
     public synchronized void update() {
+        evictLazyGroups();
         moveTreeIntoList();
 
         super.update();
     }
 
+    private void evictLazyGroups() {
+        // Hidden subtrees of lazy groups are dropped before the list is rebuilt
+        if (!lazyGroups.isEmpty() && tree != null)
+            LazyItemGroup.evictStale(tree);
+    }
+
+    private void registerLazyGroup(@NonNull LazyItemGroup group) {
+        if (lazyGroups.add(group))
+            group.addOnLoadListener(lazyLoadListener);
+    }
+
+    private void unregisterLazyGroups(@Nullable Set<LazyItemGroup> keepGroups) {
+        Iterator<LazyItemGroup> iterator = lazyGroups.iterator();
+        while (iterator.hasNext()) {
+            LazyItemGroup group = iterator.next();
+            if (keepGroups != null && keepGroups.contains(group))
+                continue;
+
+            group.removeOnLoadListener(lazyLoadListener);
+            iterator.remove();
+        }
+    }
+
     @SuppressWarnings("SynchronizationOnLocalVariableOrMethodParameter")
     public synchronized void moveTreeIntoList() {
         List<Tree.Item> list = getList();
@@ -253,32 +459,44 @@ public abstract class TreeAdapter<E> extends SimpleRecyclerFilterAdapter<Tree.It
             setList(list, false);
         }
 
-        synchronized (list) {
-            list.clear();
-
-            if (tree == null)
-                return;
-
-            Tree.ItemGroup rootGroup = tree.getRoot();
-            if (rootGroup == null)
-                return;
-
-            Stack<Tree.Item> itemStack = new Stack<>();
-            itemStack.push(rootGroup);
-            while (!itemStack.isEmpty()) {
-                Tree.Item item = itemStack.pop();
-                list.add(item);
-
-                if (item instanceof Tree.ItemManager) {
-                    Tree.ItemManager itemManager = (Tree.ItemManager) item;
-                    int childCount = itemManager.getChildCount();
-                    for (int i = childCount - 1; i >= 0; i--) {
-                        Tree.Item childItem = itemManager.getChildAt(i);
-                        if (childItem == item) continue;
-                        itemStack.push(childItem);
+        // Groups which left the tree, for example below an evicted group, stop being listened to
+        Set<LazyItemGroup> treeGroups = new HashSet<>();
+        try {
+            synchronized (list) {
+                list.clear();
+
+                if (tree == null)
+                    return;
+
+                Tree.ItemGroup rootGroup = tree.getRoot();
+                if (rootGroup == null)
+                    return;
+
+                Stack<Tree.Item> itemStack = new Stack<>();
+                itemStack.push(rootGroup);
+                while (!itemStack.isEmpty()) {
+                    Tree.Item item = itemStack.pop();
+                    list.add(item);
+
+                    if (item instanceof LazyItemGroup) {
+                        LazyItemGroup group = (LazyItemGroup) item;
+                        registerLazyGroup(group);
+                        treeGroups.add(group);
+                    }
+
+                    if (item instanceof Tree.ItemManager) {
+                        // Each group is read from one snapshot, a concurrent edit cannot shift the indices
+                        List<Tree.Item> childList = ((Tree.ItemManager) item).getChildSnapshot();
+                        for (int i = childList.size() - 1; i >= 0; i--) {
+                            Tree.Item childItem = childList.get(i);
+                            if (childItem == item) continue;
+                            itemStack.push(childItem);
+                        }
                     }
                 }
             }
+        } finally {
+            unregisterLazyGroups(treeGroups);
         }
     }
 }
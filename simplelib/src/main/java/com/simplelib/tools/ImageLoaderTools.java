@@ -20,100 +20,124 @@ import android.content.Context;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
 import android.net.Uri;
+import android.os.Build;
 
+import com.simplelib.image.BitmapPool;
+import com.simplelib.image.ImageCache;
+
+import java.io.BufferedInputStream;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
 import java.io.InputStream;
 
 public class ImageLoaderTools {
+    //Bytes kept around to rewind a stream after its bounds were decoded
+    private static final int HEADER_MARK_LIMIT = 5 * 1024 * 1024;
+    //Bytes kept around to retry a decode whose reused bitmap was rejected
+    private static final int RETRY_MARK_LIMIT = 64 * 1024;
+
+    private static final int BUFFER_SIZE = 16 * 1024;
+
     public static Bitmap loadInReqSize(File path, int reqWidth, int reqHeight) {
-        try {
-            BitmapFactory.Options options = new BitmapFactory.Options();
-            if (reqWidth >= 0 && reqHeight >= 0) {
-                options.inJustDecodeBounds = true;
-                BitmapFactory.decodeFile(path.getAbsolutePath(), options);
+        return loadInReqSize(path, reqWidth, reqHeight, null);
+    }
 
-                options.inSampleSize = calculateInSampleSize(options, reqWidth, reqHeight);
+    public static Bitmap loadInReqSize(File path, int reqWidth, int reqHeight, BitmapPool pool) {
+        return loadInReqSize(path, reqWidth, reqHeight, pool, null, null);
+    }
 
-                options.inJustDecodeBounds = false;
+    public static Bitmap loadInReqSize(File path, int reqWidth, int reqHeight, BitmapPool pool, DecodeStats stats) {
+        return loadInReqSize(path, reqWidth, reqHeight, pool, null, stats);
+    }
+
+    public static Bitmap loadInReqSize(File path, int reqWidth, int reqHeight, BitmapPool pool, Bitmap.Config config) {
+        return loadInReqSize(path, reqWidth, reqHeight, pool, config, null);
+    }
+
+    public static Bitmap loadInReqSize(final File path, int reqWidth, int reqHeight, BitmapPool pool, Bitmap.Config config, DecodeStats stats) {
+        if (path == null) return null;
+
+        return decode(new StreamSource(new StreamFetcher() {
+            @Override
+            public InputStream openInputStream() {
+                try {
+                    return new FileInputStream(path);
+                } catch (Exception e) {
+                    return null;
+                }
             }
-            return BitmapFactory.decodeFile(path.getAbsolutePath(), options);
-        } catch (OutOfMemoryError e) {
-            System.gc();
-        } catch (Exception e) {
-        }
-        return null;
+        }), reqWidth, reqHeight, pool, config, stats);
     }
 
     public static Bitmap loadInReqSize(Context context, Uri uri, int reqWidth, int reqHeight) {
-        if (context == null || uri == null) return null;
-
-        InputStream stream = null;
-        try {
-            BitmapFactory.Options options = new BitmapFactory.Options();
-            if (reqWidth >= 0 && reqHeight >= 0) {
-                options.inJustDecodeBounds = true;
+        return loadInReqSize(context, uri, reqWidth, reqHeight, null);
+    }
 
-                stream = context.getContentResolver().openInputStream(uri);
-                BitmapFactory.decodeStream(stream, null, options);
+    public static Bitmap loadInReqSize(Context context, Uri uri, int reqWidth, int reqHeight, BitmapPool pool) {
+        return loadInReqSize(context, uri, reqWidth, reqHeight, pool, null, null);
+    }
 
-                options.inSampleSize = calculateInSampleSize(options, reqWidth, reqHeight);
+    public static Bitmap loadInReqSize(Context context, Uri uri, int reqWidth, int reqHeight, BitmapPool pool, DecodeStats stats) {
+        return loadInReqSize(context, uri, reqWidth, reqHeight, pool, null, stats);
+    }
 
-                options.inJustDecodeBounds = false;
-            }
+    public static Bitmap loadInReqSize(Context context, Uri uri, int reqWidth, int reqHeight, BitmapPool pool, Bitmap.Config config) {
+        return loadInReqSize(context, uri, reqWidth, reqHeight, pool, config, null);
+    }
 
-            if (stream != null)
-                SessionTools.closeWithoutFail(stream);
+    public static Bitmap loadInReqSize(final Context context, final Uri uri, int reqWidth, int reqHeight, BitmapPool pool, Bitmap.Config config, DecodeStats stats) {
+        if (context == null || uri == null) return null;
 
-            stream = context.getContentResolver().openInputStream(uri);
-            return BitmapFactory.decodeStream(stream, null, options);
-        } catch (OutOfMemoryError e) {
-            System.gc();
-        } catch (Exception e) {
-        } finally {
-            SessionTools.closeWithoutFail(stream);
-        }
-        return null;
+        return decode(new StreamSource(new StreamFetcher() {
+            @Override
+            public InputStream openInputStream() {
+                try {
+                    return context.getContentResolver().openInputStream(uri);
+                } catch (Exception e) {
+                    return null;
+                }
+            }
+        }), reqWidth, reqHeight, pool, config, stats);
     }
 
     public static Bitmap loadInReqSize(StreamFetcher fetcher, int reqWidth, int reqHeight) {
-        if (fetcher == null) return null;
-
-        InputStream stream = null;
-        try {
-            BitmapFactory.Options options = new BitmapFactory.Options();
-            if (reqWidth >= 0 && reqHeight >= 0) {
-                options.inJustDecodeBounds = true;
-
-                stream = openInputStream(fetcher);
-                if (stream == null) return null;
+        return loadInReqSize(fetcher, reqWidth, reqHeight, null);
+    }
 
-                BitmapFactory.decodeStream(stream, null, options);
+    public static Bitmap loadInReqSize(StreamFetcher fetcher, int reqWidth, int reqHeight, BitmapPool pool) {
+        return loadInReqSize(fetcher, reqWidth, reqHeight, pool, null, null);
+    }
 
-                options.inSampleSize = calculateInSampleSize(options, reqWidth, reqHeight);
-                options.inJustDecodeBounds = false;
-            }
+    public static Bitmap loadInReqSize(StreamFetcher fetcher, int reqWidth, int reqHeight, BitmapPool pool, DecodeStats stats) {
+        return loadInReqSize(fetcher, reqWidth, reqHeight, pool, null, stats);
+    }
 
-            if (stream != null)
-                SessionTools.closeWithoutFail(stream);
+    public static Bitmap loadInReqSize(StreamFetcher fetcher, int reqWidth, int reqHeight, BitmapPool pool, Bitmap.Config config) {
+        return loadInReqSize(fetcher, reqWidth, reqHeight, pool, config, null);
+    }
 
-            stream = openInputStream(fetcher);
-            if (stream == null) return null;
+    public static Bitmap loadInReqSize(StreamFetcher fetcher, int reqWidth, int reqHeight, BitmapPool pool, Bitmap.Config config, DecodeStats stats) {
+        if (fetcher == null) return null;
 
-            return BitmapFactory.decodeStream(stream, null, options);
-        } catch (OutOfMemoryError e) {
-            System.gc();
-        } catch (Exception e) {
-        } finally {
-            SessionTools.closeWithoutFail(stream);
-        }
-        return null;
+        return decode(new StreamSource(fetcher), reqWidth, reqHeight, pool, config, stats);
     }
 
     public static Bitmap loadInReqSize(InputStream stream, int reqWidth, int reqHeight) {
+        return loadInReqSize(stream, reqWidth, reqHeight, null);
+    }
+
+    public static Bitmap loadInReqSize(InputStream stream, int reqWidth, int reqHeight, DecodeStats stats) {
         if (stream == null) return null;
 
         try {
-            Bitmap bitmap = BitmapFactory.decodeStream(stream);
+            Bitmap bitmap = decode(new StreamSource(stream), reqWidth, reqHeight, null, null, stats);
+            if (bitmap == null || reqWidth <= 0 || reqHeight <= 0)
+                return bitmap;
+            if (bitmap.getWidth() == reqWidth && bitmap.getHeight() == reqHeight)
+                return bitmap;
+
             Bitmap image = ImageTools.fitImageIn(bitmap, reqWidth, reqHeight, false, -1, 0);
 
             try {
@@ -133,24 +157,142 @@ public class ImageLoaderTools {
     }
 
     public static Bitmap loadInReqSize(byte[] data, int reqWidth, int reqHeight) {
+        return loadInReqSize(data, reqWidth, reqHeight, null);
+    }
+
+    public static Bitmap loadInReqSize(byte[] data, int reqWidth, int reqHeight, BitmapPool pool) {
+        return loadInReqSize(data, reqWidth, reqHeight, pool, null, null);
+    }
+
+    public static Bitmap loadInReqSize(byte[] data, int reqWidth, int reqHeight, BitmapPool pool, DecodeStats stats) {
+        return loadInReqSize(data, reqWidth, reqHeight, pool, null, stats);
+    }
+
+    public static Bitmap loadInReqSize(byte[] data, int reqWidth, int reqHeight, BitmapPool pool, Bitmap.Config config) {
+        return loadInReqSize(data, reqWidth, reqHeight, pool, config, null);
+    }
+
+    public static Bitmap loadInReqSize(byte[] data, int reqWidth, int reqHeight, BitmapPool pool, Bitmap.Config config, DecodeStats stats) {
+        if (data == null) return null;
+
+        return decode(new ByteSource(data), reqWidth, reqHeight, pool, config, stats);
+    }
+
+    private static Bitmap decode(Source source, int reqWidth, int reqHeight, BitmapPool pool, Bitmap.Config config, DecodeStats stats) {
+        if (stats != null)
+            stats.reset();
+
+        Bitmap bitmap = null;
+        boolean reused = false;
         try {
             BitmapFactory.Options options = new BitmapFactory.Options();
-            if (reqWidth >= 0 && reqHeight >= 0) {
+            boolean sampled = reqWidth >= 0 && reqHeight >= 0;
+            boolean lowMemory = config == Bitmap.Config.RGB_565;
+            if (sampled || pool != null || stats != null || lowMemory) {
+                source.mark(HEADER_MARK_LIMIT);
+
                 options.inJustDecodeBounds = true;
-                BitmapFactory.decodeByteArray(data, 0, data.length, options);
+                source.decode(options);
 
-                options.inSampleSize = calculateInSampleSize(options, reqWidth, reqHeight);
+                if (sampled)
+                    options.inSampleSize = calculateInSampleSize(options, reqWidth, reqHeight);
 
                 options.inJustDecodeBounds = false;
+                source.rewind();
+                //The pixel pass must not keep buffering the whole image behind the header mark
+                source.clearMark();
+            }
+
+            //ALPHA_8 cannot be decoded directly, the mask is extracted after decoding
+            Bitmap.Config decodeConfig = config != Bitmap.Config.ALPHA_8 ? config : null;
+            if (lowMemory && !isOpaqueType(options.outMimeType))
+                decodeConfig = null;
+            if (decodeConfig != null)
+                options.inPreferredConfig = decodeConfig;
+
+            //Hardware bitmaps are immutable and cannot reuse pooled bitmaps
+            if (isHardwareConfig(decodeConfig))
+                pool = null;
+
+            if (pool != null) {
+                options.inMutable = true;
+                options.inBitmap = getReusableBitmap(options, pool);
+            }
+
+            if (options.inBitmap == null) {
+                bitmap = source.decode(options);
+            } else {
+                source.mark(RETRY_MARK_LIMIT);
+                try {
+                    bitmap = source.decode(options);
+                    reused = bitmap != null;
+                } catch (IllegalArgumentException e) {
+                    //The pooled bitmap did not fit the decoded image, decode into a new one
+                    pool.put(options.inBitmap);
+                    options.inBitmap = null;
+
+                    source.rewind();
+                    bitmap = source.decode(options);
+                }
+            }
+
+            if (config == Bitmap.Config.ALPHA_8 && bitmap != null) {
+                Bitmap mask = bitmap.extractAlpha();
+                if (mask != null && mask != bitmap) {
+                    if (pool != null)
+                        pool.put(bitmap);
+                    else
+                        bitmap.recycle();
+
+                    bitmap = mask;
+                    reused = false;
+                }
+            }
+
+            if (stats != null) {
+                stats.sourceWidth = options.outWidth;
+                stats.sourceHeight = options.outHeight;
+                stats.sampleSize = Math.max(options.inSampleSize, 1);
             }
-            return BitmapFactory.decodeByteArray(data, 0, data.length, options);
         } catch (OutOfMemoryError e) {
             System.gc();
         } catch (Exception e) {
+        } finally {
+            if (stats != null) {
+                stats.bytesRead = source.getBytesRead();
+                stats.openCount = source.getOpenCount();
+                stats.reusedBitmap = reused;
+                stats.allocatedBytes = bitmap != null && !reused ? ImageCache.sizeOf(bitmap) : 0;
+                stats.peakAllocation = source.getBufferSize() + stats.allocatedBytes;
+            }
+            source.close();
         }
-        return null;
+        return bitmap;
     }
 
+    private static boolean isOpaqueType(String mimeType) {
+        //Only formats without an alpha channel are safe to decode into RGB_565
+        return "image/jpeg".equalsIgnoreCase(mimeType);
+    }
+
+    private static boolean isHardwareConfig(Bitmap.Config config) {
+        return Build.VERSION.SDK_INT >= Build.VERSION_CODES.O && config == Bitmap.Config.HARDWARE;
+    }
+
+    private static Bitmap getReusableBitmap(BitmapFactory.Options options, BitmapPool pool) {
+        if (options.outWidth <= 0 || options.outHeight <= 0)
+            return null;
+
+        int sampleSize = Math.max(options.inSampleSize, 1);
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.KITKAT && sampleSize != 1)
+            return null;
+
+        int width = (options.outWidth + sampleSize - 1) / sampleSize;
+        int height = (options.outHeight + sampleSize - 1) / sampleSize;
+
+        Bitmap.Config config = options.inPreferredConfig != null ? options.inPreferredConfig : Bitmap.Config.ARGB_8888;
+        return pool.getDirty(width, height, config);
+    }
     private static int calculateInSampleSize(BitmapFactory.Options options, int reqWidth, int reqHeight) {
         final int height = options.outHeight;
         final int width = options.outWidth;
@@ -180,4 +322,286 @@ public class ImageLoaderTools {
     public interface StreamFetcher {
         InputStream openInputStream();
     }
+
+    public static final class DecodeStats {
+        private long bytesRead;
+        private long allocatedBytes;
+        private long peakAllocation;
+
+        private int openCount;
+        private int sampleSize;
+        private int sourceWidth;
+        private int sourceHeight;
+
+        private boolean reusedBitmap;
+
+        private void reset() {
+            bytesRead = 0;
+            allocatedBytes = 0;
+            peakAllocation = 0;
+
+            openCount = 0;
+            sampleSize = 1;
+            sourceWidth = -1;
+            sourceHeight = -1;
+
+            reusedBitmap = false;
+        }
+
+        public long getBytesRead() {
+            return bytesRead;
+        }
+
+        public long getAllocatedBytes() {
+            return allocatedBytes;
+        }
+
+        public long getPeakAllocation() {
+            return peakAllocation;
+        }
+
+        public int getOpenCount() {
+            return openCount;
+        }
+
+        public int getSampleSize() {
+            return sampleSize;
+        }
+
+        public int getSourceWidth() {
+            return sourceWidth;
+        }
+
+        public int getSourceHeight() {
+            return sourceHeight;
+        }
+
+        public boolean isReusedBitmap() {
+            return reusedBitmap;
+        }
+
+        @Override
+        public String toString() {
+            return "DecodeStats{bytesRead=" + bytesRead
+                    + ", allocatedBytes=" + allocatedBytes
+                    + ", peakAllocation=" + peakAllocation
+                    + ", openCount=" + openCount
+                    + ", sampleSize=" + sampleSize
+                    + ", source=" + sourceWidth + "x" + sourceHeight
+                    + ", reusedBitmap=" + reusedBitmap + "}";
+        }
+    }
+
+    private static abstract class Source {
+        abstract Bitmap decode(BitmapFactory.Options options) throws IOException;
+
+        void mark(int readLimit) throws IOException {
+        }
+
+        void rewind() throws IOException {
+        }
+
+        void clearMark() {
+        }
+
+        void close() {
+        }
+
+        long getBytesRead() {
+            return 0;
+        }
+
+        long getBufferSize() {
+            return 0;
+        }
+
+        int getOpenCount() {
+            return 1;
+        }
+    }
+
+    private static final class ByteSource extends Source {
+        private final byte[] data;
+        private int passCount;
+
+        private ByteSource(byte[] data) {
+            this.data = data;
+        }
+
+        @Override
+        Bitmap decode(BitmapFactory.Options options) {
+            passCount++;
+            return BitmapFactory.decodeByteArray(data, 0, data.length, options);
+        }
+
+        @Override
+        long getBytesRead() {
+            return (long) data.length * passCount;
+        }
+    }
+
+    private static final class StreamSource extends Source {
+        private final StreamFetcher fetcher;
+
+        private DecodeInputStream stream;
+        private int openCount;
+
+        private long closedBytesRead;
+        private long bufferSize;
+
+        private StreamSource(StreamFetcher fetcher) {
+            this.fetcher = fetcher;
+        }
+
+        private StreamSource(InputStream stream) {
+            this.fetcher = null;
+            this.stream = new DecodeInputStream(stream);
+            this.openCount = 1;
+        }
+
+        private DecodeInputStream getStream() throws IOException {
+            if (stream == null) {
+                InputStream in = fetcher != null ? openInputStream(fetcher) : null;
+                if (in == null)
+                    throw new IOException("Unable to open image stream");
+
+                stream = new DecodeInputStream(in);
+                openCount++;
+            }
+            return stream;
+        }
+
+        @Override
+        Bitmap decode(BitmapFactory.Options options) throws IOException {
+            return BitmapFactory.decodeStream(getStream(), null, options);
+        }
+
+        @Override
+        void mark(int readLimit) throws IOException {
+            getStream().markAtLeast(readLimit);
+        }
+
+        @Override
+        void rewind() throws IOException {
+            try {
+                getStream().reset();
+            } catch (IOException e) {
+                //The header did not fit into the mark buffer, open the source again if possible
+                if (fetcher == null)
+                    throw e;
+
+                closeStream();
+                getStream();
+            }
+        }
+
+        @Override
+        void clearMark() {
+            if (stream != null)
+                stream.clearMark();
+        }
+
+        @Override
+        void close() {
+            closeStream();
+        }
+
+        private void closeStream() {
+            if (stream == null)
+                return;
+
+            closedBytesRead += stream.getBytesRead();
+            bufferSize = Math.max(bufferSize, stream.getBufferSize());
+
+            //Streams passed in by the caller are closed by the caller
+            if (fetcher != null)
+                SessionTools.closeWithoutFail(stream);
+            stream = null;
+        }
+
+        @Override
+        long getBytesRead() {
+            return closedBytesRead + (stream != null ? stream.getBytesRead() : 0);
+        }
+
+        @Override
+        long getBufferSize() {
+            return Math.max(bufferSize, stream != null ? stream.getBufferSize() : 0);
+        }
+
+        @Override
+        int getOpenCount() {
+            return openCount;
+        }
+    }
+
+    private static final class DecodeInputStream extends BufferedInputStream {
+        private int minMarkLimit;
+
+        private DecodeInputStream(InputStream in) {
+            super(new CountingInputStream(in), BUFFER_SIZE);
+        }
+
+        private void markAtLeast(int readLimit) {
+            minMarkLimit = readLimit;
+            mark(readLimit);
+        }
+
+        private synchronized void clearMark() {
+            minMarkLimit = 0;
+            markpos = -1;
+        }
+
+        @Override
+        public synchronized void mark(int readLimit) {
+            //Older BitmapFactory releases mark the stream with a small limit themselves
+            super.mark(Math.max(readLimit, minMarkLimit));
+        }
+
+        private long getBytesRead() {
+            return in instanceof CountingInputStream ? ((CountingInputStream) in).count : 0;
+        }
+
+        private long getBufferSize() {
+            byte[] buffer = buf;
+            return buffer != null ? buffer.length : 0;
+        }
+    }
+
+    private static final class CountingInputStream extends FilterInputStream {
+        private long count;
+
+        private CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int value = super.read();
+            if (value != -1)
+                count++;
+            return value;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int read = super.read(b, off, len);
+            if (read > 0)
+                count += read;
+            return read;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(n);
+            if (skipped > 0)
+                count += skipped;
+            return skipped;
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+    }
 }
\ No newline at end of file
@@ -16,7 +16,6 @@
 
 package com.simplelib.tools;
 
-import android.annotation.SuppressLint;
 import android.content.Context;
 import android.content.res.Resources;
 import android.graphics.Bitmap;
@@ -36,11 +35,7 @@ import android.graphics.drawable.Drawable;
 import android.media.MediaScannerConnection;
 import android.net.Uri;
 import android.os.AsyncTask;
-import android.os.Build;
-import android.renderscript.Allocation;
-import android.renderscript.Element;
 import android.renderscript.RenderScript;
-import android.renderscript.ScriptIntrinsicBlur;
 import androidx.fragment.app.FragmentActivity;
 import android.util.DisplayMetrics;
 import android.view.View;
@@ -132,19 +127,64 @@ public class ImageTools {
         return image;
     }
 
-    @SuppressLint("NewApi")
+    @Deprecated
     public static Bitmap blurImage(RenderScript renderScript, Bitmap image, float blurRadius) {
+        return blurImage(image, blurRadius);
+    }
+
+    public static Bitmap blurImage(Bitmap image, float blurRadius) {
+        try {
+            int width = image.getWidth();
+            int height = image.getHeight();
+            int radius = Math.round(blurRadius);
+            if (width <= 0 || height <= 0 || radius < 1)
+                return image;
+
+            if (!image.isMutable())
+                image = image.copy(Bitmap.Config.ARGB_8888, true);
+
+            int[] pixels = new int[width * height];
+            image.getPixels(pixels, 0, width, 0, 0, width, height);
+            StackBlur.blur(pixels, width, height, radius);
+            image.setPixels(pixels, 0, width, 0, 0, width, height);
+        } catch (Exception e) {
+        }
+        return image;
+    }
+
+    public static Bitmap blurImage(Bitmap image, float sampleSize, float blurRadius) {
+        if (sampleSize <= 0f || sampleSize >= 1f)
+            return blurImage(image, blurRadius);
+
+        Bitmap sampled = null;
         try {
-            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR1) {
-                Allocation input = Allocation.createFromBitmap(renderScript, image);
-                Allocation output = Allocation.createTyped(renderScript, input.getType());
-                ScriptIntrinsicBlur script = ScriptIntrinsicBlur.create(renderScript, Element.U8_4(renderScript));
-                script.setRadius(blurRadius);
-                script.setInput(input);
-                script.forEach(output);
-                output.copyTo(image);
+            int width = image.getWidth();
+            int height = image.getHeight();
+
+            int sizeX = Math.max((int) ((float) width * sampleSize), 1);
+            int sizeY = Math.max((int) ((float) height * sampleSize), 1);
+
+            //Blur the downsampled pixels with the radius scaled down alike, then scale back up once
+            sampled = Bitmap.createScaledBitmap(image, sizeX, sizeY, true);
+            int[] pixels = new int[sizeX * sizeY];
+            sampled.getPixels(pixels, 0, sizeX, 0, 0, sizeX, sizeY);
+            StackBlur.blur(pixels, sizeX, sizeY, Math.max(Math.round(blurRadius * sampleSize), 1));
+
+            if (sampled != image && sampled.isMutable()) {
+                sampled.setPixels(pixels, 0, sizeX, 0, 0, sizeX, sizeY);
+            } else {
+                if (sampled != image)
+                    sampled.recycle();
+                sampled = Bitmap.createBitmap(pixels, sizeX, sizeY, Bitmap.Config.ARGB_8888);
             }
+
+            Bitmap output = Bitmap.createScaledBitmap(sampled, width, height, true);
+            if (output != sampled && sampled != image)
+                sampled.recycle();
+            return output;
         } catch (Exception e) {
+            if (sampled != null && sampled != image && !sampled.isRecycled())
+                sampled.recycle();
         }
         return image;
     }
@@ -600,8 +640,6 @@ public class ImageTools {
     }
 
     public static class ImageBlur extends AsyncTask<Bitmap, Void, Void> {
-        private static RenderScript renderScript;
-
         public static boolean blur(Context context, OnBlurListener listener, float blurRadius, Bitmap... images) {
             return new ImageBlur(context).setBlurListener(listener).blur(blurRadius, images);
         }
@@ -626,12 +664,6 @@ public class ImageTools {
         private OnBlurListener listener;
 
         public ImageBlur(Context context) {
-            try {
-                if (context != null && renderScript == null)
-                    renderScript = RenderScript.create(context);
-            } catch (Exception e) {
-            }
-
             imageList = new ArrayList<>();
         }
 
@@ -677,8 +709,6 @@ public class ImageTools {
 
         @Override
         protected Void doInBackground(Bitmap... images) {
-            if (renderScript == null) return null;
-
             try {
                 if (images != null && images.length > 0)
                     imageList.addAll(Arrays.asList(images));
@@ -695,19 +725,6 @@ public class ImageTools {
 
                             if (width <= 0 || height <= 0) continue;
 
-                            try {
-                                if (sampleSize != 1) {
-                                    int sizeX = (int) ((float) width * sampleSize);
-                                    int sizeY = (int) ((float) height * sampleSize);
-
-                                    if (sizeX > 0 && sizeY > 0) {
-                                        image = Bitmap.createScaledBitmap(image, sizeX, sizeY, true);
-                                        image = Bitmap.createScaledBitmap(image, width, height, true);
-                                    }
-                                }
-                            } catch (Exception e) {
-                            }
-
                             try {
                                 if (listener != null) {
                                     Bitmap modifiedImage = listener.modifyImageBeforeBlur(image);
@@ -718,7 +735,7 @@ public class ImageTools {
                                 e.printStackTrace();
                             }
 
-                            image = blurImage(renderScript, image, blurRadius);
+                            image = blurImage(image, sampleSize, blurRadius);
 
                             try {
                                 if (listener != null) {
@@ -0,0 +1,218 @@
+/*
+ * Copyright (c) 2020 ProDev+ (Pascal Gerner).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.simplelib.tools;
+
+import com.simplelib.concurrent.util.ExecutorHelper;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+
+public final class StackBlur {
+    public static final int MAX_RADIUS = 254;
+
+    //Lines per stripe below which splitting a pass is not worth the hand-off
+    private static final int MIN_STRIPE_LINES = 16;
+
+    private static ExecutorService executor;
+
+    public static synchronized ExecutorService getDefaultExecutor() {
+        if (executor == null)
+            executor = ExecutorHelper.create(getDefaultParallelism(), Integer.MAX_VALUE);
+        return executor;
+    }
+
+    public static int getDefaultParallelism() {
+        try {
+            return Math.max(Runtime.getRuntime().availableProcessors(), 1);
+        } catch (Exception e) {
+        }
+        return 1;
+    }
+
+    public static void blur(int[] pixels, int width, int height, int radius) {
+        blur(pixels, width, height, radius, getDefaultExecutor(), getDefaultParallelism());
+    }
+
+    public static void blur(int[] pixels, int width, int height, int radius, Executor executor, int parallelism) {
+        if (pixels == null)
+            throw new NullPointerException("No pixels attached");
+        if (width <= 0 || height <= 0)
+            return;
+        if (pixels.length < width * height)
+            throw new IllegalArgumentException("Pixel array is smaller than " + width + "x" + height);
+
+        radius = Math.min(radius, MAX_RADIUS);
+        if (radius < 1)
+            return;
+
+        //Horizontal pass over rows, then vertical pass over columns
+        runPass(pixels, width, height, radius, true, executor, parallelism);
+        runPass(pixels, width, height, radius, false, executor, parallelism);
+    }
+
+    private static void runPass(final int[] pixels, final int width, final int height, final int radius,
+                                final boolean horizontal, Executor executor, int parallelism) {
+        final int lineCount = horizontal ? height : width;
+
+        int stripeCount = Math.min(Math.max(parallelism, 1), Math.max(lineCount / MIN_STRIPE_LINES, 1));
+        if (executor == null || stripeCount <= 1) {
+            blurLines(pixels, width, height, radius, horizontal, 0, lineCount);
+            return;
+        }
+
+        final CountDownLatch latch = new CountDownLatch(stripeCount - 1);
+        int stripeSize = (lineCount + stripeCount - 1) / stripeCount;
+
+        for (int stripe = 1; stripe < stripeCount; stripe++) {
+            final int start = stripe * stripeSize;
+            final int end = Math.min(start + stripeSize, lineCount);
+
+            Runnable runnable = new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        if (start < end)
+                            blurLines(pixels, width, height, radius, horizontal, start, end);
+                    } finally {
+                        latch.countDown();
+                    }
+                }
+            };
+
+            try {
+                executor.execute(runnable);
+            } catch (Exception e) {
+                runnable.run();
+            }
+        }
+
+        //The calling thread takes the first stripe itself
+        blurLines(pixels, width, height, radius, horizontal, 0, Math.min(stripeSize, lineCount));
+
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void blurLines(int[] pixels, int width, int height, int radius, boolean horizontal, int start, int end) {
+        int length = horizontal ? width : height;
+        int stride = horizontal ? 1 : width;
+
+        int[] line = new int[length];
+        int[] stack = new int[radius * 2 + 1];
+
+        for (int index = start; index < end; index++) {
+            int offset = horizontal ? index * width : index;
+            blurLine(pixels, offset, stride, length, radius, line, stack);
+        }
+    }
+
+    private static void blurLine(int[] pixels, int offset, int stride, int length, int radius, int[] line, int[] stack) {
+        for (int i = 0; i < length; i++)
+            line[i] = pixels[offset + i * stride];
+
+        int div = radius * 2 + 1;
+        int mulSum = (radius + 1) * (radius + 1);
+        int last = length - 1;
+
+        int sumA = 0, sumR = 0, sumG = 0, sumB = 0;
+        int inA = 0, inR = 0, inG = 0, inB = 0;
+        int outA = 0, outR = 0, outG = 0, outB = 0;
+
+        for (int i = -radius; i <= radius; i++) {
+            int pixel = line[Math.min(Math.max(i, 0), last)];
+            stack[i + radius] = pixel;
+
+            int a = pixel >>> 24;
+            int r = (pixel >> 16) & 0xff;
+            int g = (pixel >> 8) & 0xff;
+            int b = pixel & 0xff;
+
+            int weight = radius + 1 - Math.abs(i);
+            sumA += a * weight;
+            sumR += r * weight;
+            sumG += g * weight;
+            sumB += b * weight;
+
+            if (i > 0) {
+                inA += a;
+                inR += r;
+                inG += g;
+                inB += b;
+            } else {
+                outA += a;
+                outR += r;
+                outG += g;
+                outB += b;
+            }
+        }
+
+        int stackPointer = radius;
+        for (int x = 0; x < length; x++) {
+            pixels[offset + x * stride] = ((sumA / mulSum) << 24)
+                    | ((sumR / mulSum) << 16)
+                    | ((sumG / mulSum) << 8)
+                    | (sumB / mulSum);
+
+            sumA -= outA;
+            sumR -= outR;
+            sumG -= outG;
+            sumB -= outB;
+
+            int stackStart = (stackPointer + radius + 1) % div;
+            int pixel = stack[stackStart];
+
+            outA -= pixel >>> 24;
+            outR -= (pixel >> 16) & 0xff;
+            outG -= (pixel >> 8) & 0xff;
+            outB -= pixel & 0xff;
+
+            pixel = line[Math.min(x + radius + 1, last)];
+            stack[stackStart] = pixel;
+
+            inA += pixel >>> 24;
+            inR += (pixel >> 16) & 0xff;
+            inG += (pixel >> 8) & 0xff;
+            inB += pixel & 0xff;
+
+            sumA += inA;
+            sumR += inR;
+            sumG += inG;
+            sumB += inB;
+
+            stackPointer = (stackPointer + 1) % div;
+            pixel = stack[stackPointer];
+
+            outA += pixel >>> 24;
+            outR += (pixel >> 16) & 0xff;
+            outG += (pixel >> 8) & 0xff;
+            outB += pixel & 0xff;
+
+            inA -= pixel >>> 24;
+            inR -= (pixel >> 16) & 0xff;
+            inG -= (pixel >> 8) & 0xff;
+            inB -= pixel & 0xff;
+        }
+    }
+
+    private StackBlur() {
+        throw new UnsupportedOperationException();
+    }
+}
@@ -0,0 +1,274 @@
+/*
+ * Copyright (c) 2020 ProDev+ (Pascal Gerner).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.simplelib.views;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.os.Build;
+import android.util.AttributeSet;
+import android.view.GestureDetector;
+import android.view.MotionEvent;
+import android.view.ScaleGestureDetector;
+import android.view.View;
+
+import androidx.annotation.RequiresApi;
+import androidx.core.view.ViewCompat;
+
+import com.simplelib.image.TiledImageDecoder;
+
+import java.util.List;
+
+public class TiledImageView extends View implements TiledImageDecoder.Callback {
+    private static final float DEFAULT_MAX_SCALE = 2f;
+
+    private TiledImageDecoder decoder;
+    private Bitmap preview;
+
+    private float scale;
+    private float minScale;
+    private float maxScale;
+
+    private float translateX;
+    private float translateY;
+
+    private Paint paint;
+
+    private Rect viewport;
+    private Rect tileRect;
+    private Rect imageRect;
+
+    private GestureDetector gestureDetector;
+    private ScaleGestureDetector scaleGestureDetector;
+
+    public TiledImageView(Context context) {
+        super(context);
+        init();
+    }
+
+    public TiledImageView(Context context, AttributeSet attrs) {
+        super(context, attrs);
+        init();
+    }
+
+    public TiledImageView(Context context, AttributeSet attrs, int defStyleAttr) {
+        super(context, attrs, defStyleAttr);
+        init();
+    }
+
+    @RequiresApi(api = Build.VERSION_CODES.LOLLIPOP)
+    public TiledImageView(Context context, AttributeSet attrs, int defStyleAttr, int defStyleRes) {
+        super(context, attrs, defStyleAttr, defStyleRes);
+        init();
+    }
+
+    private void init() {
+        maxScale = DEFAULT_MAX_SCALE;
+
+        paint = new Paint(Paint.FILTER_BITMAP_FLAG);
+
+        viewport = new Rect();
+        tileRect = new Rect();
+        imageRect = new Rect();
+
+        gestureDetector = new GestureDetector(getContext(), new GestureDetector.SimpleOnGestureListener() {
+            @Override
+            public boolean onDown(MotionEvent e) {
+                return decoder != null;
+            }
+
+            @Override
+            public boolean onScroll(MotionEvent e1, MotionEvent e2, float distanceX, float distanceY) {
+                translateX -= distanceX;
+                translateY -= distanceY;
+                applyBounds();
+                invalidate();
+                return true;
+            }
+
+            @Override
+            public boolean onDoubleTap(MotionEvent e) {
+                float targetScale = scale < (minScale + maxScale) / 2f ? maxScale : minScale;
+                zoomTo(targetScale, e.getX(), e.getY());
+                return true;
+            }
+        });
+
+        scaleGestureDetector = new ScaleGestureDetector(getContext(), new ScaleGestureDetector.SimpleOnScaleGestureListener() {
+            @Override
+            public boolean onScale(ScaleGestureDetector detector) {
+                zoomTo(scale * detector.getScaleFactor(), detector.getFocusX(), detector.getFocusY());
+                return true;
+            }
+        });
+    }
+
+    public TiledImageDecoder getDecoder() {
+        return decoder;
+    }
+
+    public void setDecoder(TiledImageDecoder decoder, Bitmap preview) {
+        if (this.decoder != null)
+            this.decoder.setCallback(null);
+
+        this.decoder = decoder;
+        this.preview = preview;
+
+        if (decoder != null && ViewCompat.isAttachedToWindow(this))
+            decoder.setCallback(this);
+
+        resetScale();
+        invalidate();
+    }
+
+    public float getScale() {
+        return scale;
+    }
+
+    public void setMaxScale(float maxScale) {
+        this.maxScale = Math.max(maxScale, 0.01f);
+        resetScale();
+        invalidate();
+    }
+
+    public void resetScale() {
+        int width = getWidth();
+        int height = getHeight();
+        if (decoder == null || width <= 0 || height <= 0) {
+            scale = minScale = 1f;
+            translateX = translateY = 0f;
+            return;
+        }
+
+        minScale = Math.min((float) width / (float) decoder.getWidth(), (float) height / (float) decoder.getHeight());
+        scale = minScale;
+        applyBounds();
+    }
+
+    public void zoomTo(float targetScale, float focusX, float focusY) {
+        if (decoder == null)
+            return;
+
+        targetScale = Math.max(Math.min(targetScale, Math.max(maxScale, minScale)), minScale);
+
+        float imageX = (focusX - translateX) / scale;
+        float imageY = (focusY - translateY) / scale;
+
+        scale = targetScale;
+        translateX = focusX - imageX * scale;
+        translateY = focusY - imageY * scale;
+
+        applyBounds();
+        invalidate();
+    }
+
+    private void applyBounds() {
+        if (decoder == null)
+            return;
+
+        float scaledWidth = decoder.getWidth() * scale;
+        float scaledHeight = decoder.getHeight() * scale;
+
+        if (scaledWidth <= getWidth())
+            translateX = (getWidth() - scaledWidth) / 2f;
+        else
+            translateX = Math.max(Math.min(translateX, 0f), getWidth() - scaledWidth);
+
+        if (scaledHeight <= getHeight())
+            translateY = (getHeight() - scaledHeight) / 2f;
+        else
+            translateY = Math.max(Math.min(translateY, 0f), getHeight() - scaledHeight);
+    }
+
+    @Override
+    public void onTileLoaded(TiledImageDecoder.Tile tile) {
+        invalidate();
+    }
+
+    @Override
+    public boolean onTouchEvent(MotionEvent event) {
+        if (decoder == null)
+            return super.onTouchEvent(event);
+
+        boolean handled = scaleGestureDetector.onTouchEvent(event);
+        handled = gestureDetector.onTouchEvent(event) || handled;
+        return handled || super.onTouchEvent(event);
+    }
+
+    @Override
+    protected void onAttachedToWindow() {
+        super.onAttachedToWindow();
+
+        if (decoder != null)
+            decoder.setCallback(this);
+    }
+
+    @Override
+    protected void onDetachedFromWindow() {
+        if (decoder != null)
+            decoder.setCallback(null);
+
+        super.onDetachedFromWindow();
+    }
+
+    @Override
+    protected void onSizeChanged(int w, int h, int oldw, int oldh) {
+        super.onSizeChanged(w, h, oldw, oldh);
+
+        resetScale();
+    }
+
+    @Override
+    protected void onDraw(Canvas canvas) {
+        super.onDraw(canvas);
+
+        TiledImageDecoder decoder = this.decoder;
+        if (decoder == null || decoder.isRecycled())
+            return;
+
+        try {
+            canvas.save();
+            canvas.translate(translateX, translateY);
+            canvas.scale(scale, scale);
+
+            imageRect.set(0, 0, decoder.getWidth(), decoder.getHeight());
+            if (preview != null && !preview.isRecycled())
+                canvas.drawBitmap(preview, null, imageRect, paint);
+
+            viewport.set(
+                    (int) Math.floor(-translateX / scale),
+                    (int) Math.floor(-translateY / scale),
+                    (int) Math.ceil((getWidth() - translateX) / scale),
+                    (int) Math.ceil((getHeight() - translateY) / scale));
+
+            List<TiledImageDecoder.Tile> tiles = decoder.getTiles(viewport, TiledImageDecoder.calculateSampleSize(scale));
+            for (TiledImageDecoder.Tile tile : tiles) {
+                Bitmap bitmap = tile.getBitmap();
+                if (bitmap == null || bitmap.isRecycled())
+                    continue;
+
+                tile.getRect(tileRect);
+                canvas.drawBitmap(bitmap, null, tileRect, paint);
+            }
+
+            canvas.restore();
+        } catch (Exception e) {
+        }
+    }
+}
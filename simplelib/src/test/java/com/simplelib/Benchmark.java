@@ -0,0 +1,37 @@
+package com.simplelib;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Minimal timing helper for the JVM microbenchmarks in this source set.
+ * Runs a body a few times to warm up, then reports the median of the measured runs.
+ * <p>
+ * Classes named {@code *Benchmark} are not part of the normal unit test run. They run with
+ * {@code ./gradlew :simplelib:testDebugUnitTest -Pbenchmark}, which also shows the reported results.
+ */
+public final class Benchmark {
+    private Benchmark() {
+    }
+
+    public static double measureMillis(String name, int warmups, int runs, Runnable body) {
+        for (int i = 0; i < warmups; i++)
+            body.run();
+
+        long[] times = new long[Math.max(runs, 1)];
+        for (int i = 0; i < times.length; i++) {
+            long start = System.nanoTime();
+            body.run();
+            times[i] = System.nanoTime() - start;
+        }
+        Arrays.sort(times);
+
+        double millis = times[times.length / 2] / 1e6;
+        report(name, String.format(Locale.US, "%.3f ms", millis));
+        return millis;
+    }
+
+    public static void report(String name, String result) {
+        System.out.println("[benchmark] " + name + ": " + result);
+    }
+}
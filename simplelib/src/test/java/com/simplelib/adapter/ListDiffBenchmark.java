@@ -0,0 +1,180 @@
+package com.simplelib.adapter;
+
+import androidx.recyclerview.widget.ListUpdateCallback;
+
+import com.simplelib.Benchmark;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class ListDiffBenchmark {
+    private static final int[] SIZES = {1000, 10000, 100000};
+
+    // The old update is cubic, a single run that takes longer than this is cut off
+    private static final long BASELINE_LIMIT_MILLIS = 10000L;
+
+    @Test
+    public void reorderAndRefilter() {
+        Random random = new Random(19);
+        for (int size : SIZES) {
+            List<Integer> oldList = new ArrayList<>(size);
+            for (int i = 0; i < size; i++)
+                oldList.add(i);
+
+            // Every item moves
+            List<Integer> shuffled = new ArrayList<>(oldList);
+            Collections.shuffle(shuffled, random);
+
+            // A refilter keeps most items in order, drops a tenth and moves a few
+            List<Integer> refiltered = new ArrayList<>();
+            for (Integer item : oldList)
+                if (random.nextInt(10) != 0)
+                    refiltered.add(item);
+            for (int i = 0; i < size / 100; i++)
+                refiltered.add(random.nextInt(refiltered.size()), refiltered.remove(random.nextInt(refiltered.size())));
+
+            compare(size + " shuffle", oldList, shuffled);
+            compare(size + " refilter", oldList, refiltered);
+        }
+    }
+
+    private static void compare(String name, final List<Integer> oldList, final List<Integer> newList) {
+        final CountingCallback callback = new CountingCallback();
+        double diffMillis = Benchmark.measureMillis("ListDiff " + name, 1, 5, new Runnable() {
+            @Override
+            public void run() {
+                ListDiff.calculate(oldList, newList).dispatchUpdatesTo(callback);
+            }
+        });
+        assertTrue(callback.count > 0);
+
+        // The baseline runs once, it is far too slow for warmups at the larger sizes
+        List<Integer> filteredList = new ArrayList<>(oldList);
+        long start = System.nanoTime();
+        int done = BaselineUpdate.update(newList, filteredList, start + BASELINE_LIMIT_MILLIS * 1000000L);
+        double baselineMillis = (System.nanoTime() - start) / 1e6;
+
+        if (done == newList.size()) {
+            assertEquals(newList, filteredList);
+            Benchmark.report("Baseline update " + name, String.format(Locale.US, "%.3f ms, %.1fx slower than ListDiff",
+                    baselineMillis, baselineMillis / Math.max(diffMillis, 0.001)));
+        } else {
+            Benchmark.report("Baseline update " + name, String.format(Locale.US, "cut off after %.0f ms at item %d of %d, over %.0fx slower than ListDiff",
+                    baselineMillis, done, newList.size(), baselineMillis / Math.max(diffMillis, 0.001)));
+        }
+    }
+
+    private static final class CountingCallback implements ListUpdateCallback {
+        private int count;
+
+        @Override
+        public void onInserted(int position, int count) {
+            this.count++;
+        }
+
+        @Override
+        public void onRemoved(int position, int count) {
+            this.count++;
+        }
+
+        @Override
+        public void onMoved(int fromPosition, int toPosition) {
+            this.count++;
+        }
+
+        @Override
+        public void onChanged(int position, int count, Object payload) {
+            this.count++;
+        }
+    }
+
+    /**
+     * The contains/indexOf update SimpleRecyclerFilterAdapter used before ListDiff, on a plain list.
+     * Every item passes the filter, the new order and the dropped items come from the unfiltered list.
+     */
+    private static final class BaselineUpdate {
+        private final List<Integer> unfilteredList;
+        private final List<Integer> filteredList;
+
+        private BaselineUpdate(List<Integer> unfilteredList, List<Integer> filteredList) {
+            this.unfilteredList = unfilteredList;
+            this.filteredList = filteredList;
+        }
+
+        // Returns how many unfiltered items were handled before the deadline
+        private static int update(List<Integer> unfilteredList, List<Integer> filteredList, long deadline) {
+            BaselineUpdate update = new BaselineUpdate(unfilteredList, filteredList);
+            int done = 0;
+            for (Integer item : unfilteredList) {
+                if (System.nanoTime() > deadline)
+                    return done;
+                done++;
+
+                if (!filteredList.contains(item))
+                    update.addItemToList(item);
+                else
+                    update.moveItemInList(item);
+            }
+
+            List<Integer> removeList = new ArrayList<>();
+            for (Integer item : filteredList) {
+                if (!unfilteredList.contains(item))
+                    removeList.add(item);
+            }
+            for (Integer removeItem : removeList)
+                filteredList.remove(removeItem);
+            return done;
+        }
+
+        private Integer findInsertAfter(Integer item) {
+            Integer insertAfter = null;
+            for (Integer checkItem : unfilteredList) {
+                boolean equalItem = item.equals(checkItem);
+                if (!equalItem && filteredList.contains(checkItem))
+                    insertAfter = checkItem;
+                else if (equalItem)
+                    break;
+            }
+            return insertAfter;
+        }
+
+        private void addItemToList(Integer item) {
+            Integer insertAfter = findInsertAfter(item);
+            if (insertAfter == null) {
+                filteredList.add(0, item);
+            } else {
+                int index = filteredList.indexOf(insertAfter) + 1;
+                if (index < filteredList.size())
+                    filteredList.add(index, item);
+                else
+                    filteredList.add(item);
+            }
+        }
+
+        private void moveItemInList(Integer item) {
+            Integer insertAfter = findInsertAfter(item);
+            int index = insertAfter == null ? 0 : filteredList.indexOf(insertAfter) + 1;
+            move(filteredList.indexOf(item), index);
+        }
+
+        private void move(int posFrom, int posTo) {
+            // Same bounds and adjacent swaps as SimpleRecyclerAdapter.move()
+            if (posFrom >= 0 && posTo >= 0 && posFrom < filteredList.size() && posTo < filteredList.size() && posFrom != posTo) {
+                if (posFrom < posTo) {
+                    for (int pos = posFrom; pos < posTo; pos++)
+                        Collections.swap(filteredList, pos, pos + 1);
+                } else {
+                    for (int pos = posFrom; pos > posTo; pos--)
+                        Collections.swap(filteredList, pos, pos - 1);
+                }
+            }
+        }
+    }
+}
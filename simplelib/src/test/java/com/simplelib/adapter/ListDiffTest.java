@@ -0,0 +1,127 @@
+package com.simplelib.adapter;
+
+import androidx.recyclerview.widget.ListUpdateCallback;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class ListDiffTest {
+    @Test
+    public void emptyAndEqualLists() {
+        assertTrue(ListDiff.calculate(null, null).isEmpty());
+        assertTrue(ListDiff.calculate(Arrays.asList(1, 2, 3), Arrays.asList(1, 2, 3)).isEmpty());
+
+        ListDiff diff = ListDiff.calculate(new ArrayList<Integer>(), Arrays.asList(1, 2));
+        assertEquals(2, diff.getInsertCount());
+        assertEquals(0, diff.getMoveCount());
+    }
+
+    @Test
+    public void reverseMovesAllButOne() {
+        List<Integer> oldList = new ArrayList<>();
+        for (int i = 0; i < 50; i++)
+            oldList.add(i);
+        List<Integer> newList = new ArrayList<>(oldList);
+        Collections.reverse(newList);
+
+        ListDiff diff = ListDiff.calculate(oldList, newList);
+        assertEquals(49, diff.getMoveCount());
+        assertEquals(newList, apply(oldList, newList, diff));
+    }
+
+    @Test
+    public void fuzzReplaysToNewList() {
+        Random random = new Random(19);
+        for (int round = 0; round < 2000; round++) {
+            int valueRange = 1 + random.nextInt(40);
+            List<Integer> oldList = randomList(random, random.nextInt(30), valueRange);
+            List<Integer> newList = mutate(random, oldList, valueRange);
+
+            ListDiff diff = ListDiff.calculate(oldList, newList);
+            String message = oldList + " -> " + newList;
+            assertEquals(message, newList, apply(oldList, newList, diff));
+
+            int kept = oldList.size() - diff.getRemoveCount();
+            assertEquals(message, newList.size(), kept + diff.getInsertCount());
+            assertTrue(message, diff.getMoveCount() <= kept);
+        }
+    }
+
+    @Test
+    public void largeShuffleReplaysToNewList() {
+        Random random = new Random(7);
+        List<Integer> oldList = new ArrayList<>();
+        for (int i = 0; i < 20000; i++)
+            oldList.add(i);
+        List<Integer> newList = new ArrayList<>(oldList);
+        Collections.shuffle(newList, random);
+        newList.subList(0, 1000).clear();
+        for (int i = 0; i < 1000; i++)
+            newList.add(random.nextInt(newList.size()), -i - 1);
+
+        ListDiff diff = ListDiff.calculate(oldList, newList);
+        assertEquals(1000, diff.getRemoveCount());
+        assertEquals(1000, diff.getInsertCount());
+        assertEquals(newList, apply(oldList, newList, diff));
+    }
+
+    private static List<Integer> randomList(Random random, int size, int valueRange) {
+        List<Integer> list = new ArrayList<>(size);
+        for (int i = 0; i < size; i++)
+            list.add(random.nextInt(valueRange));
+        return list;
+    }
+
+    private static List<Integer> mutate(Random random, List<Integer> oldList, int valueRange) {
+        List<Integer> list = new ArrayList<>(oldList);
+        int steps = random.nextInt(10);
+        for (int i = 0; i < steps; i++) {
+            int op = random.nextInt(4);
+            if (op == 0 && !list.isEmpty()) {
+                list.remove(random.nextInt(list.size()));
+            } else if (op == 1) {
+                list.add(random.nextInt(list.size() + 1), random.nextInt(valueRange + 5));
+            } else if (op == 2 && !list.isEmpty()) {
+                Integer value = list.remove(random.nextInt(list.size()));
+                list.add(random.nextInt(list.size() + 1), value);
+            } else {
+                Collections.shuffle(list, random);
+            }
+        }
+        return list;
+    }
+
+    // Replays the updates the way a RecyclerView applies them, inserts take their items from the new list
+    private static List<Integer> apply(List<Integer> oldList, final List<Integer> newList, ListDiff diff) {
+        final List<Integer> list = new ArrayList<>(oldList);
+        diff.dispatchUpdatesTo(new ListUpdateCallback() {
+            @Override
+            public void onInserted(int position, int count) {
+                list.addAll(position, newList.subList(position, position + count));
+            }
+
+            @Override
+            public void onRemoved(int position, int count) {
+                list.subList(position, position + count).clear();
+            }
+
+            @Override
+            public void onMoved(int fromPosition, int toPosition) {
+                list.add(toPosition, list.remove(fromPosition));
+            }
+
+            @Override
+            public void onChanged(int position, int count, Object payload) {
+                fail("No changes are dispatched");
+            }
+        });
+        return list;
+    }
+}
@@ -0,0 +1,62 @@
+package com.simplelib.image;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+public class ImageDiskCacheTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void keepsEntriesAcrossReopen() throws Exception {
+        File directory = folder.newFolder();
+
+        ImageDiskCache cache = new ImageDiskCache(directory);
+        assertTrue(cache.put("key", new byte[]{1, 2, 3}));
+        assertArrayEquals(new byte[]{1, 2, 3}, cache.get("key"));
+        cache.close();
+
+        ImageDiskCache reopened = new ImageDiskCache(directory);
+        assertTrue(reopened.contains("key"));
+        assertArrayEquals(new byte[]{1, 2, 3}, reopened.get("key"));
+        reopened.close();
+    }
+
+    @Test
+    public void sharedDirectoryKeepsForeignFiles() throws Exception {
+        File directory = folder.newFolder();
+
+        File notes = touch(directory, "notes.txt");
+        File journal = touch(directory, "journal.bak");
+        File foreignImage = touch(directory, "photo.img");
+        File foreignTemp = touch(directory, "upload.tmp");
+        File staleImage = touch(directory, "0123456789abcdef0123456789abcdef01234567.img");
+        File staleTemp = touch(directory, "0123456789abcdef0123456789abcdef01234567.12.tmp");
+
+        new ImageDiskCache(directory).close();
+
+        assertTrue(notes.isFile());
+        assertTrue(journal.isFile());
+        assertTrue(foreignImage.isFile());
+        assertTrue(foreignTemp.isFile());
+
+        // Leftovers of the cache itself are still cleaned up
+        assertFalse(staleImage.exists());
+        assertFalse(staleTemp.exists());
+    }
+
+    private static File touch(File directory, String name) throws IOException {
+        File file = new File(directory, name);
+        FileOutputStream out = new FileOutputStream(file);
+        out.write(0);
+        out.close();
+        return file;
+    }
+}
@@ -0,0 +1,92 @@
+package com.simplelib.image;
+
+import android.graphics.Bitmap;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class ImageLoaderStressTest {
+    private static final int THREAD_COUNT = 8;
+    private static final int REQUEST_COUNT = 10000;
+    private static final int ID_COUNT = 500;
+
+    @Test
+    public void concurrentRequestsShareOneDecodePerId() throws Exception {
+        final ImageLoader loader = new ImageLoader();
+        // Keeps every loader queued, so all requests stay in flight
+        loader.setLoaderCapacity(0);
+
+        final AtomicInteger released = new AtomicInteger();
+        final CountDownLatch start = new CountDownLatch(1);
+        final List<Throwable> errors = new ArrayList<>();
+
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < THREAD_COUNT; t++) {
+            final int offset = t;
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                        for (int i = offset; i < REQUEST_COUNT; i += THREAD_COUNT)
+                            loader.request(new CountingRequest("image" + (i % ID_COUNT), released));
+                    } catch (Throwable e) {
+                        synchronized (errors) {
+                            errors.add(e);
+                        }
+                    }
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+
+        start.countDown();
+        for (Thread thread : threads)
+            thread.join();
+
+        assertTrue(errors.isEmpty());
+        assertEquals(ID_COUNT, loader.getLoaderCount());
+        for (int i = 0; i < ID_COUNT; i++)
+            assertNotNull(loader.findRequestLoaderById("image" + i));
+
+        // Cancelling an id releases its decode and every waiter attached to it
+        for (int i = 0; i < ID_COUNT; i++)
+            loader.cancelRequest("image" + i);
+
+        assertEquals(0, loader.getLoaderCount());
+        assertEquals(REQUEST_COUNT, released.get());
+        for (int i = 0; i < ID_COUNT; i++)
+            assertNull(loader.findRequestLoaderById("image" + i));
+    }
+
+    private static final class CountingRequest extends ImageLoader.ImageRequest {
+        private final AtomicInteger released;
+
+        private CountingRequest(String id, AtomicInteger released) {
+            super(id);
+            this.released = released;
+        }
+
+        @Override
+        public void recycle(boolean destroyImage, BitmapPool pool) {
+            released.incrementAndGet();
+            super.recycle(destroyImage, pool);
+        }
+
+        @Override
+        public Bitmap onLoad() {
+            return null;
+        }
+
+        @Override
+        public void onFinish(Bitmap image) {
+        }
+    }
+}
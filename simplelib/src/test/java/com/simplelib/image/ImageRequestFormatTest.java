@@ -0,0 +1,58 @@
+package com.simplelib.image;
+
+import android.graphics.Bitmap;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class ImageRequestFormatTest {
+    @Test
+    public void effectiveConfigIsPartOfTheKey() {
+        ImageLoader loader = new ImageLoader();
+        loader.setBitmapFormat(ImageLoader.ImageRequest.FORMAT_LOW_MEMORY);
+
+        FormatRequest auto = new FormatRequest(ImageLoader.ImageRequest.FORMAT_AUTO);
+        FormatRequest argb = new FormatRequest(ImageLoader.ImageRequest.FORMAT_ARGB_8888);
+        FormatRequest mask = new FormatRequest(ImageLoader.ImageRequest.FORMAT_ALPHA_MASK);
+
+        assertFalse(loader.isCached(auto));
+        assertFalse(loader.isCached(argb));
+        assertFalse(loader.isCached(mask));
+
+        // An automatic request follows the loader, so it must not share entries with ARGB_8888
+        assertEquals("thumb|rgb-565", auto.getKey().getTransformation());
+        assertEquals("thumb", argb.getKey().getTransformation());
+        assertEquals("thumb|alpha-mask", mask.getKey().getTransformation());
+
+        assertNotEquals(auto.getKey(), argb.getKey());
+        assertNotEquals(argb.getKey(), mask.getKey());
+    }
+
+    @Test
+    public void unresolvedRequestFallsBackToItsOwnFormat() {
+        assertEquals("thumb", new FormatRequest(ImageLoader.ImageRequest.FORMAT_AUTO).getKey().getTransformation());
+        assertEquals("thumb|rgb-565", new FormatRequest(ImageLoader.ImageRequest.FORMAT_LOW_MEMORY).getKey().getTransformation());
+    }
+
+    private static final class FormatRequest extends ImageLoader.ImageRequest {
+        private FormatRequest(int bitmapFormat) {
+            super("image");
+            setBitmapFormat(bitmapFormat);
+        }
+
+        @Override
+        public ImageKey getKey() {
+            return new ImageKey(getId(), 64, 64, describeFormat("thumb"));
+        }
+
+        @Override
+        public Bitmap onLoad() {
+            return null;
+        }
+
+        @Override
+        public void onFinish(Bitmap image) {
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package com.simplelib.loader;
+
+import com.simplelib.Benchmark;
+
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class ListLoaderBenchmark {
+    private static final int LOADS = 2000;
+
+    @Test
+    public void pooledAgainstThreadPerLoad() throws Exception {
+        // The executor the loader used before it was pooled
+        Executor threadPerLoad = new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                new Thread(command).start();
+            }
+        };
+
+        Result threads = run(threadPerLoad);
+        Result pooled = run(ListLoader.Loader.getDefaultExecutor());
+
+        Benchmark.report("ListLoader thread per load", threads.toString());
+        Benchmark.report("ListLoader pooled", pooled.toString());
+
+        assertEquals(LOADS, threads.threadCount);
+        assertTrue(pooled.threadCount <= ListLoader.Loader.DEFAULT_POOL_SIZE);
+    }
+
+    private static Result run(Executor executor) throws Exception {
+        final Set<Thread> threads = Collections.synchronizedSet(new HashSet<Thread>());
+        final CountDownLatch[] done = new CountDownLatch[1];
+
+        ListLoader<Integer, Integer, Integer> loader = new ListLoader<Integer, Integer, Integer>(null, null, executor) {
+            @Override
+            protected boolean onLoad(Task task, int flags, Integer key, Integer value, ListInterface<Integer> listInterface) {
+                threads.add(Thread.currentThread());
+                listInterface.add(value);
+                return true;
+            }
+
+            @Override
+            protected void onListLoaded(boolean success, int state, int flags, Integer key, Integer value, List<Integer> list) {
+                done[0].countDown();
+            }
+        };
+
+        // Sequential reloads of one key, like a list refreshed on every keystroke
+        long total = 0;
+        for (int i = 0; i < LOADS; i++) {
+            done[0] = new CountDownLatch(1);
+            long start = System.nanoTime();
+            assertNotNull(loader.load(0, i, ListLoader.USAGE_RELOAD));
+            assertTrue(done[0].await(5, TimeUnit.SECONDS));
+            total += System.nanoTime() - start;
+        }
+
+        Result result = new Result();
+        result.threadCount = threads.size();
+        result.meanLatencyMicros = total / 1e3 / LOADS;
+        return result;
+    }
+
+    private static final class Result {
+        int threadCount;
+        double meanLatencyMicros;
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "%d loads, %d threads, %.1f us mean latency", LOADS, threadCount, meanLatencyMicros);
+        }
+    }
+}
@@ -0,0 +1,218 @@
+package com.simplelib.loader;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class ListLoaderTest {
+    private ExecutorService executor;
+    private CountDownLatch gate;
+
+    @Before
+    public void setUp() {
+        executor = Executors.newSingleThreadExecutor();
+        gate = new CountDownLatch(1);
+
+        // Occupies the only worker, every load started afterwards stays queued
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    gate.await();
+                } catch (InterruptedException e) {
+                }
+            }
+        });
+    }
+
+    @After
+    public void tearDown() {
+        gate.countDown();
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void cancelWhileQueued() throws Exception {
+        RecordingLoader loader = new RecordingLoader(executor);
+
+        ListLoader<String, String, String>.Task task = loader.load("key", "first", ListLoader.USAGE_LOAD);
+        assertNotNull(task);
+        assertTrue(task.isStarted());
+        assertFalse(task.isLoading());
+
+        assertTrue(loader.cancel());
+        assertTrue(task.isCanceled());
+
+        gate.countDown();
+        awaitIdle();
+
+        assertTrue(loader.loadedValues.isEmpty());
+        assertTrue(task.isCanceled());
+    }
+
+    @Test
+    public void releaseWhileQueued() throws Exception {
+        RecordingLoader loader = new RecordingLoader(executor);
+
+        ListLoader<String, String, String>.Task task = loader.load("key", "first", ListLoader.USAGE_LOAD);
+        assertTrue(loader.release("key"));
+        assertTrue(task.isCanceled());
+    }
+
+    @Test
+    public void supersededQueuedLoadDoesNotOverwrite() throws Exception {
+        RecordingLoader loader = new RecordingLoader(executor);
+
+        ListLoader<String, String, String>.Task first = loader.load("key", "first", ListLoader.USAGE_LOAD);
+        ListLoader<String, String, String>.Task second = loader.load("key", "second", ListLoader.USAGE_LOAD);
+        assertTrue(first.isCanceled());
+
+        gate.countDown();
+        awaitIdle();
+
+        assertTrue(second.isSuccess());
+        assertEquals(1, loader.loadedValues.size());
+        assertEquals("second", loader.loadedValues.get(0));
+
+        List<String> list = loader.getList("key", false);
+        assertNotNull(list);
+        assertEquals(1, list.size());
+        assertEquals("second", list.get(0));
+    }
+
+    @Test
+    public void supersededKeyLeavesLimitedQueue() throws Exception {
+        RecordingLoader loader = new RecordingLoader(executor);
+        loader.setMultiKeyLoading(1);
+
+        // The first key holds the only slot, the second key waits in the limited queue
+        ListLoader<String, String, String>.Task first = loader.load("a", "a", ListLoader.USAGE_LOAD);
+        ListLoader<String, String, String>.Task stale = loader.load("b", "stale", ListLoader.USAGE_LOAD);
+        ListLoader<String, String, String>.Task fresh = loader.load("b", "fresh", ListLoader.USAGE_LOAD);
+
+        assertTrue(stale.isCanceled());
+        assertFalse(first.isEnded());
+
+        // Removed from the queue, so it is finished without waiting for a slot
+        assertTrue(loader.finishedValues.contains("stale"));
+
+        gate.countDown();
+        awaitLoaded(loader, 2);
+
+        assertTrue(first.isSuccess());
+        assertTrue(fresh.isSuccess());
+        assertFalse(loader.loadedValues.contains("stale"));
+        assertEquals("fresh", loader.getList("b", false).get(0));
+    }
+
+    @Test
+    public void releaseKeyLeavesLimitedQueue() throws Exception {
+        RecordingLoader loader = new RecordingLoader(executor);
+        loader.setMultiKeyLoading(1);
+
+        loader.load("a", "a", ListLoader.USAGE_LOAD);
+        ListLoader<String, String, String>.Task queued = loader.load("b", "b", ListLoader.USAGE_LOAD);
+
+        assertTrue(loader.release("b"));
+        assertTrue(queued.isCanceled());
+        assertTrue(loader.finishedValues.contains("b"));
+        assertFalse(loader.isStarted("b"));
+    }
+
+    @Test
+    public void pagedListNeedsPageLoader() {
+        RecordingLoader loader = new RecordingLoader(executor);
+        try {
+            loader.getPagedList("key", "value", 10, 1);
+            fail("Loaders without pages cannot hand out paged lists");
+        } catch (UnsupportedOperationException e) {
+        }
+        assertNull(loader.getList("key", false));
+    }
+
+    @Test
+    public void pageLoaderBacksPagedList() {
+        PagingLoader loader = new PagingLoader(executor);
+
+        PagedList<String> list = loader.getPagedList("key", "value", 10, 1);
+        assertNotNull(list);
+        assertSame(list, loader.getPagedList("key", "value", 10, 1));
+        assertSame(list, loader.getList("key", false));
+    }
+
+    private void awaitLoaded(RecordingLoader loader, int count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (System.currentTimeMillis() < deadline) {
+            synchronized (loader.loadedValues) {
+                if (loader.loadedValues.size() >= count)
+                    break;
+            }
+            Thread.sleep(5);
+        }
+        awaitIdle();
+    }
+
+    private void awaitIdle() throws InterruptedException {
+        final CountDownLatch idle = new CountDownLatch(1);
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                idle.countDown();
+            }
+        });
+        assertTrue(idle.await(5, TimeUnit.SECONDS));
+    }
+
+    private static final class RecordingLoader extends ListLoader<String, String, String> {
+        private final List<String> loadedValues = new ArrayList<>();
+        private final List<String> finishedValues = new ArrayList<>();
+
+        private RecordingLoader(ExecutorService executor) {
+            super((IMap<String, String>) null, null, executor);
+        }
+
+        @Override
+        protected boolean onLoad(Task task, int flags, String key, String value, ListInterface<String> listInterface) {
+            synchronized (loadedValues) {
+                loadedValues.add(value);
+            }
+            listInterface.add(value);
+            return true;
+        }
+
+        @Override
+        protected void onListLoaded(boolean success, int state, int flags, String key, String value, List<String> list) {
+            synchronized (finishedValues) {
+                finishedValues.add(value);
+            }
+        }
+    }
+
+    private static final class PagingLoader extends ListLoader<String, String, String> implements ListLoader.PageLoader<String, String, String> {
+        private PagingLoader(ExecutorService executor) {
+            super((IMap<String, String>) null, null, executor);
+        }
+
+        @Override
+        protected boolean onLoad(Task task, int flags, String key, String value, ListInterface<String> listInterface) {
+            return true;
+        }
+
+        @Override
+        public List<String> onLoadPage(String key, String value, int page, int pageSize) {
+            List<String> elements = new ArrayList<>();
+            for (int i = 0; i < pageSize; i++)
+                elements.add(value + (page * pageSize + i));
+            return elements;
+        }
+    }
+}
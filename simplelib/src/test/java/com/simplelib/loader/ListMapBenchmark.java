@@ -0,0 +1,112 @@
+package com.simplelib.loader;
+
+import com.simplelib.Benchmark;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.*;
+
+public class ListMapBenchmark {
+    private static final int KEYS = 64;
+    private static final long DURATION = 500L;
+
+    @Test
+    public void readersAgainstOneLoader() throws Exception {
+        for (int readers : new int[]{1, 4}) {
+            long locked = run(new ListLoader.ListMap<Integer, Integer>(), readers);
+            long concurrent = run(new ListLoader.ConcurrentListMap<Integer, Integer>(), readers);
+
+            Benchmark.report("ListMap " + readers + " readers", format(locked));
+            Benchmark.report("ConcurrentListMap " + readers + " readers", format(concurrent));
+
+            assertTrue(locked > 0);
+            assertTrue(concurrent > 0);
+        }
+    }
+
+    @Test
+    public void concurrentMapKeepsLists() {
+        ListLoader<Integer, Integer, Integer> loader = createLoader(new ListLoader.ConcurrentListMap<Integer, Integer>());
+        for (int key = 0; key < KEYS; key++)
+            loader.getList(key, true).add(key);
+
+        assertNull(loader.getList(null, false));
+        assertNotNull(loader.getList(null, true));
+
+        for (int key = 0; key < KEYS; key++) {
+            List<Integer> list = loader.getList(key, false);
+            assertEquals(1, list.size());
+            assertEquals(Integer.valueOf(key), list.get(0));
+        }
+
+        assertTrue(loader.removeList(3));
+        assertFalse(loader.hasList(3));
+    }
+
+    private static long run(ListLoader.IMap<Integer, Integer> map, int readerCount) throws Exception {
+        final ListLoader<Integer, Integer, Integer> loader = createLoader(map);
+        for (int key = 0; key < KEYS; key++)
+            loader.getList(key, true);
+
+        final AtomicBoolean stop = new AtomicBoolean();
+        final AtomicLong reads = new AtomicLong();
+
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < readerCount; i++) {
+            threads.add(new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    long count = 0;
+                    int key = 0;
+                    while (!stop.get()) {
+                        loader.getList(key, false);
+                        key = (key + 1) % KEYS;
+                        count++;
+                    }
+                    reads.addAndGet(count);
+                }
+            }));
+        }
+
+        // The loader keeps replacing lists, the way finished loads store their results
+        threads.add(new Thread(new Runnable() {
+            @Override
+            public void run() {
+                int key = 0;
+                while (!stop.get()) {
+                    loader.removeList(key);
+                    loader.getList(key, true).add(key);
+                    key = (key + 7) % KEYS;
+                }
+            }
+        }));
+
+        for (Thread thread : threads)
+            thread.start();
+        Thread.sleep(DURATION);
+        stop.set(true);
+        for (Thread thread : threads)
+            thread.join();
+
+        return reads.get() * 1000L / DURATION;
+    }
+
+    private static ListLoader<Integer, Integer, Integer> createLoader(ListLoader.IMap<Integer, Integer> map) {
+        return new ListLoader<Integer, Integer, Integer>(map, null) {
+            @Override
+            protected boolean onLoad(Task task, int flags, Integer key, Integer value, ListInterface<Integer> listInterface) {
+                return true;
+            }
+        };
+    }
+
+    private static String format(long readsPerSecond) {
+        return String.format(Locale.US, "%,d reads/s", readsPerSecond);
+    }
+}
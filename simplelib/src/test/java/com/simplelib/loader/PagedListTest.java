@@ -0,0 +1,111 @@
+package com.simplelib.loader;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import static org.junit.Assert.*;
+
+public class PagedListTest {
+    private static final Executor DIRECT = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    @Test
+    public void failedPageIsNotReloadedOnEveryGet() {
+        CountingSource source = new CountingSource(100);
+        source.failing = true;
+
+        PagedList<Integer> list = new PagedList<>(source, 10, 0, DIRECT);
+        list.refresh();
+        assertEquals(100, list.size());
+
+        assertNull(list.get(5));
+        assertEquals(1, source.pageLoads);
+
+        // Rebinding the rows of the failed page waits for the retry time
+        for (int i = 0; i < 10; i++)
+            assertNull(list.get(i));
+        assertEquals(1, source.pageLoads);
+
+        source.failing = false;
+        list.retry();
+        assertEquals(2, source.pageLoads);
+        assertEquals(Integer.valueOf(5), list.get(5));
+    }
+
+    @Test
+    public void refreshNotifiesRemovalAndInsertion() {
+        CountingSource source = new CountingSource(30);
+        PagedList<Integer> list = new PagedList<>(source, 10, 1, DIRECT);
+
+        RecordingCallback callback = new RecordingCallback();
+        list.addCallback(callback);
+
+        list.refresh();
+        list.refresh();
+
+        assertEquals(30, list.size());
+        assertEquals(3, callback.events.size());
+        assertEquals("inserted 0 30", callback.events.get(0));
+        assertEquals("removed 0 30", callback.events.get(1));
+        assertEquals("inserted 0 30", callback.events.get(2));
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void listIsReadOnly() {
+        new PagedList<>(new CountingSource(10), 10, 1, DIRECT).add(1);
+    }
+
+    private static final class CountingSource implements PagedList.PageSource<Integer> {
+        private final int count;
+
+        private boolean failing;
+        private int pageLoads;
+
+        private CountingSource(int count) {
+            this.count = count;
+        }
+
+        @Override
+        public int loadCount() {
+            return count;
+        }
+
+        @Override
+        public List<Integer> loadPage(int page, int pageSize) throws Exception {
+            pageLoads++;
+            if (failing)
+                throw new Exception("Page " + page + " failed");
+
+            List<Integer> elements = new ArrayList<>();
+            for (int i = page * pageSize; i < Math.min((page + 1) * pageSize, count); i++)
+                elements.add(i);
+            return elements;
+        }
+    }
+
+    private static final class RecordingCallback implements PagedList.Callback {
+        private final List<String> events = new ArrayList<>();
+
+        @Override
+        public void onItemRangeChanged(int start, int count) {
+            events.add("changed " + start + " " + count);
+        }
+
+        @Override
+        public void onItemRangeInserted(int start, int count) {
+            events.add("inserted " + start + " " + count);
+        }
+
+        @Override
+        public void onItemRangeRemoved(int start, int count) {
+            events.add("removed " + start + " " + count);
+        }
+    }
+}
@@ -0,0 +1,180 @@
+package com.simplelib.loader;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class PersistentListMapTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static final PersistentListMap.ElementCodec<String> CODEC = new PersistentListMap.ElementCodec<String>() {
+        @Override
+        public void write(DataOutput out, String element) throws IOException {
+            out.writeUTF(element);
+        }
+
+        @Override
+        public String read(DataInput in) throws IOException {
+            return in.readUTF();
+        }
+    };
+
+    @Test
+    public void restoresOnPrepareInsteadOfGetKey() throws Exception {
+        File directory = folder.newFolder();
+        store(new PersistentListMap<String, String>(directory, CODEC), "key", "a", "b");
+
+        PersistentListMap<String, String> map = new PersistentListMap<>(directory, CODEC);
+        assertTrue(map.contains("key"));
+
+        // The caller only gets the list to load into, decoding waits for the loader thread
+        List<String> list = map.getKey("key");
+        assertNotNull(list);
+        assertTrue(list.isEmpty());
+
+        map.prepareList("key", list);
+        assertEquals(Arrays.asList("a", "b"), list);
+        assertSame(list, map.getKey("key"));
+    }
+
+    @Test
+    public void removedKeyIsNotStoredAgain() throws Exception {
+        PersistentListMap<String, String> map = new PersistentListMap<>(folder.newFolder(), CODEC);
+
+        List<String> list = new ArrayList<>();
+        map.putKey("key", list);
+        map.prepareList("key", list);
+        list.add("a");
+
+        // The load ends after the key was removed
+        map.removeKey("key");
+        map.onListStored("key", list);
+
+        assertFalse(map.hasSnapshot("key"));
+    }
+
+    @Test
+    public void deletedSnapshotIsNotStoredAgain() throws Exception {
+        PersistentListMap<String, String> map = new PersistentListMap<>(folder.newFolder(), CODEC);
+
+        List<String> list = new ArrayList<>();
+        map.putKey("key", list);
+        map.prepareList("key", list);
+        list.add("a");
+
+        map.clearSnapshots();
+        map.onListStored("key", list);
+        assertFalse(map.hasSnapshot("key"));
+
+        // The next load stores again
+        map.prepareList("key", list);
+        map.onListStored("key", list);
+        assertTrue(map.hasSnapshot("key"));
+    }
+
+    @Test
+    public void loaderFillsFromSnapshot() throws Exception {
+        File directory = folder.newFolder();
+        store(new PersistentListMap<String, String>(directory, CODEC), "key", "cached");
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            final CountDownLatch done = new CountDownLatch(1);
+            final List<String> loaded = new ArrayList<>();
+
+            ListLoader<String, String, String> loader = new ListLoader<String, String, String>(new PersistentListMap<String, String>(directory, CODEC), null, executor) {
+                @Override
+                protected boolean onLoad(Task task, int flags, String key, String value, ListInterface<String> listInterface) {
+                    loaded.add(value);
+                    return true;
+                }
+
+                @Override
+                protected void onListLoaded(boolean success, int state, int flags, String key, String value, List<String> list) {
+                    done.countDown();
+                }
+            };
+
+            assertNotNull(loader.load("key", "network", ListLoader.USAGE_FILL));
+            assertTrue(done.await(5, TimeUnit.SECONDS));
+
+            // The restored snapshot fills the list, so the fill load is skipped
+            assertTrue(loaded.isEmpty());
+            assertEquals(Arrays.asList("cached"), loader.getList("key", false));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void snapshotLookupsSkipTheDisk() throws Exception {
+        final int[] hashes = new int[1];
+        PersistentListMap<String, String> map = new PersistentListMap<String, String>(folder.newFolder(), CODEC) {
+            @Override
+            protected String getFileName(String key) {
+                hashes[0]++;
+                return super.getFileName(key);
+            }
+        };
+
+        assertFalse(map.contains("key"));
+        assertFalse(map.contains("key"));
+        assertEquals(1, hashes[0]);
+
+        // Stores and deletes keep the known state current
+        store(map, "key", "a");
+        assertTrue(map.contains("key"));
+        map.removeKey("key");
+        assertFalse(map.contains("key"));
+
+        int before = hashes[0];
+        assertFalse(map.contains("key"));
+        assertNull(map.getKey("key"));
+        assertEquals(before, hashes[0]);
+    }
+
+    @Test
+    public void invalidSnapshotIsDropped() throws Exception {
+        File directory = folder.newFolder();
+        store(new PersistentListMap<String, String>(directory, CODEC), "key", "a");
+
+        File[] files = directory.listFiles();
+        assertNotNull(files);
+        assertEquals(1, files.length);
+        assertTrue(files[0].delete());
+        assertTrue(files[0].createNewFile());
+
+        // An empty file maps to an empty buffer and fails to decode
+        PersistentListMap<String, String> map = new PersistentListMap<>(directory, CODEC);
+        List<String> list = map.getKey("key");
+        assertNotNull(list);
+        map.prepareList("key", list);
+
+        assertTrue(list.isEmpty());
+        assertFalse(files[0].exists());
+        assertFalse(map.hasSnapshot("key"));
+    }
+
+    private static void store(PersistentListMap<String, String> map, String key, String... elements) {
+        List<String> list = new ArrayList<>(Arrays.asList(elements));
+        map.putKey(key, list);
+        map.prepareList(key, list);
+        map.onListStored(key, list);
+        assertTrue(map.hasSnapshot(key));
+    }
+}
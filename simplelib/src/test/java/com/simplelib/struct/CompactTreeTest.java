@@ -0,0 +1,304 @@
+package com.simplelib.struct;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class CompactTreeTest {
+    private static final int STEPS = 10000;
+
+    @Test
+    public void randomReplayMatchesItemGroups() {
+        for (int seed = 0; seed < 5; seed++)
+            replay(new Random(seed));
+    }
+
+    @Test
+    public void removedNodesAreReused() {
+        CompactTree compactTree = new CompactTree(4);
+        Tree.ItemGroup root = compactTree.getRoot();
+
+        Tree.ItemGroup group = compactTree.createGroup("group", null);
+        Tree.Item child = compactTree.createItem("child", "value");
+        group.attachChild(child);
+        root.attachChild(group);
+        assertEquals(3, compactTree.getNodeCount());
+        assertEquals("value", compactTree.getValue(((CompactTree.CompactItem) child).getNode()));
+
+        int groupNode = ((CompactTree.CompactItem) group).getNode();
+        int childNode = ((CompactTree.CompactItem) child).getNode();
+        compactTree.removeNode(groupNode);
+
+        // The whole subtree is freed, its views stay dead even once the slots are handed out again
+        assertEquals(1, compactTree.getNodeCount());
+        assertFalse(((CompactTree.CompactItem) group).isAlive());
+        assertFalse(((CompactTree.CompactItem) child).isAlive());
+        assertEquals(0, root.getChildCount());
+
+        Tree.Item first = compactTree.createItem("first", null);
+        Tree.Item second = compactTree.createItem("second", null);
+        int firstNode = ((CompactTree.CompactItem) first).getNode();
+        int secondNode = ((CompactTree.CompactItem) second).getNode();
+        assertTrue((firstNode == groupNode || firstNode == childNode) && (secondNode == groupNode || secondNode == childNode));
+
+        assertNotEquals(group, compactTree.getItem(groupNode));
+        assertNotEquals(child, compactTree.getItem(childNode));
+        assertNull(child.getId());
+        assertNull(compactTree.getValue(childNode));
+
+        try {
+            root.attachChild(child);
+            fail("Removed items cannot be attached");
+        } catch (IllegalStateException e) {
+        }
+    }
+
+    @Test
+    public void clearDropsDetachedSubtrees() {
+        CompactTree compactTree = new CompactTree();
+        Tree.ItemGroup root = compactTree.getRoot();
+
+        Tree.ItemGroup detached = compactTree.createGroup("detached", null);
+        detached.attachChild(compactTree.createItem("inner", null));
+        root.attachChild(compactTree.createItem("attached", null));
+        assertEquals(4, compactTree.getNodeCount());
+
+        compactTree.clear();
+        assertEquals(1, compactTree.getNodeCount());
+        assertEquals(0, root.getChildCount());
+
+        compactTree.trimToSize();
+        root.attachChild(compactTree.createItem("again", null));
+        assertNotNull(root.findItemById("again"));
+    }
+
+    @Test
+    public void foreignParentsAreRejected() {
+        CompactTree compactTree = new CompactTree();
+        CompactTree otherTree = new CompactTree();
+        Tree.Item item = compactTree.createItem("item", null);
+
+        Tree.IItemGroup group = new Tree.IItemGroup();
+        try {
+            group.attachChild(item);
+            fail("Compact items only live in their own tree");
+        } catch (IllegalArgumentException e) {
+        }
+        assertEquals(0, group.getChildCount());
+        assertNull(item.getParent());
+
+        try {
+            item.setParent(otherTree.getRoot());
+            fail("Compact items only live in their own tree");
+        } catch (IllegalArgumentException e) {
+        }
+
+        try {
+            otherTree.getRoot().attachChild(item);
+            fail("Compact items only live in their own tree");
+        } catch (IllegalArgumentException e) {
+        }
+
+        item.setParent(compactTree.getRoot());
+        assertEquals(compactTree.getRoot(), item.getParent());
+    }
+
+    @Test
+    public void itemCannotBeAttachedBelowItself() {
+        CompactTree compactTree = new CompactTree();
+        Tree.ItemGroup outer = compactTree.createGroup("outer", null);
+        Tree.ItemGroup inner = compactTree.createGroup("inner", null);
+        outer.attachChild(inner);
+
+        try {
+            inner.attachChild(outer);
+            fail("Cycles are not allowed");
+        } catch (IllegalArgumentException e) {
+        }
+        assertEquals(1, outer.getChildCount());
+        assertEquals(0, inner.getChildCount());
+    }
+
+    private static void replay(Random random) {
+        CompactTree compactTree = new CompactTree(4);
+        Tree tree = new Tree();
+
+        // Both lists hold the same item at the same position, the root first
+        List<Tree.Item> compactItems = new ArrayList<>();
+        List<Tree.Item> items = new ArrayList<>();
+        compactItems.add(compactTree.getRoot());
+        items.add(tree.getRoot());
+
+        compactTree.getRoot().setExpanded(true);
+        tree.getRoot().setExpanded(true);
+
+        int nextId = 0;
+        for (int step = 0; step < STEPS; step++) {
+            int operation = random.nextInt(10);
+            int pos = random.nextInt(items.size());
+            Tree.Item compactItem = compactItems.get(pos);
+            Tree.Item item = items.get(pos);
+
+            if (operation < 4) {
+                // Adds a new item, either below a group or detached
+                int groupPos = randomGroup(random, items);
+                boolean group = random.nextInt(3) == 0;
+                String id = "node" + nextId++;
+
+                Tree.Item newCompactItem = group ? compactTree.createGroup(id, null) : compactTree.createItem(id, null);
+                Tree.Item newItem = group ? new Tree.IItemGroup() : new Tree.IItem();
+                newItem.setId(id);
+
+                if (groupPos >= 0 && random.nextInt(8) != 0) {
+                    Tree.ItemGroup parent = (Tree.ItemGroup) items.get(groupPos);
+                    int index = random.nextInt(parent.getChildCount() + 1);
+                    ((Tree.ItemGroup) compactItems.get(groupPos)).attachChild(index, newCompactItem);
+                    parent.attachChild(index, newItem);
+                }
+
+                compactItems.add(newCompactItem);
+                items.add(newItem);
+            } else if (operation < 6) {
+                // Moves an item into another group, possibly the one it is already in
+                int groupPos = randomGroup(random, items);
+                if (pos == 0 || groupPos < 0 || isInside(items.get(groupPos), item))
+                    continue;
+
+                Tree.ItemGroup parent = (Tree.ItemGroup) items.get(groupPos);
+                compactItem.detachSelf();
+                item.detachSelf();
+
+                int index = random.nextInt(parent.getChildCount() + 1);
+                ((Tree.ItemGroup) compactItems.get(groupPos)).attachChild(index, compactItem);
+                parent.attachChild(index, item);
+            } else if (operation == 6) {
+                if (pos == 0)
+                    continue;
+
+                assertEquals(item.detachSelf(), compactItem.detachSelf());
+            } else if (operation == 7) {
+                if (!(item instanceof Tree.ItemGroup) || ((Tree.ItemGroup) item).getChildCount() == 0)
+                    continue;
+
+                int index = random.nextInt(((Tree.ItemGroup) item).getChildCount());
+                ((Tree.ItemGroup) compactItem).detachChild(index);
+                ((Tree.ItemGroup) item).detachChild(index);
+            } else if (operation == 8) {
+                if (!(item instanceof Tree.ItemGroup))
+                    continue;
+
+                boolean expanded = random.nextBoolean();
+                assertEquals(((Tree.ItemGroup) item).setExpanded(expanded), ((Tree.ItemGroup) compactItem).setExpanded(expanded));
+            } else {
+                // Frees a whole subtree, the reference simply forgets it
+                if (pos == 0)
+                    continue;
+
+                compactTree.removeNode(((CompactTree.CompactItem) compactItem).getNode());
+                item.detachSelf();
+
+                List<Tree.Item> subtree = new ArrayList<>();
+                collect(item, subtree);
+                for (Tree.Item removed : subtree) {
+                    int removedPos = indexOf(items, removed);
+                    assertFalse(((CompactTree.CompactItem) compactItems.get(removedPos)).isAlive());
+                    compactItems.remove(removedPos);
+                    items.remove(removedPos);
+                }
+            }
+
+            if (step % 100 == 0)
+                assertSameTree(random, compactTree, tree, compactItems, items);
+        }
+        assertSameTree(random, compactTree, tree, compactItems, items);
+    }
+
+    private static void assertSameTree(Random random, CompactTree compactTree, Tree tree,
+                                       List<Tree.Item> compactItems, List<Tree.Item> items) {
+        assertEquals(items.size(), compactTree.getNodeCount());
+        assertSameGroup(random, compactTree.getRoot(), tree.getRoot());
+
+        for (int pos = 1; pos < items.size(); pos++) {
+            Tree.Item compactItem = compactItems.get(pos);
+            Tree.Item item = items.get(pos);
+            assertEquals(item.getId(), compactItem.getId());
+            assertEquals(item.getParent() == null, compactItem.getParent() == null);
+
+            // Detached subtrees are walked from their top item
+            if (item.getParent() == null && item instanceof Tree.ItemGroup)
+                assertSameGroup(random, (Tree.ItemGroup) compactItem, (Tree.ItemGroup) item);
+
+            Tree.Item found = compactTree.getRoot().findItemById(item.getId());
+            if (item.getRoot() == tree.getRoot())
+                assertEquals(compactItem, found);
+            else
+                assertNull(found);
+        }
+    }
+
+    private static void assertSameGroup(Random random, Tree.ItemGroup compactGroup, Tree.ItemGroup group) {
+        assertEquals(group.isExpanded(), compactGroup.isExpanded());
+        assertEquals(group.getVisibleChildCount(), compactGroup.getVisibleChildCount());
+        assertEquals(group.getChildCount(), compactGroup.getChildCount());
+
+        List<Tree.Item> compactChildList = compactGroup.getChildSnapshot();
+        List<Tree.Item> childList = group.getChildSnapshot();
+        assertEquals(childList.size(), compactChildList.size());
+
+        // Positional reads in random order go through the cursor
+        for (int i = 0; i < childList.size(); i++) {
+            int index = random.nextInt(childList.size());
+            assertEquals(compactChildList.get(index), compactGroup.getChildAt(index));
+        }
+
+        for (int i = 0; i < childList.size(); i++) {
+            Tree.Item compactChild = compactChildList.get(i);
+            Tree.Item child = childList.get(i);
+
+            assertEquals(child.getId(), compactChild.getId());
+            assertEquals(compactGroup, compactChild.getParent());
+            assertEquals(compactGroup.getLevel() + 1, compactChild.getLevel());
+            assertEquals(child instanceof Tree.ItemGroup, compactChild instanceof Tree.ItemGroup);
+
+            if (child instanceof Tree.ItemGroup)
+                assertSameGroup(random, (Tree.ItemGroup) compactChild, (Tree.ItemGroup) child);
+        }
+    }
+
+    private static int randomGroup(Random random, List<Tree.Item> items) {
+        for (int i = 0; i < 8; i++) {
+            int pos = random.nextInt(items.size());
+            if (items.get(pos) instanceof Tree.ItemGroup)
+                return pos;
+        }
+        return 0;
+    }
+
+    private static boolean isInside(Tree.Item item, Tree.Item ancestor) {
+        Tree.Item current = item;
+        while (current != null) {
+            if (current == ancestor)
+                return true;
+            current = current.getParent();
+        }
+        return false;
+    }
+
+    private static void collect(Tree.Item item, List<Tree.Item> subtree) {
+        subtree.add(item);
+        if (item instanceof Tree.ItemGroup)
+            for (Tree.Item child : ((Tree.ItemGroup) item).getChildSnapshot())
+                collect(child, subtree);
+    }
+
+    private static int indexOf(List<Tree.Item> items, Tree.Item item) {
+        for (int pos = 0; pos < items.size(); pos++)
+            if (items.get(pos) == item)
+                return pos;
+        return -1;
+    }
+}
@@ -0,0 +1,249 @@
+package com.simplelib.struct;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.simplelib.concurrent.task.TaskSpawner;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class LazyItemGroupTest {
+    @Test
+    public void placeholderUntilChildrenArrive() {
+        SyncSpawner spawner = new SyncSpawner(true);
+        CountingLoader loader = new CountingLoader("a", "b");
+        RecordingListener listener = new RecordingListener();
+
+        LazyItemGroup group = new LazyItemGroup(loader, spawner);
+        group.setLevel(1);
+        group.addOnLoadListener(listener);
+        assertEquals(LazyItemGroup.STATE_UNLOADED, group.getState());
+        assertTrue(group.hasChildren());
+
+        assertTrue(group.setExpanded(true));
+        assertEquals(LazyItemGroup.STATE_LOADING, group.getState());
+        assertEquals(1, group.getChildCount());
+
+        Tree.Item placeholder = group.getChildAt(0);
+        assertTrue(placeholder instanceof LazyItemGroup.Placeholder);
+        assertSame(group, ((LazyItemGroup.Placeholder) placeholder).getGroup());
+        assertEquals(2, placeholder.getLevel());
+
+        // Expanding again while loading does not start a second load
+        assertFalse(group.load());
+        assertEquals(1, loader.count);
+
+        spawner.runPosted();
+        assertEquals(LazyItemGroup.STATE_LOADED, group.getState());
+        assertEquals(Arrays.asList("a", "b"), ids(group));
+        assertEquals(2, group.getChildAt(0).getLevel());
+        assertNull(placeholder.getParent());
+        assertEquals(1, listener.loaded);
+        assertEquals(0, listener.failed);
+
+        // Loaded groups stay loaded until they are evicted or reloaded
+        assertFalse(group.load());
+        assertEquals(1, loader.count);
+    }
+
+    @Test
+    public void emptyResultHasNoChildren() {
+        LazyItemGroup group = new LazyItemGroup(new CountingLoader(), new SyncSpawner(false));
+        group.setExpanded(true);
+
+        assertEquals(LazyItemGroup.STATE_LOADED, group.getState());
+        assertEquals(0, group.getChildCount());
+        assertFalse(group.hasChildren());
+    }
+
+    @Test
+    public void staleTaskIsIgnored() {
+        SyncSpawner spawner = new SyncSpawner(true);
+        CountingLoader loader = new CountingLoader("first");
+        RecordingListener listener = new RecordingListener();
+
+        LazyItemGroup group = new LazyItemGroup(loader, spawner);
+        group.addOnLoadListener(listener);
+        group.setExpanded(true);
+
+        // The first result is still on its way when a reload replaces the task
+        loader.ids = new String[]{"second"};
+        group.reload();
+        assertEquals(2, loader.count);
+        assertEquals(2, spawner.posted.size());
+
+        spawner.runPosted(0);
+        assertEquals(LazyItemGroup.STATE_LOADING, group.getState());
+        assertEquals(0, listener.loaded);
+        assertTrue(group.getChildAt(0) instanceof LazyItemGroup.Placeholder);
+
+        spawner.runPosted();
+        assertEquals(LazyItemGroup.STATE_LOADED, group.getState());
+        assertEquals(Arrays.asList("second"), ids(group));
+        assertEquals(1, listener.loaded);
+    }
+
+    @Test
+    public void cancelDropsTheResult() {
+        SyncSpawner spawner = new SyncSpawner(true);
+        LazyItemGroup group = new LazyItemGroup(new CountingLoader("a"), spawner);
+        group.setExpanded(true);
+
+        group.cancel();
+        assertEquals(LazyItemGroup.STATE_UNLOADED, group.getState());
+        assertEquals(0, group.getChildCount());
+
+        spawner.runPosted();
+        assertEquals(LazyItemGroup.STATE_UNLOADED, group.getState());
+        assertEquals(0, group.getChildCount());
+    }
+
+    @Test
+    public void failureCollapsesTheGroup() {
+        final Exception error = new Exception("offline");
+        RecordingListener listener = new RecordingListener();
+
+        LazyItemGroup group = new LazyItemGroup(new LazyItemGroup.ChildLoader() {
+            @Nullable
+            @Override
+            public List<? extends Tree.Item> loadChildren(@NonNull LazyItemGroup group) throws Exception {
+                throw error;
+            }
+        }, new SyncSpawner(false));
+        group.addOnLoadListener(listener);
+
+        group.setExpanded(true);
+        assertEquals(LazyItemGroup.STATE_FAILED, group.getState());
+        assertSame(error, group.getCause());
+        assertFalse(group.isExpanded());
+        assertEquals(0, group.getChildCount());
+        assertEquals(1, listener.failed);
+        assertSame(error, listener.cause);
+
+        // A failed group stays expandable, so it can be retried
+        assertTrue(group.hasChildren());
+    }
+
+    @Test
+    public void collapsedGroupsAreEvicted() {
+        Tree tree = new Tree();
+        CountingLoader loader = new CountingLoader("a");
+        LazyItemGroup group = new LazyItemGroup(loader, new SyncSpawner(false));
+        group.setEvictionDelay(0);
+        tree.getRoot().attachChild(group);
+
+        group.setExpanded(true);
+        assertEquals(LazyItemGroup.STATE_LOADED, group.getState());
+        assertNotNull(tree.findItemById("a"));
+
+        // Expanded groups are in use and stay loaded
+        assertEquals(0, LazyItemGroup.evictStale(tree));
+
+        group.setExpanded(false);
+        assertEquals(1, LazyItemGroup.evictStale(tree));
+        assertEquals(LazyItemGroup.STATE_UNLOADED, group.getState());
+        assertEquals(0, group.getChildCount());
+        assertNull(tree.findItemById("a"));
+
+        // The next expansion loads again
+        group.setExpanded(true);
+        assertEquals(2, loader.count);
+        assertEquals(Arrays.asList("a"), ids(group));
+    }
+
+    @Test
+    public void negativeDelayNeverEvicts() {
+        LazyItemGroup group = new LazyItemGroup(new CountingLoader("a"), new SyncSpawner(false));
+        group.setEvictionDelay(-1);
+        group.setExpanded(true);
+        group.setExpanded(false);
+
+        assertFalse(group.evictIfStale(Long.MAX_VALUE));
+        assertEquals(LazyItemGroup.STATE_LOADED, group.getState());
+    }
+
+    private static List<String> ids(Tree.ItemGroup group) {
+        List<String> ids = new ArrayList<>();
+        for (Tree.Item item : group.getChildSnapshot())
+            ids.add(item.getId());
+        return ids;
+    }
+
+    // Runs every task on the calling thread, results are either delivered at once or held back
+    private static final class SyncSpawner extends TaskSpawner {
+        private final boolean holdResults;
+        private final List<Runnable> posted = new ArrayList<>();
+
+        private SyncSpawner(boolean holdResults) {
+            this.holdResults = holdResults;
+        }
+
+        @Override
+        protected void onExecute(@NonNull Runnable runnable) {
+            runnable.run();
+        }
+
+        @Override
+        protected void onPostExecute(@NonNull Runnable runnable) {
+            if (holdResults)
+                posted.add(runnable);
+            else
+                runnable.run();
+        }
+
+        private void runPosted(int index) {
+            posted.remove(index).run();
+        }
+
+        private void runPosted() {
+            while (!posted.isEmpty())
+                runPosted(0);
+        }
+    }
+
+    private static final class CountingLoader implements LazyItemGroup.ChildLoader {
+        private volatile String[] ids;
+        private int count;
+
+        private CountingLoader(String... ids) {
+            this.ids = ids;
+        }
+
+        @Nullable
+        @Override
+        public List<? extends Tree.Item> loadChildren(@NonNull LazyItemGroup group) {
+            count++;
+
+            List<Tree.Item> childList = new ArrayList<>();
+            for (String id : ids) {
+                Tree.IItem item = new Tree.IItem();
+                item.setId(id);
+                childList.add(item);
+            }
+            return childList;
+        }
+    }
+
+    private static final class RecordingListener implements LazyItemGroup.OnLoadListener {
+        private int loaded;
+        private int failed;
+        private Throwable cause;
+
+        @Override
+        public void onLoaded(@NonNull LazyItemGroup group) {
+            loaded++;
+        }
+
+        @Override
+        public void onFailed(@NonNull LazyItemGroup group, @Nullable Throwable throwable) {
+            failed++;
+            cause = throwable;
+        }
+    }
+}
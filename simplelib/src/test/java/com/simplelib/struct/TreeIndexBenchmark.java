@@ -0,0 +1,76 @@
+package com.simplelib.struct;
+
+import com.simplelib.Benchmark;
+
+import org.junit.Test;
+
+import java.util.Locale;
+
+import static org.junit.Assert.*;
+
+public class TreeIndexBenchmark {
+    private static final int ITEM_COUNT = 100000;
+    private static final int GROUP_SIZE = 100;
+    private static final int LINEAR_LOOKUPS = 200;
+
+    @Test
+    public void lookupsIn100kItems() {
+        final Tree[] trees = new Tree[2];
+        double indexedBuild = Benchmark.measureMillis("Tree build " + ITEM_COUNT + " indexed", 1, 5, new Runnable() {
+            @Override
+            public void run() {
+                trees[0] = build(true);
+            }
+        });
+        double plainBuild = Benchmark.measureMillis("Tree build " + ITEM_COUNT + " plain", 1, 5, new Runnable() {
+            @Override
+            public void run() {
+                trees[1] = build(false);
+            }
+        });
+
+        final Tree indexed = trees[0];
+        final Tree plain = trees[1];
+
+        double indexedMillis = Benchmark.measureMillis("findItemById " + ITEM_COUNT + " lookups indexed", 1, 5, new Runnable() {
+            @Override
+            public void run() {
+                for (int i = 0; i < ITEM_COUNT; i++)
+                    assertNotNull(indexed.findItemById("item" + i));
+            }
+        });
+        // The walk is linear per lookup, so only a sample is timed and scaled up
+        double linearMillis = Benchmark.measureMillis("findItemById " + LINEAR_LOOKUPS + " lookups linear", 1, 3, new Runnable() {
+            @Override
+            public void run() {
+                for (int i = 0; i < LINEAR_LOOKUPS; i++)
+                    assertNotNull(plain.findItemById("item" + (ITEM_COUNT - 1 - i * (ITEM_COUNT / LINEAR_LOOKUPS))));
+            }
+        });
+
+        Benchmark.report("findItemById per lookup", String.format(Locale.US, "indexed %.5f ms, linear %.5f ms",
+                indexedMillis / ITEM_COUNT, linearMillis / LINEAR_LOOKUPS));
+        Benchmark.report("Tree build index overhead", String.format(Locale.US, "%.3f ms", indexedBuild - plainBuild));
+
+        assertTrue(indexedMillis / ITEM_COUNT < linearMillis / LINEAR_LOOKUPS);
+    }
+
+    private static Tree build(boolean indexEnabled) {
+        Tree tree = new Tree();
+        tree.setIndexEnabled(indexEnabled);
+
+        Tree.IItemGroup group = null;
+        for (int i = 0; i < ITEM_COUNT; i++) {
+            if (i % GROUP_SIZE == 0) {
+                group = new Tree.IItemGroup();
+                group.setId("group" + i);
+                tree.getRoot().attachChild(group);
+            }
+
+            Tree.IItem item = new Tree.IItem();
+            item.setId("item" + i);
+            group.attachChild(item);
+        }
+        return tree;
+    }
+}
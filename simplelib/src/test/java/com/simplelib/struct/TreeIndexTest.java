@@ -0,0 +1,174 @@
+package com.simplelib.struct;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.*;
+
+public class TreeIndexTest {
+    private static final long TIMEOUT = 20000L;
+
+    @Test
+    public void indexMatchesLinearSearch() {
+        Random random = new Random(22);
+        Tree tree = new Tree();
+        List<Tree.Item> items = new ArrayList<>();
+        List<Tree.ItemGroup> groups = new ArrayList<>();
+        groups.add(tree.getRoot());
+
+        for (int i = 0; i < 5000; i++) {
+            Tree.ItemGroup parent = groups.get(random.nextInt(groups.size()));
+            Tree.Item item = random.nextInt(4) == 0 ? new Tree.IItemGroup() : new Tree.IItem();
+            item.setId("item" + i);
+            parent.attachChild(item);
+
+            items.add(item);
+            if (item instanceof Tree.ItemGroup)
+                groups.add((Tree.ItemGroup) item);
+        }
+
+        // Subtrees move around, are dropped and get new ids
+        for (int i = 0; i < 2000; i++) {
+            Tree.Item item = items.get(random.nextInt(items.size()));
+            switch (random.nextInt(3)) {
+                case 0:
+                    item.detachSelf();
+                    break;
+                case 1:
+                    Tree.ItemGroup parent = groups.get(random.nextInt(groups.size()));
+                    if (parent.getRoot() == tree.getRoot() && !isInside(parent, item)) {
+                        item.detachSelf();
+                        parent.attachChild(item);
+                    }
+                    break;
+                default:
+                    item.setId("renamed" + i);
+                    break;
+            }
+        }
+
+        assertIndexConsistent(tree, items);
+
+        // Rebuilding the index from scratch gives the same answers
+        tree.setIndexEnabled(false);
+        tree.setIndexEnabled(true);
+        assertIndexConsistent(tree, items);
+    }
+
+    @Test
+    public void sharedIdsResolveToAttachedItems() {
+        Tree tree = new Tree();
+        Tree.IItem first = new Tree.IItem();
+        Tree.IItem second = new Tree.IItem();
+        first.setId("shared");
+        second.setId("shared");
+
+        tree.getRoot().attachChild(first);
+        tree.getRoot().attachChild(second);
+        assertNotNull(tree.findItemById("shared"));
+
+        first.detachSelf();
+        assertSame(second, tree.findItemById("shared"));
+
+        second.detachSelf();
+        assertNull(tree.findItemById("shared"));
+    }
+
+    @Test
+    public void attachWhileAncestorIsIndexed() throws Exception {
+        // Appending takes the group monitor and then the index, walking a subtree took them in the opposite order
+        final Tree tree = new Tree();
+        final Tree.IItemGroup parent = new Tree.IItemGroup();
+        final Tree.IItemGroup group = new Tree.IItemGroup();
+        parent.setId("parent");
+        group.setId("group");
+        parent.attachChild(group);
+        tree.getRoot().attachChild(parent);
+
+        final List<Tree.Item> items = new ArrayList<>();
+        items.add(parent);
+        items.add(group);
+
+        final AtomicBoolean stop = new AtomicBoolean();
+        final CountDownLatch start = new CountDownLatch(1);
+        final List<Throwable> errors = new ArrayList<>();
+
+        Thread appender = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    start.await();
+                    for (int i = 0; i < 20000; i++) {
+                        Tree.IItem item = new Tree.IItem();
+                        item.setId("child" + i);
+                        group.attachChild(item);
+                        synchronized (items) {
+                            items.add(item);
+                        }
+                    }
+                } catch (Throwable e) {
+                    synchronized (errors) {
+                        errors.add(e);
+                    }
+                } finally {
+                    stop.set(true);
+                }
+            }
+        });
+        Thread mover = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    start.await();
+                    while (!stop.get()) {
+                        tree.getRoot().detachChild(parent);
+                        tree.getRoot().attachChild(parent);
+                    }
+                } catch (Throwable e) {
+                    synchronized (errors) {
+                        errors.add(e);
+                    }
+                }
+            }
+        });
+
+        appender.start();
+        mover.start();
+        start.countDown();
+
+        appender.join(TIMEOUT);
+        stop.set(true);
+        mover.join(TIMEOUT);
+
+        assertFalse("Appending deadlocked", appender.isAlive());
+        assertFalse("Moving deadlocked", mover.isAlive());
+        assertTrue(errors.isEmpty());
+        assertIndexConsistent(tree, items);
+    }
+
+    static void assertIndexConsistent(Tree tree, List<Tree.Item> items) {
+        for (Tree.Item item : items) {
+            String id = item.getId();
+            Tree.Item found = tree.findItemById(id);
+            if (item.getRoot() == tree.getRoot())
+                assertSame(id, item, found);
+            else if (found != null)
+                assertSame(id, tree.getRoot(), found.getRoot());
+        }
+    }
+
+    private static boolean isInside(Tree.Item item, Tree.Item ancestor) {
+        Tree.Item current = item;
+        while (current != null) {
+            if (current == ancestor)
+                return true;
+            current = current.getParent();
+        }
+        return false;
+    }
+}
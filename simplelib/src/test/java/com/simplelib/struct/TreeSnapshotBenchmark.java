@@ -0,0 +1,96 @@
+package com.simplelib.struct;
+
+import com.simplelib.Benchmark;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.*;
+
+public class TreeSnapshotBenchmark {
+    private static final int GROUP_COUNT = 1000;
+    private static final int GROUP_SIZE = 100;
+
+    @Test
+    public void traversalWithAndWithoutWriter() throws Exception {
+        final Tree tree = new Tree();
+        final List<Tree.IItemGroup> groups = new ArrayList<>();
+        for (int i = 0; i < GROUP_COUNT; i++) {
+            Tree.IItemGroup group = new Tree.IItemGroup();
+            group.setId("group" + i);
+            for (int j = 0; j < GROUP_SIZE; j++) {
+                Tree.IItem item = new Tree.IItem();
+                item.setId("item" + i + "-" + j);
+                group.attachChild(item);
+            }
+            tree.getRoot().attachChild(group);
+            groups.add(group);
+        }
+
+        final int[] count = new int[1];
+        Runnable traversal = new Runnable() {
+            @Override
+            public void run() {
+                count[0] = countItems(tree.getRoot());
+            }
+        };
+
+        double idleMillis = Benchmark.measureMillis("Tree snapshot traversal " + GROUP_COUNT * GROUP_SIZE + " idle", 2, 9, traversal);
+        assertEquals(GROUP_COUNT * (GROUP_SIZE + 1), count[0]);
+
+        // The writer keeps replacing leaves and moving whole groups, every id-indexed attach lands in a random group
+        final AtomicBoolean stop = new AtomicBoolean();
+        final AtomicLong writes = new AtomicLong();
+        Thread writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                Random random = new Random(25);
+                int next = 0;
+                while (!stop.get()) {
+                    Tree.IItemGroup group = groups.get(random.nextInt(groups.size()));
+                    if (random.nextInt(8) == 0) {
+                        tree.getRoot().detachChild(group);
+                        tree.getRoot().attachChild(group);
+                    } else {
+                        group.detachChild(0);
+                        Tree.IItem item = new Tree.IItem();
+                        item.setId("writer" + next++);
+                        group.attachChild(item);
+                    }
+                    writes.incrementAndGet();
+                }
+            }
+        });
+        writer.start();
+
+        double busyMillis;
+        try {
+            busyMillis = Benchmark.measureMillis("Tree snapshot traversal " + GROUP_COUNT * GROUP_SIZE + " with writer", 2, 9, traversal);
+        } finally {
+            stop.set(true);
+            writer.join();
+        }
+
+        Benchmark.report("Tree snapshot writes during traversal", String.format(Locale.US, "%d writes, slowdown %.2fx",
+                writes.get(), busyMillis / Math.max(idleMillis, 0.001)));
+
+        assertTrue(writes.get() > 0);
+        assertEquals(GROUP_COUNT * (GROUP_SIZE + 1), countItems(tree.getRoot()));
+    }
+
+    private static int countItems(Tree.ItemGroup group) {
+        int count = 0;
+        for (Tree.Item item : group.getChildSnapshot()) {
+            count++;
+            if (item instanceof Tree.ItemGroup)
+                count += countItems((Tree.ItemGroup) item);
+        }
+        return count;
+    }
+}
@@ -0,0 +1,230 @@
+package com.simplelib.struct;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.*;
+
+public class TreeSnapshotTest {
+    private static final long TIMEOUT = 20000L;
+    private static final int GROUP_COUNT = 50;
+
+    @Test
+    public void snapshotKeepsItsContent() {
+        Tree.IItemGroup group = new Tree.IItemGroup();
+        Tree.IItem first = new Tree.IItem();
+        Tree.IItem second = new Tree.IItem();
+        group.attachChild(first);
+
+        List<Tree.Item> snapshot = group.getChildSnapshot();
+        assertSame(snapshot, group.getChildSnapshot());
+
+        group.attachChild(second);
+        group.detachChild(first);
+
+        assertEquals(1, snapshot.size());
+        assertSame(first, snapshot.get(0));
+
+        List<Tree.Item> current = group.getChildSnapshot();
+        assertEquals(1, current.size());
+        assertSame(second, current.get(0));
+        assertEquals(1, group.getChildCount());
+        assertSame(second, group.getChildAt(0));
+
+        try {
+            current.add(first);
+            fail("Snapshots are read-only");
+        } catch (UnsupportedOperationException e) {
+        }
+    }
+
+    @Test
+    public void traversalUnderConcurrentMutation() throws Exception {
+        final Tree tree = new Tree();
+        final List<Tree.IItemGroup> groups = new ArrayList<>();
+        for (int i = 0; i < GROUP_COUNT; i++) {
+            Tree.IItemGroup group = new Tree.IItemGroup();
+            group.setId("group" + i);
+            group.setExpanded(true);
+            for (int j = 0; j < 20; j++) {
+                Tree.IItem item = new Tree.IItem();
+                item.setId("group" + i + "-" + j);
+                group.attachChild(item);
+            }
+            tree.getRoot().attachChild(group);
+            groups.add(group);
+        }
+
+        final AtomicBoolean stop = new AtomicBoolean();
+        final CountDownLatch start = new CountDownLatch(1);
+        final List<Throwable> errors = new ArrayList<>();
+
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 2; t++) {
+            final int seed = t;
+            threads.add(new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                        Random random = new Random(seed);
+                        for (int i = 0; i < 20000; i++) {
+                            Tree.IItemGroup group = groups.get(random.nextInt(groups.size()));
+                            if (random.nextBoolean() && group.getChildCount() > 0) {
+                                Tree.Item child = group.getChildSnapshot().get(0);
+                                group.detachChild(child);
+                            } else {
+                                Tree.IItem item = new Tree.IItem();
+                                item.setId("writer" + seed + "-" + i);
+                                group.attachChild(item);
+                            }
+                        }
+                    } catch (Throwable e) {
+                        synchronized (errors) {
+                            errors.add(e);
+                        }
+                    }
+                }
+            }));
+        }
+        for (int t = 0; t < 2; t++) {
+            threads.add(new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                        while (!stop.get()) {
+                            // A snapshot never changes while it is walked, whatever the writers do
+                            for (Tree.Item item : tree.getRoot().getChildSnapshot()) {
+                                assertNotNull(item);
+
+                                List<Tree.Item> childList = ((Tree.ItemGroup) item).getChildSnapshot();
+                                int size = childList.size();
+                                for (Tree.Item child : childList)
+                                    assertNotNull(child);
+                                assertEquals(size, childList.size());
+                            }
+                            assertTrue(tree.getRoot().getVisibleChildCount() >= 0);
+                        }
+                    } catch (Throwable e) {
+                        synchronized (errors) {
+                            errors.add(e);
+                        }
+                    }
+                }
+            }));
+        }
+
+        for (Thread thread : threads)
+            thread.start();
+        start.countDown();
+
+        for (int t = 0; t < 2; t++)
+            threads.get(t).join(TIMEOUT);
+        stop.set(true);
+        for (Thread thread : threads)
+            thread.join(TIMEOUT);
+
+        for (Thread thread : threads)
+            assertFalse(thread.isAlive());
+        assertTrue(errors.isEmpty());
+
+        // Once the writers are done the cached counts match a full recount
+        int expected = 0;
+        for (Tree.IItemGroup group : groups) {
+            List<Tree.Item> childList = group.getChildSnapshot();
+            assertEquals(group.getChildCount(), childList.size());
+            expected += 1 + childList.size();
+
+            for (Tree.Item child : childList) {
+                assertSame(group, child.getParent());
+                assertSame(child, tree.findItemById(child.getId()));
+            }
+        }
+        tree.getRoot().setExpanded(true);
+        assertEquals(expected, tree.getRoot().getVisibleChildCount());
+    }
+
+    @Test
+    public void indexedAttachWhileAncestorIsDetached() throws Exception {
+        for (final boolean attachedAtEnd : new boolean[]{false, true}) {
+            final Tree tree = new Tree();
+            final Tree.IItemGroup ancestor = new Tree.IItemGroup();
+            final Tree.IItemGroup middle = new Tree.IItemGroup();
+            final Tree.IItemGroup group = new Tree.IItemGroup();
+            ancestor.setId("ancestor");
+            middle.setId("middle");
+            group.setId("group");
+            middle.attachChild(group);
+            ancestor.attachChild(middle);
+            tree.getRoot().attachChild(ancestor);
+
+            final List<Tree.Item> items = new ArrayList<>();
+            final AtomicBoolean stop = new AtomicBoolean();
+            final CountDownLatch start = new CountDownLatch(1);
+            final List<Throwable> errors = new ArrayList<>();
+
+            Thread appender = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                        for (int i = 0; i < 10000; i++) {
+                            Tree.IItem item = new Tree.IItem();
+                            item.setId("child" + i);
+                            group.attachChild(item);
+                            items.add(item);
+                        }
+                    } catch (Throwable e) {
+                        synchronized (errors) {
+                            errors.add(e);
+                        }
+                    } finally {
+                        stop.set(true);
+                    }
+                }
+            });
+            Thread detacher = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                        while (!stop.get()) {
+                            tree.getRoot().detachChild(ancestor);
+                            tree.getRoot().attachChild(ancestor);
+                        }
+                        if (!attachedAtEnd)
+                            tree.getRoot().detachChild(ancestor);
+                    } catch (Throwable e) {
+                        synchronized (errors) {
+                            errors.add(e);
+                        }
+                    }
+                }
+            });
+
+            appender.start();
+            detacher.start();
+            start.countDown();
+
+            appender.join(TIMEOUT);
+            stop.set(true);
+            detacher.join(TIMEOUT);
+
+            assertFalse(appender.isAlive());
+            assertFalse(detacher.isAlive());
+            assertTrue(errors.isEmpty());
+
+            // Every id resolves exactly while its item hangs below the root
+            assertEquals(10000, group.getChildCount());
+            assertEquals(attachedAtEnd ? group : null, tree.findItemById("group"));
+            for (Tree.Item item : items)
+                assertSame(item.getId(), attachedAtEnd ? item : null, tree.findItemById(item.getId()));
+        }
+    }
+}
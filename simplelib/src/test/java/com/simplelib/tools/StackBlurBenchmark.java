@@ -0,0 +1,45 @@
+package com.simplelib.tools;
+
+import com.simplelib.Benchmark;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class StackBlurBenchmark {
+    private static final int[] SIZES = {256, 1024, 2048};
+    private static final int[] RADII = {4, 16, 64};
+
+    @Test
+    public void sizesAndRadii() {
+        Random random = new Random(16);
+        for (int size : SIZES) {
+            final int width = size;
+            final int height = size;
+            final int[] source = StackBlurTest.randomPixels(random, width * height);
+            final int[] pixels = new int[source.length];
+
+            for (final int radius : RADII) {
+                double serial = Benchmark.measureMillis("StackBlur " + size + "px r" + radius + " serial", 1, 5, new Runnable() {
+                    @Override
+                    public void run() {
+                        System.arraycopy(source, 0, pixels, 0, source.length);
+                        StackBlur.blur(pixels, width, height, radius, null, 1);
+                    }
+                });
+                double parallel = Benchmark.measureMillis("StackBlur " + size + "px r" + radius + " parallel", 1, 5, new Runnable() {
+                    @Override
+                    public void run() {
+                        System.arraycopy(source, 0, pixels, 0, source.length);
+                        StackBlur.blur(pixels, width, height, radius);
+                    }
+                });
+
+                assertTrue(serial > 0);
+                assertTrue(parallel > 0);
+            }
+        }
+    }
+}
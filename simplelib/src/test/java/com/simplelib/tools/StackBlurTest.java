@@ -0,0 +1,117 @@
+package com.simplelib.tools;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.Assert.*;
+
+public class StackBlurTest {
+    private static ExecutorService executor;
+
+    @BeforeClass
+    public static void setUpClass() {
+        executor = Executors.newFixedThreadPool(4);
+    }
+
+    @AfterClass
+    public static void tearDownClass() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void matchesNaiveReference() {
+        Random random = new Random(16);
+        int[][] sizes = {{1, 1}, {1, 37}, {37, 1}, {5, 3}, {64, 48}, {131, 77}};
+        int[] radii = {1, 2, 3, 7, 25, 254};
+
+        for (int[] size : sizes) {
+            for (int radius : radii) {
+                int[] pixels = randomPixels(random, size[0] * size[1]);
+
+                int[] expected = naiveBlur(pixels, size[0], size[1], radius);
+                int[] actual = pixels.clone();
+                StackBlur.blur(actual, size[0], size[1], radius, null, 1);
+
+                assertArrayEquals(size[0] + "x" + size[1] + " r" + radius, expected, actual);
+            }
+        }
+    }
+
+    @Test
+    public void stripesMatchSingleThread() {
+        Random random = new Random(4);
+        int width = 517;
+        int height = 389;
+        int[] pixels = randomPixels(random, width * height);
+
+        int[] serial = pixels.clone();
+        StackBlur.blur(serial, width, height, 12, null, 1);
+
+        for (int parallelism = 2; parallelism <= 8; parallelism++) {
+            int[] parallel = pixels.clone();
+            StackBlur.blur(parallel, width, height, 12, executor, parallelism);
+            assertArrayEquals("parallelism " + parallelism, serial, parallel);
+        }
+    }
+
+    @Test
+    public void radiusBelowOneKeepsPixels() {
+        int[] pixels = randomPixels(new Random(1), 16 * 16);
+        int[] blurred = pixels.clone();
+        StackBlur.blur(blurred, 16, 16, 0, null, 1);
+        assertArrayEquals(pixels, blurred);
+    }
+
+    @Test
+    public void uniformImageStaysUniform() {
+        int[] pixels = new int[40 * 30];
+        Arrays.fill(pixels, 0x80C04020);
+        StackBlur.blur(pixels, 40, 30, 9, executor, 4);
+        for (int pixel : pixels)
+            assertEquals(0x80C04020, pixel);
+    }
+
+    static int[] randomPixels(Random random, int count) {
+        int[] pixels = new int[count];
+        for (int i = 0; i < count; i++)
+            pixels[i] = random.nextInt();
+        return pixels;
+    }
+
+    // Direct triangle-weighted average with clamped edges, one pass per direction
+    private static int[] naiveBlur(int[] pixels, int width, int height, int radius) {
+        int[] horizontal = new int[pixels.length];
+        for (int y = 0; y < height; y++)
+            for (int x = 0; x < width; x++)
+                horizontal[y * width + x] = naiveAverage(pixels, y * width, 1, width, x, radius);
+
+        int[] vertical = new int[pixels.length];
+        for (int x = 0; x < width; x++)
+            for (int y = 0; y < height; y++)
+                vertical[y * width + x] = naiveAverage(horizontal, x, width, height, y, radius);
+        return vertical;
+    }
+
+    private static int naiveAverage(int[] pixels, int offset, int stride, int length, int pos, int radius) {
+        long[] sums = new long[4];
+        for (int i = -radius; i <= radius; i++) {
+            int index = Math.min(Math.max(pos + i, 0), length - 1);
+            int pixel = pixels[offset + index * stride];
+            int weight = radius + 1 - Math.abs(i);
+            for (int c = 0; c < 4; c++)
+                sums[c] += ((pixel >>> (24 - c * 8)) & 0xff) * weight;
+        }
+
+        long divisor = (long) (radius + 1) * (radius + 1);
+        int result = 0;
+        for (int c = 0; c < 4; c++)
+            result |= (int) (sums[c] / divisor) << (24 - c * 8);
+        return result;
+    }
+}